@@ -0,0 +1,92 @@
+package com.cgm616.colden;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks writing bits to a BitOutputStream one at a time, in fields of
+ * different widths, and from a BitArray. Times are per value written.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BitOutputStreamBenchmark {
+    // The number of values written in each invocation
+    private static final int COUNT = 1 << 16;
+
+    @Param({ "1", "7", "13", "32" })
+    public int width;
+
+    // Random values, already masked to the width
+    private int[] values;
+    // The same values as single bits
+    private boolean[] bits;
+    // The same values packed into a BitArray
+    private BitArray array;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(112);
+        this.values = new int[COUNT];
+        this.bits = new boolean[COUNT];
+        this.array = new BitArray();
+
+        int mask = this.width == 32 ? -1 : (1 << this.width) - 1;
+        for (int i = 0; i < COUNT; i++) {
+            this.values[i] = random.nextInt() & mask;
+            this.bits[i] = (this.values[i] & 1) == 1;
+            this.array.pushBits(this.values[i], this.width);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long writeBits() throws Exception {
+        Inputs.Sink sink = new Inputs.Sink();
+        BitOutputStream out = new BitOutputStream(sink);
+        for (int value : this.values) {
+            out.writeBits(value, this.width);
+        }
+        out.close();
+        return sink.count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long writeBoolean() throws Exception {
+        // Doesn't depend on the width, but it's cheap enough to run for each
+        Inputs.Sink sink = new Inputs.Sink();
+        BitOutputStream out = new BitOutputStream(sink);
+        for (boolean bit : this.bits) {
+            out.write(bit);
+        }
+        out.close();
+        return sink.count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long appendBits() throws Exception {
+        Inputs.Sink sink = new Inputs.Sink();
+        BitOutputStream out = new BitOutputStream(sink);
+        out.appendBits(this.array);
+        out.close();
+        return sink.count;
+    }
+}
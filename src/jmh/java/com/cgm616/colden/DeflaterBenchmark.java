@@ -0,0 +1,100 @@
+package com.cgm616.colden;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A reference point for HuffmanBenchmark: java.util.zip compressing and
+ * expanding the same inputs. Level 1 is the fastest Deflater setting, and
+ * HUFFMAN_ONLY skips string matching, so it is the closest to what Colden does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeflaterBenchmark {
+    @Param({ "Macbeth.txt", "image.png", "repetitive.txt", "skewed-64K", "skewed-16M", "uniform-1M", "constant-1M" })
+    public String input;
+
+    @Param({ "huffman", "1", "6" })
+    public String level;
+
+    // The uncompressed input
+    private byte[] data;
+    // The input compressed at the level
+    private byte[] compressed;
+    // Scratch space for the output
+    private byte[] buffer = new byte[64 * 1024];
+
+    private Deflater deflater;
+    private Inflater inflater;
+
+    @Setup
+    public void setup() throws Exception {
+        this.data = Inputs.load(this.input);
+        if (this.level.equals("huffman")) {
+            this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            this.deflater.setStrategy(Deflater.HUFFMAN_ONLY);
+        } else {
+            this.deflater = new Deflater(Integer.parseInt(this.level));
+        }
+        this.inflater = new Inflater();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        this.deflater.setInput(this.data);
+        this.deflater.finish();
+        while (!this.deflater.finished()) {
+            int count = this.deflater.deflate(this.buffer);
+            bytes.write(this.buffer, 0, count);
+        }
+        this.compressed = bytes.toByteArray();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.deflater.end();
+        this.inflater.end();
+    }
+
+    @Benchmark
+    public long deflate() {
+        this.deflater.reset();
+        this.deflater.setInput(this.data);
+        this.deflater.finish();
+
+        long total = 0;
+        while (!this.deflater.finished()) {
+            total += this.deflater.deflate(this.buffer);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long inflate() throws Exception {
+        this.inflater.reset();
+        this.inflater.setInput(this.compressed);
+
+        long total = 0;
+        while (!this.inflater.finished()) {
+            total += this.inflater.inflate(this.buffer);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,124 @@
+package com.cgm616.colden;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks building a Huffman tree, compressing and expanding with it, and
+ * serializing it in both tree formats. Compare the compress and expand times
+ * with DeflaterBenchmark on the same inputs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HuffmanBenchmark {
+    @Param({ "Macbeth.txt", "image.png", "repetitive.txt", "skewed-64K", "skewed-16M", "uniform-1M", "constant-1M" })
+    public String input;
+
+    // The uncompressed input
+    private byte[] data;
+    // The byte frequencies of the input
+    private Histogram histogram;
+    // The tree built from the input
+    private Huffman tree;
+    // The input compressed with the tree
+    private byte[] compressed;
+    // The tree in each serialized format
+    private byte[] serialized;
+    private byte[] canonical;
+
+    @Setup
+    public void setup() throws Exception {
+        this.data = Inputs.load(this.input);
+        this.histogram = new Histogram();
+        this.histogram.add(this.data, 0, this.data.length);
+        this.tree = new Huffman(this.histogram);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bytes);
+        this.tree.compress(new ByteArrayInputStream(this.data), out, this.data.length);
+        out.close();
+        this.compressed = bytes.toByteArray();
+
+        this.serialized = this.tree.serialize();
+        this.canonical = this.tree.serializeCanonical();
+    }
+
+    @Benchmark
+    public Histogram count() {
+        Histogram histogram = new Histogram();
+        histogram.add(this.data, 0, this.data.length);
+        return histogram;
+    }
+
+    @Benchmark
+    public Huffman build() throws Exception {
+        return new Huffman(this.histogram);
+    }
+
+    @Benchmark
+    public Huffman buildFromStream() throws Exception {
+        // Counting and building together, the way a caller without a histogram would
+        return new Huffman(new ByteArrayInputStream(this.data));
+    }
+
+    @Benchmark
+    public long compress() throws Exception {
+        Inputs.Sink sink = new Inputs.Sink();
+        BitOutputStream out = new BitOutputStream(sink);
+        this.tree.compress(new ByteArrayInputStream(this.data), out, this.data.length);
+        out.close();
+        return sink.count;
+    }
+
+    @Benchmark
+    public long expand() throws Exception {
+        Inputs.Sink sink = new Inputs.Sink();
+        this.tree.expand(this.compressed, sink);
+        return sink.count;
+    }
+
+    @Benchmark
+    public long expandByTree() throws Exception {
+        // The bit-by-bit tree walk, to compare with the table decoder
+        Inputs.Sink sink = new Inputs.Sink();
+        this.tree.expandByTree(this.compressed, sink);
+        return sink.count;
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return this.tree.serialize();
+    }
+
+    @Benchmark
+    public byte[] serializeCanonical() {
+        return this.tree.serializeCanonical();
+    }
+
+    @Benchmark
+    public Huffman deserialize() throws Exception {
+        return Huffman.deserialize(this.serialized);
+    }
+
+    @Benchmark
+    public Huffman deserializeCanonical() throws Exception {
+        return Huffman.deserializeCanonical(this.canonical);
+    }
+}
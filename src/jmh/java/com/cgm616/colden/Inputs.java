@@ -0,0 +1,103 @@
+package com.cgm616.colden;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * The inputs shared by the benchmarks: the files in tests/ and generated data of
+ * different sizes and entropy. Benchmarks take the name of an input as a
+ * parameter, and run from the project directory so the test files can be found.
+ */
+public class Inputs {
+    /**
+     * This method loads or generates the input with the given name. Names ending
+     * in .txt or .png are read from tests/, and other names are a kind of
+     * generated data followed by its size
+     * 
+     * @param name The name of the input
+     * @return The data
+     * @exception IOException Thrown when a test file cannot be read
+     */
+    public static byte[] load(String name) throws IOException {
+        if (name.endsWith(".txt") || name.endsWith(".png")) {
+            return Files.readAllBytes(Paths.get("tests", name));
+        }
+
+        String[] parts = name.split("-");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Unknown input " + name);
+        }
+        int length = parseSize(parts[1]);
+
+        switch (parts[0]) {
+        case "skewed":
+            return skewed(length);
+        case "uniform":
+            return uniform(length);
+        case "constant":
+            return new byte[length];
+        default:
+            throw new IllegalArgumentException("Unknown input " + name);
+        }
+    }
+
+    // Parses sizes like 64K or 16M
+    private static int parseSize(String size) {
+        char unit = size.charAt(size.length() - 1);
+        int shift = unit == 'K' ? 10 : unit == 'M' ? 20 : 0;
+        String digits = shift == 0 ? size : size.substring(0, size.length() - 1);
+        return Integer.parseInt(digits) << shift;
+    }
+
+    /**
+     * This method creates data with a skewed distribution of byte values, roughly
+     * like text
+     * 
+     * @param length The number of bytes to create
+     * @return The data
+     */
+    public static byte[] skewed(int length) {
+        Random random = new Random(112);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            // Squaring a uniform number makes small values much more likely
+            double x = random.nextDouble();
+            data[i] = (byte) (x * x * 96);
+        }
+        return data;
+    }
+
+    /**
+     * This method creates random data, which can't be compressed
+     * 
+     * @param length The number of bytes to create
+     * @return The data
+     */
+    public static byte[] uniform(int length) {
+        byte[] data = new byte[length];
+        new Random(112).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * An output stream that throws away everything written to it, but counts the
+     * bytes so that the JIT can't skip the work of making them
+     */
+    public static class Sink extends OutputStream {
+        // The number of bytes written so far
+        public long count = 0;
+
+        @Override
+        public void write(int b) {
+            this.count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            this.count += len;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.cgm616.colden;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the Lzss front end, which can be compared with deflate at the
+ * same inputs in DeflaterBenchmark. The chain length is the main trade between
+ * speed and the size of the output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LzssBenchmark {
+    @Param({ "Macbeth.txt", "image.png", "repetitive.txt", "skewed-64K", "uniform-1M", "constant-1M" })
+    public String input;
+
+    @Param({ "8", "64", "256" })
+    public int chain;
+
+    // The uncompressed input
+    private byte[] data;
+    // The input compressed into one block
+    private byte[] block;
+
+    private Lzss lzss;
+
+    @Setup
+    public void setup() throws Exception {
+        this.data = Inputs.load(this.input);
+        this.lzss = new Lzss(Lzss.DEFAULT_WINDOW, this.chain);
+        this.block = this.lzss.encodeBlock(this.data, 0, Math.min(this.data.length, Lzss.BLOCK_SIZE));
+    }
+
+    @Benchmark
+    public byte[] encodeBlock() throws Exception {
+        return this.lzss.encodeBlock(this.data, 0, Math.min(this.data.length, Lzss.BLOCK_SIZE));
+    }
+
+    @Benchmark
+    public byte[] decodeBlock() throws Exception {
+        return Lzss.decodeBlock(this.block);
+    }
+
+    @Benchmark
+    public int compress() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(this.data.length);
+        this.lzss.compress(new ByteArrayInputStream(this.data), bytes);
+        return bytes.size();
+    }
+}
@@ -0,0 +1,271 @@
+package com.cgm616.colden;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An adaptive Huffman code, using the FGK algorithm. Instead of counting the
+ * whole input before building a tree, the tree starts empty and is updated
+ * after every symbol, in the same way by the compressor and the expander. So a
+ * stream can be compressed in one pass, with output starting right away, and
+ * without knowing its length or holding any of it in memory.
+ * 
+ * The tree starts with only the "not yet transmitted" (NYT) leaf. The first
+ * time a byte is seen, the code for the NYT leaf is written followed by the raw
+ * byte, and the NYT leaf is split to make room for it. After that, the byte has
+ * its own leaf. A stream ends with an extra END symbol, so the expander knows
+ * where to stop without a length up front.
+ * 
+ * The tree keeps the sibling property: when the nodes are numbered from the
+ * bottom of the tree to the top, their weights never go down, and siblings are
+ * numbered next to each other. Before a node's weight goes up, it is swapped
+ * with the highest-numbered node of the same weight, which keeps the property
+ * and the tree a Huffman tree.
+ */
+public class AdaptiveHuffman {
+    // The symbol that ends a stream, after the 256 byte values
+    private static final int END = 256;
+    // The number of symbols, and the number of bits used to send a new one
+    private static final int SYMBOLS = 257;
+    private static final int SYMBOL_BITS = 9;
+    // Every symbol plus the NYT leaf, and the internal nodes joining them
+    private static final int NODES = 2 * (SYMBOLS + 1) - 1;
+    // The root always has the highest number
+    private static final int ROOT = NODES - 1;
+
+    // The size of the chunks the input is read in and the output is written in
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    // For each node number: its weight, its parent, and its children (or -1 for a
+    // leaf). A leaf's symbol is in `symbol`, which is -1 for the NYT leaf
+    private long[] weight = new long[NODES];
+    private int[] parent = new int[NODES];
+    private int[] left = new int[NODES];
+    private int[] right = new int[NODES];
+    private int[] symbol = new int[NODES];
+    // The node number of each symbol's leaf, or -1 if it hasn't been seen yet
+    private int[] leaf = new int[SYMBOLS];
+    // The node number of the NYT leaf
+    private int nyt;
+
+    // Scratch space for the bits of a code, which are found from the leaf up
+    private boolean[] path = new boolean[NODES];
+
+    /**
+     * Class constructor that creates a tree that hasn't seen any symbols
+     */
+    public AdaptiveHuffman() {
+        for (int i = 0; i < SYMBOLS; i++) {
+            this.leaf[i] = -1;
+        }
+        this.nyt = ROOT;
+        this.parent[ROOT] = -1;
+        this.left[ROOT] = -1;
+        this.right[ROOT] = -1;
+        this.symbol[ROOT] = -1;
+    }
+
+    /**
+     * This method compresses a stream in one pass, ending it with the END symbol
+     * and padding it to a byte
+     * 
+     * @param input  The stream to compress, which is read until it ends
+     * @param output The stream to write the codes to
+     * @exception IOException Thrown when either stream fails
+     */
+    public static void compress(InputStream input, BitOutputStream output) throws IOException {
+        AdaptiveHuffman tree = new AdaptiveHuffman();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int read;
+        while ((read = input.read(chunk, 0, chunk.length)) != -1) {
+            for (int i = 0; i < read; i++) {
+                tree.encode((int) chunk[i] & 0xFF, output);
+            }
+        }
+        tree.encode(END, output);
+        output.flush();
+    }
+
+    /**
+     * This method expands a stream written by compress(), stopping at its END
+     * symbol
+     * 
+     * @param input  The stream to read the codes from
+     * @param output The stream to write the expanded data to
+     * @exception IOException Thrown when either stream fails, or when the input
+     *                        ends before the END symbol
+     */
+    public static void expand(BitInputStream input, OutputStream output) throws IOException {
+        AdaptiveHuffman tree = new AdaptiveHuffman();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int length = 0;
+
+        int value;
+        while ((value = tree.decode(input)) != END) {
+            chunk[length] = (byte) value;
+            length += 1;
+            if (length == chunk.length) {
+                output.write(chunk, 0, length);
+                length = 0;
+            }
+        }
+        output.write(chunk, 0, length);
+    }
+
+    /**
+     * This method writes the code for a symbol, and then updates the tree
+     * 
+     * @param value  The symbol, a byte value from 0 to 255 or END
+     * @param output The stream to write to
+     * @exception IOException Thrown when the stream cannot be written
+     */
+    void encode(int value, BitOutputStream output) throws IOException {
+        // A symbol that hasn't been seen is sent as the NYT code and then in full
+        boolean seen = this.leaf[value] != -1;
+        int node = seen ? this.leaf[value] : this.nyt;
+
+        // Find the path from the leaf up, and write it from the root down
+        int depth = 0;
+        while (node != ROOT) {
+            int up = this.parent[node];
+            this.path[depth] = this.right[up] == node;
+            depth += 1;
+            node = up;
+        }
+        for (int i = depth - 1; i >= 0; i--) {
+            output.write(this.path[i]);
+        }
+
+        if (!seen) {
+            output.writeBits(value, SYMBOL_BITS);
+        }
+        update(value);
+    }
+
+    /**
+     * This method reads the code for a symbol, and then updates the tree
+     * 
+     * @param input The stream to read from
+     * @return The symbol, a byte value from 0 to 255 or END
+     * @exception IOException Thrown when the stream ends in the middle of a code,
+     *                        or when a new symbol is invalid
+     */
+    int decode(BitInputStream input) throws IOException {
+        int node = ROOT;
+        while (this.left[node] != -1) {
+            node = input.readBit() ? this.right[node] : this.left[node];
+        }
+
+        int value;
+        if (node == this.nyt) {
+            value = input.readBits(SYMBOL_BITS);
+            if (value >= SYMBOLS || this.leaf[value] != -1) {
+                throw new IOException("The compressed data has an invalid new symbol");
+            }
+        } else {
+            value = this.symbol[node];
+        }
+
+        update(value);
+        return value;
+    }
+
+    /**
+     * This method counts one more of a symbol, reshaping the tree so that it stays
+     * a Huffman tree
+     * 
+     * @param value The symbol that was just coded
+     */
+    private void update(int value) {
+        int node;
+        if (this.leaf[value] == -1) {
+            // Split the NYT leaf into a new NYT leaf and a leaf for the symbol, which
+            // take the next two numbers down
+            int split = this.nyt;
+            int newLeaf = split - 1;
+            int newNyt = split - 2;
+
+            this.left[split] = newNyt;
+            this.right[split] = newLeaf;
+            this.symbol[split] = -1;
+
+            makeLeaf(newLeaf, split, value);
+            this.leaf[value] = newLeaf;
+            makeLeaf(newNyt, split, -1);
+            this.nyt = newNyt;
+
+            node = newLeaf;
+        } else {
+            node = this.leaf[value];
+        }
+
+        // Walk up to the root, adding one to every node on the way
+        while (node != -1) {
+            // Find the highest-numbered node with the same weight. Weights never go
+            // down as the numbers go up, so they are all right above this one
+            int leader = node;
+            while (leader < ROOT && this.weight[leader + 1] == this.weight[node]) {
+                leader += 1;
+            }
+
+            // Take its place, unless that would swap a node with its own parent
+            if (leader != node && leader != this.parent[node]) {
+                swap(node, leader);
+                node = leader;
+            }
+
+            this.weight[node] += 1;
+            node = this.parent[node];
+        }
+    }
+
+    // Sets up a node as a leaf with no weight
+    private void makeLeaf(int node, int up, int value) {
+        this.weight[node] = 0;
+        this.parent[node] = up;
+        this.left[node] = -1;
+        this.right[node] = -1;
+        this.symbol[node] = value;
+    }
+
+    /**
+     * This method swaps two subtrees of the same weight. The numbers stay in the
+     * same places in the tree, and the subtrees move between them
+     * 
+     * @param a The number of one subtree's root
+     * @param b The number of the other subtree's root
+     */
+    private void swap(int a, int b) {
+        long weight = this.weight[a];
+        this.weight[a] = this.weight[b];
+        this.weight[b] = weight;
+
+        int left = this.left[a];
+        this.left[a] = this.left[b];
+        this.left[b] = left;
+
+        int right = this.right[a];
+        this.right[a] = this.right[b];
+        this.right[b] = right;
+
+        int value = this.symbol[a];
+        this.symbol[a] = this.symbol[b];
+        this.symbol[b] = value;
+
+        adopt(a);
+        adopt(b);
+    }
+
+    // Points whatever is at a node number back at that number
+    private void adopt(int node) {
+        if (this.left[node] != -1) {
+            this.parent[this.left[node]] = node;
+            this.parent[this.right[node]] = node;
+        } else if (this.symbol[node] != -1) {
+            this.leaf[this.symbol[node]] = node;
+        } else {
+            this.nyt = node;
+        }
+    }
+}
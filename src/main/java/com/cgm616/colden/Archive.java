@@ -0,0 +1,289 @@
+package com.cgm616.colden;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * An archive holding many compressed files. Any entry can be found in the
+ * directory at the end of the archive and expanded on its own, without reading
+ * the entries before it. Archives are written with ArchiveWriter.
+ * 
+ * An archive starts with ARCHIVE_MAGIC, followed by each entry's data, which is
+ * the body of a compressed file without its header or index: blocks that each
+ * store their own tree, followed by the empty block that ends them. Then comes
+ * the directory: the number of entries as an int, and then for each entry the
+ * length of its UTF-8 name as a short, the name, and the entry's offset,
+ * compressed length and expanded length as longs. The last 12 bytes are the
+ * offset of the directory as a long and ARCHIVE_MAGIC again.
+ */
+public class Archive implements Closeable {
+    // The bytes at the start and end of every archive. One more than a single
+    // file's magic number, so the two can't be mixed up
+    public static final byte[] ARCHIVE_MAGIC = { 0x31, 0x41, 0x59, 0x27 };
+
+    // The number of bytes in an entry of the directory, not counting its name
+    private static final int ENTRY_BYTES = 2 + 3 * 8;
+    // The number of bytes in the trailer
+    private static final int TRAILER_BYTES = 8 + 4;
+
+    // The archive file
+    private FileChannel channel;
+    // Every entry, in the order they were written
+    private List<ArchiveEntry> entries;
+    // The entries by name
+    private Map<String, ArchiveEntry> names;
+
+    /**
+     * Class constructor that opens an archive and reads its directory
+     * 
+     * @param file The archive to open
+     * @exception IOException Thrown when the file cannot be read, or when it isn't
+     *                        a valid archive
+     */
+    public Archive(Path file) throws IOException {
+        this.channel = FileChannel.open(file);
+        try {
+            this.entries = readDirectory(this.channel);
+        } catch (IOException e) {
+            this.channel.close();
+            throw e;
+        }
+
+        this.names = new HashMap<>();
+        for (ArchiveEntry entry : this.entries) {
+            this.names.put(entry.getName(), entry);
+        }
+    }
+
+    /**
+     * This method returns every entry in the archive
+     * 
+     * @return The entries, in the order they were written
+     */
+    public List<ArchiveEntry> getEntries() {
+        return Collections.unmodifiableList(this.entries);
+    }
+
+    /**
+     * This method finds an entry by its name
+     * 
+     * @param name The name of the entry
+     * @return The entry, or null if there isn't one with that name
+     */
+    public ArchiveEntry getEntry(String name) {
+        return this.names.get(name);
+    }
+
+    /**
+     * This method expands one entry. Only that entry's data is read, and many
+     * entries can be expanded at once from different threads
+     * 
+     * @param entry The entry to expand
+     * @param out   The stream to write the expanded data to
+     * @exception Exception Thrown when the entry is malformed, or when it doesn't
+     *                      expand to the length in the directory
+     */
+    public void extract(ArchiveEntry entry, OutputStream out) throws Exception {
+        CountingOutputStream counted = new CountingOutputStream(out);
+        try (BitInputStream in = new BitInputStream(
+                new ChannelInputStream(this.channel, entry.getOffset(), entry.getCompressedLength()))) {
+            Artifact.forBody().expand(in, counted);
+        }
+
+        if (counted.getCount() != entry.getLength()) {
+            throw new Exception("Entry " + entry.getName() + " expanded to " + counted.getCount()
+                    + " bytes instead of " + entry.getLength());
+        }
+    }
+
+    /**
+     * This method expands one entry into a file
+     * 
+     * @param entry  The entry to expand
+     * @param output The file to write to, which is replaced if it exists
+     * @exception Exception Thrown when the entry is malformed, or when the file
+     *                      cannot be written
+     */
+    public void extract(ArchiveEntry entry, Path output) throws Exception {
+        try (OutputStream out = new ChannelOutputStream(output)) {
+            extract(entry, out);
+        }
+    }
+
+    /**
+     * This method expands every entry into a directory, all at once on a pool of
+     * threads. Directories in the entries' names are created as needed
+     * 
+     * @param directory The directory to expand into
+     * @param pool      The pool to expand the entries on
+     * @exception Exception Thrown when an entry is malformed or has a name that
+     *                      would leave the directory, or when a file cannot be
+     *                      written
+     */
+    public void extractAll(Path directory, ForkJoinPool pool) throws Exception {
+        // Check every name before writing anything
+        List<Path> outputs = new ArrayList<>();
+        for (ArchiveEntry entry : this.entries) {
+            outputs.add(outputFor(directory, entry.getName()));
+        }
+
+        List<ForkJoinTask<Void>> tasks = new ArrayList<>();
+        try {
+            for (int i = 0; i < this.entries.size(); i++) {
+                ArchiveEntry entry = this.entries.get(i);
+                Path output = outputs.get(i);
+                tasks.add(pool.submit(() -> {
+                    Files.createDirectories(output.getParent());
+                    extract(entry, output);
+                    return null;
+                }));
+            }
+            for (ForkJoinTask<Void> task : tasks) {
+                BlockCompressor.join(task);
+            }
+        } finally {
+            // If an entry failed, don't keep working on the others
+            for (ForkJoinTask<Void> task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * This method works out where an entry goes in a directory, making sure that
+     * its name can't put it anywhere else
+     * 
+     * @param directory The directory to expand into
+     * @param name      The name of the entry
+     * @return The file to expand the entry into
+     * @exception Exception Thrown when the name is absolute or climbs out of the
+     *                      directory
+     */
+    private static Path outputFor(Path directory, String name) throws Exception {
+        Path root = directory.toAbsolutePath().normalize();
+        Path output = root.resolve(name).normalize();
+        if (!output.startsWith(root) || output.equals(root)) {
+            throw new Exception("Entry " + name + " would be written outside of " + directory);
+        }
+        return output;
+    }
+
+    /**
+     * This method writes the directory and the trailer that points to it
+     * 
+     * @param out     The stream to write to
+     * @param entries The entries, in the order they were written
+     * @param offset  The offset in the archive that the directory is being written
+     *                at
+     * @exception IOException Thrown when the stream cannot be written
+     */
+    static void writeDirectory(OutputStream out, List<ArchiveEntry> entries, long offset) throws IOException {
+        List<byte[]> names = new ArrayList<>();
+        int size = 4 + TRAILER_BYTES;
+        for (ArchiveEntry entry : entries) {
+            byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            size += ENTRY_BYTES + name.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            ArchiveEntry entry = entries.get(i);
+            buffer.putShort((short) names.get(i).length);
+            buffer.put(names.get(i));
+            buffer.putLong(entry.getOffset());
+            buffer.putLong(entry.getCompressedLength());
+            buffer.putLong(entry.getLength());
+        }
+        buffer.putLong(offset);
+        buffer.put(ARCHIVE_MAGIC);
+        out.write(buffer.array());
+    }
+
+    /**
+     * This method reads the directory from the end of an archive
+     * 
+     * @param channel The archive to read from
+     * @return The entries, in the order they were written
+     * @exception IOException Thrown when the file cannot be read, or when it isn't
+     *                        a valid archive
+     */
+    private static List<ArchiveEntry> readDirectory(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < ARCHIVE_MAGIC.length + 4 + TRAILER_BYTES) {
+            throw new IOException("File is too short to be an archive");
+        }
+
+        ByteBuffer start = BlockIndex.readFully(channel, ARCHIVE_MAGIC.length, 0);
+        ByteBuffer trailer = BlockIndex.readFully(channel, TRAILER_BYTES, fileSize - TRAILER_BYTES);
+        long offset = trailer.getLong();
+        for (byte b : ARCHIVE_MAGIC) {
+            if (start.get() != b || trailer.get() != b) {
+                throw new IOException("File is not an archive");
+            }
+        }
+
+        // The directory sits between the entries and the trailer
+        long end = fileSize - TRAILER_BYTES;
+        if (offset < ARCHIVE_MAGIC.length || offset > end - 4 || end - offset > Integer.MAX_VALUE) {
+            throw new IOException("Archive directory offset is out of range");
+        }
+        ByteBuffer directory = BlockIndex.readFully(channel, (int) (end - offset), offset);
+
+        int count = directory.getInt();
+        if (count < 0 || (long) count * ENTRY_BYTES > directory.remaining()) {
+            throw new IOException("Archive directory has the wrong number of entries");
+        }
+
+        List<ArchiveEntry> entries = new ArrayList<>(count);
+        Map<String, ArchiveEntry> names = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            if (directory.remaining() < ENTRY_BYTES) {
+                throw new IOException("Archive directory ends in the middle of an entry");
+            }
+            int nameLength = directory.getShort() & 0xFFFF;
+            if (directory.remaining() < nameLength + ENTRY_BYTES - 2) {
+                throw new IOException("Archive directory ends in the middle of an entry");
+            }
+            byte[] name = new byte[nameLength];
+            directory.get(name);
+
+            ArchiveEntry entry = new ArchiveEntry(new String(name, StandardCharsets.UTF_8), directory.getLong(),
+                    directory.getLong(), directory.getLong());
+
+            // Every entry has to fit between the magic number and the directory
+            if (entry.getOffset() < ARCHIVE_MAGIC.length || entry.getCompressedLength() < 0
+                    || entry.getOffset() > offset - entry.getCompressedLength() || entry.getLength() < 0) {
+                throw new IOException("Archive entry " + entry.getName() + " is out of range");
+            }
+            if (names.put(entry.getName(), entry) != null) {
+                throw new IOException("Archive has more than one entry named " + entry.getName());
+            }
+            entries.add(entry);
+        }
+
+        if (directory.hasRemaining()) {
+            throw new IOException("Archive directory has extra bytes at the end");
+        }
+        return entries;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
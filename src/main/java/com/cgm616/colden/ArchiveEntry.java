@@ -0,0 +1,72 @@
+package com.cgm616.colden;
+
+/**
+ * One file stored in an Archive: its name, where its compressed data is in the
+ * archive, and how long it is before and after compression.
+ */
+public class ArchiveEntry {
+    // The name of the entry, with / between directories
+    private String name;
+    // The offset in the archive of the entry's compressed data
+    private long offset;
+    // The number of bytes of compressed data
+    private long compressedLength;
+    // The number of bytes the entry expands to
+    private long length;
+
+    /**
+     * Class constructor that takes every part of the entry
+     * 
+     * @param name             The name of the entry
+     * @param offset           The offset in the archive of the compressed data
+     * @param compressedLength The number of bytes of compressed data
+     * @param length           The number of bytes the entry expands to
+     */
+    public ArchiveEntry(String name, long offset, long compressedLength, long length) {
+        this.name = name;
+        this.offset = offset;
+        this.compressedLength = compressedLength;
+        this.length = length;
+    }
+
+    /**
+     * This method returns the name of the entry
+     * 
+     * @return The name, with / between directories
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * This method returns where the entry's compressed data starts in the archive
+     * 
+     * @return The offset of the compressed data
+     */
+    public long getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * This method returns the size of the entry's compressed data
+     * 
+     * @return The number of bytes of compressed data
+     */
+    public long getCompressedLength() {
+        return this.compressedLength;
+    }
+
+    /**
+     * This method returns the size of the entry once it is expanded
+     * 
+     * @return The number of bytes the entry expands to
+     */
+    public long getLength() {
+        return this.length;
+    }
+
+    @Override
+    public String toString() {
+        return this.name + " (" + this.length + " -> " + this.compressedLength + " bytes)";
+    }
+}
@@ -0,0 +1,241 @@
+package com.cgm616.colden;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Writes an Archive of many files. Small files are compressed at the same time
+ * on a pool of threads and written in the order they were added. A large file
+ * is compressed straight into the archive instead of into memory, and its
+ * blocks are spread over the pool instead.
+ * 
+ * Each entry is only the body of a compressed file, without a header or an
+ * index, since the directory already says where it is and how long it is.
+ */
+public class ArchiveWriter implements Closeable {
+    // Files larger than this are compressed straight into the archive
+    public static final long DEFAULT_ENTRY_LIMIT = 16 << 20;
+
+    // The pool that entries are compressed on
+    private ForkJoinPool pool;
+    // The largest file compressed in memory
+    private long entryLimit;
+
+    // The archive being written, counting bytes so the offsets are known
+    private CountingOutputStream out;
+    // The entries written so far
+    private List<ArchiveEntry> entries = new ArrayList<>();
+    // The names of every entry added so far, written or not
+    private Set<String> names = new HashSet<>();
+
+    // Entries being compressed, in the order they were added
+    private ArrayDeque<ForkJoinTask<Compressed>> pending = new ArrayDeque<>();
+    private ArrayDeque<String> pendingNames = new ArrayDeque<>();
+
+    /**
+     * Class constructor that creates an archive, compressing entries on the common
+     * pool
+     * 
+     * @param archive The file to write, which is replaced if it exists
+     * @exception Exception Thrown when the file cannot be created
+     */
+    public ArchiveWriter(Path archive) throws Exception {
+        this(archive, ForkJoinPool.commonPool(), DEFAULT_ENTRY_LIMIT);
+    }
+
+    /**
+     * Class constructor that creates an archive, compressing entries on the given
+     * pool
+     * 
+     * @param archive The file to write, which is replaced if it exists
+     * @param pool    The pool to compress entries on
+     * @exception Exception Thrown when the file cannot be created
+     */
+    public ArchiveWriter(Path archive, ForkJoinPool pool) throws Exception {
+        this(archive, pool, DEFAULT_ENTRY_LIMIT);
+    }
+
+    /**
+     * Class constructor that also takes the size of the largest file compressed
+     * in memory
+     * 
+     * @param archive    The file to write, which is replaced if it exists
+     * @param pool       The pool to compress entries on
+     * @param entryLimit The size of the largest file compressed in memory
+     * @exception Exception Thrown when the file cannot be created
+     */
+    ArchiveWriter(Path archive, ForkJoinPool pool, long entryLimit) throws Exception {
+        this.pool = pool;
+        this.entryLimit = entryLimit;
+        this.out = new CountingOutputStream(new ChannelOutputStream(archive));
+        this.out.write(Archive.ARCHIVE_MAGIC);
+    }
+
+    /**
+     * This method adds a file to the archive. The file might not be compressed
+     * until later, so it shouldn't change until the archive is closed
+     * 
+     * @param name The name of the entry, with / between directories
+     * @param file The file to add
+     * @exception Exception Thrown when the name is invalid or already used, or
+     *                      when an earlier entry could not be compressed
+     */
+    public void add(String name, Path file) throws Exception {
+        int nameLength = name.getBytes(StandardCharsets.UTF_8).length;
+        if (nameLength == 0 || nameLength > 0xFFFF) {
+            throw new Exception("Archive entry names must be between 1 and 65535 bytes long");
+        }
+        if (!this.names.add(name)) {
+            throw new Exception("Archive already has an entry named " + name);
+        }
+
+        long size = Files.size(file);
+        if (size > this.entryLimit) {
+            // Write everything before this file, and then compress it in place
+            while (!this.pending.isEmpty()) {
+                writePending();
+            }
+            writeLarge(name, file, size);
+            return;
+        }
+
+        // Keep a few entries waiting for each thread, without holding every file
+        // in memory
+        while (this.pending.size() >= 2 * this.pool.getParallelism()) {
+            writePending();
+        }
+        this.pending.add(this.pool.submit(() -> compress(file)));
+        this.pendingNames.add(name);
+    }
+
+    /**
+     * This method adds every file in a directory and its subdirectories, named by
+     * their paths inside the directory
+     * 
+     * @param directory The directory to add
+     * @exception Exception Thrown when the directory cannot be read, or when a
+     *                      file cannot be added
+     */
+    public void addDirectory(Path directory) throws Exception {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        for (Path file : files) {
+            // Use / no matter what the file system uses
+            List<String> parts = new ArrayList<>();
+            for (Path part : directory.relativize(file)) {
+                parts.add(part.toString());
+            }
+            add(String.join("/", parts), file);
+        }
+    }
+
+    /**
+     * This method compresses a small file in memory
+     * 
+     * @param file The file to compress
+     * @return The compressed file and its original length
+     * @exception Exception Thrown when the file cannot be read or compressed
+     */
+    private Compressed compress(Path file) throws Exception {
+        byte[] data = Files.readAllBytes(file);
+
+        // A small file fits in one block, so there's no point in a larger one
+        int blockSize = Math.max(1, Math.min(data.length, BlockCompressor.DEFAULT_BLOCK_SIZE));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new BlockCompressor(this.pool, blockSize).compressBody(new ByteArrayInputStream(data), bytes);
+        return new Compressed(data.length, bytes.toByteArray());
+    }
+
+    /**
+     * This method waits for the oldest pending entry and writes it
+     * 
+     * @exception IOException Thrown when the entry could not be compressed, or
+     *                        when the archive cannot be written
+     */
+    private void writePending() throws IOException {
+        String name = this.pendingNames.remove();
+        Compressed compressed;
+        try {
+            compressed = BlockCompressor.join(this.pending.remove());
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Entry " + name + " could not be compressed: " + e.getMessage(), e);
+        }
+
+        long offset = this.out.getCount();
+        this.out.write(compressed.bytes);
+        this.entries.add(new ArchiveEntry(name, offset, compressed.bytes.length, compressed.length));
+    }
+
+    /**
+     * This method compresses a large file straight into the archive
+     * 
+     * @param name The name of the entry
+     * @param file The file to compress
+     * @param size The size of the file
+     * @exception Exception Thrown when the file cannot be read or compressed, or
+     *                      when the archive cannot be written
+     */
+    private void writeLarge(String name, Path file, long size) throws Exception {
+        long offset = this.out.getCount();
+        try (InputStream in = new MappedInputStream(file)) {
+            new BlockCompressor(this.pool, BlockCompressor.DEFAULT_BLOCK_SIZE).compressBody(in, this.out);
+        }
+        this.entries.add(new ArchiveEntry(name, offset, this.out.getCount() - offset, size));
+    }
+
+    /**
+     * This method writes every pending entry and then the directory, and closes
+     * the archive
+     * 
+     * @exception IOException Thrown when an entry could not be compressed, or when
+     *                        the archive cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            while (!this.pending.isEmpty()) {
+                writePending();
+            }
+            Archive.writeDirectory(this.out, this.entries, this.out.getCount());
+        } finally {
+            // Stop work on any entries that will never be written
+            for (ForkJoinTask<Compressed> task : this.pending) {
+                task.cancel(false);
+            }
+            this.out.close();
+        }
+    }
+
+    // A file compressed in memory
+    private static class Compressed {
+        // The number of bytes before compression
+        private long length;
+        // The compressed body of the file
+        private byte[] bytes;
+
+        private Compressed(long length, byte[] bytes) {
+            this.length = length;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -1,16 +1,56 @@
 package com.cgm616.colden;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
 
 /**
  * Represents a file (an "Artifact") that is output or consumed by the program.
  * Basically, this class handles everything related to file formatting and
  * construction.
+ * 
+ * Files are read as a stream: the header is parsed from the start of the file,
+ * and the body that follows is left in the stream to be expanded as it is read,
+ * so no file ever needs to fit in memory.
+ * 
+ * A file's body is either one stream of codes, or a series of blocks that were
+ * each compressed on their own. Every block starts with the number of bytes in
+ * it as an int, followed by those bytes: the CRC32C checksum of the data the
+ * block expands to as an int, the block's own tree (if the blocks don't share
+ * the tree in the header), padded to a byte, and then the block's data
+ * compressed by Huffman.compress(). A block with a length of 0 ends the
+ * body, and it is followed by an index of where every block starts (see
+ * BlockIndex), so that blocks can be expanded in parallel.
+ * 
+ * A file can also be compressed with an AdaptiveHuffman code, which needs no
+ * tree in the header. Its body is a single stream of codes that ends itself.
+ * 
+ * Or, a file can be compressed with a ContextHuffman model, which is stored in
+ * the header in place of the tree. Its body is laid out like a file without
+ * blocks: the number of bytes, and then one stream of codes.
+ * 
+ * A file can also have its repeated strings replaced by Lzss before they are
+ * Huffman coded, or have its blocks transformed by BlockSort. The body is a
+ * series of blocks like above, but each block is laid out by Lzss or BlockSort
+ * and holds its own trees, so there is none in the header and no index. These
+ * blocks start with the checksum of their data too.
+ * 
+ * The checksums are found while each block is compressed, on the same thread,
+ * and checked as each chunk of a block is expanded, so they cost very little.
+ * 
+ * Small files can leave the tree out and name a pretrained tree from a
+ * TreeRegistry instead. The flags are followed by the tree's ID in 16 bits. The
+ * body is the number of bytes in the data, 7 bits to a byte with the lowest bits
+ * first and the top bit set on every byte but the last, and then one stream of
+ * codes. There are no markers, and the length is usually one or two bytes, to
+ * keep small files small.
  */
 public class Artifact {
     // The magic number at the start of every file (coincidentally, also the first 8
@@ -19,167 +59,854 @@ public class Artifact {
     // The marker byte between the header and the body
     public static final byte MARKER = (byte) 0xFF;
 
-    // The bytes that make up this file
-    protected byte[] bytes;
-    // The index of first byte of the three marker bytes
-    protected int markerIndex;
+    // The flags byte, which follows the magic number, describes how the rest of the
+    // file is laid out. Its top four bits are the mode, which says how the body was
+    // compressed, and its bottom four bits are flags that only a Huffman body can
+    // set. The modes can't be combined, so each is a number rather than a bit, and
+    // a new one only needs the next number
+    public static final int MODE = 0xF0;
+    // The mode of a body compressed with the tree in the header, or with a tree in
+    // each block
+    public static final byte HUFFMAN = 0x00;
+    // The mode of a body compressed with an adaptive code. There is no tree in the
+    // header
+    public static final byte ADAPTIVE = 0x10;
+    // The mode of a body compressed with the ContextHuffman model that the header
+    // holds instead of a tree
+    public static final byte CONTEXT = 0x20;
+    // The mode of a body made of Lzss blocks. There is no tree in the header
+    public static final byte LZSS = 0x30;
+    // The mode of a body made of BlockSort blocks. There is no tree in the header
+    public static final byte BLOCK_SORT = 0x40;
+    // The mode of a body compressed with a pretrained tree, which the header names
+    // by its ID instead of storing it
+    public static final byte PRESET = 0x50;
+
+    // When this flag is set, the tree in the header is stored in its canonical form
+    // as code lengths. Otherwise, the whole shape is stored
+    public static final byte CANONICAL = 0x01;
+    // When this flag is set, the body is split into blocks
+    public static final byte BLOCKS = 0x02;
+    // When this flag is set along with BLOCKS, each block stores its own tree and
+    // there is no tree in the header
+    public static final byte BLOCK_TREES = 0x04;
+    // When this flag is set along with BLOCKS, the body is followed by an index of
+    // the blocks
+    public static final byte INDEX = 0x08;
+
+    // The flags read from the header
+    protected byte flags;
+    // The tree deserialized from the header, or null if each block has its own
+    protected Huffman tree;
+    // The context model deserialized from the header, or null if there is a tree
+    protected ContextHuffman context;
+    // The ID of the pretrained tree the header names, or -1 if it doesn't name one
+    protected int treeId = -1;
+
+    /**
+     * Private class constructor that takes the parts of a parsed header
+     * 
+     * @param flags   The flags byte of the header
+     * @param tree    The tree stored in the header
+     * @param context The context model stored in the header
+     */
+    private Artifact(byte flags, Huffman tree, ContextHuffman context) {
+        this.flags = flags;
+        this.tree = tree;
+        this.context = context;
+    }
 
     /**
-     * Private class constructor that takes an array and an index to the first byte
-     * of the header end marker. This is private because it can be easily misused,
-     * especially if the wrong marker index is given
+     * This method returns the Artifact for a body written on its own by
+     * BlockCompressor.compressBody(), which has no header to read one from: blocks
+     * that each store their own canonical tree, with no index
      * 
-     * @param bytes       The array of information that make up the file
-     * @param markerIndex The index into bytes that points to the first marker byte
+     * @return The Artifact that can expand the body
      */
-    private Artifact(byte[] bytes, int markerIndex) {
-        this.bytes = bytes;
-        this.markerIndex = markerIndex;
+    static Artifact forBody() {
+        return new Artifact((byte) (BLOCKS | BLOCK_TREES | CANONICAL), null, null);
     }
 
     /**
-     * This method takes in an array of bytes and interprets it as a file,
-     * processing it and making it accessible to consumers as an instance of this
-     * class
+     * This method reads and parses the header of a file from a stream. The stream
+     * is left at the start of the body, ready for the tree to expand it
      * 
-     * @param bytes The array of information that make up the file
-     * @return The Artifact that has parsed this file
-     * @exception Exception Thrown when the input does not represent a valid file
+     * @param in The stream to read the file from, positioned at its start
+     * @return The Artifact that has parsed this header
+     * @exception Exception Thrown when the input does not start with a valid
+     *                      header
      */
-    public static Artifact fromBytes(byte[] bytes) throws Exception {
-        // Make sure that the input data is at least the minimum length for a compressed
-        // file of this type
-        // No artifact should ever be less than 10 bytes, which is the minimum
-        // due to the magic number (2), the version (2), the tree (min 2), the header
-        // end marker (3), and the compressed file (min 1).
-        if (bytes.length <= 10) {
-            // If it isn't, throw an exception
+    public static Artifact readHeader(BitInputStream in) throws Exception {
+        return readHeader(in, null);
+    }
+
+    /**
+     * This method reads and parses the header of a file from a stream, looking up
+     * a pretrained tree in a registry if the header names one. The stream is left
+     * at the start of the body, ready for the tree to expand it
+     * 
+     * @param in       The stream to read the file from, positioned at its start
+     * @param registry The registry holding pretrained trees, or null to use the
+     *                 default one
+     * @return The Artifact that has parsed this header
+     * @exception Exception Thrown when the input does not start with a valid
+     *                      header, or names a tree that isn't in the registry
+     */
+    public static Artifact readHeader(BitInputStream in, TreeRegistry registry) throws Exception {
+        // Make sure the file starts with the magic number
+        byte[] magic = new byte[MAGIC.length];
+        for (int i = 0; i < magic.length; i++) {
+            int data = in.read();
+            if (data == -1) {
+                throw new Exception("Not enough bytes to parse file");
+            }
+            magic[i] = (byte) data;
+        }
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new Exception("File does not start with the magic number");
+        }
+
+        // Read the flags, which say how the tree is stored
+        int flags = in.read();
+        if (flags == -1) {
             throw new Exception("Not enough bytes to parse file");
         }
 
-        // Try to find the marker bytes between the header and the body. To do this, we
-        // iterate through the input, starting at the 5th element (the first four are
-        // the magic number) and stopping when the marker is found
-        int index = 4;
-        while (true) {
-            // If the input is not long enough to make the following check of the next two
-            // bytes, the file is improperly constructed
-            if (index + 2 >= bytes.length) {
-                // This should occur when the marker never exists, so we throw an exception
+        // The mode has to be one that exists, and only a Huffman body can set the
+        // other flags. Blocks can only have their own trees or an index when there
+        // are blocks
+        int mode = flags & MODE;
+        if (mode > PRESET) {
+            throw new Exception("File header has an unknown mode");
+        }
+        if (mode != HUFFMAN && (flags & ~MODE) != 0) {
+            throw new Exception("File header has invalid flags");
+        }
+        if ((flags & (BLOCK_TREES | INDEX)) != 0 && (flags & BLOCKS) == 0) {
+            throw new Exception("File header has invalid flags");
+        }
+
+        // A pretrained tree is named by its ID, and there is no marker after it
+        if (mode == PRESET) {
+            int id = in.readBits(16);
+            Huffman tree = (registry == null ? TreeRegistry.getDefault() : registry).get(id);
+            Artifact artifact = new Artifact((byte) flags, tree, null);
+            artifact.treeId = id;
+            return artifact;
+        }
+
+        // Deserialize the tree, which consumes exactly its own bits, and skip the
+        // padding after it. If each block has its own tree or the body isn't coded
+        // with a Huffman tree, there is none here
+        Huffman tree = null;
+        ContextHuffman context = null;
+        if (mode == CONTEXT) {
+            context = ContextHuffman.deserialize(in);
+        } else if (mode == HUFFMAN && (flags & BLOCK_TREES) == 0) {
+            tree = readTree(in, (byte) flags);
+            in.alignToByte();
+        }
+
+        // The tree should be followed by the three marker bytes between the header and
+        // the body. If it isn't, the file is improperly constructed
+        for (int i = 0; i < 3; i++) {
+            if (in.read() != ((int) MARKER & 0xFF)) {
                 throw new Exception("File header end marker doesn't exist");
             }
+        }
 
-            // Check if the current byte could be the start of the marker
-            if (bytes[index] == (byte) MARKER) {
-                // If it could, check that all three bytes of the marker are present
-                if ((bytes[index + 1] == (byte) MARKER) && (bytes[index + 2] == (byte) MARKER)) {
-                    // If they are, the current index is the index of the markers, so we break and
-                    // set it that way
-                    break;
-                }
-            }
+        return new Artifact((byte) flags, tree, context);
+    }
+
+    /**
+     * This method checks whether the tree in the header is stored in its canonical
+     * form
+     * 
+     * @return Whether the tree is canonical
+     */
+    public boolean isCanonical() {
+        return (this.flags & CANONICAL) != 0;
+    }
+
+    /**
+     * This method checks whether the body is split into blocks
+     * 
+     * @return Whether the body has blocks
+     */
+    public boolean hasBlocks() {
+        return (this.flags & BLOCKS) != 0;
+    }
+
+    /**
+     * This method checks whether the body is followed by an index of its blocks
+     * 
+     * @return Whether the file has a block index
+     */
+    public boolean hasIndex() {
+        return (this.flags & INDEX) != 0;
+    }
+
+    /**
+     * This method checks whether each block stores its own tree
+     * 
+     * @return Whether the blocks have their own trees
+     */
+    public boolean hasBlockTrees() {
+        return (this.flags & BLOCK_TREES) != 0;
+    }
+
+    /**
+     * This method returns the mode of the file, which says how the body was
+     * compressed
+     * 
+     * @return One of HUFFMAN, ADAPTIVE, CONTEXT, LZSS, BLOCK_SORT or PRESET
+     */
+    public byte getMode() {
+        return (byte) (this.flags & MODE);
+    }
+
+    /**
+     * This method checks whether the body is compressed with an adaptive code
+     * 
+     * @return Whether the code is adaptive
+     */
+    public boolean isAdaptive() {
+        return getMode() == ADAPTIVE;
+    }
+
+    /**
+     * This method checks whether the body is compressed with a context model
+     * 
+     * @return Whether the header holds a context model
+     */
+    public boolean isContextModeled() {
+        return getMode() == CONTEXT;
+    }
+
+    /**
+     * This method checks whether repeated strings in the body were replaced by
+     * Lzss before Huffman coding
+     * 
+     * @return Whether the body is made of Lzss blocks
+     */
+    public boolean isLzss() {
+        return getMode() == LZSS;
+    }
+
+    /**
+     * This method checks whether the blocks of the body were transformed by
+     * BlockSort before Huffman coding
+     * 
+     * @return Whether the body is made of BlockSort blocks
+     */
+    public boolean isBlockSorted() {
+        return getMode() == BLOCK_SORT;
+    }
+
+    /**
+     * This method returns the tree stored in the header
+     * 
+     * @return The tree used to compress the body, or null if each block has its
+     *         own, the code is adaptive, or the header holds a context model
+     */
+    public Huffman getTree() {
+        return this.tree;
+    }
+
+    /**
+     * This method returns the ID of the pretrained tree the header names
+     * 
+     * @return The ID, or -1 if the tree is stored in the header or there isn't one
+     */
+    public int getTreeId() {
+        return this.treeId;
+    }
+
+    /**
+     * This method returns the context model stored in the header
+     * 
+     * @return The model used to compress the body, or null if there isn't one
+     */
+    public ContextHuffman getContextModel() {
+        return this.context;
+    }
+
+    /**
+     * This method expands the body of a file, whatever its layout
+     * 
+     * @param in  The stream to read the body from, positioned just after the header
+     * @param out The stream to write the expanded data to
+     * @exception Exception Thrown when the body is malformed or ends early
+     */
+    public void expand(BitInputStream in, OutputStream out) throws Exception {
+        if (isAdaptive()) {
+            AdaptiveHuffman.expand(in, out);
+            return;
+        }
+        if (isContextModeled()) {
+            this.context.expand(in, out);
+            return;
+        }
+        if (getMode() == PRESET) {
+            long length = readLength(in);
+            this.tree.decodeTable().decode(in, out, length);
+            return;
+        }
+        if (isLzss()) {
+            Lzss.expand(in, out);
+            return;
+        }
+        if (isBlockSorted()) {
+            new BlockSort().expand(in, out);
+            return;
+        }
+        if (!hasBlocks()) {
+            this.tree.expand(in, out);
+            return;
+        }
+
+        // Expand each block in turn until the block that ends the file
+        byte[] block;
+        while ((block = readBlock(in)) != null) {
+            expandBlock(block, out);
+        }
+    }
+
+    /**
+     * This method expands one block read by readBlock()
+     * 
+     * @param block The bytes of the block
+     * @param out   The stream to write the expanded data to
+     * @exception Exception Thrown when the block is malformed
+     */
+    public void expandBlock(byte[] block, OutputStream out) throws Exception {
+        expandBlock(new ByteArrayInputStream(block), out);
+    }
+
+    /**
+     * This method expands one block, read from a stream holding just that block
+     * 
+     * @param block The stream holding the bytes of the block
+     * @param out   The stream to write the expanded data to
+     * @exception Exception Thrown when the block is malformed
+     */
+    public void expandBlock(InputStream block, OutputStream out) throws Exception {
+        // The stream holds just the block, so all of it is available from the start
+        long start = System.nanoTime();
+        long compressed = block.available();
+        BitInputStream in = new BitInputStream(block);
+        int expected = in.readInt();
+
+        // Use the block's own tree if it has one
+        Huffman tree = this.tree;
+        if (hasBlockTrees()) {
+            tree = readTree(in, this.flags);
+            in.alignToByte();
+        }
+
+        // Check each chunk as the tree writes it out, while it's still in the cache
+        CountingOutputStream counted = new CountingOutputStream(out);
+        CheckedOutputStream checked = new CheckedOutputStream(counted, new CRC32C());
+        tree.expand(in, checked);
+        checkChecksum(expected, (int) checked.getChecksum().getValue());
+
+        Metrics metrics = Metrics.getDefault();
+        metrics.record(Metrics.Stage.DECODE, counted.getCount(), start);
+        metrics.recordExpanded(compressed, counted.getCount());
+    }
+
+    /**
+     * This method expands one block held in a buffer into a new buffer, decoding
+     * straight from one to the other without going through a stream. Only blocks
+     * coded by Huffman can be expanded this way, not ones laid out by Lzss or
+     * BlockSort
+     * 
+     * @param block The buffer holding the bytes of the block, from its position to
+     *              its limit, which is moved past the block
+     * @return A buffer holding the expanded data, from 0 to its limit
+     * @exception Exception Thrown when the block is malformed or fails its checksum
+     */
+    public ByteBuffer expandBlock(ByteBuffer block) throws Exception {
+        return expandBlock(block, null, true).flip();
+    }
+
+    /**
+     * This method expands one block held in a buffer into the space left in
+     * another buffer, decoding straight from one to the other without going
+     * through a stream. Either buffer can be a view of a mapped file, so a block
+     * can be expanded from one file into another without the data being copied
+     * onto the heap. Only blocks coded by Huffman can be expanded this way
+     * 
+     * @param block The buffer holding the bytes of the block, from its position to
+     *              its limit, which is moved past the block
+     * @param dst   The buffer to expand the block into, which must have exactly as
+     *              much space left as the block expands to
+     * @exception Exception Thrown when the block is malformed, fails its checksum,
+     *                      or doesn't expand to the space left in the buffer
+     */
+    public void expandBlock(ByteBuffer block, ByteBuffer dst) throws Exception {
+        expandBlock(block, dst, false);
+    }
 
-            // Increment the index we are checking
-            index += 1;
+    /**
+     * This method expands one block held in a buffer, into a given buffer or into
+     * a new one on the heap
+     * 
+     * @param block    The buffer holding the bytes of the block
+     * @param dst      The buffer to expand the block into, or null for a new one
+     * @param allocate Whether to expand into a new buffer
+     * @return The buffer the block was expanded into, positioned after the data
+     * @exception Exception Thrown when the block is malformed, fails its checksum,
+     *                      or doesn't fit the buffer
+     */
+    private ByteBuffer expandBlock(ByteBuffer block, ByteBuffer dst, boolean allocate) throws Exception {
+        long start = System.nanoTime();
+        long compressed = block.remaining();
+        int expected = block.getInt();
+
+        // Use the block's own tree if it has one. The tree is read through a stream
+        // over the buffer, which reads ahead, so the buffer is moved back to just
+        // after the byte the tree ends in
+        Huffman tree = this.tree;
+        if (hasBlockTrees()) {
+            BitInputStream in = new BitInputStream(new ByteBufferInputStream(block));
+            tree = readTree(in, this.flags);
+            in.alignToByte();
+            block.position(block.position() - (in.available() - block.remaining()));
+        }
+
+        long length = block.getLong();
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Block has an invalid length");
+        }
+        if (allocate) {
+            dst = ByteBuffer.allocate((int) length);
+        } else if (dst.remaining() != length) {
+            throw new IOException("Block expands to a different length than the space for it");
+        }
+
+        // Check the checksum of just the part of the buffer the block was decoded into
+        int begin = dst.position();
+        tree.decode(block, dst);
+        ByteBuffer decoded = dst.duplicate();
+        decoded.flip().position(begin);
+        CRC32C crc = new CRC32C();
+        crc.update(decoded);
+        checkChecksum(expected, (int) crc.getValue());
+
+        Metrics metrics = Metrics.getDefault();
+        metrics.record(Metrics.Stage.DECODE, length, start);
+        metrics.recordExpanded(compressed, length);
+        return dst;
+    }
+
+    /**
+     * This method expands one block read by readBlock() into an array, whichever
+     * kind of block it is
+     * 
+     * @param block The bytes of the block
+     * @return The data the block expands to
+     * @exception Exception Thrown when the body isn't made of blocks, or the block
+     *                      is malformed
+     */
+    public byte[] decodeBlock(byte[] block) throws Exception {
+        if (isLzss()) {
+            return Lzss.decodeBlock(block);
+        } else if (isBlockSorted()) {
+            return BlockSort.decodeBlock(block);
+        } else if (!hasBlocks()) {
+            throw new Exception("File is not split into blocks");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(block.length * 2);
+        expandBlock(block, bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * This method reads the next block of a file's body
+     * 
+     * @param in The stream to read from, positioned at the start of a block
+     * @return The bytes of the block, or null if it was the block that ends the
+     *         file
+     * @exception IOException Thrown when the stream ends in the middle of a block
+     */
+    public static byte[] readBlock(BitInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == 0) {
+            return null;
+        } else if (length < 0) {
+            throw new IOException("Block has a negative length");
         }
 
-        // Return a new Artifact constructed from the required parts
-        return new Artifact(bytes, index);
+        byte[] block = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = in.read(block, read, length - read);
+            if (count == -1) {
+                throw new EOFException("Reached the end of the stream while reading a block");
+            }
+            read += count;
+        }
+        return block;
     }
 
     /**
-     * This method takes in an a tree and a body and builds a file for outputting
+     * This method compresses part of a byte array into the bytes of a block
      * 
-     * @param tree The tree to serialize into the beginning
-     * @param body The compressed body
-     * @return The Artifact that contains this information
+     * @param data   The array holding the data
+     * @param offset The index of the first byte of the block
+     * @param length The number of bytes in the block
+     * @param shared The tree in the header to compress with, or null to build a
+     *               tree for the block and store it in the block
+     * @return The bytes of the block, to be written with writeBlock()
+     * @exception Exception Thrown when the tree cannot be built, or when the data
+     *                      has a byte that isn't in the shared tree
      */
-    public static Artifact build(Huffman tree, byte[] body) {
-        // Build the file header
-        byte[] header = buildHeader(tree);
+    public static byte[] encodeBlock(byte[] data, int offset, int length, Huffman shared) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length / 2 + 64);
+        writeInt(bytes, checksum(data, offset, length));
 
-        // Make a new array to hold the complete file info
-        byte[] ret = Arrays.copyOf(header, header.length + body.length);
+        // Build the block's own tree if there isn't a shared one, and store it next.
+        // Blocks always store their trees in the canonical form
+        Metrics metrics = Metrics.getDefault();
+        Huffman tree = shared;
+        if (tree == null) {
+            long start = System.nanoTime();
+            Histogram histogram = new Histogram();
+            histogram.add(data, offset, length);
+            metrics.record(Metrics.Stage.HISTOGRAM, length, start);
 
-        // Copy the body info into a new array
-        for (int i = 0; i < body.length; i++) {
-            ret[header.length + i] = body[i];
+            start = System.nanoTime();
+            tree = new Huffman(histogram);
+            metrics.record(Metrics.Stage.TREE, length, start);
+            metrics.recordTree(tree, histogram);
+            bytes.write(tree.serializeCanonical());
         }
 
-        // Create a new artifact from the data
-        return new Artifact(ret, header.length - 3);
+        long start = System.nanoTime();
+        BitOutputStream out = new BitOutputStream(bytes);
+        tree.compress(new ByteArrayInputStream(data, offset, length), out, length);
+        out.close();
+        metrics.record(Metrics.Stage.ENCODE, length, start);
+
+        return bytes.toByteArray();
     }
 
     /**
-     * This method takes in an a tree and builds a header
+     * This method compresses the bytes of a buffer, from its position to its
+     * limit, into a block with its own tree. It writes exactly what
+     * encodeBlock(byte[], int, int, Huffman) does, but codes straight from one
+     * buffer to the other, and the block is put in a direct buffer so that a
+     * channel can write it without copying it first
      * 
-     * @param tree The tree to serialize into the beginning
-     * @return The bytes of the header
+     * @param data The buffer holding the data, whose position isn't moved
+     * @return A direct buffer holding the bytes of the block, from 0 to its limit
+     * @exception Exception Thrown when the buffer has no bytes
      */
-    private static byte[] buildHeader(Huffman tree) {
-        // Serialize the tree
-        byte[] treeData = tree.serialize();
+    public static ByteBuffer encodeBlock(ByteBuffer data) throws Exception {
+        Metrics metrics = Metrics.getDefault();
+        int length = data.remaining();
 
-        // Write the magic number into the header
-        byte[] ret = Arrays.copyOf(Artifact.MAGIC, 4 + treeData.length + 3);
+        long start = System.nanoTime();
+        Histogram histogram = new Histogram();
+        histogram.add(data);
+        metrics.record(Metrics.Stage.HISTOGRAM, length, start);
 
-        // Write the data of the tree into the header
-        for (int i = 0; i < treeData.length; i++) {
-            ret[4 + i] = treeData[i];
+        start = System.nanoTime();
+        Huffman tree = new Huffman(histogram);
+        metrics.record(Metrics.Stage.TREE, length, start);
+        metrics.recordTree(tree, histogram);
+        byte[] serialized = tree.serializeCanonical();
+
+        // The counts give the exact number of bits the codes take up, so the block
+        // is allocated at its final size
+        long[] counts = histogram.getCounts();
+        int[] lengths = tree.getCodeLengths();
+        long bits = 0;
+        for (int v = 0; v < 256; v++) {
+            bits += counts[v] * lengths[v];
         }
 
-        // Add the header end markers
-        ret[ret.length - 1] = Artifact.MARKER;
-        ret[ret.length - 2] = Artifact.MARKER;
-        ret[ret.length - 3] = Artifact.MARKER;
+        start = System.nanoTime();
+        ByteBuffer block = ByteBuffer.allocateDirect(4 + serialized.length + 8 + (int) ((bits + 7) / 8));
+        CRC32C crc = new CRC32C();
+        crc.update(data.duplicate());
+        block.putInt((int) crc.getValue());
+        block.put(serialized);
+        block.putLong(length);
+        tree.encode(data.duplicate(), block);
+        metrics.record(Metrics.Stage.ENCODE, length, start);
 
-        // Return the header
-        return ret;
+        return block.flip();
     }
 
     /**
-     * This method returns the tree part of the file
+     * This method finds the CRC32C checksum of part of a byte array
      * 
-     * @return The bytes of the tree in the header
+     * @param data   The array holding the data
+     * @param offset The index of the first byte to check
+     * @param length The number of bytes to check
+     * @return The checksum
      */
-    public byte[] getSerializedTree() {
-        return Arrays.copyOfRange(this.bytes, 4, this.markerIndex);
+    static int checksum(byte[] data, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
     }
 
     /**
-     * This method returns the compressed body of the file
+     * This method compares the checksum stored in a block with the checksum of the
+     * data it expanded to
      * 
-     * @return The bytes of the body
+     * @param expected The checksum stored in the block
+     * @param actual   The checksum of the expanded data
+     * @exception IOException Thrown when the checksums don't match
      */
-    public byte[] getBody() {
-        return Arrays.copyOfRange(this.bytes, 3 + this.markerIndex, this.bytes.length);
+    static void checkChecksum(int expected, int actual) throws IOException {
+        if (expected != actual) {
+            throw new IOException(String.format("Block failed its checksum (expected %08x, found %08x)", expected,
+                    actual));
+        }
     }
 
     /**
-     * This method writes the file to a given path
+     * This method checks a whole file without writing out what it expands to.
+     * Every block's checksum is checked, so a file with blocks is verified from end
+     * to end. Other files can only be checked for being well formed
      * 
-     * @param path The path to write to
+     * @param in The stream to read the body from, positioned just after the header
+     * @return The number of bytes the file expands to
+     * @exception Exception Thrown when the body is malformed, ends early, or fails
+     *                      a checksum
      */
-    public void writeToPath(Path path) throws IOException {
-        writeBytes(path, this.bytes);
+    public long verify(BitInputStream in) throws Exception {
+        CountingOutputStream counted = new CountingOutputStream(OutputStream.nullOutputStream());
+        expand(in, counted);
+        return counted.getCount();
     }
 
     /**
-     * This method writes bytes to a given file
+     * This method writes a block created by encodeBlock() to a file
      * 
-     * @param path  The path to write to
-     * @param bytes The bytes to write
-     * @exception IOException Thrown when the file cannot be written
+     * @param out   The stream to write to
+     * @param block The bytes of the block
+     * @exception IOException Thrown when the stream cannot be written
      */
-    public static void writeBytes(Path path, byte[] bytes) throws IOException {
-        Files.write(path, bytes, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    public static void writeBlock(OutputStream out, byte[] block) throws IOException {
+        writeInt(out, block.length);
+        out.write(block);
     }
 
+    /**
+     * This method writes the empty block that ends a file's body
+     * 
+     * @param out The stream to write to
+     * @exception IOException Thrown when the stream cannot be written
+     */
+    public static void writeEnd(OutputStream out) throws IOException {
+        writeInt(out, 0);
+    }
+
+    /**
+     * This method writes a file header to a stream, storing the tree in whichever
+     * form is smaller. Trees with many values are almost always smaller in their
+     * canonical form, but the shape of a tree with only a few values can be a byte
+     * or two shorter
+     * 
+     * @param out  The stream to write to
+     * @param tree The tree to serialize into the header
+     * @exception IOException Thrown when the stream cannot be written
+     */
     public static void writeHeader(OutputStream out, Huffman tree) throws IOException {
+        writeHeader(out, tree, tree.serializeCanonical().length <= tree.serialize().length);
+    }
+
+    /**
+     * This method writes a file header to a stream
+     * 
+     * @param out       The stream to write to
+     * @param tree      The tree to serialize into the header
+     * @param canonical Whether to store the tree in its canonical form as code
+     *                  lengths, or as its full shape
+     * @exception IOException Thrown when the stream cannot be written
+     */
+    public static void writeHeader(OutputStream out, Huffman tree, boolean canonical) throws IOException {
+        writeHeader(out, canonical ? CANONICAL : 0, tree);
+    }
+
+    /**
+     * This method writes the header of a file whose body is split into blocks. The
+     * body must be followed by a BlockIndex
+     * 
+     * @param out    The stream to write to
+     * @param shared The tree every block is compressed with, or null if each block
+     *               stores its own tree
+     * @exception IOException Thrown when the stream cannot be written
+     */
+    public static void writeBlockHeader(OutputStream out, Huffman shared) throws IOException {
+        if (shared == null) {
+            writeHeader(out, BLOCKS | BLOCK_TREES | INDEX | CANONICAL, null);
+        } else {
+            boolean canonical = shared.serializeCanonical().length <= shared.serialize().length;
+            writeHeader(out, BLOCKS | INDEX | (canonical ? CANONICAL : 0), shared);
+        }
+    }
+
+    /**
+     * This method writes the header of a file that names a pretrained tree instead
+     * of storing one. The body is written by TreeRegistry.compress()
+     * 
+     * @param out The stream to write to
+     * @param id  The ID of the tree in a TreeRegistry
+     * @exception IOException Thrown when the stream cannot be written
+     */
+    public static void writePresetHeader(OutputStream out, int id) throws IOException {
+        out.write(Artifact.MAGIC);
+        out.write(PRESET);
+        out.write(id >>> 8);
+        out.write(id);
+    }
+
+    /**
+     * This method writes the header of a file whose body is compressed with
+     * AdaptiveHuffman.compress()
+     * 
+     * @param out The stream to write to
+     * @exception IOException Thrown when the stream cannot be written
+     */
+    public static void writeAdaptiveHeader(OutputStream out) throws IOException {
+        writeHeader(out, ADAPTIVE, null);
+    }
+
+    /**
+     * This method writes the header of a file whose body is compressed with
+     * ContextHuffman.compress()
+     * 
+     * @param out   The stream to write to
+     * @param model The context model to serialize into the header
+     * @exception IOException Thrown when the stream cannot be written
+     */
+    public static void writeContextHeader(OutputStream out, ContextHuffman model) throws IOException {
+        out.write(Artifact.MAGIC);
+        out.write(CONTEXT);
+        out.write(model.serialize());
+        out.write(Artifact.MARKER);
+        out.write(Artifact.MARKER);
+        out.write(Artifact.MARKER);
+    }
+
+    /**
+     * This method writes the header of a file whose body is compressed with
+     * Lzss.compress()
+     * 
+     * @param out The stream to write to
+     * @exception IOException Thrown when the stream cannot be written
+     */
+    public static void writeLzssHeader(OutputStream out) throws IOException {
+        writeHeader(out, LZSS, null);
+    }
+
+    /**
+     * This method writes the header of a file whose body is compressed with
+     * BlockSort.compress()
+     * 
+     * @param out The stream to write to
+     * @exception IOException Thrown when the stream cannot be written
+     */
+    public static void writeBlockSortHeader(OutputStream out) throws IOException {
+        writeHeader(out, BLOCK_SORT, null);
+    }
+
+    /**
+     * This method writes a file header with the given flags
+     * 
+     * @param out   The stream to write to
+     * @param flags The flags byte, which holds the mode and says how the tree is stored
+     * @param tree  The tree to serialize into the header, or null for none
+     * @exception IOException Thrown when the stream cannot be written
+     */
+    private static void writeHeader(OutputStream out, int flags, Huffman tree) throws IOException {
         out.write(Artifact.MAGIC);
-        out.write(tree.serialize());
+        out.write(flags);
+        if (tree != null) {
+            if ((flags & CANONICAL) != 0) {
+                out.write(tree.serializeCanonical());
+            } else {
+                out.write(tree.serialize());
+            }
+        }
         out.write(Artifact.MARKER);
         out.write(Artifact.MARKER);
         out.write(Artifact.MARKER);
     }
+
+    /**
+     * This method deserializes a tree in the form given by the flags
+     * 
+     * @param in    The stream to read the tree from
+     * @param flags The flags byte of the file
+     * @return The tree
+     * @exception Exception Thrown when the tree is malformed
+     */
+    private static Huffman readTree(BitInputStream in, byte flags) throws Exception {
+        if ((flags & CANONICAL) != 0) {
+            return Huffman.deserializeCanonical(in);
+        } else {
+            return Huffman.deserialize(in);
+        }
+    }
+
+    /**
+     * This method writes the length of the data in a file with a pretrained tree,
+     * using as few bytes as it can
+     * 
+     * @param out    The stream to write to
+     * @param length The number of bytes in the data
+     * @exception IOException Thrown when the stream cannot be written
+     */
+    static void writeLength(OutputStream out, long length) throws IOException {
+        while (length >= 0x80) {
+            out.write((int) (length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        out.write((int) length);
+    }
+
+    /**
+     * This method reads a length written by writeLength()
+     * 
+     * @param in The stream to read from
+     * @return The length
+     * @exception IOException Thrown when the stream ends, or the length doesn't
+     *                        fit in a long
+     */
+    static long readLength(BitInputStream in) throws IOException {
+        long length = 0;
+        for (int shift = 0; shift < 63; shift += 7) {
+            int data = in.read();
+            if (data == -1) {
+                throw new EOFException("Reached the end of the stream while reading a length");
+            }
+            length |= (long) (data & 0x7F) << shift;
+            if ((data & 0x80) == 0) {
+                return length;
+            }
+        }
+        throw new IOException("The compressed data has an invalid length");
+    }
+
+    /**
+     * This method writes an int to a stream, most significant byte first
+     * 
+     * @param out   The stream to write to
+     * @param value The int to write
+     * @exception IOException Thrown when the stream cannot be written
+     */
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
 }
@@ -1,21 +1,24 @@
 package com.cgm616.colden;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * A resizeable array of individual bits. They can be read one by one, in groups
- * of bytes, or in groups of ints. Each bit is individually indexed.
+ * of bytes, in groups of ints, or in any group of up to 64 bits. Each bit is
+ * individually indexed.
  * 
- * Used
- * https://stackoverflow.com/questions/4439595/how-to-create-a-sub-array-from-another-array-in-java
- * for creating subarrays
+ * The bits are packed into an array of longs, 64 to a word, from the most
+ * significant bit of each word to the least. Groups of bits are read and written
+ * a word at a time instead of bit by bit.
  */
 public class BitArray {
-    // The length of the array in bits
-    protected int bitLength;
+    // The length of the array in bits. It is a long so that indexing bits never
+    // overflows, even when there are more than 2^31 of them
+    protected long bitLength;
 
-    // The array of bytes that backs the BitArray and holds its data
-    protected ArrayList<Byte> back;
+    // The array of words that backs the BitArray and holds its data. Every bit past
+    // bitLength is always 0, so new bits can be added with a bitwise-or
+    protected long[] words;
 
     /**
      * Class constructor of the BitArray, initializing the array with a default
@@ -31,8 +34,8 @@ public class BitArray {
      * @param capacity The initial capacity of the array
      */
     public BitArray(int capacity) {
-        // Construct a new ArrayList that has the required capacity
-        this.back = new ArrayList<Byte>((capacity / 8) + 1);
+        // Construct a new array of words that has the required capacity
+        this.words = new long[Math.max(1, (capacity + 63) / 64)];
         this.bitLength = 0;
     }
 
@@ -42,31 +45,21 @@ public class BitArray {
      * @param other The BitArray to clone
      */
     public BitArray(BitArray other) {
-        // Set the new bitLength to the other's
         this.bitLength = other.bitLength;
-        // Create a new arraylist to back this instance with the same capacity as the
-        // other one
-        ArrayList<Byte> newBack = new ArrayList<Byte>(other.back.size());
-        // For each byte in the other's backing array, add that byte to the new array,
-        // making sure that a new Byte object is created (deep copy)
-        for (Byte b : other.back) {
-            newBack.add(new Byte((byte) b));
-        }
-        // Set the backing array to the new one just created
-        this.back = newBack;
+        this.words = other.words.clone();
     }
 
     /**
-     * Private class constructor of BitArray that takes an ArrayList of Bytes and a
+     * Private class constructor of BitArray that takes an array of words and a
      * bitLength. This method has a great potentional for being misused, so it is
      * private
      * 
-     * @param array     The array of bits to back this collection with. It cannot be
+     * @param words     The array of bits to back this collection with. It cannot be
      *                  tampered with outside of this class
      * @param bitLength The number of valid bits in the array
      */
-    private BitArray(ArrayList<Byte> array, int bitLength) {
-        this.back = array;
+    private BitArray(long[] words, long bitLength) {
+        this.words = words;
         this.bitLength = bitLength;
     }
 
@@ -77,19 +70,41 @@ public class BitArray {
      * @param bitIndex The index of the desired bit
      * @return The value of the bit
      */
-    public boolean get(int bitIndex) {
-        // Determine which byte in the backing ArrayList contains the bit
-        int byteIndex = bitIndex / 8;
-        // Figure out which bit, from most significant to least, we want in the byte
-        // that holds it
-        int offset = bitIndex % 8;
-        // Get the byte that holds our bit from the backing array
-        byte holder = this.back.get(byteIndex);
-        // Create a bitmask to only pass through the value of the specific bit we want
-        int mask = 1 << (7 - offset);
-        // Return the bit's value with bitmasking. If the mask returns a 0, then the bit
-        // we're looking at is 0. If it returns anything else, the bit is a 1
-        return (holder & mask) != 0;
+    public boolean get(long bitIndex) {
+        if (bitIndex < 0 || bitIndex >= this.bitLength) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        // Find the word holding the bit, shift the bit to the top, and check it
+        return (this.words[(int) (bitIndex >>> 6)] << (int) (bitIndex & 63)) < 0;
+    }
+
+    /**
+     * This method gets a group of bits from the array
+     * 
+     * @param bitIndex The index of the first bit to get
+     * @param count    The number of bits to get, from 0 to 64
+     * @return The bits, right-aligned in a long
+     */
+    public long getBits(long bitIndex, int count) {
+        if (bitIndex < 0 || count < 0 || count > 64 || bitIndex + count > this.bitLength) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        int index = (int) (bitIndex >>> 6);
+        int offset = (int) (bitIndex & 63);
+
+        // Shift the first bit to the top of a long, and then fill in the bottom from
+        // the next word if the group crosses into it
+        long bits = this.words[index] << offset;
+        if (offset + count > 64) {
+            bits |= this.words[index + 1] >>> (64 - offset);
+        }
+
+        // Shift the group back down to the bottom of the long
+        return bits >>> (64 - count);
     }
 
     /**
@@ -98,27 +113,19 @@ public class BitArray {
      * @param bitIndex The index of the bit to set
      * @param value    The value to set the bit to
      */
-    public void set(int bitIndex, boolean value) {
-        if (bitIndex > bitLength) {
+    public void set(long bitIndex, boolean value) {
+        if (bitIndex < 0 || bitIndex >= this.bitLength) {
             throw new ArrayIndexOutOfBoundsException();
         }
-        // Get the byte that stores the bit we want to set from the backing array
-        int storage = (int) this.back.get(bitIndex / 8);
         // Create a mask that we can use to only change the specific bit we want to
-        int mask = 1 << (7 - (bitIndex % 8));
+        long mask = 1L << (63 - (int) (bitIndex & 63));
 
         // Check if the bit should be set to 1 or 0
         if (value) {
-            // The bit should be set to 1, so we bitwise-or the mask with the storage byte
-            storage = storage | mask;
+            this.words[(int) (bitIndex >>> 6)] |= mask;
         } else {
-            // The bit should be set to 0, so we invert the mask (every bit except the one
-            // we want to set becomes 1) and bitwise-and it with the storage byte
-            storage = storage & (~mask);
+            this.words[(int) (bitIndex >>> 6)] &= ~mask;
         }
-
-        // Replace the updated byte into the array
-        this.back.set(bitIndex / 8, (byte) storage);
     }
 
     /**
@@ -127,34 +134,40 @@ public class BitArray {
      * @param value The value of the bit to add
      */
     public void push(boolean value) {
-        // Check if there is enough capacity to add another bit
-        if (this.bitLength + 1 > this.back.size() * 8) {
-            // If there isn't, add a byte to the backing array, increasing the capacity
-            this.back.add((byte) 0x00);
+        pushBits(value ? 1 : 0, 1);
+    }
+
+    /**
+     * This method adds a group of bits to the end of the array, a word at a time
+     * 
+     * @param value The bits to add, right-aligned in a long
+     * @param count The number of bits to add, from 0 to 64
+     */
+    public void pushBits(long value, int count) {
+        if (count == 0) {
+            return;
         }
+        ensureCapacity(this.bitLength + count);
 
-        // At this point, we know that the last byte in the backing array has space for
-        // at least one more bit, so we get that byte and then create a mask, locating
-        // the next available byte by using the bitLength of the instance itself
-        int last = (int) this.back.get(bitLength / 8);
-        int index = (bitLength) % 8;
-        int mask = 1 << (7 - (index));
+        // Get rid of any bits above the ones being added
+        if (count < 64) {
+            value &= (1L << count) - 1;
+        }
 
-        // Check if the bit being pushed is a 1 or a 0
-        if (value) {
-            // The bit should be set to 1, so we bitwise-or the mask with the storage byte
-            last = last | mask;
+        int index = (int) (this.bitLength >>> 6);
+        int free = 64 - (int) (this.bitLength & 63);
+
+        if (count <= free) {
+            // The bits fit in the current word, so shift them into place
+            this.words[index] |= value << (free - count);
         } else {
-            // The bit should be set to 0, so we invert the mask (every bit except the one
-            // we want to set becomes 1) and bitwise-and it with the storage byte
-            last = last & (~mask);
+            // The bits are split between two words. The top ones fill the current word
+            // and the rest go at the start of the next
+            this.words[index] |= value >>> (count - free);
+            this.words[index + 1] |= value << (64 - (count - free));
         }
 
-        // Set the last byte of the backing array to the updated value
-        this.back.set(bitLength / 8, (byte) last);
-
-        // Increment the bitLength of the array by 1
-        this.bitLength += 1;
+        this.bitLength += count;
     }
 
     /**
@@ -164,6 +177,8 @@ public class BitArray {
      */
     public boolean pop() {
         boolean ret = get(bitLength - 1);
+        // Clear the bit so that pushing can bitwise-or into it again
+        set(bitLength - 1, false);
         this.bitLength -= 1;
         return ret;
     }
@@ -174,23 +189,7 @@ public class BitArray {
      * @param value The value of the byte to add
      */
     public void pushByte(byte value) {
-        // Convert the byte input to an int, ensuring that no two's complement nonsense
-        // goes on
-        int toAdd = (int) value & 0xFF;
-
-        // Iterate over each bit in the byte input, computing a mask to get that bit
-        // specifically (from most significant to least)
-        for (int i = 0; i < 8; i++) {
-            int mask = 1 << (7 - i);
-            // Check if the current bit is 1 or 0
-            if ((toAdd & mask) != 0) {
-                // The byte is 1; push a 1 bit to the array
-                push(true);
-            } else {
-                // The byte is 0; push a 0 bit to the array
-                push(false);
-            }
-        }
+        pushBits((long) value & 0xFF, 8);
     }
 
     /**
@@ -199,12 +198,7 @@ public class BitArray {
      * @param value The value of the int to add
      */
     public void pushInt(int value) {
-        // Push the four bytes that make up this int to the array one by one, in order
-        // from most significant to least significant
-        this.pushByte((byte) (value >> 24));
-        this.pushByte((byte) ((value << 8) >> 24));
-        this.pushByte((byte) ((value << 16) >> 24));
-        this.pushByte((byte) ((value << 24) >> 24));
+        pushBits((long) value & 0xFFFFFFFFL, 32);
     }
 
     /**
@@ -216,29 +210,30 @@ public class BitArray {
      */
     public static BitArray fromBytes(byte[] bytes) {
         // Create a new backing array that has enough space for the input data
-        ArrayList<Byte> array = new ArrayList<Byte>(bytes.length + 2);
+        long[] words = new long[Math.max(1, (bytes.length + 7) / 8)];
 
-        // Iterate over the input data, adding it to the backing array
-        for (byte b : bytes) {
-            array.add(b);
+        // Pack the bytes into the words, with the first byte at the top of each word
+        for (int i = 0; i < bytes.length; i++) {
+            words[i >>> 3] |= ((long) bytes[i] & 0xFF) << (56 - 8 * (i & 7));
         }
 
         // Create a new BitArray from the backing array and the length of the data
-        return new BitArray(array, bytes.length * 8);
+        return new BitArray(words, bytes.length * 8L);
     }
 
     /**
-     * This method creates an array of bytes from the data in the BitArray
+     * This method creates an array of bytes from the data in the BitArray. The last
+     * byte is padded with 0s if the length isn't a multiple of 8
      * 
      * @return An array of bytes containing the data in this structure
      */
     public byte[] toArray() {
         // Create a new output byte array of the correct size
-        byte[] output = new byte[this.back.size()];
+        byte[] output = new byte[(int) ((this.bitLength + 7) / 8)];
 
-        // Iterate over the backing array and add each element to the return array
-        for (int i = 0; i < this.back.size(); i++) {
-            output[i] = this.back.get(i);
+        // Unpack each byte from the word holding it
+        for (int i = 0; i < output.length; i++) {
+            output[i] = (byte) (this.words[i >>> 3] >>> (56 - 8 * (i & 7)));
         }
 
         return output;
@@ -247,40 +242,11 @@ public class BitArray {
     /**
      * This method reads 32 bits from the array, interpreting them as an int
      * 
-     * @param bitIndex The index of the first bit to read. This must be byte-aligned
+     * @param bitIndex The index of the first bit to read
      * @return An int containing the next 32 bits
      */
-    public int getInt(int bitIndex) {
-        // Make sure the bitIndex is byte-aligned
-        if (bitIndex % 8 != 0) {
-            // If it isn't, throw an exception
-            throw new ArrayIndexOutOfBoundsException("Index is not byte-aligned");
-        }
-
-        // Make sure that there are enough bits left in the array to read an int
-        if (bitIndex + 31 >= this.bitLength) {
-            // If not, throw an exception
-            throw new ArrayIndexOutOfBoundsException();
-        }
-
-        // Calculate the index of the first byte in the backing array
-        int index = bitIndex / 8;
-
-        // Create an integer to return, initialized at 0
-        int ret = 0;
-
-        // Repeating three times,
-        for (int i = 0; i < 3; i++) {
-            // Get a byte from the backing array, setting the 8 least significant bytes of
-            // the return integer to it
-            ret |= (int) this.back.get(index + i) & 0xFF;
-            // Shift the return integer left by 8 to make room for the next byte
-            ret = ret << 8;
-        }
-        // Get the last byte and add its bits to the return int
-        ret |= (int) this.back.get(index + 3) & 0xFF;
-
-        return ret;
+    public int getInt(long bitIndex) {
+        return (int) getBits(bitIndex, 32);
     }
 
     /**
@@ -289,39 +255,35 @@ public class BitArray {
      * @param bitIndex The index of the first bit to read
      * @return A byte containing the 8 bits read
      */
-    public Byte readByte(int bitIndex) {
-        // Make sure that there are enough bits left in the array to read a byte
-        if (bitIndex + 7 >= this.bitLength) {
-            // If not, throw an exception
-            throw new ArrayIndexOutOfBoundsException();
-        }
-
-        // Create a return value initialized to 0
-        int value = 0;
-
-        // Repeating 8 times,
-        for (int i = 0; i < 8; i++) {
-            // Get the bit at the current index
-            if (get(bitIndex + i)) {
-                // If it's a 1, set the corresponding bit in the return value
-                int mask = 1 << (7 - i);
-                value = value | mask;
-            }
-            // Otherwise, we don't need to do anything because every bit already is 0
-        }
-
-        // Return the value
-        return (byte) value;
+    public byte readByte(long bitIndex) {
+        return (byte) getBits(bitIndex, 8);
     }
 
     /**
-     * This method adds the bits of one BitArray to this one
+     * This method adds the bits of one BitArray to this one, a word at a time
      * 
      * @param other The BitArray to append
      */
     public void appendBits(BitArray other) {
-        for (int i = 0; i < other.bitLength; i++) {
-            push(other.get(i));
+        // Copy the other array's length in case it is this array
+        long length = other.bitLength;
+        for (long i = 0; i < length; i += 64) {
+            int count = (int) Math.min(64, length - i);
+            pushBits(other.getBits(i, count), count);
+        }
+    }
+
+    /**
+     * This method grows the backing array if it is too small to hold a number of
+     * bits
+     * 
+     * @param bits The number of bits the array must be able to hold
+     */
+    private void ensureCapacity(long bits) {
+        int needed = (int) ((bits + 63) / 64);
+        if (needed > this.words.length) {
+            // Grow by at least half again, so that pushing is quick on average
+            this.words = Arrays.copyOf(this.words, Math.max(needed, this.words.length + this.words.length / 2 + 1));
         }
     }
 }
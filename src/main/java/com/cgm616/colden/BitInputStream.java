@@ -0,0 +1,215 @@
+package com.cgm616.colden;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The reading counterpart of BitOutputStream. It reads bytes from an underlying
+ * stream in large chunks and lets consumers look at and consume the data any
+ * number of bits at a time, from most significant bit to least.
+ * 
+ * Reading past the end of the underlying stream is allowed when peeking (the
+ * missing bits read as 0s), but consuming bits that do not exist throws an
+ * EOFException.
+ */
+public class BitInputStream extends FilterInputStream {
+    // The bits that have been read from the stream but not yet consumed. The valid
+    // bits are the `length` least significant bits of the buffer
+    long buffer;
+    // The number of valid bits in the buffer
+    int length;
+
+    // A chunk of bytes read from the underlying stream, with `position` pointing to
+    // the next unread byte and `limit` to the end of the valid data
+    private byte[] chunk;
+    private int position;
+    private int limit;
+
+    /**
+     * Class constructor that wraps an InputStream
+     * 
+     * @param in The stream to read bytes from
+     */
+    public BitInputStream(InputStream in) {
+        super(in);
+        this.buffer = 0;
+        this.length = 0;
+        this.chunk = new byte[8192];
+        this.position = 0;
+        this.limit = 0;
+    }
+
+    /**
+     * This method returns the next bits of the stream without consuming them. If
+     * the stream ends before enough bits are available, the missing bits are
+     * returned as 0s
+     * 
+     * @param count The number of bits to look at, from 0 to 32
+     * @return The bits, right-aligned in an int
+     * @exception IOException Thrown when the underlying stream fails
+     */
+    public int peekBits(int count) throws IOException {
+        // Make sure there are enough bits in the buffer, if the stream has them
+        if (this.length < count) {
+            fill();
+        }
+
+        if (this.length >= count) {
+            // Shift the wanted bits down to the bottom of the buffer and mask off the
+            // rest
+            return (int) (this.buffer >>> (this.length - count)) & (int) ((1L << count) - 1);
+        } else {
+            // The stream ended, so shift the bits we do have up and pad with 0s
+            return (int) (this.buffer << (count - this.length)) & (int) ((1L << count) - 1);
+        }
+    }
+
+    /**
+     * This method consumes bits that have already been looked at with peekBits()
+     * 
+     * @param count The number of bits to consume
+     * @exception IOException Thrown when there are fewer bits left in the stream
+     *                        than the number being consumed
+     */
+    public void skipBits(int count) throws IOException {
+        if (this.length < count) {
+            fill();
+            if (this.length < count) {
+                this.length = 0;
+                throw new EOFException("Reached the end of the stream while reading bits");
+            }
+        }
+        this.length -= count;
+    }
+
+    /**
+     * This method reads and consumes bits from the stream
+     * 
+     * @param count The number of bits to read, from 0 to 32
+     * @return The bits, right-aligned in an int
+     * @exception IOException Thrown when the stream ends before all of the bits are
+     *                        read
+     */
+    public int readBits(int count) throws IOException {
+        int bits = peekBits(count);
+        skipBits(count);
+        return bits;
+    }
+
+    /**
+     * This method reads a single bit from the stream
+     * 
+     * @return The value of the bit
+     * @exception IOException Thrown when the stream has ended
+     */
+    public boolean readBit() throws IOException {
+        return readBits(1) != 0;
+    }
+
+    /**
+     * This method reads 32 bits from the stream, interpreting them as an int
+     * 
+     * @return An int containing the next 32 bits
+     * @exception IOException Thrown when the stream ends before 32 bits are read
+     */
+    public int readInt() throws IOException {
+        return readBits(32);
+    }
+
+    /**
+     * This method reads 64 bits from the stream, interpreting them as a long
+     * 
+     * @return A long containing the next 64 bits
+     * @exception IOException Thrown when the stream ends before 64 bits are read
+     */
+    public long readLong() throws IOException {
+        long high = (long) readInt() << 32;
+        return high | ((long) readInt() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * This method reads 8 bits from the stream. Unlike a normal InputStream, the
+     * byte does not need to be aligned to a byte boundary
+     * 
+     * @return The next byte of the stream, or -1 if the stream has ended
+     * @exception IOException Thrown when the underlying stream fails
+     */
+    @Override
+    public int read() throws IOException {
+        if (this.length < 8) {
+            fill();
+            if (this.length < 8) {
+                return -1;
+            }
+        }
+        return readBits(8);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        // Read bytes one at a time, stopping early if the stream ends
+        for (int i = 0; i < len; i++) {
+            int data = read();
+            if (data == -1) {
+                return i == 0 ? -1 : i;
+            }
+            b[off + i] = (byte) data;
+        }
+        return len;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && read() != -1) {
+            skipped += 1;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (this.length / 8) + (this.limit - this.position) + super.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * This method consumes bits until the stream is aligned to a byte boundary of
+     * the underlying data
+     */
+    public void alignToByte() {
+        this.length -= this.length % 8;
+    }
+
+    /**
+     * This method tops up the bit buffer with whole bytes from the chunk, reading
+     * a new chunk from the underlying stream when the old one runs out
+     * 
+     * @exception IOException Thrown when the underlying stream fails
+     */
+    private void fill() throws IOException {
+        // Keep adding bytes while there is room for another one in the buffer
+        while (this.length <= 56) {
+            if (this.position == this.limit) {
+                // The chunk is used up, so grab another one
+                int read = super.in.read(this.chunk, 0, this.chunk.length);
+                if (read <= 0) {
+                    // The underlying stream has ended
+                    return;
+                }
+                this.position = 0;
+                this.limit = read;
+            }
+
+            this.buffer = (this.buffer << 8) | ((int) this.chunk[this.position] & 0xFF);
+            this.position += 1;
+            this.length += 8;
+        }
+    }
+}
@@ -54,6 +54,11 @@ public class BitOutputStream extends FilterOutputStream {
         this.length += 8;
     }
 
+    public void writeLong(long b) throws IOException {
+        writeInt((int) (b >>> 32));
+        writeInt((int) b);
+    }
+
     @Override
     public void flush() throws IOException {
         commit();
@@ -90,9 +95,28 @@ public class BitOutputStream extends FilterOutputStream {
         this.length += 1;
     }
 
+    public void writeBits(int bits, int count) throws IOException {
+        // Write anything over 24 bits first, so the rest is sure to fit in the buffer
+        if (count > 24) {
+            writeBits(bits >>> 24, count - 24);
+            count = 24;
+        }
+
+        // Keep fewer than 32 bits in the buffer, since commit() can't shift out a full
+        // int
+        if (this.length + count >= 32) {
+            commit();
+        }
+
+        int masked = bits & ((1 << count) - 1);
+        this.buffer |= masked << (32 - this.length - count);
+        this.length += count;
+    }
+
     public void appendBits(BitArray bits) throws IOException {
-        for (int i = 0; i < bits.bitLength; i++) {
-            write(bits.get(i));
+        for (long i = 0; i < bits.bitLength; i += 24) {
+            int count = (int) Math.min(24, bits.bitLength - i);
+            writeBits((int) bits.getBits(i, count), count);
         }
     }
 
@@ -0,0 +1,388 @@
+package com.cgm616.colden;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Compresses a stream into a file whose body is split into blocks. The blocks
+ * are independent of each other, so they are compressed at the same time on a
+ * ForkJoinPool and then written to the file in order, followed by an index of
+ * where each one starts.
+ * 
+ * Only a few blocks are ever waiting to be written, so the memory used depends
+ * on the block size and the number of threads, not on the size of the input.
+ * 
+ * The input can be read just once. The first part of it is kept in memory while
+ * it is counted, and if the whole input fits, every block is compressed from
+ * memory with one shared tree. If it doesn't, each block gets its own tree
+ * instead, so nothing has to be read twice.
+ * 
+ * A file can also be read twice instead, so that every block shares one tree
+ * however large it is. The first pass counts ranges of the file in parallel
+ * with Histogram.of(), and the second compresses it with the tree.
+ */
+public class BlockCompressor {
+    // The number of bytes in every block but the last, by default
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    // The number of bytes kept in memory to build a shared tree from, by default
+    public static final long DEFAULT_BUFFER_SIZE = 64 << 20;
+
+    // The pool that compresses the blocks
+    private ForkJoinPool pool;
+    // The number of bytes in every block but the last
+    private int blockSize;
+    // The most bytes kept in memory when reading the input only once
+    private long bufferSize;
+    // The metrics the blocks are recorded into
+    private Metrics metrics = Metrics.getDefault();
+
+    /**
+     * Class constructor that compresses blocks of the default size on the common
+     * pool
+     */
+    public BlockCompressor() {
+        this.pool = ForkJoinPool.commonPool();
+        this.blockSize = DEFAULT_BLOCK_SIZE;
+        this.bufferSize = DEFAULT_BUFFER_SIZE;
+    }
+
+    /**
+     * Class constructor that takes the pool to compress blocks on and the size of
+     * the blocks
+     * 
+     * @param pool      The pool to compress blocks on
+     * @param blockSize The number of bytes in every block but the last
+     * @exception Exception Thrown when the block size isn't positive
+     */
+    public BlockCompressor(ForkJoinPool pool, int blockSize) throws Exception {
+        this(pool, blockSize, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Class constructor that takes the pool to compress blocks on, the size of the
+     * blocks, and how much of the input to keep in memory when reading it once
+     * 
+     * @param pool       The pool to compress blocks on
+     * @param blockSize  The number of bytes in every block but the last
+     * @param bufferSize The most bytes to keep in memory to build a shared tree
+     *                   from when reading the input once
+     * @exception Exception Thrown when the block size isn't positive
+     */
+    public BlockCompressor(ForkJoinPool pool, int blockSize, long bufferSize) throws Exception {
+        if (blockSize < 1) {
+            throw new Exception("The block size must be positive");
+        }
+        this.pool = pool;
+        this.blockSize = blockSize;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * This method compresses a stream into a whole file, reading the stream only
+     * once. Blocks are kept in memory and counted until the buffer is full. If the
+     * stream ends first, all of the blocks share a tree built from those counts,
+     * and otherwise every block gets its own tree
+     * 
+     * @param input  The stream containing the data to be compressed
+     * @param output The stream to write the file to
+     * @return The tree shared by every block, or null if each block has its own
+     * @exception Exception Thrown when a block cannot be compressed, or when the
+     *                      streams cannot be read or written
+     */
+    public Huffman compress(InputStream input, OutputStream output) throws Exception {
+        ArrayDeque<byte[]> buffered = new ArrayDeque<>();
+        Histogram histogram = new Histogram();
+        long size = 0;
+        boolean ended = false;
+        Huffman shared = null;
+
+        try {
+            // Read and count blocks until the input ends or the buffer is full
+            while (!ended && size < this.bufferSize) {
+                byte[] data = new byte[this.blockSize];
+                int length = readBlock(input, data);
+                if (length < this.blockSize) {
+                    // The last block is trimmed so that its length is the array's
+                    data = Arrays.copyOf(data, length);
+                    ended = true;
+                }
+                if (length > 0) {
+                    long start = System.nanoTime();
+                    histogram.add(data, 0, length);
+                    this.metrics.record(Metrics.Stage.HISTOGRAM, length, start);
+                    this.metrics.allocate(length);
+                    buffered.add(data);
+                    size += length;
+                }
+            }
+
+            // Only share a tree if it was built from the whole input
+            if (ended && size > 0) {
+                long start = System.nanoTime();
+                shared = new Huffman(histogram);
+                this.metrics.record(Metrics.Stage.TREE, size, start);
+                this.metrics.recordTree(shared, histogram);
+            }
+        } catch (Exception e) {
+            // The blocks read so far will never be compressed, so they aren't held any more
+            this.metrics.release(size);
+            throw e;
+        }
+
+        compress(buffered, ended ? null : input, output, shared);
+        return shared;
+    }
+
+    /**
+     * This method compresses a file into another file, reading the input only
+     * once. The input is mapped into memory, and the output is written through a
+     * direct buffer
+     * 
+     * @param input  The file containing the data to be compressed
+     * @param output The file to write to, which is replaced if it exists
+     * @return The tree shared by every block, or null if each block has its own
+     * @exception Exception Thrown when a block cannot be compressed, or when the
+     *                      files cannot be read or written
+     */
+    public Huffman compress(Path input, Path output) throws Exception {
+        try (MappedInputStream in = new MappedInputStream(input);
+                ChannelOutputStream out = new ChannelOutputStream(output)) {
+            return compress(in, out);
+        }
+    }
+
+    /**
+     * This method compresses a file into another file with one tree shared by
+     * every block, reading the input twice. The bytes are counted first, in
+     * parallel ranges of the file, and then the file is compressed with the tree
+     * built from the counts
+     * 
+     * @param input  The file containing the data to be compressed
+     * @param output The file to write to, which is replaced if it exists
+     * @return The tree shared by every block, or null if the file is empty
+     * @exception Exception Thrown when a block cannot be compressed, or when the
+     *                      files cannot be read or written
+     */
+    public Huffman compressShared(Path input, Path output) throws Exception {
+        long start = System.nanoTime();
+        Histogram histogram = Histogram.of(input, this.pool);
+        long size = histogram.total();
+        this.metrics.record(Metrics.Stage.HISTOGRAM, size, start);
+
+        // An empty file has nothing to build a tree from, and no blocks to share one
+        Huffman shared = null;
+        if (size > 0) {
+            start = System.nanoTime();
+            shared = new Huffman(histogram);
+            this.metrics.record(Metrics.Stage.TREE, size, start);
+            this.metrics.recordTree(shared, histogram);
+        }
+
+        try (MappedInputStream in = new MappedInputStream(input);
+                ChannelOutputStream out = new ChannelOutputStream(output)) {
+            compress(in, out, shared);
+        }
+        return shared;
+    }
+
+    /**
+     * This method compresses a stream into a whole file, header and all
+     * 
+     * @param input  The stream containing the data to be compressed
+     * @param output The stream to write the file to
+     * @param shared The tree to compress every block with, or null to build a tree
+     *               for each block from its own data
+     * @exception Exception Thrown when a block cannot be compressed, or when the
+     *                      streams cannot be read or written
+     */
+    public void compress(InputStream input, OutputStream output, Huffman shared) throws Exception {
+        compress(new ArrayDeque<>(), input, output, shared);
+    }
+
+    /**
+     * This method compresses blocks already in memory, and then the rest of a
+     * stream, into a whole file
+     * 
+     * @param buffered The blocks already read, each as long as its array, which
+     *                 are already counted as held in the metrics
+     * @param input    The stream holding the rest of the data, or null if it has
+     *                 all been read
+     * @param output   The stream to write the file to
+     * @param shared   The tree to compress every block with, or null to build a
+     *                 tree for each block from its own data
+     * @exception Exception Thrown when a block cannot be compressed, or when the
+     *                      streams cannot be read or written
+     */
+    private void compress(ArrayDeque<byte[]> buffered, InputStream input, OutputStream output, Huffman shared)
+            throws Exception {
+        // Write the header through a buffer first, to find out how long it is. Every
+        // offset in the index counts from the start of the file
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        Artifact.writeBlockHeader(header, shared);
+        header.writeTo(output);
+
+        // Write the blocks, then the block that ends the body, and then the index
+        BlockWriter<byte[]> blocks = writerFor(output, header.size());
+        try {
+            writeBlocks(buffered, input, shared, blocks);
+            blocks.finish(output);
+        } finally {
+            blocks.cancel();
+        }
+    }
+
+    /**
+     * This method compresses a stream into just the body of a file: blocks that
+     * each have their own tree, and the block that ends them. There is no header
+     * and no index, for files kept somewhere that already says how they are laid
+     * out and how long they are, like the entries of an Archive
+     * 
+     * @param input  The stream containing the data to be compressed
+     * @param output The stream to write the blocks to
+     * @exception Exception Thrown when a block cannot be compressed, or when the
+     *                      streams cannot be read or written
+     */
+    void compressBody(InputStream input, OutputStream output) throws Exception {
+        BlockWriter<byte[]> blocks = writerFor(output, 0);
+        try {
+            writeBlocks(new ArrayDeque<>(), input, null, blocks);
+            blocks.drain();
+            Artifact.writeEnd(output);
+        } finally {
+            blocks.cancel();
+        }
+    }
+
+    /**
+     * This method creates the writer that writes compressed blocks to a stream
+     * 
+     * @param output   The stream to write the blocks to
+     * @param position The offset in the file the first block is written at
+     * @return The writer
+     */
+    private BlockWriter<byte[]> writerFor(OutputStream output, long position) {
+        return new BlockWriter<>(this.pool, position, block -> {
+            Artifact.writeBlock(output, block);
+            return block.length;
+        });
+    }
+
+    /**
+     * This method compresses blocks already in memory, and then the rest of a
+     * stream, handing each block to a writer that writes them in order
+     * 
+     * @param buffered The blocks already read, each as long as its array, which
+     *                 are already counted as held in the metrics
+     * @param input    The stream holding the rest of the data, or null if it has
+     *                 all been read
+     * @param shared   The tree to compress every block with, or null to build a
+     *                 tree for each block from its own data
+     * @param blocks   The writer to hand the blocks to
+     * @exception Exception Thrown when a block cannot be compressed, or when the
+     *                      streams cannot be read or written
+     */
+    private void writeBlocks(ArrayDeque<byte[]> buffered, InputStream input, Huffman shared,
+            BlockWriter<byte[]> blocks) throws Exception {
+        try {
+            while (true) {
+                // Take the blocks in memory first, and then read the rest. The writer
+                // counts each block as held from when it is handed over
+                byte[] data;
+                int length;
+                if (!buffered.isEmpty()) {
+                    data = buffered.remove();
+                    length = data.length;
+                    this.metrics.release(length);
+                } else if (input != null) {
+                    data = new byte[this.blockSize];
+                    length = readBlock(input, data);
+                } else {
+                    break;
+                }
+                if (length == 0) {
+                    break;
+                }
+
+                blocks.submit(() -> Artifact.encodeBlock(data, 0, length, shared), length);
+
+                // A short block means the input has ended
+                if (length < this.blockSize) {
+                    break;
+                }
+            }
+        } finally {
+            // Blocks that were never handed over, because something failed, aren't
+            // held any more either
+            for (byte[] data : buffered) {
+                this.metrics.release(data.length);
+            }
+        }
+    }
+
+    /**
+     * This method fills a block with as much of a stream as it can
+     * 
+     * @param input The stream to read from
+     * @param data  The array to read into
+     * @return The number of bytes read, which is less than the length of the array
+     *         only if the stream has ended
+     * @exception IOException Thrown when the stream cannot be read
+     */
+    private static int readBlock(InputStream input, byte[] data) throws IOException {
+        int length = 0;
+        while (length < data.length) {
+            int read = input.read(data, length, data.length - length);
+            if (read == -1) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+
+    /**
+     * This method waits for a task working on a block, passing on any exception
+     * thrown by it
+     * 
+     * @param task The task working on the block
+     * @return The result of the task
+     * @exception Exception Thrown when the task failed
+     */
+    static <T> T join(ForkJoinTask<T> task) throws Exception {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * This method waits for a task working on a block, passing on an IOException
+     * thrown by it and wrapping anything else in one
+     * 
+     * @param task The task working on the block
+     * @param verb What the task does to the block, for the message
+     * @return The result of the task
+     * @exception IOException Thrown when the task failed
+     */
+    static <T> T join(ForkJoinTask<T> task, String verb) throws IOException {
+        try {
+            return join(task);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Block could not be " + verb + ": " + e.getMessage(), e);
+        }
+    }
+}
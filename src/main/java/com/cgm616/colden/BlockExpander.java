@@ -0,0 +1,303 @@
+package com.cgm616.colden;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Expands a file whose body is split into blocks, using the index at the end of
+ * the file to expand every block at the same time on a ForkJoinPool. The index
+ * says where each block starts and how long it is once expanded, so each block
+ * is read from its own place in the input file and written to its own place in
+ * the output file, without waiting for the blocks before it.
+ * 
+ * Both files are mapped into memory as OffHeapBitArrays, however large they
+ * are: each block is decoded with Huffman.decode(ByteBuffer, ByteBuffer) from a
+ * view of the mapped input straight into a view of its place in the mapped
+ * output, without the data being copied onto the heap. A block that crosses
+ * from one mapped segment into the next is decoded through streams instead,
+ * which only copy it through small chunk buffers. Files over the map limit are
+ * read and written a block at a time.
+ * 
+ * Files can also be verified the same way, which checks every block against its
+ * checksum without writing anything out.
+ */
+public class BlockExpander {
+    // The pool that expands the blocks
+    private ForkJoinPool pool;
+    // The largest file that is mapped into memory
+    private long mapLimit;
+
+    /**
+     * Class constructor that expands blocks on the common pool
+     */
+    public BlockExpander() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Class constructor that takes the pool to expand blocks on
+     * 
+     * @param pool The pool to expand blocks on
+     */
+    public BlockExpander(ForkJoinPool pool) {
+        this(pool, Long.MAX_VALUE);
+    }
+
+    /**
+     * Class constructor that takes the pool to expand blocks on and the largest
+     * file to map into memory
+     * 
+     * @param pool     The pool to expand blocks on
+     * @param mapLimit The largest input or output file to map
+     */
+    BlockExpander(ForkJoinPool pool, long mapLimit) {
+        this.pool = pool;
+        this.mapLimit = mapLimit;
+    }
+
+    /**
+     * This method expands a file with a block index into an output file
+     * 
+     * @param artifact The header of the input file, already read
+     * @param input    The input file
+     * @param output   The file to write the expanded data to. It is created if it
+     *                 doesn't exist
+     * @exception Exception Thrown when the file has no index, when it is
+     *                      malformed, or when the files cannot be read or written
+     */
+    public void expand(Artifact artifact, Path input, Path output) throws Exception {
+        if (!artifact.hasIndex()) {
+            throw new Exception("File has no block index");
+        }
+
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            BlockIndex index = BlockIndex.read(in);
+            long[] positions = index.outputOffsets();
+            long total = positions[index.size()];
+
+            // Map both files if they are small enough. Mapping the output makes it as
+            // long as the expanded data
+            OffHeapBitArray source = null;
+            OffHeapBitArray target = null;
+            if (in.size() <= this.mapLimit && total <= this.mapLimit && total > 0) {
+                source = OffHeapBitArray.map(in, FileChannel.MapMode.READ_ONLY, 0, in.size());
+                target = OffHeapBitArray.map(out, FileChannel.MapMode.READ_WRITE, 0, total);
+            }
+            OffHeapBitArray mappedSource = source;
+            OffHeapBitArray mappedTarget = target;
+
+            // Start expanding every block. Only as many run at once as the pool has
+            // threads, so only that many blocks are held in memory
+            ArrayList<ForkJoinTask<Void>> tasks = new ArrayList<>(index.size());
+            for (int i = 0; i < index.size(); i++) {
+                long offset = index.getOffset(i);
+                int length = index.getLength(i);
+                long position = positions[i];
+                tasks.add(this.pool.submit(() -> {
+                    if (mappedTarget != null) {
+                        expandBlock(artifact, mappedSource, offset, length, mappedTarget, position);
+                    } else {
+                        expandBlock(artifact, in, offset, length, out, position);
+                    }
+                    return null;
+                }));
+            }
+
+            joinAll(tasks);
+
+            // Make sure everything written to the mapped output reaches the file
+            if (target != null) {
+                target.force();
+            }
+        }
+    }
+
+    /**
+     * This method checks every block of a file with a block index against its
+     * checksum, all at once, without writing out what they expand to
+     * 
+     * @param artifact The header of the input file, already read
+     * @param input    The input file
+     * @return The number of bytes the file expands to
+     * @exception Exception Thrown when the file has no index, when it is
+     *                      malformed or fails a checksum, or when it cannot be
+     *                      read
+     */
+    public long verify(Artifact artifact, Path input) throws Exception {
+        if (!artifact.hasIndex()) {
+            throw new Exception("File has no block index");
+        }
+
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+            BlockIndex index = BlockIndex.read(in);
+            OffHeapBitArray source = null;
+            if (in.size() <= this.mapLimit) {
+                source = OffHeapBitArray.map(in, FileChannel.MapMode.READ_ONLY, 0, in.size());
+            }
+            OffHeapBitArray mappedSource = source;
+
+            ArrayList<ForkJoinTask<Void>> tasks = new ArrayList<>(index.size());
+            for (int i = 0; i < index.size(); i++) {
+                long offset = index.getOffset(i);
+                int length = index.getLength(i);
+                tasks.add(this.pool.submit(() -> {
+                    // Only count what the block expands to, since the checksum is
+                    // checked as it goes
+                    CountingOutputStream counted = new CountingOutputStream(OutputStream.nullOutputStream());
+                    if (mappedSource != null) {
+                        artifact.expandBlock(blockAt(mappedSource, offset), counted);
+                    } else {
+                        artifact.expandBlock(readBlockAt(in, offset), counted);
+                    }
+                    if (counted.getCount() != length) {
+                        throw new IOException("Block expanded to a different length than the index says");
+                    }
+                    return null;
+                }));
+            }
+
+            joinAll(tasks);
+            return index.outputOffsets()[index.size()];
+        }
+    }
+
+    /**
+     * This method waits for every block's task, stopping at the first that failed
+     * and cancelling the rest
+     * 
+     * @param tasks The task working on each block
+     * @exception Exception Thrown when a task failed
+     */
+    private static void joinAll(ArrayList<ForkJoinTask<Void>> tasks) throws Exception {
+        try {
+            for (ForkJoinTask<Void> task : tasks) {
+                BlockCompressor.join(task);
+            }
+        } finally {
+            for (ForkJoinTask<Void> task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * This method finds a block in the mapped input file
+     * 
+     * @param source The whole input file, mapped
+     * @param offset The offset of the block in the input file
+     * @return A stream of just the bytes of the block
+     * @exception IOException Thrown when the block doesn't fit in the file
+     */
+    private static InputStream blockAt(OffHeapBitArray source, long offset) throws IOException {
+        return source.inputStream(offset + 4, sizeAt(source, offset));
+    }
+
+    /**
+     * This method finds the size of a block in the mapped input file
+     * 
+     * @param source The whole input file, mapped
+     * @param offset The offset of the block in the input file
+     * @return The number of bytes in the block, after its length
+     * @exception IOException Thrown when the block doesn't fit in the file
+     */
+    private static int sizeAt(OffHeapBitArray source, long offset) throws IOException {
+        if (offset < 0 || offset > source.size() - 4) {
+            throw new IOException("Block index points to an invalid block");
+        }
+        int size = source.getInt(offset * 8);
+        if (size <= 0 || size > source.size() - offset - 4) {
+            throw new IOException("Block index points to an invalid block");
+        }
+        return size;
+    }
+
+    /**
+     * This method reads a block from the input file
+     * 
+     * @param in     The input file
+     * @param offset The offset of the block in the input file
+     * @return The bytes of the block
+     * @exception IOException Thrown when the block doesn't fit in the file
+     */
+    private static byte[] readBlockAt(FileChannel in, long offset) throws IOException {
+        int size = BlockIndex.readFully(in, 4, offset).getInt();
+        if (size <= 0) {
+            throw new IOException("Block index points to an invalid block");
+        }
+        return BlockIndex.readFully(in, size, offset + 4).array();
+    }
+
+    /**
+     * This method expands one block from the mapped input file into its place in
+     * the mapped output file
+     * 
+     * @param artifact The header of the input file
+     * @param source   The whole input file, mapped
+     * @param offset   The offset of the block in the input file
+     * @param length   The number of bytes the block expands to
+     * @param target   The whole output file, mapped
+     * @param position The offset in the output file to write the block at
+     * @exception Exception Thrown when the block is malformed
+     */
+    private static void expandBlock(Artifact artifact, OffHeapBitArray source, long offset, int length,
+            OffHeapBitArray target, long position) throws Exception {
+        // Decode from buffer to buffer when the block and its place in the output
+        // are each in one segment
+        ByteBuffer block = source.slice(offset + 4, sizeAt(source, offset));
+        ByteBuffer place = target.slice(position, length);
+        if (block != null && place != null) {
+            artifact.expandBlock(block, place);
+            return;
+        }
+
+        // Otherwise decode into exactly the part of the output that belongs to the block.
+        // Expanding past it throws, and stopping short leaves some of it unfilled
+        OffHeapBitArray.SegmentOutputStream expanded = target.outputStream(position, length);
+        artifact.expandBlock(blockAt(source, offset), expanded);
+        if (expanded.remaining() > 0) {
+            throw new IOException("Block expanded to a different length than the index says");
+        }
+    }
+
+    /**
+     * This method expands one block from the input file into its place in the
+     * output file
+     * 
+     * @param artifact The header of the input file
+     * @param in       The input file
+     * @param offset   The offset of the block in the input file
+     * @param length   The number of bytes the block expands to
+     * @param out      The output file
+     * @param position The offset in the output file to write the block at
+     * @exception Exception Thrown when the block is malformed, or when the files
+     *                      cannot be read or written
+     */
+    private static void expandBlock(Artifact artifact, FileChannel in, long offset, int length, FileChannel out,
+            long position) throws Exception {
+        byte[] block = readBlockAt(in, offset);
+
+        ByteArrayOutputStream expanded = new ByteArrayOutputStream(length);
+        artifact.expandBlock(block, expanded);
+        if (expanded.size() != length) {
+            throw new IOException("Block expanded to a different length than the index says");
+        }
+
+        // Write the block into its place in the output. Writing at a position
+        // doesn't move the channel, so the blocks can be written in any order
+        ByteBuffer buffer = ByteBuffer.wrap(expanded.toByteArray());
+        while (buffer.hasRemaining()) {
+            out.write(buffer, position + buffer.position());
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.cgm616.colden;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The index at the end of a file whose body is split into blocks. For every
+ * block, it holds where the block starts in the file and how many bytes it
+ * expands to, so blocks can be found and expanded without reading the ones
+ * before them.
+ * 
+ * The index is written just after the block that ends the body: the number of
+ * blocks as an int, then the offset of each block as a long and its expanded
+ * length as an int. The last 8 bytes of the file are the offset of the index.
+ */
+public class BlockIndex {
+    // The number of bytes in each entry of the index
+    private static final int ENTRY_BYTES = 12;
+
+    // The offset in the file of the start of each block
+    private long[] offsets;
+    // The number of bytes each block expands to
+    private int[] lengths;
+    // The number of blocks in the index
+    private int size;
+
+    /**
+     * Class constructor that creates an empty index
+     */
+    public BlockIndex() {
+        this.offsets = new long[16];
+        this.lengths = new int[16];
+        this.size = 0;
+    }
+
+    /**
+     * This method adds a block to the end of the index
+     * 
+     * @param offset The offset in the file of the start of the block
+     * @param length The number of bytes the block expands to
+     */
+    public void add(long offset, int length) {
+        if (this.size == this.offsets.length) {
+            this.offsets = Arrays.copyOf(this.offsets, this.size * 2);
+            this.lengths = Arrays.copyOf(this.lengths, this.size * 2);
+        }
+        this.offsets[this.size] = offset;
+        this.lengths[this.size] = length;
+        this.size += 1;
+    }
+
+    /**
+     * This method returns the number of blocks in the index
+     * 
+     * @return The number of blocks
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * This method returns where a block starts in the file
+     * 
+     * @param block The index of the block
+     * @return The offset of the block
+     */
+    public long getOffset(int block) {
+        return this.offsets[block];
+    }
+
+    /**
+     * This method returns the number of bytes a block expands to
+     * 
+     * @param block The index of the block
+     * @return The expanded length of the block
+     */
+    public int getLength(int block) {
+        return this.lengths[block];
+    }
+
+    /**
+     * This method finds where each block's data starts in the expanded output
+     * 
+     * @return The offset in the output of each block, with one more entry at the
+     *         end holding the total length of the output
+     */
+    public long[] outputOffsets() {
+        long[] positions = new long[this.size + 1];
+        for (int i = 0; i < this.size; i++) {
+            positions[i + 1] = positions[i] + this.lengths[i];
+        }
+        return positions;
+    }
+
+    /**
+     * This method writes the index and the trailer that points to it
+     * 
+     * @param out    The stream to write to
+     * @param offset The offset in the file that the index is being written at
+     * @exception IOException Thrown when the stream cannot be written
+     */
+    public void write(OutputStream out, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + this.size * ENTRY_BYTES + 8);
+        buffer.putInt(this.size);
+        for (int i = 0; i < this.size; i++) {
+            buffer.putLong(this.offsets[i]);
+            buffer.putInt(this.lengths[i]);
+        }
+        buffer.putLong(offset);
+        out.write(buffer.array());
+    }
+
+    /**
+     * This method reads the index from the end of a file
+     * 
+     * @param channel The file to read from
+     * @return The index
+     * @exception IOException Thrown when the file cannot be read, or when it
+     *                        doesn't end with a valid index
+     */
+    public static BlockIndex read(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < 12) {
+            throw new IOException("File is too short to have a block index");
+        }
+
+        // The trailer points to the start of the index, which has to leave room for
+        // at least the number of blocks and the trailer itself
+        long offset = readFully(channel, 8, fileSize - 8).getLong();
+        if (offset < 0 || offset > fileSize - 12) {
+            throw new IOException("Block index offset is out of range");
+        }
+
+        // Make sure the number of blocks fills exactly the space before the trailer
+        int count = readFully(channel, 4, offset).getInt();
+        if (count < 0 || (long) count * ENTRY_BYTES != fileSize - 8 - offset - 4) {
+            throw new IOException("Block index has the wrong number of blocks");
+        }
+
+        ByteBuffer entries = readFully(channel, count * ENTRY_BYTES, offset + 4);
+        BlockIndex index = new BlockIndex();
+        for (int i = 0; i < count; i++) {
+            long blockOffset = entries.getLong();
+            int length = entries.getInt();
+            if (blockOffset < 0 || blockOffset >= offset || length < 0) {
+                throw new IOException("Block index has an invalid block");
+            }
+            index.add(blockOffset, length);
+        }
+        return index;
+    }
+
+    /**
+     * This method reads bytes from a position in a file. It doesn't move the
+     * channel's own position, so many threads can read from the same file at once
+     * 
+     * @param channel  The file to read from
+     * @param length   The number of bytes to read
+     * @param position The offset in the file to start reading at
+     * @return A buffer holding the bytes, ready to be read
+     * @exception IOException Thrown when the file ends before all of the bytes are
+     *                        read
+     */
+    static ByteBuffer readFully(FileChannel channel, int length, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read == -1) {
+                throw new IOException("Reached the end of the file while reading");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
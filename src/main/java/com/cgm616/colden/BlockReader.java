@@ -0,0 +1,110 @@
+package com.cgm616.colden;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reads the blocks of a file in order and expands them on a ForkJoinPool, a few
+ * ahead of the one being consumed. HuffmanInputStream and HuffmanChannels both
+ * read their blocks through one of these, and only differ in what an expanded
+ * block is held in and how a block is read in.
+ * 
+ * @param <T> What an expanded block is held in
+ */
+class BlockReader<T> {
+    /**
+     * Where the compressed blocks are read from
+     * 
+     * @param <T> What an expanded block is held in
+     */
+    interface Input<T> {
+        /**
+         * This method reads the next block
+         * 
+         * @return The task that expands the block, or null if it was the block that
+         *         ends the body
+         * @exception IOException Thrown when the block cannot be read, or ends early
+         */
+        Callable<T> next() throws IOException;
+
+        /**
+         * This method checks whether another block can be read without waiting on
+         * a slow source
+         * 
+         * @return Whether to read ahead
+         * @exception IOException Thrown when the source cannot be checked
+         */
+        boolean ready() throws IOException;
+    }
+
+    // The pool that expands the blocks
+    private ForkJoinPool pool;
+    // Where the blocks are read from
+    private Input<T> input;
+
+    // The blocks being expanded, oldest first
+    private ArrayDeque<ForkJoinTask<T>> pending = new ArrayDeque<>();
+    // Whether the block that ends the body has been read
+    private boolean ended = false;
+
+    /**
+     * Class constructor that takes the pool to expand blocks on and where to read
+     * them from
+     * 
+     * @param pool  The pool to expand blocks on
+     * @param input Where the blocks are read from
+     */
+    BlockReader(ForkJoinPool pool, Input<T> input) {
+        this.pool = pool;
+        this.input = input;
+    }
+
+    /**
+     * This method returns the next expanded block, waiting for it if it isn't
+     * ready yet
+     * 
+     * @return The expanded block, or null if the body has ended
+     * @exception IOException Thrown when a block cannot be read, or is malformed
+     *                        or fails its checksum
+     */
+    T next() throws IOException {
+        readAhead();
+        if (this.pending.isEmpty()) {
+            return null;
+        }
+        return BlockCompressor.join(this.pending.remove(), "expanded");
+    }
+
+    /**
+     * This method stops expanding the blocks that haven't been returned
+     */
+    void cancel() {
+        for (ForkJoinTask<T> task : this.pending) {
+            task.cancel(false);
+        }
+        this.pending.clear();
+    }
+
+    /**
+     * This method reads blocks and starts expanding them, keeping a couple of
+     * blocks per thread in flight. Past the first block, it only reads ahead while
+     * the input is ready, so that a slow source doesn't hold back blocks that are
+     * ready
+     * 
+     * @exception IOException Thrown when a block cannot be read, or ends early
+     */
+    private void readAhead() throws IOException {
+        int window = 2 * this.pool.getParallelism();
+        while (!this.ended && this.pending.size() < window && (this.pending.isEmpty() || this.input.ready())) {
+            Callable<T> expand = this.input.next();
+            if (expand == null) {
+                this.ended = true;
+            } else {
+                this.pending.add(this.pool.submit(expand));
+            }
+        }
+    }
+}
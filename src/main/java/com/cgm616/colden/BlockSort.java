@@ -0,0 +1,479 @@
+package com.cgm616.colden;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A block-sorting front end for the Huffman coder, like bzip2. Each block goes
+ * through three reversible steps before it is Huffman coded:
+ * 
+ * The Burrows-Wheeler transform sorts every rotation of the block, and keeps the
+ * last byte of each. Bytes that come before the same context end up next to
+ * each other, so text turns into long runs of a few bytes. The rotations are
+ * sorted by building a suffix array of the block (treated as a ring), by
+ * doubling the length of the prefixes compared each round.
+ * 
+ * Move-to-front turns each byte into how many different bytes were seen since
+ * the last time it showed up, so those runs become mostly zeros and small
+ * numbers.
+ * 
+ * Run-length coding replaces each run of zeros with its length, written in
+ * bijective base 2 with the digits 0 and 1, and moves every other rank up by one
+ * to make room. Ranks too big to move up are written as 255 followed by a byte
+ * saying which one they are.
+ * 
+ * Blocks are independent, so they are transformed at the same time on a
+ * ForkJoinPool, both ways. Each block is laid out as the CRC32C checksum of the
+ * block, the length of the block, and the row of the original block among the
+ * sorted rotations, as ints, then a canonical tree padded to a byte, and then
+ * the run-length coded ranks compressed by Huffman.compress(). The body of a
+ * file is these blocks, written and read with Artifact.writeBlock() and
+ * Artifact.readBlock().
+ */
+public class BlockSort {
+    // The number of bytes in every block but the last, by default. Sorting takes
+    // about 20 bytes of memory for every byte in a block
+    public static final int DEFAULT_BLOCK_SIZE = 900 * 1024;
+    // The most bytes a block can have
+    public static final int MAX_BLOCK_SIZE = 16 << 20;
+
+    // The digits of the length of a run of zeros, and the rank that says the next
+    // byte holds a rank too big to move up
+    private static final int RUN_A = 0;
+    private static final int RUN_B = 1;
+    private static final int ESCAPE = 255;
+
+    // The pool that transforms the blocks
+    private ForkJoinPool pool;
+    // The number of bytes in every block but the last
+    private int blockSize;
+
+    /**
+     * Class constructor that transforms blocks of the default size on the common
+     * pool
+     */
+    public BlockSort() {
+        this.pool = ForkJoinPool.commonPool();
+        this.blockSize = DEFAULT_BLOCK_SIZE;
+    }
+
+    /**
+     * Class constructor that takes the pool to transform blocks on and the size of
+     * the blocks. Bigger blocks find more of the same contexts, but take more
+     * memory and time to sort
+     * 
+     * @param pool      The pool to transform blocks on
+     * @param blockSize The number of bytes in every block but the last, up to
+     *                  MAX_BLOCK_SIZE
+     * @exception Exception Thrown when the block size is out of range
+     */
+    public BlockSort(ForkJoinPool pool, int blockSize) throws Exception {
+        if (blockSize < 1 || blockSize > MAX_BLOCK_SIZE) {
+            throw new Exception("The block size must be between 1 and " + MAX_BLOCK_SIZE);
+        }
+        this.pool = pool;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * This method compresses a stream into the body of a file. Like
+     * BlockCompressor, only a couple of blocks per thread are in memory at once
+     * 
+     * @param input  The stream to compress, which is read until it ends
+     * @param output The stream to write the blocks to
+     * @exception Exception Thrown when either stream fails
+     */
+    public void compress(InputStream input, OutputStream output) throws Exception {
+        int window = 2 * this.pool.getParallelism();
+        ArrayDeque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+
+        while (true) {
+            byte[] data = new byte[this.blockSize];
+            int length = input.readNBytes(data, 0, data.length);
+            if (length == 0) {
+                break;
+            }
+
+            pending.add(this.pool.submit(() -> encodeBlock(data, 0, length)));
+            if (pending.size() >= window) {
+                Artifact.writeBlock(output, BlockCompressor.join(pending.remove()));
+            }
+            if (length < this.blockSize) {
+                break;
+            }
+        }
+
+        while (!pending.isEmpty()) {
+            Artifact.writeBlock(output, BlockCompressor.join(pending.remove()));
+        }
+        Artifact.writeEnd(output);
+        output.flush();
+    }
+
+    /**
+     * This method expands the body of a file written by compress(), undoing the
+     * transforms of a few blocks at once
+     * 
+     * @param input  The stream to read the blocks from
+     * @param output The stream to write the expanded data to
+     * @exception Exception Thrown when a block is malformed, or the input ends
+     *                      before the block that ends the file
+     */
+    public void expand(BitInputStream input, OutputStream output) throws Exception {
+        int window = 2 * this.pool.getParallelism();
+        ArrayDeque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+
+        byte[] block;
+        while ((block = Artifact.readBlock(input)) != null) {
+            byte[] data = block;
+            pending.add(this.pool.submit(() -> decodeBlock(data)));
+            if (pending.size() >= window) {
+                output.write(BlockCompressor.join(pending.remove()));
+            }
+        }
+
+        while (!pending.isEmpty()) {
+            output.write(BlockCompressor.join(pending.remove()));
+        }
+    }
+
+    /**
+     * This method transforms part of a byte array and compresses it into the bytes
+     * of a block
+     * 
+     * @param data   The array holding the data
+     * @param offset The index of the first byte of the block
+     * @param length The number of bytes in the block, at least 1
+     * @return The bytes of the block
+     * @exception Exception Thrown when the ranks cannot be compressed
+     */
+    static byte[] encodeBlock(byte[] data, int offset, int length) throws Exception {
+        // Keep the last byte of every sorted rotation, and find where the block itself
+        // ended up
+        int[] rotations = sortRotations(data, offset, length);
+        byte[] last = new byte[length];
+        int primary = 0;
+        for (int i = 0; i < length; i++) {
+            int start = rotations[i];
+            if (start == 0) {
+                primary = i;
+                start = length;
+            }
+            last[i] = data[offset + start - 1];
+        }
+
+        byte[] ranks = runLengthCode(moveToFront(last));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length / 3 + 64);
+        BitOutputStream out = new BitOutputStream(bytes);
+        out.writeInt(Artifact.checksum(data, offset, length));
+        out.writeInt(length);
+        out.writeInt(primary);
+
+        Histogram histogram = new Histogram();
+        histogram.add(ranks, 0, ranks.length);
+        Huffman tree = new Huffman(histogram, Huffman.MAX_CODE_LENGTH);
+        out.write(tree.serializeCanonical());
+        tree.compress(new ByteArrayInputStream(ranks), out, ranks.length);
+        out.close();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * This method expands a block created by encodeBlock()
+     * 
+     * @param block The bytes of the block
+     * @return The expanded data
+     * @exception Exception Thrown when the block is malformed
+     */
+    static byte[] decodeBlock(byte[] block) throws Exception {
+        BitInputStream in = new BitInputStream(new ByteArrayInputStream(block));
+        int expected = in.readInt();
+        int length = in.readInt();
+        int primary = in.readInt();
+        if (length < 1 || length > MAX_BLOCK_SIZE || primary < 0 || primary >= length) {
+            throw new Exception("Block header is malformed");
+        }
+
+        Huffman tree = Huffman.deserializeCanonical(in);
+        in.alignToByte();
+        ByteArrayOutputStream ranks = new ByteArrayOutputStream();
+        tree.expand(in, ranks);
+
+        byte[] last = inverseMoveToFront(ranks.toByteArray(), length);
+        byte[] output = inverseTransform(last, primary);
+        Artifact.checkChecksum(expected, Artifact.checksum(output, 0, length));
+        return output;
+    }
+
+    /**
+     * This method sorts every rotation of part of a byte array. Rotations are first
+     * sorted by their first byte, and then each round sorts them by twice as many
+     * bytes, using the order of the two halves from the round before. Each round
+     * is a counting sort, so the whole thing takes O(n log n) time
+     * 
+     * @param data   The array holding the data
+     * @param offset The index of the first byte
+     * @param length The number of bytes, at least 1
+     * @return The start of each rotation, in sorted order
+     */
+    static int[] sortRotations(byte[] data, int offset, int length) {
+        int[] order = new int[length];
+        int[] classes = new int[length];
+        int[] shifted = new int[length];
+        int[] next = new int[length];
+        int[] counts = new int[Math.max(256, length)];
+
+        // Sort by the first byte
+        for (int i = 0; i < length; i++) {
+            counts[(int) data[offset + i] & 0xFF] += 1;
+        }
+        for (int v = 1; v < 256; v++) {
+            counts[v] += counts[v - 1];
+        }
+        for (int i = length - 1; i >= 0; i--) {
+            int value = (int) data[offset + i] & 0xFF;
+            counts[value] -= 1;
+            order[counts[value]] = i;
+        }
+
+        // Rotations in the same class start with the same bytes so far
+        int count = 1;
+        classes[order[0]] = 0;
+        for (int i = 1; i < length; i++) {
+            if (data[offset + order[i]] != data[offset + order[i - 1]]) {
+                count += 1;
+            }
+            classes[order[i]] = count - 1;
+        }
+
+        // Stop once every rotation is in its own class. A block that repeats itself
+        // has equal rotations, which are never split
+        for (int h = 1; h < length && count < length; h <<= 1) {
+            // The second halves are already sorted, so sorting the rotations h earlier
+            // by their first half sorts them by both
+            for (int i = 0; i < length; i++) {
+                shifted[i] = order[i] - h < 0 ? order[i] - h + length : order[i] - h;
+            }
+            Arrays.fill(counts, 0, count, 0);
+            for (int i = 0; i < length; i++) {
+                counts[classes[shifted[i]]] += 1;
+            }
+            for (int c = 1; c < count; c++) {
+                counts[c] += counts[c - 1];
+            }
+            for (int i = length - 1; i >= 0; i--) {
+                int c = classes[shifted[i]];
+                counts[c] -= 1;
+                order[counts[c]] = shifted[i];
+            }
+
+            count = 1;
+            next[order[0]] = 0;
+            for (int i = 1; i < length; i++) {
+                int current = order[i];
+                int previous = order[i - 1];
+                int currentHalf = classes[current + h < length ? current + h : current + h - length];
+                int previousHalf = classes[previous + h < length ? previous + h : previous + h - length];
+                if (classes[current] != classes[previous] || currentHalf != previousHalf) {
+                    count += 1;
+                }
+                next[current] = count - 1;
+            }
+
+            int[] swap = classes;
+            classes = next;
+            next = swap;
+        }
+
+        return order;
+    }
+
+    /**
+     * This method undoes the Burrows-Wheeler transform. The sorted rotations share
+     * their first bytes with the sorted last bytes, in the same order among equal
+     * bytes, which links each rotation to the one starting a byte later
+     * 
+     * @param last    The last byte of each sorted rotation
+     * @param primary The row of the original block
+     * @return The original block
+     */
+    static byte[] inverseTransform(byte[] last, int primary) {
+        int length = last.length;
+        int[] starts = new int[256];
+        for (byte value : last) {
+            starts[(int) value & 0xFF] += 1;
+        }
+        for (int v = 0, sum = 0; v < 256; v++) {
+            int count = starts[v];
+            starts[v] = sum;
+            sum += count;
+        }
+
+        // links[j] is the row that starts one byte after row j
+        int[] links = new int[length];
+        for (int i = 0; i < length; i++) {
+            int value = (int) last[i] & 0xFF;
+            links[starts[value]] = i;
+            starts[value] += 1;
+        }
+
+        byte[] output = new byte[length];
+        int row = links[primary];
+        for (int i = 0; i < length; i++) {
+            output[i] = last[row];
+            row = links[row];
+        }
+        return output;
+    }
+
+    /**
+     * This method replaces each byte with its position in a list of bytes, and then
+     * moves it to the front of the list
+     * 
+     * @param data The bytes
+     * @return The rank of each byte
+     */
+    static byte[] moveToFront(byte[] data) {
+        byte[] list = new byte[256];
+        for (int v = 0; v < 256; v++) {
+            list[v] = (byte) v;
+        }
+
+        byte[] ranks = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            byte value = data[i];
+            int rank = 0;
+            byte moving = list[0];
+            while (moving != value) {
+                rank += 1;
+                byte swap = list[rank];
+                list[rank] = moving;
+                moving = swap;
+            }
+            list[0] = value;
+            ranks[i] = (byte) rank;
+        }
+        return ranks;
+    }
+
+    /**
+     * This method codes the runs of zeros in a series of ranks
+     * 
+     * @param ranks The ranks from moveToFront()
+     * @return The coded ranks
+     */
+    static byte[] runLengthCode(byte[] ranks) {
+        // A rank takes at most two bytes, and a run never takes more than its length
+        byte[] output = new byte[ranks.length * 2];
+        int position = 0;
+        int run = 0;
+        for (int i = 0; i <= ranks.length; i++) {
+            int rank = i < ranks.length ? (int) ranks[i] & 0xFF : -1;
+            if (rank == 0) {
+                run += 1;
+                continue;
+            }
+
+            // Write the run in bijective base 2, lowest digit first
+            while (run > 0) {
+                if ((run & 1) == 1) {
+                    output[position] = RUN_A;
+                    run = (run - 1) >>> 1;
+                } else {
+                    output[position] = RUN_B;
+                    run = (run - 2) >>> 1;
+                }
+                position += 1;
+            }
+
+            if (rank == -1) {
+                break;
+            } else if (rank < ESCAPE - 1) {
+                output[position] = (byte) (rank + 1);
+                position += 1;
+            } else {
+                output[position] = (byte) ESCAPE;
+                output[position + 1] = (byte) (rank - (ESCAPE - 1));
+                position += 2;
+            }
+        }
+        return Arrays.copyOf(output, position);
+    }
+
+    /**
+     * This method undoes runLengthCode() and moveToFront() together
+     * 
+     * @param coded  The coded ranks
+     * @param length The number of bytes they should expand to
+     * @return The bytes
+     * @exception Exception Thrown when the coded ranks are malformed, or expand to
+     *                      the wrong number of bytes
+     */
+    static byte[] inverseMoveToFront(byte[] coded, int length) throws Exception {
+        byte[] list = new byte[256];
+        for (int v = 0; v < 256; v++) {
+            list[v] = (byte) v;
+        }
+
+        byte[] output = new byte[length];
+        int position = 0;
+        long run = 0;
+        int digit = 0;
+        for (int i = 0; i <= coded.length; i++) {
+            int symbol = i < coded.length ? (int) coded[i] & 0xFF : -1;
+            if (symbol == RUN_A || symbol == RUN_B) {
+                if (digit > 31) {
+                    throw new Exception("Block has a run that is too long");
+                }
+                run += (long) (symbol + 1) << digit;
+                digit += 1;
+                continue;
+            }
+
+            // A run of zeros repeats whatever is at the front of the list
+            if (run > length - position) {
+                throw new Exception("Block has more data than its length");
+            }
+            Arrays.fill(output, position, position + (int) run, list[0]);
+            position += (int) run;
+            run = 0;
+            digit = 0;
+
+            if (symbol == -1) {
+                break;
+            }
+            int rank;
+            if (symbol == ESCAPE) {
+                i += 1;
+                if (i == coded.length || ((int) coded[i] & 0xFF) > 1) {
+                    throw new Exception("Block has a malformed escape");
+                }
+                rank = (ESCAPE - 1) + coded[i];
+            } else {
+                rank = symbol - 1;
+            }
+
+            if (position == length) {
+                throw new Exception("Block has more data than its length");
+            }
+            byte value = list[rank];
+            System.arraycopy(list, 0, list, 1, rank);
+            list[0] = value;
+            output[position] = value;
+            position += 1;
+        }
+
+        if (position != length) {
+            throw new Exception("Block has less data than its length");
+        }
+        return output;
+    }
+}
@@ -0,0 +1,150 @@
+package com.cgm616.colden;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Writes the blocks of a file in order while later ones are still being
+ * compressed on a ForkJoinPool. It keeps a couple of blocks per thread in
+ * flight, adds each block to the index as it is written, and records it in the
+ * Metrics. BlockCompressor, HuffmanOutputStream and HuffmanChannels all write
+ * their blocks through one of these, and only differ in what a compressed block
+ * is held in and how it is written out.
+ * 
+ * @param <T> What a compressed block is held in
+ */
+class BlockWriter<T> {
+    /**
+     * How a compressed block is written out
+     * 
+     * @param <T> What a compressed block is held in
+     */
+    interface Output<T> {
+        /**
+         * This method writes a compressed block, with its length in front of it
+         * 
+         * @param block The compressed block
+         * @return The number of bytes in the block, not counting the length
+         * @exception IOException Thrown when the block cannot be written
+         */
+        int write(T block) throws IOException;
+    }
+
+    // The pool that compresses the blocks
+    private ForkJoinPool pool;
+    // Where the blocks are written
+    private Output<T> output;
+
+    // The blocks being compressed, oldest first, with the number of bytes in each
+    // kept alongside it for the index
+    private ArrayDeque<ForkJoinTask<T>> pending = new ArrayDeque<>();
+    private ArrayDeque<Integer> lengths = new ArrayDeque<>();
+    // The index of the blocks written so far
+    private BlockIndex index = new BlockIndex();
+    // The offset in the file just after the last thing written
+    private long position;
+    // The metrics the blocks are recorded into
+    private Metrics metrics = Metrics.getDefault();
+
+    /**
+     * Class constructor that takes the pool to compress blocks on and where to
+     * write them
+     * 
+     * @param pool     The pool to compress blocks on
+     * @param position The offset in the file the first block is written at
+     * @param output   How each compressed block is written
+     */
+    BlockWriter(ForkJoinPool pool, long position, Output<T> output) {
+        this.pool = pool;
+        this.position = position;
+        this.output = output;
+    }
+
+    /**
+     * This method starts compressing a block, and writes out the oldest blocks
+     * once enough are waiting. The block's bytes are counted as held in the
+     * metrics until it is written
+     * 
+     * @param encode The task that compresses the block
+     * @param length The number of bytes in the block before it is compressed
+     * @exception IOException Thrown when an older block cannot be compressed or
+     *                        written
+     */
+    void submit(Callable<T> encode, int length) throws IOException {
+        this.pending.add(this.pool.submit(encode));
+        this.lengths.add(length);
+        this.metrics.allocate(length);
+
+        // Allow a couple of blocks per thread to be in flight, so that the threads
+        // stay busy while the oldest block is written
+        while (this.pending.size() >= 2 * this.pool.getParallelism()) {
+            writeNext();
+        }
+    }
+
+    /**
+     * This method waits for every block to be compressed and writes them out
+     * 
+     * @exception IOException Thrown when a block cannot be compressed or written
+     */
+    void drain() throws IOException {
+        while (!this.pending.isEmpty()) {
+            writeNext();
+        }
+    }
+
+    /**
+     * This method writes the rest of the blocks, the block that ends the body, and
+     * the index
+     * 
+     * @param out The stream to write the end of the body and the index to, which
+     *            follows the blocks in the same file
+     * @exception IOException Thrown when a block cannot be compressed, or when the
+     *                        file cannot be written
+     */
+    void finish(OutputStream out) throws IOException {
+        drain();
+        Artifact.writeEnd(out);
+        this.index.write(out, this.position + 4);
+    }
+
+    /**
+     * This method stops compressing the blocks that haven't been written, which
+     * are no longer held in the metrics either. It is called when something has
+     * failed, or once everything has been written
+     */
+    void cancel() {
+        for (ForkJoinTask<T> task : this.pending) {
+            task.cancel(false);
+        }
+        for (int length : this.lengths) {
+            this.metrics.release(length);
+        }
+        this.pending.clear();
+        this.lengths.clear();
+    }
+
+    /**
+     * This method waits for the oldest block to be compressed, writes it, adds it
+     * to the index, and records it in the metrics
+     * 
+     * @exception IOException Thrown when the block cannot be compressed or written
+     */
+    private void writeNext() throws IOException {
+        T compressed = BlockCompressor.join(this.pending.remove(), "compressed");
+
+        long start = System.nanoTime();
+        int size = this.output.write(compressed);
+        int length = this.lengths.remove();
+        this.metrics.record(Metrics.Stage.WRITE, length, start);
+        this.metrics.recordCompressed(length, 4 + size);
+        this.metrics.release(length);
+
+        this.index.add(this.position, length);
+        this.position += 4 + size;
+    }
+}
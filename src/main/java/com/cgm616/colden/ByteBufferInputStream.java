@@ -0,0 +1,77 @@
+package com.cgm616.colden;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream that reads the bytes of a ByteBuffer, from its position to its
+ * limit. Reading an array copies straight out of the buffer in one call, so a
+ * mapped or direct buffer can be read without copying it through another
+ * buffer first.
+ * 
+ * Subclasses can read more than one buffer by overriding next(), which is
+ * called whenever the current buffer runs out.
+ */
+public class ByteBufferInputStream extends InputStream {
+    // The buffer being read
+    protected ByteBuffer buffer;
+
+    /**
+     * Class constructor that takes the buffer to read
+     * 
+     * @param buffer The buffer to read, from its position to its limit
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * This method is called when the buffer has no bytes left, and can replace it
+     * with the next buffer to read
+     * 
+     * @return Whether there is a new buffer to read
+     * @exception IOException Thrown when the next buffer cannot be loaded
+     */
+    protected boolean next() throws IOException {
+        return false;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (!this.buffer.hasRemaining()) {
+            if (!next()) {
+                return -1;
+            }
+        }
+        return (int) this.buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (!this.buffer.hasRemaining()) {
+            if (!next()) {
+                return -1;
+            }
+        }
+
+        int count = Math.min(len, this.buffer.remaining());
+        this.buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        int count = (int) Math.max(0, Math.min(n, this.buffer.remaining()));
+        this.buffer.position(this.buffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return this.buffer.remaining();
+    }
+}
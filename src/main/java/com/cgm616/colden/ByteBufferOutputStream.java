@@ -0,0 +1,68 @@
+package com.cgm616.colden;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An OutputStream that writes into a ByteBuffer, from its position up to its
+ * limit. Writing an array copies straight into the buffer in one call, so data
+ * can be written into a mapped or direct buffer without another copy.
+ * 
+ * By default, writing past the limit is an error. Subclasses can override
+ * drain() to empty the buffer somewhere else when it fills up.
+ */
+public class ByteBufferOutputStream extends OutputStream {
+    // The buffer being written to
+    protected ByteBuffer buffer;
+
+    /**
+     * Class constructor that takes the buffer to write to
+     * 
+     * @param buffer The buffer to write to, from its position to its limit
+     */
+    public ByteBufferOutputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * This method is called when the buffer is full, and must make room in it for
+     * more bytes
+     * 
+     * @exception IOException Thrown when there is no more room to write into
+     */
+    protected void drain() throws IOException {
+        throw new IOException("Reached the end of the buffer while writing");
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!this.buffer.hasRemaining()) {
+            drain();
+        }
+        this.buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!this.buffer.hasRemaining()) {
+                drain();
+            }
+
+            int count = Math.min(len, this.buffer.remaining());
+            this.buffer.put(b, off, count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * This method returns the buffer being written to
+     * 
+     * @return The buffer, with its position just after the last byte written
+     */
+    public ByteBuffer getBuffer() {
+        return this.buffer;
+    }
+}
@@ -0,0 +1,59 @@
+package com.cgm616.colden;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An InputStream that reads a range of a file through a direct buffer. It reads
+ * at positions instead of moving the channel, so many streams can read
+ * different parts of the same channel at once. Closing the stream doesn't close
+ * the channel.
+ */
+public class ChannelInputStream extends ByteBufferInputStream {
+    // The number of bytes in the direct buffer
+    private static final int SIZE = 1 << 20;
+
+    // The file being read
+    private FileChannel channel;
+    // The offset in the file of the next byte to load into the buffer
+    private long position;
+    // The offset in the file just after the range
+    private long end;
+
+    /**
+     * Class constructor that takes the range of the file to read
+     * 
+     * @param channel  The file to read from
+     * @param position The offset of the first byte to read
+     * @param length   The number of bytes to read
+     */
+    public ChannelInputStream(FileChannel channel, long position, long length) {
+        super(ByteBuffer.allocateDirect((int) Math.min(SIZE, Math.max(length, 1))));
+        this.channel = channel;
+        this.position = position;
+        this.end = position + length;
+
+        // Start with an empty buffer, so the first read loads it
+        this.buffer.limit(0);
+    }
+
+    @Override
+    protected boolean next() throws IOException {
+        if (this.position >= this.end) {
+            return false;
+        }
+
+        this.buffer.clear();
+        this.buffer.limit((int) Math.min(this.buffer.capacity(), this.end - this.position));
+        while (this.buffer.hasRemaining()) {
+            int read = this.channel.read(this.buffer, this.position + this.buffer.position());
+            if (read == -1) {
+                throw new IOException("Reached the end of the file while reading");
+            }
+        }
+        this.position += this.buffer.position();
+        this.buffer.flip();
+        return true;
+    }
+}
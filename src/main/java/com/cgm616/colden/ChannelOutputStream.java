@@ -0,0 +1,64 @@
+package com.cgm616.colden;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An OutputStream that writes to a channel through a direct buffer. The channel
+ * can write a direct buffer without first copying it out of the Java heap.
+ */
+public class ChannelOutputStream extends ByteBufferOutputStream {
+    // The number of bytes in the direct buffer
+    private static final int SIZE = 1 << 20;
+
+    // The channel being written to
+    private WritableByteChannel channel;
+
+    /**
+     * Class constructor that takes the channel to write to
+     * 
+     * @param channel The channel to write to
+     */
+    public ChannelOutputStream(WritableByteChannel channel) {
+        super(ByteBuffer.allocateDirect(SIZE));
+        this.channel = channel;
+    }
+
+    /**
+     * Class constructor that creates a file to write to, replacing it if it exists
+     * 
+     * @param file The file to write to
+     * @exception IOException Thrown when the file cannot be created
+     */
+    public ChannelOutputStream(Path file) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    @Override
+    protected void drain() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,692 @@
+package com.cgm616.colden;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A command-line entry point that doesn't need JavaFX or a display. It
+ * compresses or expands any number of files at once on a pool of threads, and
+ * reports how fast the whole batch went.
+ * 
+ * Each file is a task in the pool, and the blocks of each file are tasks in the
+ * same pool, so a few large files keep every thread busy just like many small
+ * ones do.
+ */
+public class Cli {
+    // The extension given to compressed files
+    public static final String EXTENSION = ".112";
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "usage: colden (compress | expand | verify | train) [options] <file or glob>...", "",
+            "Compressed files are named after the input with " + EXTENSION + " added, and expanded",
+            "files are named after the input with " + EXTENSION + " removed. Verifying expands each",
+            "file without writing it, checking every block against its checksum. Training adds a",
+            "tree built from the files to the registry given by --trees.", "", "options:",
+            "  -t, --threads <n>    the number of threads to use (default: one per core)",
+            "  -o, --output <dir>   write every output file into this directory",
+            "  -f, --force          replace output files that already exist",
+            "  -s, --shared         count the file first, so every block shares one tree",
+            "  -a, --adaptive       compress in one pass with an adaptive code, instead of in blocks",
+            "  -c, --context        compress with a tree for each preceding byte, instead of in blocks",
+            "  -l, --lz             replace repeated strings with matches before Huffman coding",
+            "  -b, --bwt            sort each block with the Burrows-Wheeler transform before Huffman coding",
+            "  -r, --trees <file>   the registry of pretrained trees to use, or to train into",
+            "  -p, --preset <id>    compress with the pretrained tree with this ID, or train it",
+            "  -m, --metrics        print the block metrics for the batch as JSON after the total",
+            "  -q, --quiet          only report errors and the total", "  -h, --help           show this message");
+
+    // Whether files are being expanded instead of compressed
+    private boolean expand;
+    // Whether files are only being checked, which expands them without writing
+    // anything
+    private boolean verify = false;
+    // Whether a tree is being trained from the files instead
+    private boolean train;
+    // The number of threads in the pool
+    private int threads = Runtime.getRuntime().availableProcessors();
+    // The directory to write outputs to, or null to write them next to the inputs
+    private Path outputDirectory = null;
+    // Whether existing outputs can be replaced
+    private boolean force = false;
+    // Whether to count the file first, so that every block shares one tree
+    private boolean shared = false;
+    // Whether to compress with an adaptive code
+    private boolean adaptive = false;
+    // Whether to compress with a context model
+    private boolean context = false;
+    // Whether to find repeated strings with Lzss first
+    private boolean lzss = false;
+    // Whether to transform blocks with BlockSort first
+    private boolean blockSort = false;
+    // The file holding the registry of pretrained trees, and the registry itself,
+    // or null to use the default one
+    private Path trees = null;
+    private TreeRegistry registry = null;
+    // The ID of the pretrained tree to compress with or train, or -1 for none
+    private int preset = -1;
+    // Whether to print the metrics after the total
+    private boolean metrics = false;
+    // Whether to leave out the line for each file
+    private boolean quiet = false;
+    // Whether only the usage was asked for
+    private boolean help = false;
+    // The files to work on, with globs already matched
+    private List<Path> inputs = new ArrayList<>();
+
+    // Where reports and errors are printed
+    private PrintStream out;
+    private PrintStream err;
+
+    private Cli(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * This method runs the command line, printing to the given streams instead of
+     * exiting
+     * 
+     * @param args The command-line arguments
+     * @param out  Where to print reports
+     * @param err  Where to print errors
+     * @return The exit status: 0 if every file worked, 1 if any failed, and 2 if
+     *         the arguments were wrong
+     */
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        Cli cli = new Cli(out, err);
+        try {
+            cli.parse(args);
+        } catch (Exception e) {
+            err.println("colden: " + e.getMessage());
+            err.println(USAGE);
+            return 2;
+        }
+
+        if (cli.help) {
+            out.println(USAGE);
+            return 0;
+        }
+        return cli.execute();
+    }
+
+    /**
+     * This method reads the arguments into this object's fields
+     * 
+     * @param args The command-line arguments
+     * @exception Exception Thrown when the arguments are wrong, or a glob doesn't
+     *                      match any files
+     */
+    private void parse(String[] args) throws Exception {
+        if (args.length == 0) {
+            throw new Exception("No command given");
+        }
+
+        switch (args[0]) {
+        case "compress":
+            this.expand = false;
+            break;
+        case "expand":
+            this.expand = true;
+            break;
+        case "verify":
+            this.expand = true;
+            this.verify = true;
+            break;
+        case "train":
+            this.train = true;
+            break;
+        case "-h":
+        case "--help":
+            this.help = true;
+            return;
+        default:
+            throw new Exception("Unknown command " + args[0]);
+        }
+
+        // Once "--" is seen, everything else is a file even if it starts with "-"
+        boolean options = true;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (options && arg.startsWith("-")) {
+                switch (arg) {
+                case "-t":
+                case "--threads":
+                    try {
+                        this.threads = Integer.parseInt(valueOf(args, ++i));
+                    } catch (NumberFormatException e) {
+                        throw new Exception("The number of threads must be a number");
+                    }
+                    if (this.threads < 1) {
+                        throw new Exception("The number of threads must be at least 1");
+                    }
+                    break;
+                case "-o":
+                case "--output":
+                    this.outputDirectory = Paths.get(valueOf(args, ++i));
+                    break;
+                case "-f":
+                case "--force":
+                    this.force = true;
+                    break;
+                case "-s":
+                case "--shared":
+                    this.shared = true;
+                    break;
+                case "-a":
+                case "--adaptive":
+                    this.adaptive = true;
+                    break;
+                case "-c":
+                case "--context":
+                    this.context = true;
+                    break;
+                case "-l":
+                case "--lz":
+                    this.lzss = true;
+                    break;
+                case "-b":
+                case "--bwt":
+                    this.blockSort = true;
+                    break;
+                case "-r":
+                case "--trees":
+                    this.trees = Paths.get(valueOf(args, ++i));
+                    break;
+                case "-p":
+                case "--preset":
+                    try {
+                        this.preset = Integer.parseInt(valueOf(args, ++i));
+                    } catch (NumberFormatException e) {
+                        throw new Exception("The tree ID must be a number");
+                    }
+                    if (this.preset < 0 || this.preset > TreeRegistry.MAX_ID) {
+                        throw new Exception("The tree ID must be between 0 and " + TreeRegistry.MAX_ID);
+                    }
+                    break;
+                case "-m":
+                case "--metrics":
+                    this.metrics = true;
+                    break;
+                case "-q":
+                case "--quiet":
+                    this.quiet = true;
+                    break;
+                case "-h":
+                case "--help":
+                    this.help = true;
+                    return;
+                case "--":
+                    options = false;
+                    break;
+                default:
+                    throw new Exception("Unknown option " + arg);
+                }
+            } else {
+                this.inputs.addAll(match(arg));
+            }
+        }
+
+        if (this.inputs.isEmpty()) {
+            throw new Exception("No input files given");
+        }
+        int modes = 0;
+        boolean[] chosen = { this.shared, this.adaptive, this.context, this.lzss, this.blockSort, this.preset >= 0 };
+        for (boolean mode : chosen) {
+            modes += mode ? 1 : 0;
+        }
+        if (modes > 1) {
+            throw new Exception("Only one of --shared, --adaptive, --context, --lz, --bwt and --preset can be used");
+        }
+        if (this.outputDirectory != null && !Files.isDirectory(this.outputDirectory)) {
+            throw new Exception("Output directory " + this.outputDirectory + " does not exist");
+        }
+
+        // Load the registry up front, so a bad one fails before any file. A new
+        // registry can be trained into a file that doesn't exist yet
+        if ((this.train || this.preset >= 0) && this.trees == null) {
+            throw new Exception("Pretrained trees need a registry given by --trees");
+        }
+        if (this.trees != null) {
+            if (this.train && !Files.exists(this.trees)) {
+                this.registry = new TreeRegistry();
+            } else {
+                this.registry = TreeRegistry.load(this.trees);
+            }
+        }
+        if (this.train) {
+            return;
+        }
+        if (this.preset >= 0) {
+            this.registry.get(this.preset);
+        }
+        if (this.verify) {
+            return;
+        }
+
+        // Two inputs writing the same output would overwrite each other
+        Set<Path> outputs = new HashSet<>();
+        for (Path input : this.inputs) {
+            if (!outputs.add(outputFor(input).toAbsolutePath().normalize())) {
+                throw new Exception("More than one input would be written to " + outputFor(input));
+            }
+        }
+    }
+
+    // Gets the value following an option
+    private static String valueOf(String[] args, int index) throws Exception {
+        if (index >= args.length) {
+            throw new Exception("Option " + args[index - 1] + " needs a value");
+        }
+        return args[index];
+    }
+
+    /**
+     * This method finds the files that an argument names. Shells usually match
+     * globs themselves, but a quoted glob is matched here, so that batches too
+     * large for the command line still work. A glob containing ** searches
+     * subdirectories too
+     * 
+     * @param arg The file name or glob
+     * @return The files, sorted by name
+     * @exception Exception Thrown when a glob doesn't match any files
+     */
+    static List<Path> match(String arg) throws Exception {
+        int first = firstGlobCharacter(arg);
+        if (first == -1) {
+            return List.of(Paths.get(arg));
+        }
+
+        // Search from the last directory before the glob starts
+        int slash = Math.max(arg.lastIndexOf('/', first), arg.lastIndexOf(File.separatorChar, first));
+        Path base = Paths.get(slash == -1 ? "" : arg.substring(0, slash + 1));
+        String rest = arg.substring(slash + 1);
+
+        // Without **, a glob can only match files as deep as it has parts
+        int depth = Integer.MAX_VALUE;
+        if (!rest.contains("**")) {
+            depth = (int) rest.chars().filter(c -> c == '/' || c == File.separatorChar).count() + 1;
+        }
+
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + arg);
+        List<Path> matches;
+        try (Stream<Path> files = Files.walk(base, depth)) {
+            matches = files.filter(path -> matcher.matches(path) && Files.isRegularFile(path)).sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new Exception("Could not search " + arg + ": " + e.getMessage());
+        }
+
+        if (matches.isEmpty()) {
+            throw new Exception("No files match " + arg);
+        }
+        return matches;
+    }
+
+    // Finds where the glob in an argument starts, or -1 if it has none
+    private static int firstGlobCharacter(String arg) {
+        for (int i = 0; i < arg.length(); i++) {
+            if ("*?[{".indexOf(arg.charAt(i)) != -1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * This method works out where the output for an input goes
+     * 
+     * @param input The input file
+     * @return The output file
+     */
+    private Path outputFor(Path input) {
+        String name = input.getFileName().toString();
+        if (!this.expand) {
+            name = name + EXTENSION;
+        } else if (name.endsWith(EXTENSION) && name.length() > EXTENSION.length()) {
+            name = name.substring(0, name.length() - EXTENSION.length());
+        } else {
+            name = name + ".out";
+        }
+
+        if (this.outputDirectory != null) {
+            return this.outputDirectory.resolve(name);
+        }
+        return input.resolveSibling(name);
+    }
+
+    /**
+     * This method runs every file through the pool and prints the results
+     * 
+     * @return The exit status
+     */
+    private int execute() {
+        if (this.train) {
+            return train();
+        }
+
+        // Only this batch is counted in the metrics that are printed
+        if (this.metrics) {
+            Metrics.getDefault().reset();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(this.threads);
+        long start = System.nanoTime();
+
+        List<Result> results = new ArrayList<>();
+        try {
+            // Start every file first, and then wait for each in turn
+            List<ForkJoinTask<Result>> tasks = new ArrayList<>();
+            for (Path input : this.inputs) {
+                tasks.add(pool.submit(() -> process(input, pool)));
+            }
+            for (ForkJoinTask<Result> task : tasks) {
+                Result result = task.join();
+                report(result);
+                results.add(result);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return summarize(results, seconds);
+    }
+
+    /**
+     * This method compresses or expands one file
+     * 
+     * @param input The file to read
+     * @param pool  The pool to run the file's blocks on
+     * @return What happened
+     */
+    private Result process(Path input, ForkJoinPool pool) {
+        Result result = new Result(input, this.verify ? null : outputFor(input));
+        // Whether the output has been created or replaced by this run
+        boolean started = false;
+        try {
+            if (!Files.isRegularFile(input)) {
+                throw new Exception("No such file");
+            }
+            if (this.verify) {
+                result.read = Files.size(input);
+                result.written = verify(input, pool, this.registry);
+                return result;
+            }
+            if (!this.force && Files.exists(result.output)) {
+                throw new Exception("Output file " + result.output + " already exists");
+            }
+
+            started = true;
+            if (this.expand) {
+                expand(input, result.output, pool, this.registry);
+            } else if (this.preset >= 0) {
+                compressPreset(input, result.output, this.registry, this.preset);
+            } else if (this.shared) {
+                new BlockCompressor(pool, BlockCompressor.DEFAULT_BLOCK_SIZE).compressShared(input, result.output);
+            } else if (this.adaptive) {
+                compressAdaptive(input, result.output);
+            } else if (this.context) {
+                compressContext(input, result.output);
+            } else if (this.lzss) {
+                compressLzss(input, result.output);
+            } else if (this.blockSort) {
+                compressBlockSort(input, result.output, pool);
+            } else {
+                new BlockCompressor(pool, BlockCompressor.DEFAULT_BLOCK_SIZE).compress(input, result.output);
+            }
+
+            result.read = Files.size(input);
+            result.written = Files.size(result.output);
+        } catch (Exception e) {
+            result.error = e;
+
+            // Don't leave a truncated or partly zeroed output behind, since it would look
+            // finished and a second try would refuse to replace it
+            if (started) {
+                try {
+                    Files.deleteIfExists(result.output);
+                } catch (IOException deleteFailed) {
+                    e.addSuppressed(deleteFailed);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * This method expands a file, all at once if it has a block index and as a
+     * stream if it doesn't
+     * 
+     * @param input    The compressed file
+     * @param output   The file to write to, which is replaced if it exists
+     * @param pool     The pool to expand blocks on
+     * @param registry The registry of pretrained trees, or null to use the
+     *                 default one
+     * @exception Exception Thrown when the file is malformed, or when the files
+     *                      cannot be read or written
+     */
+    static void expand(Path input, Path output, ForkJoinPool pool, TreeRegistry registry) throws Exception {
+        try (BitInputStream in = new BitInputStream(new MappedInputStream(input))) {
+            Artifact artifact = Artifact.readHeader(in, registry);
+
+            if (artifact.hasIndex()) {
+                new BlockExpander(pool).expand(artifact, input, output);
+            } else {
+                try (OutputStream out = new ChannelOutputStream(output)) {
+                    artifact.expand(in, out);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method expands a file without writing it anywhere, checking each block
+     * against its checksum. Files with a block index have all of their blocks
+     * checked at once
+     * 
+     * @param input    The compressed file
+     * @param pool     The pool to check blocks on
+     * @param registry The registry of pretrained trees, or null to use the
+     *                 default one
+     * @return The number of bytes the file expands to
+     * @exception Exception Thrown when the file is malformed or fails a checksum,
+     *                      or when it cannot be read
+     */
+    static long verify(Path input, ForkJoinPool pool, TreeRegistry registry) throws Exception {
+        try (BitInputStream in = new BitInputStream(new MappedInputStream(input))) {
+            Artifact artifact = Artifact.readHeader(in, registry);
+
+            if (artifact.hasIndex()) {
+                return new BlockExpander(pool).verify(artifact, input);
+            }
+            return artifact.verify(in);
+        }
+    }
+
+    /**
+     * This method compresses a file with a pretrained tree, which the file names
+     * instead of storing
+     * 
+     * @param input    The file to compress
+     * @param output   The file to write to, which is replaced if it exists
+     * @param registry The registry holding the tree
+     * @param id       The ID of the tree
+     * @exception Exception Thrown when the tree isn't in the registry, or when the
+     *                      files cannot be read or written
+     */
+    static void compressPreset(Path input, Path output, TreeRegistry registry, int id) throws Exception {
+        try (InputStream in = new MappedInputStream(input); OutputStream out = new ChannelOutputStream(output)) {
+            registry.compress(id, in, out, Files.size(input));
+        }
+    }
+
+    /**
+     * This method trains a tree from every input, adds it to the registry, and
+     * saves the registry
+     * 
+     * @return The exit status
+     */
+    private int train() {
+        try {
+            int id = this.preset >= 0 ? this.preset : this.registry.nextId();
+            this.registry.register(id, TreeRegistry.train(this.inputs));
+            this.registry.save(this.trees);
+            this.out.printf("Trained tree %d from %d files into %s%n", id, this.inputs.size(), this.trees);
+            return 0;
+        } catch (Exception e) {
+            this.err.println("colden: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * This method compresses a file in one pass with an adaptive code
+     * 
+     * @param input  The file to compress
+     * @param output The file to write to, which is replaced if it exists
+     * @exception IOException Thrown when the files cannot be read or written
+     */
+    static void compressAdaptive(Path input, Path output) throws IOException {
+        try (InputStream in = new MappedInputStream(input); OutputStream out = new ChannelOutputStream(output)) {
+            Artifact.writeAdaptiveHeader(out);
+            AdaptiveHuffman.compress(in, new BitOutputStream(out));
+        }
+    }
+
+    /**
+     * This method compresses a file with a context model, reading it once to build
+     * the model and again to compress it
+     * 
+     * @param input  The file to compress
+     * @param output The file to write to, which is replaced if it exists
+     * @exception Exception Thrown when the files cannot be read or written
+     */
+    static void compressContext(Path input, Path output) throws Exception {
+        ContextHuffman model;
+        try (InputStream in = new MappedInputStream(input)) {
+            model = new ContextHuffman(in);
+        }
+        try (InputStream in = new MappedInputStream(input); OutputStream out = new ChannelOutputStream(output)) {
+            Artifact.writeContextHeader(out, model);
+            BitOutputStream bits = new BitOutputStream(out);
+            model.compress(in, bits, Files.size(input));
+            bits.flush();
+        }
+    }
+
+    /**
+     * This method compresses a file with Lzss in front of the Huffman code
+     * 
+     * @param input  The file to compress
+     * @param output The file to write to, which is replaced if it exists
+     * @exception Exception Thrown when the files cannot be read or written
+     */
+    static void compressLzss(Path input, Path output) throws Exception {
+        try (InputStream in = new MappedInputStream(input); OutputStream out = new ChannelOutputStream(output)) {
+            Artifact.writeLzssHeader(out);
+            new Lzss().compress(in, out);
+        }
+    }
+
+    /**
+     * This method compresses a file with BlockSort in front of the Huffman code,
+     * transforming its blocks on a pool
+     * 
+     * @param input  The file to compress
+     * @param output The file to write to, which is replaced if it exists
+     * @param pool   The pool to transform the blocks on
+     * @exception Exception Thrown when the files cannot be read or written
+     */
+    static void compressBlockSort(Path input, Path output, ForkJoinPool pool) throws Exception {
+        try (InputStream in = new MappedInputStream(input); OutputStream out = new ChannelOutputStream(output)) {
+            Artifact.writeBlockSortHeader(out);
+            new BlockSort(pool, BlockSort.DEFAULT_BLOCK_SIZE).compress(in, out);
+        }
+    }
+
+    // Prints the line for one file
+    private void report(Result result) {
+        if (result.error != null) {
+            this.err.println("colden: " + result.input + ": " + result.error.getMessage());
+        } else if (this.quiet) {
+            return;
+        } else if (this.verify) {
+            this.out.printf("%s OK (%d -> %d bytes)%n", result.input, result.read, result.written);
+        } else {
+            this.out.printf("%s -> %s (%d -> %d bytes)%n", result.input, result.output, result.read,
+                    result.written);
+        }
+    }
+
+    /**
+     * This method prints the totals for the batch. The speed is always in
+     * uncompressed megabytes per second, so compressing and expanding can be
+     * compared
+     * 
+     * @param results The result of each file
+     * @param seconds How long the whole batch took
+     * @return The exit status
+     */
+    private int summarize(List<Result> results, double seconds) {
+        int failed = 0;
+        long read = 0;
+        long written = 0;
+        for (Result result : results) {
+            if (result.error != null) {
+                failed += 1;
+            } else {
+                read += result.read;
+                written += result.written;
+            }
+        }
+
+        double megabytes = (this.expand ? written : read) / (1024.0 * 1024.0);
+        String verb = this.verify ? "Verified" : this.expand ? "Expanded" : "Compressed";
+        this.out.printf("%s %d files (%d -> %d bytes) in %.2f s, %.1f MB/s%n", verb, results.size() - failed, read,
+                written, seconds, megabytes / Math.max(seconds, 1e-9));
+        if (this.metrics) {
+            this.out.println(Metrics.getDefault().getSummary());
+        }
+
+        if (failed > 0) {
+            this.err.println("colden: " + failed + " files failed");
+            return 1;
+        }
+        return 0;
+    }
+
+    // What happened to one file
+    private static class Result {
+        private Path input;
+        private Path output;
+        private long read = 0;
+        private long written = 0;
+        // Why the file failed, or null if it worked
+        private Exception error = null;
+
+        private Result(Path input, Path output) {
+            this.input = input;
+            this.output = output;
+        }
+    }
+}
@@ -1,12 +1,6 @@
 package com.cgm616.colden;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.logging.Level;
 
 import javafx.stage.FileChooser;
@@ -26,34 +20,51 @@ public class Compress extends ColdenTab {
         log("Running compression... (input: " + inputFile.getPath() + ", output: " + outputFile.getPath() + ")",
                 Level.INFO);
 
-        Huffman compressor;
-        int inputLength;
-        try (InputStream in = new BufferedInputStream(new FileInputStream(inputFile))) {
-            inputLength = (int) inputFile.length();
+        long inputLength = inputFile.length();
+
+        // Make sure the data is more than 0 bytes
+        if (inputLength < 1) {
+            log("Please select an input file that is longer than 0 bytes. Aborting.", Level.SEVERE);
+            return;
+        } else {
+            log("Compressing " + inputLength + " bytes...", Level.INFO);
+        }
 
-            // Make sure the data is more than 0 bytes
-            if (inputLength < 1) {
-                log("Please select an input file that is longer than 0 bytes. Aborting.", Level.SEVERE);
-                return;
+        // Compress the input in blocks on every core at once. A graph needs one tree
+        // for the whole file, so the bytes are counted first, in different parts of
+        // the file at the same time, and every block shares the tree. Otherwise the
+        // input is read only once: small inputs are kept in memory so that every
+        // block can share one tree, and large ones get a tree for each block.
+        //
+        // The input is mapped into memory and the output is written through a direct
+        // buffer, so the data isn't copied through stream buffers on the way
+        Huffman compressor;
+        try {
+            if (saveGraph.isSelected()) {
+                compressor = new BlockCompressor().compressShared(inputFile.toPath(), outputFile.toPath());
             } else {
-                log("Compressing " + inputLength + " bytes...", Level.INFO);
+                compressor = new BlockCompressor().compress(inputFile.toPath(), outputFile.toPath());
             }
-
-            // Try to construct a compressor using the data
-            compressor = new Huffman(in);
         } catch (Exception e) {
-            log("Huffman tree could not be made: " + e.getMessage() + ". Aborting.", Level.SEVERE);
+            log("Could not compress data: " + e.getMessage() + ". Aborting.", Level.SEVERE);
             return;
         }
 
-        log("Huffman tree successfully constructed...", Level.INFO);
+        if (compressor != null) {
+            log("Data compressed with one Huffman tree shared by every block...", Level.INFO);
+        } else {
+            log("Data compressed with a Huffman tree for each block...", Level.INFO);
+        }
 
         // Check if the user wants to save a graphviz version of the internal Huffman
         // tree
         if (saveGraph.isSelected()) {
-            // Make sure a graph output file is actually selected
+            // Make sure a graph output file is actually selected, and that there is one
+            // tree to graph
             if (graphFile == null) {
                 log("No graph output file selected.", Level.WARNING);
+            } else if (compressor == null) {
+                log("Each block has its own tree. Graph will not be written.", Level.WARNING);
             } else {
                 // Make sure the file doesn't exist
                 if (graphFile.exists()) {
@@ -73,21 +84,6 @@ public class Compress extends ColdenTab {
             }
         }
 
-        try (InputStream in = new BufferedInputStream(new FileInputStream(inputFile));
-                OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
-            Artifact.writeHeader(out, compressor);
-
-            try (BitOutputStream bitOut = new BitOutputStream(out)) {
-                compressor.compress(in, bitOut, inputLength);
-            } catch (Exception e) {
-                log("Could not compress data with the Huffman tree: " + e.getMessage() + ". Aborting.", Level.SEVERE);
-                return;
-            }
-        } catch (Exception e) {
-            log("Could not create outout file: " + e.getMessage() + ". Aborting.", Level.SEVERE);
-            return;
-        }
-
         double compressionRatio = ((double) outputFile.length() * 8) / (double) inputLength;
         log("Data successfully compressed with a ratio of " + compressionRatio + " bits per byte...", Level.INFO);
 
@@ -0,0 +1,567 @@
+package com.cgm616.colden;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * An order-1 context model: a set of Huffman trees, where the tree used for each
+ * byte depends on the byte before it. In text, the byte after a 'q' or a space
+ * is much more predictable than a byte on its own, so this can code it in fewer
+ * bits than a single tree can.
+ * 
+ * A tree for every one of the 256 previous bytes would cost a lot of header
+ * space, and would spread decoding over too many tables to stay in the cache.
+ * Instead, previous bytes that are followed by similar bytes are clustered
+ * together to share a tree, and the number of trees is chosen to make the
+ * header and the data smallest overall, up to a limit.
+ * 
+ * The model is serialized as the number of trees minus one in 8 bits, then the
+ * tree used after each byte value in just enough bits to number the trees, and
+ * then each tree in its canonical form, each padded to a byte.
+ */
+public class ContextHuffman {
+    // The most trees a model has by default. Each one's decoding table is a few
+    // KB, so the tables of them all still fit in the L2 cache
+    public static final int DEFAULT_MAX_TABLES = 32;
+
+    // The most rounds spent improving the clusters
+    private static final int ROUNDS = 20;
+    // The size of the chunks the input is read in
+    private static final int CHUNK_SIZE = 8192;
+
+    // The tree used after each byte value
+    private int[] contexts;
+    // Every tree in the model
+    private Huffman[] trees;
+
+    // The code and code length of every value in every tree, at (tree << 8) | value
+    private int[] codes;
+    private int[] lengths;
+    // For each tree with only one value, that value, and -1 for the other trees
+    private int[] single;
+
+    /**
+     * This method uses a stream to construct a context model according to the
+     * pairs of bytes in it
+     * 
+     * @param input The stream containing every pair of bytes the model must know
+     * @exception Exception Thrown when the stream cannot be read
+     */
+    public ContextHuffman(InputStream input) throws Exception {
+        this(count(input), DEFAULT_MAX_TABLES);
+    }
+
+    /**
+     * This method constructs a context model from the counts of each pair of bytes
+     * 
+     * @param counts    The number of times each byte follows each other byte, at
+     *                  [previous][value]. The first byte of the data counts as
+     *                  following a 0
+     * @param maxTables The most trees the model can have, from 1 to 256
+     * @exception Exception Thrown when the maximum number of trees is out of range
+     */
+    public ContextHuffman(long[][] counts, int maxTables) throws Exception {
+        if (maxTables < 1 || maxTables > 256) {
+            throw new Exception("The number of tables must be between 1 and 256");
+        }
+
+        // Empty data has nothing to build trees from, but still needs a model for the
+        // header. It gets a single tree that only knows the value 0, which never
+        // codes anything
+        if (isEmpty(counts)) {
+            Histogram zero = new Histogram();
+            zero.add(0, 1);
+            this.contexts = new int[256];
+            this.trees = new Huffman[] { new Huffman(zero) };
+            buildCodes();
+            return;
+        }
+
+        // Try more and more trees, keeping whichever number makes the file smallest
+        long bestSize = Long.MAX_VALUE;
+        for (int tables = 1; tables <= maxTables; tables = nextCount(tables, maxTables)) {
+            int[] contexts = cluster(counts, tables);
+            Huffman[] trees = buildTrees(counts, contexts);
+
+            long size = sizeOf(counts, contexts, trees);
+            if (size < bestSize) {
+                bestSize = size;
+                this.contexts = contexts;
+                this.trees = trees;
+            }
+
+            // Stop once there are too few different contexts to fill more trees
+            if (trees.length < tables) {
+                break;
+            }
+        }
+
+        buildCodes();
+    }
+
+    /**
+     * Class constructor that takes the parts of a deserialized model
+     * 
+     * @param contexts The tree used after each byte value
+     * @param trees    Every tree in the model
+     * @exception Exception Thrown when a tree's codes are too long
+     */
+    private ContextHuffman(int[] contexts, Huffman[] trees) throws Exception {
+        this.contexts = contexts;
+        this.trees = trees;
+        buildCodes();
+    }
+
+    // Checks whether no byte was counted at all
+    private static boolean isEmpty(long[][] counts) {
+        for (long[] row : counts) {
+            for (long count : row) {
+                if (count != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Doubles the number of trees to try, ending exactly at the maximum
+    private static int nextCount(int tables, int maxTables) {
+        return tables == maxTables ? maxTables + 1 : Math.min(tables * 2, maxTables);
+    }
+
+    /**
+     * This method counts how many times each byte follows each other byte in a
+     * stream
+     * 
+     * @param input The stream to count, which is read until it ends
+     * @return The counts, at [previous][value]
+     * @exception IOException Thrown when the stream cannot be read
+     */
+    public static long[][] count(InputStream input) throws IOException {
+        long[][] counts = new long[256][256];
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int previous = 0;
+        int read;
+        while ((read = input.read(chunk, 0, chunk.length)) != -1) {
+            for (int i = 0; i < read; i++) {
+                int value = (int) chunk[i] & 0xFF;
+                counts[previous][value] += 1;
+                previous = value;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * This method groups previous bytes that are followed by similar bytes, so
+     * that each group can share a tree. It works like k-means: the busiest
+     * contexts start the groups, and then each context moves to whichever group
+     * would code it in the fewest bits until none of them move
+     * 
+     * @param counts The number of times each byte follows each other byte
+     * @param tables The most groups to make
+     * @return The group of each previous byte, numbered from 0 with none empty.
+     *         Bytes that are never followed by anything are put in group 0
+     */
+    static int[] cluster(long[][] counts, int tables) {
+        // Find the contexts that are used, busiest first, and which values follow each
+        long[] totals = new long[256];
+        int[][] present = new int[256][];
+        Integer[] order = new Integer[256];
+        for (int c = 0; c < 256; c++) {
+            int found = 0;
+            int[] values = new int[256];
+            for (int v = 0; v < 256; v++) {
+                totals[c] += counts[c][v];
+                if (counts[c][v] > 0) {
+                    values[found] = v;
+                    found += 1;
+                }
+            }
+            present[c] = Arrays.copyOf(values, found);
+            order[c] = c;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(totals[b], totals[a]));
+
+        int used = 0;
+        while (used < 256 && totals[order[used]] > 0) {
+            used += 1;
+        }
+        int[] assignment = new int[256];
+        tables = Math.min(tables, used);
+        if (tables <= 1) {
+            return assignment;
+        }
+
+        // The busiest contexts each start a group
+        Arrays.fill(assignment, -1);
+        for (int j = 0; j < tables; j++) {
+            assignment[order[j]] = j;
+        }
+        long[][] sums = groupCounts(counts, assignment, tables);
+
+        double[][] cost = new double[tables][256];
+        for (int round = 0; round < ROUNDS; round++) {
+            // The cost of a value in a group is the number of bits an ideal code for
+            // the group would use for it. Every value gets a little weight, so a group
+            // that hasn't seen a value yet can still take it on at a price
+            for (int j = 0; j < tables; j++) {
+                long total = 0;
+                for (int v = 0; v < 256; v++) {
+                    total += sums[j][v];
+                }
+                for (int v = 0; v < 256; v++) {
+                    cost[j][v] = -Math.log((sums[j][v] + 0.5) / (total + 128.0));
+                }
+            }
+
+            // Move each context to the group that codes it best
+            boolean changed = false;
+            for (int i = 0; i < used; i++) {
+                int c = order[i];
+                int best = 0;
+                double bestCost = Double.MAX_VALUE;
+                for (int j = 0; j < tables; j++) {
+                    double bits = 0;
+                    for (int v : present[c]) {
+                        bits += counts[c][v] * cost[j][v];
+                    }
+                    if (bits < bestCost) {
+                        bestCost = bits;
+                        best = j;
+                    }
+                }
+                if (assignment[c] != best) {
+                    assignment[c] = best;
+                    changed = true;
+                }
+            }
+
+            if (!changed) {
+                break;
+            }
+            sums = groupCounts(counts, assignment, tables);
+        }
+
+        // Number the groups that ended up with contexts, and put unused contexts in
+        // the first group
+        int[] renumber = new int[tables];
+        Arrays.fill(renumber, -1);
+        int groups = 0;
+        for (int c = 0; c < 256; c++) {
+            if (assignment[c] >= 0 && renumber[assignment[c]] == -1) {
+                renumber[assignment[c]] = groups;
+                groups += 1;
+            }
+        }
+        for (int c = 0; c < 256; c++) {
+            assignment[c] = assignment[c] >= 0 ? renumber[assignment[c]] : 0;
+        }
+        return assignment;
+    }
+
+    /**
+     * This method adds up the counts of the contexts in each group
+     * 
+     * @param counts     The number of times each byte follows each other byte
+     * @param assignment The group of each context, or -1 for none
+     * @param groups     The number of groups
+     * @return The counts of each group, at [group][value]
+     */
+    private static long[][] groupCounts(long[][] counts, int[] assignment, int groups) {
+        long[][] sums = new long[groups][256];
+        for (int c = 0; c < 256; c++) {
+            if (assignment[c] >= 0) {
+                for (int v = 0; v < 256; v++) {
+                    sums[assignment[c]][v] += counts[c][v];
+                }
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * This method builds a tree for each group of contexts
+     * 
+     * @param counts   The number of times each byte follows each other byte
+     * @param contexts The group of each context, numbered from 0 with none empty
+     * @return The tree of each group
+     * @exception Exception Thrown when there are no counts at all
+     */
+    private static Huffman[] buildTrees(long[][] counts, int[] contexts) throws Exception {
+        int groups = 0;
+        for (int c = 0; c < 256; c++) {
+            groups = Math.max(groups, contexts[c] + 1);
+        }
+
+        Histogram[] histograms = new Histogram[groups];
+        for (int j = 0; j < groups; j++) {
+            histograms[j] = new Histogram();
+        }
+        for (int c = 0; c < 256; c++) {
+            for (int v = 0; v < 256; v++) {
+                if (counts[c][v] > 0) {
+                    histograms[contexts[c]].add(v, counts[c][v]);
+                }
+            }
+        }
+
+        // Keep codes short enough for the decoding tables to stay small
+        Huffman[] trees = new Huffman[groups];
+        for (int j = 0; j < groups; j++) {
+            trees[j] = new Huffman(histograms[j], Huffman.MAX_CODE_LENGTH);
+        }
+        return trees;
+    }
+
+    /**
+     * This method works out how many bits a model would take up, along with the
+     * data coded by it
+     * 
+     * @param counts   The number of times each byte follows each other byte
+     * @param contexts The tree used after each byte value
+     * @param trees    Every tree in the model
+     * @return The number of bits
+     */
+    private static long sizeOf(long[][] counts, int[] contexts, Huffman[] trees) {
+        long bits = 8 + 256 * bitsFor(trees.length);
+
+        int[][] lengths = new int[trees.length][];
+        for (int j = 0; j < trees.length; j++) {
+            lengths[j] = trees[j].getCodeLengths();
+            bits += trees[j].serializeCanonical().length * 8;
+        }
+        for (int c = 0; c < 256; c++) {
+            for (int v = 0; v < 256; v++) {
+                bits += counts[c][v] * lengths[contexts[c]][v];
+            }
+        }
+        return bits;
+    }
+
+    // The number of bits needed to number the trees
+    private static int bitsFor(int trees) {
+        return 32 - Integer.numberOfLeadingZeros(trees - 1);
+    }
+
+    /**
+     * This method flattens the codes of every tree into one table, so that
+     * encoding only needs one lookup per byte
+     * 
+     * @exception Exception Thrown when a tree's codes are too long
+     */
+    private void buildCodes() throws Exception {
+        this.codes = new int[this.trees.length << 8];
+        this.lengths = new int[this.trees.length << 8];
+        this.single = new int[this.trees.length];
+
+        for (int j = 0; j < this.trees.length; j++) {
+            Huffman.Node top = this.trees[j].getTop();
+            if (top.isLeaf()) {
+                this.single[j] = (int) top.value & 0xFF;
+            } else {
+                this.single[j] = -1;
+                System.arraycopy(this.trees[j].codes(), 0, this.codes, j << 8, 256);
+                System.arraycopy(this.trees[j].getCodeLengths(), 0, this.lengths, j << 8, 256);
+            }
+        }
+    }
+
+    /**
+     * This method returns the number of trees in the model
+     * 
+     * @return The number of trees
+     */
+    public int getTableCount() {
+        return this.trees.length;
+    }
+
+    /**
+     * This method returns the tree used after each byte value
+     * 
+     * @return An array of 256 tree numbers, indexed by the previous byte
+     */
+    public int[] getContexts() {
+        return this.contexts.clone();
+    }
+
+    /**
+     * This method serializes the model to store in a file header
+     * 
+     * @return A byte array containing the serialized model
+     */
+    public byte[] serialize() {
+        BitArray bits = new BitArray();
+        bits.pushBits(this.trees.length - 1, 8);
+        int width = bitsFor(this.trees.length);
+        for (int c = 0; c < 256; c++) {
+            bits.pushBits(this.contexts[c], width);
+        }
+
+        // Each tree is padded to a byte on its own, which is easy to undo when
+        // reading
+        byte[] map = bits.toArray();
+        byte[][] trees = new byte[this.trees.length][];
+        int size = map.length;
+        for (int j = 0; j < this.trees.length; j++) {
+            trees[j] = this.trees[j].serializeCanonical();
+            size += trees[j].length;
+        }
+
+        byte[] output = Arrays.copyOf(map, size);
+        int position = map.length;
+        for (byte[] tree : trees) {
+            System.arraycopy(tree, 0, output, position, tree.length);
+            position += tree.length;
+        }
+        return output;
+    }
+
+    /**
+     * This method deserializes a model written by serialize() from a bitstream,
+     * consuming exactly the bytes of the model
+     * 
+     * @param bits The bitstream containing the serialized model, aligned to a byte
+     * @return A new model built from the bitstream
+     * @exception Exception Thrown when the deserialization fails
+     */
+    public static ContextHuffman deserialize(BitInputStream bits) throws Exception {
+        int count = bits.readBits(8) + 1;
+        int width = bitsFor(count);
+
+        int[] contexts = new int[256];
+        for (int c = 0; c < 256; c++) {
+            contexts[c] = bits.readBits(width);
+            if (contexts[c] >= count) {
+                throw new Exception("Context model uses a table that doesn't exist");
+            }
+        }
+        bits.alignToByte();
+
+        Huffman[] trees = new Huffman[count];
+        for (int j = 0; j < count; j++) {
+            trees[j] = Huffman.deserializeCanonical(bits);
+            bits.alignToByte();
+        }
+        return new ContextHuffman(contexts, trees);
+    }
+
+    /**
+     * This method compresses a stream into a bitstream, coding each byte with the
+     * tree for the byte before it
+     * 
+     * @param input  The stream containing the data to be compressed
+     * @param output The bitstream to write the compressed data to
+     * @param length The number of bytes in the input
+     * @exception Exception Thrown when a pair of bytes in the input isn't in the
+     *                      model
+     */
+    public void compress(InputStream input, BitOutputStream output, long length) throws Exception {
+        // Like Huffman.compress(), start with the number of bytes to expand
+        output.writeLong(length);
+
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int previous = 0;
+        int read;
+        while ((read = input.read(chunk, 0, chunk.length)) != -1) {
+            previous = encode(chunk, 0, read, previous, output);
+        }
+    }
+
+    /**
+     * This method encodes part of a byte array into a bitstream
+     * 
+     * @param data     The array holding the data to be compressed
+     * @param offset   The index of the first byte to compress
+     * @param length   The number of bytes to compress
+     * @param previous The byte before the first one, or 0 at the start of the data
+     * @param output   The bitstream to write the compressed data to
+     * @return The last byte encoded, to pass as the previous byte of the next call
+     * @exception Exception Thrown when a pair of bytes in the input isn't in the
+     *                      model
+     */
+    int encode(byte[] data, int offset, int length, int previous, BitOutputStream output) throws Exception {
+        // Pull the tables into locals so the loop doesn't need to read the fields
+        int[] contexts = this.contexts;
+        int[] codes = this.codes;
+        int[] lengths = this.lengths;
+
+        // The same accumulator as Huffman.encode(), which always holds fewer than
+        // 32 bits
+        long accumulator = 0;
+        int bits = 0;
+
+        for (int i = offset; i < offset + length; i++) {
+            int value = (int) data[i] & 0xFF;
+            int table = contexts[previous];
+            int index = (table << 8) | value;
+            int codeLength = lengths[index];
+
+            // A tree with only one value has a code of length 0 for it, and no other
+            // value has a code at all
+            if (codeLength == 0 && this.single[table] != value) {
+                throw new Exception("Byte not found in tree");
+            }
+
+            accumulator = (accumulator << codeLength) | codes[index];
+            bits += codeLength;
+            if (bits >= 32) {
+                bits -= 32;
+                output.writeInt((int) (accumulator >>> bits));
+            }
+            previous = value;
+        }
+
+        output.writeBits((int) accumulator, bits);
+        return previous;
+    }
+
+    /**
+     * This method expands a compressed bitstream, switching between the trees'
+     * decoding tables as it goes
+     * 
+     * @param input  The bitstream containing the data to be expanded
+     * @param output The stream to write the original, uncompressed data to
+     * @exception IOException Thrown when there is a problem writing to the stream,
+     *                        or when the input ends before all of the data is
+     *                        expanded
+     */
+    public void expand(BitInputStream input, OutputStream output) throws IOException {
+        long length = input.readLong();
+        if (length < 0) {
+            throw new IOException("The compressed data has a negative length");
+        }
+
+        // Trees with one value need no table, since their codes have no bits
+        DecodeTable[] tables = new DecodeTable[this.trees.length];
+        for (int j = 0; j < tables.length; j++) {
+            if (this.single[j] == -1) {
+                tables[j] = this.trees[j].decodeTable();
+            }
+        }
+        int[] contexts = this.contexts;
+        int[] single = this.single;
+
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int position = 0;
+        int previous = 0;
+        for (long i = 0; i < length; i++) {
+            int table = contexts[previous];
+            int value = single[table];
+            if (value == -1) {
+                value = tables[table].decodeOne(input);
+            }
+
+            chunk[position] = (byte) value;
+            position += 1;
+            if (position == chunk.length) {
+                output.write(chunk, 0, position);
+                position = 0;
+            }
+            previous = value;
+        }
+        output.write(chunk, 0, position);
+    }
+}
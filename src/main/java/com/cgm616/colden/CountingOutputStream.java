@@ -0,0 +1,45 @@
+package com.cgm616.colden;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream that passes everything through to another stream, counting
+ * the bytes as they go by.
+ */
+public class CountingOutputStream extends FilterOutputStream {
+    // The number of bytes written so far
+    private long count = 0;
+
+    /**
+     * Class constructor that takes the stream to write to
+     * 
+     * @param out The stream to write to
+     */
+    public CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.out.write(b);
+        this.count += 1;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // FilterOutputStream would write the bytes one at a time
+        this.out.write(b, off, len);
+        this.count += len;
+    }
+
+    /**
+     * This method returns the number of bytes written so far
+     * 
+     * @return The number of bytes
+     */
+    public long getCount() {
+        return this.count;
+    }
+}
@@ -0,0 +1,248 @@
+package com.cgm616.colden;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A lookup table that decodes a Huffman tree several bits at a time. Instead of
+ * walking the tree one bit per step, the decoder peeks at the next ROOT_BITS
+ * bits of input and finds both the decoded byte and the length of its code
+ * with a single array access. Codes longer than ROOT_BITS continue into smaller
+ * second-level tables that are linked from the entries of the first.
+ * 
+ * The layout is similar to the one zlib uses for inflate, described at
+ * https://github.com/madler/zlib/blob/master/doc/algorithm.txt
+ */
+class DecodeTable {
+    // The number of bits the first-level table is indexed by. Any code this short
+    // or shorter decodes with one lookup
+    static final int ROOT_BITS = 10;
+
+    // Entries of the table come in two kinds. A leaf entry holds the decoded byte in
+    // its lowest 8 bits and the number of bits to consume above that. A link entry
+    // has this flag set, the offset of the next-level table above bit 5, and the
+    // number of bits that table is indexed by in the lowest 5 bits
+    private static final int LINK = 1 << 30;
+
+    // Every level of the table, starting with the first, stored back to back
+    private int[] entries;
+    // The number of entries in use
+    private int size;
+    // The number of bits the first level is indexed by
+    private int rootBits;
+
+    /**
+     * Class constructor that builds the table for a tree
+     * 
+     * @param top The top Node of the tree. It must not be a leaf
+     */
+    DecodeTable(Huffman.Node top) {
+        this.entries = new int[1 << ROOT_BITS];
+        this.size = 0;
+        // Trees shallower than the normal first level get a smaller table, which is
+        // quicker to build
+        this.rootBits = Math.min(ROOT_BITS, height(top));
+        buildLevel(top, this.rootBits);
+    }
+
+    /**
+     * This method decodes bytes from a bitstream until the requested number have
+     * been output
+     * 
+     * @param input  The bitstream to decode
+     * @param output The stream to write decoded bytes to
+     * @param length The number of bytes to decode
+     * @exception IOException Thrown when the input ends early or the output fails
+     */
+    void decode(BitInputStream input, OutputStream output, long length) throws IOException {
+        // Pull the fields into locals so the loop doesn't need to read them every time
+        int[] entries = this.entries;
+        int rootBits = this.rootBits;
+
+        // Decoded bytes are collected here and written out in chunks, rather than
+        // calling the output stream once per byte
+        byte[] chunk = new byte[8192];
+        int position = 0;
+
+        for (long i = 0; i < length; i++) {
+            // Look up the next bits in the first level
+            int bits = rootBits;
+            int entry = entries[input.peekBits(bits)];
+
+            // While the entry points to another level, consume the bits that indexed the
+            // current level and look up the next ones in the new level
+            while ((entry & LINK) != 0) {
+                input.skipBits(bits);
+                bits = entry & 0x1F;
+                entry = entries[((entry & ~LINK) >>> 5) + input.peekBits(bits)];
+            }
+
+            // Consume the rest of the code and output the byte it represents
+            input.skipBits(entry >>> 8);
+            chunk[position] = (byte) entry;
+            position += 1;
+
+            if (position == chunk.length) {
+                output.write(chunk, 0, position);
+                position = 0;
+            }
+        }
+
+        output.write(chunk, 0, position);
+    }
+
+    /**
+     * This method decodes bytes from one buffer into another until the output is
+     * full. It keeps its own bit buffer instead of using a BitInputStream, and
+     * gives back any whole bytes it read ahead, so the input is left just after
+     * the byte holding the last code
+     * 
+     * @param input  The buffer to decode, from its position
+     * @param output The buffer to write decoded bytes to, from its position to its
+     *               limit
+     * @exception IOException Thrown when the input ends in the middle of a code
+     */
+    void decode(ByteBuffer input, ByteBuffer output) throws IOException {
+        int[] entries = this.entries;
+        int rootBits = this.rootBits;
+
+        // The bits that have been read but not consumed, in the `length` lowest bits
+        long buffer = 0;
+        int length = 0;
+
+        while (output.hasRemaining()) {
+            // Keep the buffer topped up, so that any code fits in it
+            while (length <= 56 && input.hasRemaining()) {
+                buffer = (buffer << 8) | ((int) input.get() & 0xFF);
+                length += 8;
+            }
+
+            // The same lookups as decode() above
+            int bits = rootBits;
+            int entry = entries[peek(buffer, length, bits)];
+            while ((entry & LINK) != 0) {
+                length = consume(length, bits);
+                bits = entry & 0x1F;
+                entry = entries[((entry & ~LINK) >>> 5) + peek(buffer, length, bits)];
+            }
+            length = consume(length, entry >>> 8);
+            output.put((byte) entry);
+        }
+
+        // Only the bits left in the last byte used are padding
+        input.position(input.position() - length / 8);
+    }
+
+    // Looks at the next bits of a bit buffer, reading missing bits as 0s
+    private static int peek(long buffer, int length, int count) {
+        if (length >= count) {
+            return (int) (buffer >>> (length - count)) & ((1 << count) - 1);
+        }
+        return (int) (buffer << (count - length)) & ((1 << count) - 1);
+    }
+
+    // Consumes bits from a bit buffer, returning how many are left
+    private static int consume(int length, int count) throws IOException {
+        if (count > length) {
+            throw new EOFException("Reached the end of the buffer in the middle of a code");
+        }
+        return length - count;
+    }
+
+    /**
+     * This method decodes a single byte from a bitstream. It does the same work as
+     * one step of decode(), for callers that switch between tables as they go
+     * 
+     * @param input The bitstream to decode
+     * @return The decoded byte, from 0 to 255
+     * @exception IOException Thrown when the input ends in the middle of a code
+     */
+    int decodeOne(BitInputStream input) throws IOException {
+        int bits = this.rootBits;
+        int entry = this.entries[input.peekBits(bits)];
+        while ((entry & LINK) != 0) {
+            input.skipBits(bits);
+            bits = entry & 0x1F;
+            entry = this.entries[((entry & ~LINK) >>> 5) + input.peekBits(bits)];
+        }
+        input.skipBits(entry >>> 8);
+        return entry & 0xFF;
+    }
+
+    /**
+     * This method returns the number of entries in every level of the table
+     * 
+     * @return The number of entries
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * This method creates a level of the table for the subtree under a Node
+     * 
+     * @param node The Node at the top of the subtree
+     * @param bits The number of bits to index the level by
+     * @return The offset of the new level in the entries array
+     */
+    private int buildLevel(Huffman.Node node, int bits) {
+        // Reserve space at the end of the entries array for the new level
+        int offset = this.size;
+        this.size += 1 << bits;
+        if (this.size > this.entries.length) {
+            this.entries = Arrays.copyOf(this.entries, Math.max(this.size, this.entries.length * 2));
+        }
+
+        // Walk the first bits of the subtree, filling in the level
+        fill(node, offset, 0, 0, bits);
+        return offset;
+    }
+
+    /**
+     * This internally recursive method fills every entry of a level that starts
+     * with a certain prefix of bits
+     * 
+     * @param node   The Node reached by following the prefix from the top of the
+     *               level
+     * @param offset The offset of the level in the entries array
+     * @param prefix The bits followed to reach the Node
+     * @param depth  The number of bits in the prefix
+     * @param bits   The number of bits the level is indexed by
+     */
+    private void fill(Huffman.Node node, int offset, int prefix, int depth, int bits) {
+        if (node.isLeaf()) {
+            // The Node is a leaf, so every index that starts with the prefix decodes to
+            // its value, no matter what the remaining bits are
+            int entry = (depth << 8) | ((int) node.value & 0xFF);
+            int start = offset + (prefix << (bits - depth));
+            Arrays.fill(this.entries, start, start + (1 << (bits - depth)), entry);
+        } else if (depth == bits) {
+            // The level has run out of bits before reaching a leaf, so the rest of the
+            // subtree goes in a new level
+            int subBits = Math.min(ROOT_BITS, height(node));
+            int subOffset = buildLevel(node, subBits);
+            this.entries[offset + prefix] = LINK | (subOffset << 5) | subBits;
+        } else {
+            // Follow both children, adding a 0 or a 1 to the prefix
+            fill(node.left, offset, prefix << 1, depth + 1, bits);
+            fill(node.right, offset, (prefix << 1) | 1, depth + 1, bits);
+        }
+    }
+
+    /**
+     * This internally recursive method finds the length of the longest path from
+     * a Node to a leaf under it
+     * 
+     * @param node The Node to measure
+     * @return The height of the Node
+     */
+    private static int height(Huffman.Node node) {
+        if (node.isLeaf()) {
+            return 0;
+        }
+        return 1 + Math.max(height(node.left), height(node.right));
+    }
+}
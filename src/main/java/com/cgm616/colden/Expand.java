@@ -1,10 +1,7 @@
 package com.cgm616.colden;
 
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.file.Files;
 import java.util.logging.Level;
 
 import javafx.stage.FileChooser;
@@ -24,50 +21,87 @@ public class Expand extends ColdenTab {
         log("Running expansion... (input: " + inputFile.getPath() + ", output: " + outputFile.getPath() + ")",
                 Level.INFO);
 
-        // Try to read the input file into memory
-        byte[] inputData;
-        try {
-            inputData = Files.readAllBytes(inputFile.toPath());
-        } catch (IOException e) {
-            log("Input file could not be read: " + e.getMessage() + ". Aborting.", Level.SEVERE);
-            return;
-        }
-
         // Make sure the input file is long enough to be valid
-        if (inputData.length <= 10) {
+        if (inputFile.length() <= 10) {
             log("Please select an input file that is longer than 10 bytes (the minimum compressed filesize). Aborting.",
                     Level.SEVERE);
             return;
         } else {
-            log("Expanding " + inputData.length + " bytes...", Level.INFO);
+            log("Expanding " + inputFile.length() + " bytes...", Level.INFO);
         }
 
-        // Try to parse a file from the data
-        Artifact compressedData;
-        try {
-            compressedData = Artifact.fromBytes(inputData);
-        } catch (Exception e) {
-            log("The input file selected is malformed: " + e.getMessage() + ". Aborting.", Level.SEVERE);
-            return;
-        }
+        // Map the input file into memory and read it as a stream. Only the header is
+        // read for now, and the body is expanded as it is read later
+        try (BitInputStream inStream = new BitInputStream(new MappedInputStream(inputFile.toPath()))) {
+            // Try to parse the header of the file, deserializing the tree in it
+            Artifact compressedData;
+            try {
+                compressedData = Artifact.readHeader(inStream);
+            } catch (Exception e) {
+                log("The input file selected is malformed: " + e.getMessage() + ". Aborting.", Level.SEVERE);
+                return;
+            }
+
+            Huffman expander = compressedData.getTree();
+
+            log("Input file header successfully parsed (canonical tree: " + compressedData.isCanonical()
+                    + ", blocks: " + compressedData.hasBlocks() + ", adaptive: " + compressedData.isAdaptive()
+                    + ", context model: " + compressedData.isContextModeled() + ", LZSS: " + compressedData.isLzss()
+                    + ", block sorted: " + compressedData.isBlockSorted() + ")...", Level.INFO);
+
+            // When each block has its own tree, the code is adaptive, or there is a
+            // context model, there is no one tree to graph. LZSS and BlockSort
+            // blocks each have their own trees too
+            if (expander != null) {
+                saveGraph(expander);
+            } else if (saveGraph.isSelected() && compressedData.isAdaptive()) {
+                log("The input file uses an adaptive tree. Graph will not be written.", Level.WARNING);
+            } else if (saveGraph.isSelected() && compressedData.isContextModeled()) {
+                log("The input file uses a tree for each context. Graph will not be written.", Level.WARNING);
+            } else if (saveGraph.isSelected()) {
+                log("Each block of the input file has its own tree. Graph will not be written.", Level.WARNING);
+            }
 
-        byte[] treeData = compressedData.getSerializedTree();
-        byte[] body = compressedData.getBody();
+            // If the file has a block index, expand all of its blocks at once, each
+            // straight into its place in the output file
+            if (compressedData.hasIndex()) {
+                try {
+                    new BlockExpander().expand(compressedData, inputFile.toPath(), outputFile.toPath());
+                } catch (Exception e) {
+                    log("Data could not be expanded: " + e.getMessage() + ". Aborting.", Level.SEVERE);
+                    return;
+                }
 
-        log("Input file successfully parsed (tree length: " + treeData.length + ", body length: " + body.length
-                + ")...", Level.INFO);
+                log("Expansion and output done.", Level.INFO);
+                return;
+            }
 
-        // Try to deserialize a tree from the header
-        Huffman expander;
-        try {
-            expander = Huffman.deserialize(treeData);
-        } catch (Exception e) {
-            log("Huffman tree could not be deserialized: " + e.getMessage() + ". Aborting.", Level.SEVERE);
+            // Otherwise, try to expand the data as a stream and write it to a file
+            // through a direct buffer
+            try (OutputStream outStream = new ChannelOutputStream(outputFile.toPath())) {
+                compressedData.expand(inStream, outStream);
+                outStream.flush();
+            } catch (Exception e) {
+                log("Data could not be expanded: " + e.getMessage() + ". Aborting.", Level.SEVERE);
+                return;
+            }
+        } catch (IOException e) {
+            log("Input file could not be read: " + e.getMessage() + ". Aborting.", Level.SEVERE);
             return;
         }
 
-        log("Huffman tree successfully deserialized from file...", Level.INFO);
+        log("Expansion and output done.", Level.INFO);
 
+        return;
+    }
+
+    /**
+     * This method writes a graph of the tree used for expansion, if the user asked
+     * for one
+     * 
+     * @param expander The tree to graph
+     */
+    private void saveGraph(Huffman expander) {
         // If the user wants to save a graph, do that
         if (saveGraph.isSelected()) {
             // Make sure a file was chosen
@@ -91,19 +125,6 @@ public class Expand extends ColdenTab {
                 }
             }
         }
-
-        // Try to expand the data and write it to a file
-        try (OutputStream outStream = new BufferedOutputStream(new FileOutputStream(outputFile))) {
-            expander.expand(body, outStream);
-            outStream.flush();
-        } catch (Exception e) {
-            log("Data could not be expanded: " + e.getMessage() + ". Aborting.", Level.SEVERE);
-            return;
-        }
-
-        log("Expansion and output done.", Level.INFO);
-
-        return;
     }
 
     @Override
@@ -0,0 +1,248 @@
+package com.cgm616.colden;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The number of times each byte value shows up in some data, which is what a
+ * Huffman tree is built from.
+ * 
+ * A file can be counted in parallel: it is split into ranges, each range is
+ * counted into its own Histogram on a ForkJoinPool, and the Histograms are
+ * merged together.
+ */
+public class Histogram {
+    // The smallest range of a file that is counted on its own
+    private static final long MIN_RANGE = 1 << 20;
+    // The number of bytes read from a file at a time
+    private static final int CHUNK = 1 << 16;
+
+    // The number of times each byte value has been counted
+    private long[] counts;
+
+    /**
+     * Class constructor that creates an empty Histogram
+     */
+    public Histogram() {
+        this.counts = new long[256];
+    }
+
+    /**
+     * This method counts the bytes in part of an array
+     * 
+     * @param data   The array holding the data
+     * @param offset The index of the first byte to count
+     * @param length The number of bytes to count
+     */
+    public void add(byte[] data, int offset, int length) {
+        // Count into four tables in turn and add them up at the end. Runs of the same
+        // byte would otherwise make every increment wait for the one before it
+        int[] a = new int[256];
+        int[] b = new int[256];
+        int[] c = new int[256];
+        int[] d = new int[256];
+
+        int i = offset;
+        int end = offset + length;
+        for (; i + 4 <= end; i += 4) {
+            a[data[i] & 0xFF] += 1;
+            b[data[i + 1] & 0xFF] += 1;
+            c[data[i + 2] & 0xFF] += 1;
+            d[data[i + 3] & 0xFF] += 1;
+        }
+        for (; i < end; i++) {
+            a[data[i] & 0xFF] += 1;
+        }
+
+        for (int v = 0; v < 256; v++) {
+            this.counts[v] += (long) a[v] + b[v] + c[v] + d[v];
+        }
+    }
+
+    /**
+     * This method counts the bytes of a buffer, from its position to its limit,
+     * without moving its position. A buffer on the heap is counted straight out of
+     * its array, and a direct one a byte at a time
+     * 
+     * @param data The buffer holding the data
+     */
+    public void add(ByteBuffer data) {
+        if (data.hasArray()) {
+            add(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            return;
+        }
+
+        for (int i = data.position(); i < data.limit(); i++) {
+            this.counts[data.get(i) & 0xFF] += 1;
+        }
+    }
+
+    /**
+     * This method counts a byte value some number of times at once
+     * 
+     * @param value The byte value, from 0 to 255
+     * @param count The number of times to count it
+     */
+    public void add(int value, long count) {
+        this.counts[value] += count;
+    }
+
+    /**
+     * This method adds the counts of another Histogram to this one
+     * 
+     * @param other The Histogram to add
+     */
+    public void merge(Histogram other) {
+        for (int v = 0; v < 256; v++) {
+            this.counts[v] += other.counts[v];
+        }
+    }
+
+    /**
+     * This method returns the number of times each byte value was counted
+     * 
+     * @return An array of 256 counts, indexed by byte value
+     */
+    public long[] getCounts() {
+        return this.counts.clone();
+    }
+
+    /**
+     * This method returns the total number of bytes counted
+     * 
+     * @return The number of bytes
+     */
+    public long total() {
+        long total = 0;
+        for (int v = 0; v < 256; v++) {
+            total += this.counts[v];
+        }
+        return total;
+    }
+
+    /**
+     * This method counts the bytes in a stream, reading it in large chunks
+     * 
+     * @param input The stream to count
+     * @return The Histogram of the stream
+     * @exception IOException Thrown when the stream cannot be read
+     */
+    public static Histogram of(InputStream input) throws IOException {
+        Histogram histogram = new Histogram();
+        byte[] chunk = new byte[CHUNK];
+        int read;
+        while ((read = input.read(chunk)) != -1) {
+            histogram.add(chunk, 0, read);
+        }
+        return histogram;
+    }
+
+    /**
+     * This method counts the bytes in a file, splitting it into ranges that are
+     * counted in parallel
+     * 
+     * @param file The file to count
+     * @param pool The pool to count the ranges on
+     * @return The Histogram of the file
+     * @exception IOException Thrown when the file cannot be read
+     */
+    public static Histogram of(Path file, ForkJoinPool pool) throws IOException {
+        return of(file, pool, 0);
+    }
+
+    /**
+     * This method counts the bytes in a file, splitting it into ranges that are
+     * counted in parallel
+     * 
+     * @param file  The file to count
+     * @param pool  The pool to count the ranges on
+     * @param range The largest range to count without splitting it, or 0 to split
+     *              the file into a few ranges for each thread
+     * @return The Histogram of the file
+     * @exception IOException Thrown when the file cannot be read
+     */
+    static Histogram of(Path file, ForkJoinPool pool, long range) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (range <= 0) {
+                range = Math.max(MIN_RANGE, size / (4L * pool.getParallelism()) + 1);
+            }
+
+            try {
+                return pool.invoke(new Count(channel, 0, size, range));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * The task that counts a range of a file, splitting it in half and counting
+     * the halves in parallel if it is too large
+     */
+    private static class Count extends RecursiveTask<Histogram> {
+        private static final long serialVersionUID = 1L;
+
+        private FileChannel channel;
+        private long start;
+        private long end;
+        private long range;
+
+        /**
+         * Class constructor that takes the range to count
+         * 
+         * @param channel The file to count
+         * @param start   The offset of the first byte to count
+         * @param end     The offset just after the last byte to count
+         * @param range   The largest range to count without splitting it
+         */
+        Count(FileChannel channel, long start, long end, long range) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.range = range;
+        }
+
+        @Override
+        protected Histogram compute() {
+            // Split large ranges in half, counting one half on another thread while
+            // this one counts the other
+            if (this.end - this.start > this.range) {
+                long middle = this.start + (this.end - this.start) / 2;
+                Count left = new Count(this.channel, this.start, middle, this.range);
+                left.fork();
+                Histogram histogram = new Count(this.channel, middle, this.end, this.range).compute();
+                histogram.merge(left.join());
+                return histogram;
+            }
+
+            // Read the range a chunk at a time. Reading at a position doesn't move the
+            // channel, so many ranges can be read at once
+            Histogram histogram = new Histogram();
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK);
+            long position = this.start;
+            try {
+                while (position < this.end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(CHUNK, this.end - position));
+                    int read = this.channel.read(buffer, position);
+                    if (read == -1) {
+                        break;
+                    }
+                    histogram.add(buffer.array(), 0, read);
+                    position += read;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return histogram;
+        }
+    }
+}
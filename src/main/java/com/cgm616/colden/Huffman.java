@@ -1,12 +1,15 @@
 package com.cgm616.colden;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.PriorityQueue;
 
 /**
@@ -14,6 +17,15 @@ import java.util.PriorityQueue;
  * can be serialized and deserialized in a minimal form from a byte stream, and
  * it can compress and expand byte streams once constructed.
  * 
+ * Trees built from data are always canonical: the codes are determined entirely
+ * by the length of the code for each value, so the tree can be serialized as
+ * just those lengths. Information about canonical codes came from
+ * https://en.wikipedia.org/wiki/Canonical_Huffman_code
+ * 
+ * Codes are also limited in length, using the package-merge algorithm when the
+ * normal tree would be too deep. This came from
+ * https://en.wikipedia.org/wiki/Package-merge_algorithm
+ * 
  * Basic overview ideas about the algorithm came from
  * https://en.wikipedia.org/wiki/Huffman_coding
  * 
@@ -21,8 +33,24 @@ import java.util.PriorityQueue;
  * https://en.wikipedia.org/wiki/Tree_traversal#Pre-order_(NLR)
  */
 public class Huffman {
+    // The longest code a tree built from data has by default. Limiting the length
+    // keeps decode tables small and lets every code fit in an int
+    public static final int MAX_CODE_LENGTH = 15;
+
     private Node top;
 
+    // The length of the code for each byte value, or 0 if the value is not in the
+    // tree
+    private int[] lengths;
+    // The code for each byte value, in the lowest bits of the int. These are built
+    // from the tree the first time they are needed. Like the table below, they are
+    // volatile so that one tree can be shared by threads working on separate blocks
+    private volatile int[] codes;
+
+    // The table used to decode data, built from the tree the first time it is
+    // needed
+    private volatile DecodeTable table;
+
     /**
      * This method uses a byte array to construct a Huffman tree according to the
      * bytes present
@@ -35,8 +63,71 @@ public class Huffman {
      *                      contains an explanation message
      */
     public Huffman(InputStream input) throws Exception {
-        // Run the build function and set the Node returned to the top of the tree
-        this.top = build(input);
+        this(input, MAX_CODE_LENGTH);
+    }
+
+    /**
+     * This method uses a byte array to construct a Huffman tree according to the
+     * bytes present, with no code longer than a given length
+     * 
+     * @param input     The byte array input containing every character the tree
+     *                  must know
+     * @param maxLength The longest code the tree may have, from 1 to 32
+     * @return A constructed tree that can be used for compression, expansion,
+     *         serialization, and deserialization
+     * @exception Exception Thrown when the Huffman tree errors on building, or when
+     *                      the input has too many different bytes to fit in codes
+     *                      of the maximum length
+     */
+    public Huffman(InputStream input, int maxLength) throws Exception {
+        this(Histogram.of(input), maxLength);
+    }
+
+    /**
+     * This method uses the counts of each byte in some data to construct a Huffman
+     * tree
+     * 
+     * @param histogram The number of times each byte shows up in the data
+     * @return A constructed tree that can be used for compression, expansion,
+     *         serialization, and deserialization
+     * @exception Exception Thrown when the Huffman tree errors on building
+     */
+    public Huffman(Histogram histogram) throws Exception {
+        this(histogram, MAX_CODE_LENGTH);
+    }
+
+    /**
+     * This method uses the counts of each byte in some data to construct a Huffman
+     * tree, with no code longer than a given length
+     * 
+     * @param histogram The number of times each byte shows up in the data
+     * @param maxLength The longest code the tree may have, from 1 to 32
+     * @return A constructed tree that can be used for compression, expansion,
+     *         serialization, and deserialization
+     * @exception Exception Thrown when the Huffman tree errors on building, or when
+     *                      the data has too many different bytes to fit in codes
+     *                      of the maximum length
+     */
+    public Huffman(Histogram histogram, int maxLength) throws Exception {
+        if (maxLength < 1 || maxLength > 32) {
+            throw new Exception("The maximum code length must be between 1 and 32");
+        }
+
+        // Get how often each byte shows up in the input
+        long[] frequencies = frequenciesOf(histogram);
+        // Run the build function to find the best code length for each byte
+        this.lengths = lengthsOf(build(frequencies));
+
+        // If the best codes are too long, find the best codes that aren't instead
+        for (int i = 0; i < 256; i++) {
+            if (this.lengths[i] > maxLength) {
+                this.lengths = limitedLengths(frequencies, maxLength);
+                break;
+            }
+        }
+
+        // Build the canonical tree with those lengths
+        this.top = canonicalTree(this.lengths, frequencies);
     }
 
     /**
@@ -48,43 +139,36 @@ public class Huffman {
      */
     private Huffman(Node top) {
         this.top = top;
+        this.lengths = lengthsOf(top);
     }
 
     /**
-     * This method uses a byte array to construct a tree, first finding the
-     * frequencies of each character in the input and then using those to build a
-     * balanced tree out of Nodes
+     * This method gets the frequencies of each byte from a Histogram
      * 
-     * @param input The byte array input containing every character the tree must
-     *              know
-     * @return The top node of the tree, with children node representing a fully
-     *         built tree
-     * @exception Exception Thrown when the input has a length of zero or when the
-     *                      tree cannot be built due to a logic error, with a
-     *                      message differentiating the two
+     * @param histogram The counts of every byte the tree must know
+     * @return An array holding the number of times each byte value shows up
+     * @exception Exception Thrown when there are no bytes
      */
-    private Node build(InputStream input) throws Exception {
-        // Create a new map, of sorts. The byte index into the array is the key, and the
-        // value at that index is the value. Java automatically inits array elements to
-        // 0, so this is an array of all 0s right now
-        int[] frequencies = new int[256];
-
-        // Get the first byte from the stream
-        int b = input.read();
-
+    private static long[] frequenciesOf(Histogram histogram) throws Exception {
         // We immediately throw an exception if the input is less than one byte
-        if (b == -1) {
+        if (histogram.total() == 0) {
             throw new Exception("The input has no bytes");
         }
 
-        // Iterate over the input to get a list of byte frequencies
-        while (b != -1) {
-            // Grab the frequency for the current byte and increment it. If it is 0, it
-            // becomes 1. If it's something else, it increments
-            frequencies[b & 0xFF] = frequencies[b & 0xFF] + 1;
-            b = input.read();
-        }
+        return histogram.getCounts();
+    }
 
+    /**
+     * This method uses the frequencies of each byte to build a balanced tree out
+     * of Nodes
+     * 
+     * @param frequencies The number of times each byte value shows up in the input
+     * @return The top node of the tree, with children node representing a fully
+     *         built tree
+     * @exception Exception Thrown when the tree cannot be built due to a logic
+     *                      error
+     */
+    private static Node build(long[] frequencies) throws Exception {
         // Now, we construct a priority queue to order the Nodes while constructing a
         // balanced tree. This allows us to take the lowest frequency values and merge
         // them
@@ -93,17 +177,12 @@ public class Huffman {
         // Iterate over every possible byte value
         for (int i = 0; i < 256; i++) {
             // For each one, grab the frequency from the array
-            int freq = frequencies[i];
+            long freq = frequencies[i];
             // If that frequency is greater than 0 (the byte shows up in the input), we need
             // to include that value as a Node
             if (freq > 0) {
-                // We create a new byte array containing possible values (only one, because this
-                // is a leaf node)
-                byte[] values = new byte[1];
-                // Add the current byte to that array
-                values[0] = (byte) i;
-                // Create a new Node from the values and the weight, with no children
-                Node node = new Node(values, (int) freq);
+                // Create a new leaf Node from the value and the weight, with no children
+                Node node = new Node((byte) i, freq);
                 // Add that Node to the priority queue
                 queue.add(node);
             }
@@ -122,28 +201,10 @@ public class Huffman {
                 // If there's another Node in the queue, remove it
                 Node second = queue.poll();
 
-                // Construct a new byte array big enough to hold all of the values of its two
-                // children so we can use it to search through the tree while compressing
-                int len = last.values.length + second.values.length;
-                byte[] values = new byte[len];
-
-                // Add the values from the first Node
-                for (int i = 0; i < last.values.length; i++) {
-                    values[i] = last.values[i];
-                }
-                // Add the values from the second Node
-                for (int i = 0; i < second.values.length; i++) {
-                    values[i + last.values.length] = second.values[i];
-                }
-
-                // Sort the array of contained values to aid in searching
-                Arrays.sort(values);
-
                 // Compute the weight of the new Node as a sum of its children
-                int weight = last.weight + second.weight;
-                // Create a new Node with the previous two as its children and the new values
-                // and weight
-                Node parent = new Node(second, last, values, weight);
+                long weight = last.weight + second.weight;
+                // Create a new Node with the previous two as its children and the new weight
+                Node parent = new Node(second, last, weight);
                 // Add this new Node to the queue and repeat
                 queue.add(parent);
             }
@@ -154,6 +215,279 @@ public class Huffman {
         throw new Exception("Reached the end of Huffman.build without returning a node");
     }
 
+    /**
+     * This method finds the best code lengths for a set of frequencies with no code
+     * longer than a limit, using the package-merge algorithm. The algorithm
+     * repeatedly pairs up the cheapest items into packages, merging them back in
+     * with the single values, once for each allowed level. The number of times a
+     * value is used in the cheapest items of the final list is its code length
+     * 
+     * @param frequencies The number of times each byte value shows up in the input
+     * @param maxLength   The longest code allowed
+     * @return An array holding the code length of each byte value, with 0 for
+     *         values not in the input
+     * @exception Exception Thrown when there are too many values to give each one a
+     *                      code of the maximum length or shorter
+     */
+    private static int[] limitedLengths(long[] frequencies, int maxLength) throws Exception {
+        // Make a list of the values in the input, sorted by their frequencies
+        ArrayList<Package> leaves = new ArrayList<Package>();
+        for (int i = 0; i < 256; i++) {
+            if (frequencies[i] > 0) {
+                leaves.add(new Package(frequencies[i], i, null, null));
+            }
+        }
+        leaves.sort(null);
+
+        // A tree of height maxLength only has room for 2^maxLength leaves
+        int n = leaves.size();
+        if (maxLength < 31 && n > (1 << maxLength)) {
+            throw new Exception("Cannot fit " + n + " values into codes of " + maxLength + " bits");
+        }
+
+        // Start with just the values, then package and merge once per extra level
+        ArrayList<Package> list = leaves;
+        for (int level = 1; level < maxLength; level++) {
+            // Pair up neighbouring items into packages, dropping the last one if there
+            // is an odd number
+            ArrayList<Package> packages = new ArrayList<Package>(list.size() / 2);
+            for (int i = 0; i + 1 < list.size(); i += 2) {
+                Package a = list.get(i);
+                Package b = list.get(i + 1);
+                packages.add(new Package(a.weight + b.weight, -1, a, b));
+            }
+
+            // Merge the packages with the values, keeping the list sorted
+            ArrayList<Package> merged = new ArrayList<Package>(leaves.size() + packages.size());
+            int i = 0;
+            int j = 0;
+            while (i < leaves.size() || j < packages.size()) {
+                if (j == packages.size() || (i < leaves.size() && leaves.get(i).weight <= packages.get(j).weight)) {
+                    merged.add(leaves.get(i));
+                    i += 1;
+                } else {
+                    merged.add(packages.get(j));
+                    j += 1;
+                }
+            }
+            list = merged;
+        }
+
+        // Count how many times each value appears in the cheapest 2n - 2 items,
+        // opening up packages with a stack instead of recursion
+        int[] lengths = new int[256];
+        ArrayDeque<Package> stack = new ArrayDeque<Package>();
+        for (int i = 0; i < 2 * n - 2; i++) {
+            stack.push(list.get(i));
+            while (!stack.isEmpty()) {
+                Package item = stack.pop();
+                if (item.value >= 0) {
+                    lengths[item.value] += 1;
+                } else {
+                    stack.push(item.left);
+                    stack.push(item.right);
+                }
+            }
+        }
+
+        return lengths;
+    }
+
+    /**
+     * This method finds the length of the code for each value in a tree, which is
+     * the depth of the leaf holding that value
+     * 
+     * @param top The top Node of the tree
+     * @return An array holding the code length of each byte value, with 0 for
+     *         values not in the tree
+     */
+    private static int[] lengthsOf(Node top) {
+        int[] lengths = new int[256];
+
+        // Walk the tree with an explicit stack of Nodes and their depths, rather than
+        // recursing
+        ArrayDeque<Node> nodes = new ArrayDeque<Node>();
+        ArrayDeque<Integer> depths = new ArrayDeque<Integer>();
+        nodes.push(top);
+        depths.push(0);
+
+        while (!nodes.isEmpty()) {
+            Node node = nodes.pop();
+            int depth = depths.pop();
+
+            if (node.isLeaf()) {
+                // Leaves record their depth as the code length
+                lengths[(int) node.value & 0xFF] = depth;
+            } else {
+                // Internal Nodes add their children to the stack, one level deeper
+                nodes.push(node.right);
+                depths.push(depth + 1);
+                nodes.push(node.left);
+                depths.push(depth + 1);
+            }
+        }
+
+        return lengths;
+    }
+
+    /**
+     * This method builds the canonical tree for a set of code lengths. In a
+     * canonical tree, every leaf on a level is to the left of every internal Node
+     * on that level, and leaves on the same level are in order of their values.
+     * The tree is built one level at a time, without recursion
+     * 
+     * @param lengths The length of the code for each byte value, or 0 if the value
+     *                is not in the tree
+     * @param weights The weight of each byte value, or null if the weights are not
+     *                known
+     * @return The top Node of the canonical tree
+     * @exception Exception Thrown when the lengths do not describe a complete tree
+     */
+    private static Node canonicalTree(int[] lengths, long[] weights) throws Exception {
+        // Find the longest code and the number of values in the tree
+        int maxLength = 0;
+        int present = 0;
+        for (int i = 0; i < 256; i++) {
+            maxLength = Math.max(maxLength, lengths[i]);
+            if (lengths[i] > 0) {
+                present += 1;
+            }
+        }
+
+        if (maxLength == 0) {
+            // A tree with only one value is just a leaf, with a code of length 0. Find
+            // the value it holds from the weights
+            for (int i = 0; i < 256 && weights != null; i++) {
+                if (weights[i] > 0) {
+                    return new Node((byte) i, weights[i]);
+                }
+            }
+            throw new Exception("Code lengths do not describe a tree");
+        }
+
+        // Sort the values by the length of their codes, and then by the values
+        // themselves. This is the order the leaves appear in the tree, left to right
+        // and top to bottom
+        byte[] order = new byte[present];
+        int index = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            for (int i = 0; i < 256; i++) {
+                if (lengths[i] == length) {
+                    order[index] = (byte) i;
+                    index += 1;
+                }
+            }
+        }
+
+        // Count how many leaves are on each level
+        int[] counts = new int[maxLength + 1];
+        for (int i = 0; i < 256; i++) {
+            counts[lengths[i]] += 1;
+        }
+        counts[0] = 0;
+
+        Node top = canonicalTree(counts, order);
+
+        // If the weights are known, fill them in from the bottom up so the tree can be
+        // graphed with them
+        if (weights != null) {
+            fillWeights(top, weights);
+        }
+
+        return top;
+    }
+
+    /**
+     * This method builds the canonical tree that has a certain number of leaves on
+     * each level
+     * 
+     * @param counts The number of leaves on each level, starting with the top at
+     *               index 0
+     * @param order  The values of the leaves, in order from left to right and top
+     *               to bottom
+     * @return The top Node of the canonical tree
+     * @exception Exception Thrown when the counts do not describe a complete tree
+     */
+    private static Node canonicalTree(int[] counts, byte[] order) throws Exception {
+        Node top = new Node(null, null, null);
+
+        // The Nodes on the current level that still need to be given children
+        ArrayList<Node> open = new ArrayList<Node>();
+        open.add(top);
+
+        int index = 0;
+        for (int level = 1; level < counts.length; level++) {
+            // Give every open Node two children, creating the next level
+            ArrayList<Node> next = new ArrayList<Node>(open.size() * 2);
+            for (Node node : open) {
+                node.left = new Node(null, null, null);
+                node.right = new Node(null, null, null);
+                next.add(node.left);
+                next.add(node.right);
+            }
+
+            // Make sure there is room on the level for all of its leaves
+            if (counts[level] > next.size()) {
+                throw new Exception("Code lengths do not describe a tree");
+            }
+
+            // The leftmost Nodes on the level are leaves, which take the next values in
+            // order. The rest are internal and stay open for the next level
+            for (int i = 0; i < counts[level]; i++) {
+                next.get(i).value = order[index];
+                index += 1;
+            }
+            open = new ArrayList<Node>(next.subList(counts[level], next.size()));
+        }
+
+        // Every Node on the last level must be a leaf for the tree to be complete
+        if (!open.isEmpty()) {
+            throw new Exception("Code lengths do not describe a complete tree");
+        }
+
+        return top;
+    }
+
+    /**
+     * This method fills in the weights of a tree, giving each leaf the weight of
+     * its value and each internal Node the sum of its children
+     * 
+     * @param top     The top Node of the tree
+     * @param weights The weight of each byte value
+     */
+    private static void fillWeights(Node top, long[] weights) {
+        // Collect every Node in the tree so that each one comes before its children
+        ArrayList<Node> nodes = new ArrayList<Node>();
+        nodes.add(top);
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            if (!node.isLeaf()) {
+                nodes.add(node.left);
+                nodes.add(node.right);
+            }
+        }
+
+        // Go through the Nodes backwards, so every child has a weight before its
+        // parent needs it
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            Node node = nodes.get(i);
+            if (node.isLeaf()) {
+                node.weight = weights[(int) node.value & 0xFF];
+            } else {
+                node.weight = node.left.weight + node.right.weight;
+            }
+        }
+    }
+
+    /**
+     * This method returns the length of the code for each byte value
+     * 
+     * @return An array of 256 code lengths, with 0 for values not in the tree
+     */
+    public int[] getCodeLengths() {
+        return this.lengths.clone();
+    }
+
     /**
      * This method deserializes a tree that can be used for expansion from a byte
      * sequence
@@ -163,92 +497,63 @@ public class Huffman {
      * @exception Exception Thrown when the deserialization fails
      */
     public static Huffman deserialize(byte[] input) throws Exception {
-        // Construct a BitArray from the bytestream to more easily do bit-fiddling
-        BitArray bits = BitArray.fromBytes(input);
+        return deserialize(new BitInputStream(new ByteArrayInputStream(input)));
+    }
+
+    /**
+     * This method deserializes a tree that can be used for expansion from a
+     * bitstream, consuming exactly the bits of the tree
+     * 
+     * @param input The bitstream containing the serialized tree
+     * @return A new tree built from the bitstream
+     * @exception Exception Thrown when the deserialization fails
+     */
+    public static Huffman deserialize(BitInputStream input) throws Exception {
         // Create a Node to serve as the top of the tree
-        Node head = new Node(null, null);
+        Node head = new Node(null, null, null);
         // Call the internally-recursive method that actually deserializes the tree on
-        // the Node just created and the bitstream, with a initial index of 0. The
-        // method will build the tree beneath the Node passed in
-        deserializeInternal(head, 0, bits);
+        // the Node just created and the bitstream. The method will build the tree
+        // beneath the Node passed in
+        deserializeInternal(head, input, 0);
         // Create a new Huffman tree with the top node
         return new Huffman(head);
     }
 
     /**
-     * This internally recursive method consumes bits from a BitArray and builds a
+     * This internally recursive method consumes bits from a bitstream and builds a
      * tree underneath a Node given
      * 
-     * @param head     The Node to construct the tree under
-     * @param bitIndex The index to the next valid bit of the BitArray
-     * @param bits     The bitstream containing the tree information
-     * @return An integer representing the next valid bit after the function runs
+     * @param head  The Node to construct the tree under
+     * @param bits  The bitstream containing the tree information
+     * @param depth The depth of the Node in the tree
      * @exception Exception Thrown when the deserialization fails
      */
-    private static int deserializeInternal(Node head, int bitIndex, BitArray bits) throws Exception {
-        // Create a new variable to modify over the course of the function representing
-        // the current, valid index
-        int newIndex = bitIndex;
-
-        // If the supposedly valid index into the BitArray is past the end of the array,
-        // throw an exception. This should never happen
-        if (bitIndex > bits.bitLength) {
-            throw new Exception("Tried to deserialize past the end of the available data");
+    private static void deserializeInternal(Node head, BitInputStream bits, int depth) throws Exception {
+        // A tree of 256 values can't be deeper than 255 levels, so anything deeper is
+        // corrupt. Stopping here also keeps the recursion from overflowing the stack
+        if (depth > 255) {
+            throw new Exception("Serialized tree is deeper than any valid tree");
         }
 
-        // Get the current bit from the BitArray
-        if (bits.get(bitIndex)) { // The bit is a 1
+        // Get the next bit from the bitstream
+        if (bits.readBit()) { // The bit is a 1
             // In the tree serialization, a 1 represents an internal Node
 
-            // Increment the bit index, consuming the bit
-            newIndex += 1;
-
             // Create a new Node representing the left child of the current Node. Set the
             // current Node's left child, and then recurse and call this method on that
-            // Node. That method will return the next valid bit index, so set the valid
-            // index for this function to that return value
-            Node left = new Node(null, null);
+            // Node, which consumes the bits of the left subtree
+            Node left = new Node(null, null, null);
             head.left = left;
-            newIndex = deserializeInternal(left, newIndex, bits);
+            deserializeInternal(left, bits, depth + 1);
 
             // Do the same for the right child
-            Node right = new Node(null, null);
+            Node right = new Node(null, null, null);
             head.right = right;
-            newIndex = deserializeInternal(right, newIndex, bits);
-
-            // Propagate the values from the children into this Node
-            int length = left.values.length + right.values.length;
-            byte[] values = Arrays.copyOf(left.values, length);
-            for (int i = 0; i < right.values.length; i++) {
-                values[left.values.length + i] = right.values[i];
-            }
-            head.values = values;
-
-            // Return the next valid bit index
-            return newIndex;
+            deserializeInternal(right, bits, depth + 1);
         } else { // The bit is a 0
             // In the tree serialization, a 0 represents a leaf Node, with the next 8 bits
             // being the byte value of that Node
-
-            // Increment the bit index, consuming the bit
-            newIndex += 1;
-
-            // Make sure we don't try to access past the end of the available data. If we
-            // try to, throw an exception
-            if (newIndex + 7 > bits.bitLength) {
-                throw new Exception("Tried to deserialize past the end of the available data");
-            }
-
-            // Create a new byte array to store the leaf Node value and then read a byte
-            // from the bitstream, storing it in the array
-            head.values = new byte[1];
-            head.values[0] = bits.readByte(newIndex);
-
-            // Increment the bit index to consume 8 bits
-            newIndex += 8;
-
-            // Return the next valid bit index
-            return newIndex;
+            head.value = (byte) bits.readBits(8);
         }
     }
 
@@ -276,13 +581,12 @@ public class Huffman {
      * @param output The bitstream to output serialized bits into
      */
     private void serializeInternal(Node n, BitArray output) {
-        // Check if the Node is a leaf node (the value array has a length of 1) or an
-        // internal Node (the value array has more elements)
-        if (n.values.length == 1) {
+        // Check if the Node is a leaf node or an internal Node
+        if (n.isLeaf()) {
             // The Node is leaf, so push a 0 and then value of the leaf node to the
             // bitstream
             output.push(false);
-            output.pushByte(n.values[0]);
+            output.pushByte(n.value);
             return;
         } else {
             // The Node is internal, so push a 1 to the bitstream and then recursively call
@@ -294,79 +598,329 @@ public class Huffman {
     }
 
     /**
-     * This method compresses a byte array into another using a built Huffman tree
+     * This method serializes the tree in its canonical form. Since a canonical
+     * tree is determined by the code lengths of its values, only the number of
+     * codes of each length and the values in order of their codes are written.
+     * This is smaller than the tree shape written by serialize() for all but the
+     * deepest trees
      * 
-     * @param input The byte array input containing the data to be compressed
-     * @return A byte array of compressed data
+     * @return A byte array containing the serialized code lengths
+     */
+    public byte[] serializeCanonical() {
+        BitArray bits = new BitArray();
+
+        // Find the longest code
+        int maxLength = 0;
+        for (int i = 0; i < 256; i++) {
+            maxLength = Math.max(maxLength, this.lengths[i]);
+        }
+
+        // The header starts with a bit saying whether the tree has only one value, in
+        // which case that value is all that needs to be stored
+        if (maxLength == 0) {
+            bits.push(true);
+            bits.pushByte(this.top.value);
+            return bits.toArray();
+        }
+        bits.push(false);
+
+        // Push the number of codes of each length. There can be at most 2^length codes
+        // of a length (and never more than 256), so that many bits plus one is enough
+        // to store each count. The longest length doesn't need to be stored, since the
+        // counts of a complete tree show where it ends
+        for (int length = 1; length <= maxLength; length++) {
+            int count = 0;
+            for (int i = 0; i < 256; i++) {
+                if (this.lengths[i] == length) {
+                    count += 1;
+                }
+            }
+            bits.pushBits(count, Math.min(length, 8) + 1);
+        }
+
+        // Push the values in the order of their codes: by code length, and then by
+        // value
+        for (int length = 1; length <= maxLength; length++) {
+            for (int i = 0; i < 256; i++) {
+                if (this.lengths[i] == length) {
+                    bits.pushByte((byte) i);
+                }
+            }
+        }
+
+        return bits.toArray();
+    }
+
+    /**
+     * This method deserializes a canonical tree written by serializeCanonical(),
+     * rebuilding it without recursion
+     * 
+     * @param input The byte array input containing the serialized code lengths
+     * @return A new tree built from the byte sequence
+     * @exception Exception Thrown when the deserialization fails
+     */
+    public static Huffman deserializeCanonical(byte[] input) throws Exception {
+        return deserializeCanonical(new BitInputStream(new ByteArrayInputStream(input)));
+    }
+
+    /**
+     * This method deserializes a canonical tree written by serializeCanonical() from
+     * a bitstream, consuming exactly the bits of the tree
+     * 
+     * @param bits The bitstream containing the serialized code lengths
+     * @return A new tree built from the bitstream
+     * @exception Exception Thrown when the deserialization fails
+     */
+    public static Huffman deserializeCanonical(BitInputStream bits) throws Exception {
+        // Read the first bit, which says if the tree has only one value
+        if (bits.readBit()) {
+            return new Huffman(new Node((byte) bits.readBits(8), null));
+        }
+
+        // Read the number of codes of each length, keeping track of how many Nodes on
+        // each level are still open (not leaves). Once no Nodes are left open, the
+        // tree is complete and there are no more lengths
+        ArrayList<Integer> counts = new ArrayList<Integer>();
+        counts.add(0);
+        int open = 1;
+        int present = 0;
+        while (open > 0) {
+            int length = counts.size();
+            int count = bits.readBits(Math.min(length, 8) + 1);
+
+            // Every open Node has two children on this level, and each leaf closes one
+            open = open * 2 - count;
+            present += count;
+            if (open < 0 || present > 256) {
+                throw new Exception("Code lengths do not describe a tree");
+            }
+            counts.add(count);
+        }
+
+        // Read the values in the order of their codes
+        byte[] order = new byte[present];
+        for (int i = 0; i < present; i++) {
+            order[i] = (byte) bits.readBits(8);
+        }
+
+        // Build the tree level by level from the counts and values
+        int[] levels = new int[counts.size()];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = counts.get(i);
+        }
+        return new Huffman(canonicalTree(levels, order));
+    }
+
+    /**
+     * This method compresses a stream into a bitstream using a built Huffman tree
+     * 
+     * @param input  The stream containing the data to be compressed
+     * @param output The bitstream to write the compressed data to
+     * @param length The number of bytes in the input
      * @exception Exception Thrown when a byte in the input data isn't found in the
      *                      tree, or when the tree is malconstructed
      */
-    public void compress(InputStream input, BitOutputStream output, int length) throws Exception {
-        // Push a 4 byte integer to the bitstream, giving an expansion algorithm the
-        // length of bytes it should find in the compressed data
-        output.writeInt(length);
-
-        // Flatten the tree into a lookup map to speed up compression
-        Map<Byte, BitArray> map = flatten();
-
-        // Iterate over the data in the compression stream
-        int data = input.read();
-        while (data != -1) {
-            // Find the corresponding path in the huffman tree to that data
-            BitArray bits = map.get((byte) data);
-            // Make sure the path exists
-            if (bits != null) {
-                // If it does, append the bits to the stream
-                output.appendBits(bits);
-            } else {
-                // Otherwise, throw an exception
+    public void compress(InputStream input, BitOutputStream output, long length) throws Exception {
+        // Push an 8 byte long to the bitstream, giving an expansion algorithm the
+        // length of bytes it should find in the compressed data. A long leaves room
+        // for inputs much larger than 2 GB
+        output.writeLong(length);
+
+        // Read the input in chunks, encoding each one. The chunk is reused, so nothing
+        // is allocated per byte
+        byte[] chunk = new byte[8192];
+        int read = input.read(chunk);
+        while (read != -1) {
+            encode(chunk, 0, read, output);
+            read = input.read(chunk);
+        }
+    }
+
+    /**
+     * This method encodes part of a byte array into a bitstream. Each byte's code is
+     * looked up in flat arrays and shifted into a 64-bit accumulator, which is
+     * written to the bitstream 32 bits at a time
+     * 
+     * @param data   The array holding the data to be compressed
+     * @param offset The index of the first byte to compress
+     * @param length The number of bytes to compress
+     * @param output The bitstream to write the compressed data to
+     * @exception Exception Thrown when a byte in the input data isn't found in the
+     *                      tree, or when the tree's codes are too long to encode
+     */
+    public void encode(byte[] data, int offset, int length, BitOutputStream output) throws Exception {
+        // A tree with only one value has a code of length 0, so there is nothing to
+        // write. Just make sure every byte is that value
+        if (this.top.isLeaf()) {
+            for (int i = offset; i < offset + length; i++) {
+                if (data[i] != this.top.value) {
+                    throw new Exception("Byte not found in tree");
+                }
+            }
+            return;
+        }
+
+        // Pull the tables into locals so the loop doesn't need to read the fields
+        int[] codes = codes();
+        int[] lengths = this.lengths;
+
+        // The accumulator holds bits that haven't been written yet, in its `bits`
+        // lowest bits. It always has fewer than 32, so a code of up to 32 bits fits.
+        // Codes are masked to their unsigned value, since a 32 bit code with its top
+        // bit set would otherwise sign extend over the bits still waiting
+        long accumulator = 0;
+        int bits = 0;
+
+        for (int i = offset; i < offset + length; i++) {
+            int value = (int) data[i] & 0xFF;
+            int codeLength = lengths[value];
+
+            // Values not in the tree have no code
+            if (codeLength == 0) {
                 throw new Exception("Byte not found in tree");
             }
-            data = input.read();
+
+            // Shift the code onto the end of the accumulator
+            accumulator = (accumulator << codeLength) | (codes[value] & 0xFFFFFFFFL);
+            bits += codeLength;
+
+            // Once 32 bits are ready, write them out
+            if (bits >= 32) {
+                bits -= 32;
+                output.writeInt((int) (accumulator >>> bits));
+            }
         }
+
+        // Write whatever bits are left over
+        output.writeBits((int) accumulator, bits);
     }
 
     /**
-     * This method creates a Map that maps bytes to their bits from the tree
+     * This method encodes the bytes of one buffer into another, without going
+     * through a stream. Every byte from the source's position to its limit is
+     * encoded, and the codes are written from the destination's position, padded
+     * to a byte. Both positions are moved past what was used. The buffers can be
+     * on the heap or direct, and nothing is copied through an array on the way
      * 
-     * @return A map of all the (byte, bits) pairs in the tree
+     * @param src The buffer holding the data to be compressed
+     * @param dst The buffer to write the codes to
+     * @exception Exception Thrown when a byte in the source isn't found in the
+     *                      tree, or when the destination runs out of room, in which
+     *                      case both positions are left wherever they got to
      */
-    private Map<Byte, BitArray> flatten() {
-        // Create a new Map to hold the pairings we need
-        Map<Byte, BitArray> map = new HashMap<Byte, BitArray>();
-        // Call the recursive internal method that will walk the tree
-        flattenInternal(this.top, map, new BitArray(16));
-        // Return the now-full map
-        return map;
+    public void encode(ByteBuffer src, ByteBuffer dst) throws Exception {
+        if (this.top.isLeaf()) {
+            while (src.hasRemaining()) {
+                if (src.get() != this.top.value) {
+                    throw new Exception("Byte not found in tree");
+                }
+            }
+            return;
+        }
+
+        int[] codes = codes();
+        int[] lengths = this.lengths;
+        long accumulator = 0;
+        int bits = 0;
+
+        try {
+            // The same loop as encode() above, but putting ints straight into the
+            // destination buffer
+            while (src.hasRemaining()) {
+                int value = (int) src.get() & 0xFF;
+                int codeLength = lengths[value];
+                if (codeLength == 0) {
+                    throw new Exception("Byte not found in tree");
+                }
+
+                accumulator = (accumulator << codeLength) | (codes[value] & 0xFFFFFFFFL);
+                bits += codeLength;
+                if (bits >= 32) {
+                    bits -= 32;
+                    dst.putInt((int) (accumulator >>> bits));
+                }
+            }
+
+            // Write whole bytes of what's left, and then the last bits padded with 0s
+            while (bits >= 8) {
+                bits -= 8;
+                dst.put((byte) (accumulator >>> bits));
+            }
+            if (bits > 0) {
+                dst.put((byte) (accumulator << (8 - bits)));
+            }
+        } catch (BufferOverflowException e) {
+            throw new Exception("The destination buffer is too small for the codes");
+        }
     }
 
     /**
-     * This method is internally recursive, and recurses down the tree, adding leaf
-     * nodes to the map
+     * This method decodes the codes in one buffer into another, without going
+     * through a stream. It is the reverse of encode(ByteBuffer, ByteBuffer):
+     * codes are read from the source's position, and exactly as many bytes are
+     * decoded as the destination has room for, so its limit should be set to the
+     * length of the original data. The source is left just after the byte holding
+     * the last code
      * 
-     * @param top  The node to process
-     * @param map  A map of (byte, bits) pairs in the tree
-     * @param path The path to get to the current Node, functioning like a stack
+     * @param src The buffer holding the codes
+     * @param dst The buffer to write the decoded bytes to, up to its limit
+     * @exception IOException Thrown when the source ends in the middle of a code
      */
-    private void flattenInternal(Node top, Map<Byte, BitArray> map, BitArray path) {
-        // Check if the current node is a leaf node or an internal node
-        if (top.values.length == 1) {
-            // The node is a leaf, so we create a new BitArray of the path we took to get
-            // here and put the value into the map as the key to that path
-            map.put(top.values[0], new BitArray(path));
+    public void decode(ByteBuffer src, ByteBuffer dst) throws IOException {
+        // A tree with only one value has codes of length 0, so no bits are read
+        if (this.top.isLeaf()) {
+            while (dst.hasRemaining()) {
+                dst.put(this.top.value);
+            }
             return;
-        } else {
-            // The node is internal, so we first push a 0 to the path and then follow the
-            // left direction
-            path.push(false);
-            flattenInternal(top.left, map, path);
-            // Then we pop the 0 from the path and push a 1, following the right direction
-            path.pop();
-            path.push(true);
-            flattenInternal(top.right, map, path);
-            // Then we pop the 1, leaving the BitArray exactly as it was
-            path.pop();
         }
+
+        decodeTable().decode(src, dst);
+    }
+
+    /**
+     * This method finds the code for each value in a tree, which is the path from
+     * the top of the tree to the leaf holding the value
+     * 
+     * @param top The top Node of the tree
+     * @return An array holding the code of each byte value in its lowest bits
+     * @exception Exception Thrown when a code is longer than 32 bits
+     */
+    private static int[] codesOf(Node top) throws Exception {
+        int[] codes = new int[256];
+
+        // Walk the tree with explicit stacks of Nodes, their codes, and their depths,
+        // rather than recursing
+        ArrayDeque<Node> nodes = new ArrayDeque<Node>();
+        ArrayDeque<Long> paths = new ArrayDeque<Long>();
+        ArrayDeque<Integer> depths = new ArrayDeque<Integer>();
+        nodes.push(top);
+        paths.push(0L);
+        depths.push(0);
+
+        while (!nodes.isEmpty()) {
+            Node node = nodes.pop();
+            long path = paths.pop();
+            int depth = depths.pop();
+
+            if (depth > 32) {
+                throw new Exception("Tree has codes longer than 32 bits");
+            }
+
+            if (node.isLeaf()) {
+                codes[(int) node.value & 0xFF] = (int) path;
+            } else {
+                // Going left adds a 0 to the path, and going right adds a 1
+                nodes.push(node.left);
+                paths.push(path << 1);
+                depths.push(depth + 1);
+                nodes.push(node.right);
+                paths.push((path << 1) | 1);
+                depths.push(depth + 1);
+            }
+        }
+
+        return codes;
     }
 
     /**
@@ -374,37 +928,126 @@ public class Huffman {
      * Huffman tree
      * 
      * @param input The byte array input containing the data to be expanded
-     * @return A byte array of the original, uncompressed data
-     * @exception IOException Thrown when there is a problem writing to the stream
+     * @param output The stream to write the original, uncompressed data to
+     * @exception IOException Thrown when there is a problem writing to the stream,
+     *                        or when the input ends before all of the data is
+     *                        expanded
      */
     public void expand(byte[] input, OutputStream output) throws IOException {
+        expand(new BitInputStream(new ByteArrayInputStream(input)), output);
+    }
+
+    /**
+     * This method expands a compressed bitstream using a built Huffman tree. Rather
+     * than walking the tree one bit at a time, it decodes with a lookup table that
+     * resolves most codes with a single array access
+     * 
+     * @param input  The bitstream containing the data to be expanded
+     * @param output The stream to write the original, uncompressed data to
+     * @exception IOException Thrown when there is a problem writing to the stream,
+     *                        or when the input ends before all of the data is
+     *                        expanded
+     */
+    public void expand(BitInputStream input, OutputStream output) throws IOException {
+        // Read the first 64 bits of the input bitstream, which represent the length of
+        // the original data
+        long length = input.readLong();
+        if (length < 0) {
+            throw new IOException("The compressed data has a negative length");
+        }
+
+        // A tree with only one value has codes of length 0, so no bits need to be read
+        // to output it. Write the value out in chunks
+        if (this.top.isLeaf()) {
+            byte[] chunk = new byte[(int) Math.min(8192, length)];
+            Arrays.fill(chunk, this.top.value);
+            for (long left = length; left > 0; left -= chunk.length) {
+                output.write(chunk, 0, (int) Math.min(chunk.length, left));
+            }
+            return;
+        }
+
+        decodeTable().decode(input, output, length);
+    }
+
+    /**
+     * This method returns the code for each byte value, building the codes the
+     * first time they are needed and reusing them after that
+     * 
+     * @return An array holding the code of each byte value in its lowest bits
+     * @exception Exception Thrown when a code is longer than 32 bits
+     */
+    int[] codes() throws Exception {
+        int[] codes = this.codes;
+        if (codes == null) {
+            codes = codesOf(this.top);
+            this.codes = codes;
+        }
+        return codes;
+    }
+
+    /**
+     * This method returns the table used to decode data, building it the first time
+     * it is needed and reusing it after that. The tree must have more than one
+     * value
+     * 
+     * @return The decoding table
+     */
+    DecodeTable decodeTable() {
+        DecodeTable table = this.table;
+        if (table == null) {
+            table = new DecodeTable(this.top);
+            this.table = table;
+        }
+        return table;
+    }
+
+    /**
+     * This method returns the top Node of the tree
+     * 
+     * @return The top Node, which is a leaf if the tree has only one value
+     */
+    Node getTop() {
+        return this.top;
+    }
+
+    /**
+     * This method expands a compressed byte array by walking the tree one bit at a
+     * time. It is much slower than expand(), and is kept as a simple reference to
+     * test and benchmark the table decoder against
+     * 
+     * @param input  The byte array input containing the data to be expanded
+     * @param output The stream to write the original, uncompressed data to
+     * @exception IOException Thrown when there is a problem writing to the stream
+     */
+    void expandByTree(byte[] input, OutputStream output) throws IOException {
         // Construct a bitstream from the byte input
         BitArray bits = BitArray.fromBytes(input);
 
-        // Read the first 32 bits of the input bitstream, which represent the length of
+        // Read the first 64 bits of the input bitstream, which represent the length of
         // the original data
-        int length = bits.getInt(0);
+        long length = bits.getBits(0, 64);
 
-        // Start an index into the bitstream at the 33rd bit, skipping the first 32
-        int i = 32;
+        // Start an index into the bitstream at the 65th bit, skipping the first 64
+        long i = 64;
         // Start a counter of how many bits are output
-        int bytesOutput = 0;
+        long bytesOutput = 0;
 
         // Continue decompressing while the number of bytes output is less than the
         // supposed compressed bytes in the expanded data
         while (bytesOutput < length) {
             // Make sure we don't try to index past the end of the file. If we do, don't
-            // throw an exception and simply output what we've got so far
-            if (i >= bits.bitLength) {
+            // throw an exception and simply output what we've got so far. Trees with
+            // only one value don't use any bits, so they are allowed to keep going
+            if (i >= bits.bitLength && !this.top.isLeaf()) {
                 break;
             }
 
             // Create a Node variable to walk the tree
             Node current = this.top;
 
-            // Continue iterating over the tree until at a leaf Node, represented by a
-            // values array of length 1
-            while (current.values.length > 1) {
+            // Continue iterating over the tree until at a leaf Node
+            while (!current.isLeaf()) {
                 if (i >= bits.bitLength) {
                     break;
                 }
@@ -423,7 +1066,7 @@ public class Huffman {
             }
 
             // Now at a leaf node, output the value of the Node
-            output.write((int) current.values[0] & 0xFF);
+            output.write((int) current.value & 0xFF);
             // Increment the bytes output
             bytesOutput += 1;
         }
@@ -459,12 +1102,12 @@ public class Huffman {
      */
     private void writeToGraphInternal(Writer writer, Node head) throws IOException {
         // Check if the current node is a leaf Node or an internal Node
-        if (head.values.length == 1) {
+        if (head.isLeaf()) {
             // The current Node is a leaf Node
 
             // Construct a label for the node in the following format:
             // 0x[value]<: weight>
-            String label = "0x" + String.format("%02X", head.values[0]);
+            String label = "0x" + String.format("%02X", head.value);
             if (head.weight != null) {
                 // The weight might not be present (if, for example, the tree was deserialized
                 // from a byte representation), so we allow labels that do not include the
@@ -503,8 +1146,33 @@ public class Huffman {
     }
 
     /**
-     * A node of the Huffman tree, containing two children, a weight, and a list of
-     * values.
+     * An item used by the package-merge algorithm, which is either a single value
+     * or a package of two other items.
+     */
+    private static class Package implements Comparable<Package> {
+        // The total frequency of every value in the item
+        long weight;
+        // The value of the item, or -1 if it is a package
+        int value;
+        // The two items in the package, if it is one
+        Package left;
+        Package right;
+
+        Package(long weight, int value, Package left, Package right) {
+            this.weight = weight;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+        }
+
+        public int compareTo(Package other) {
+            return Long.compare(this.weight, other.weight);
+        }
+    }
+
+    /**
+     * A node of the Huffman tree, containing either two children or a value, and a
+     * weight.
      */
     static class Node implements Comparable<Node> {
         // The left child of the Node
@@ -512,35 +1180,44 @@ public class Huffman {
         // The right child of the Node
         public Node right;
 
-        // The weight of the Node
-        public Integer weight;
-        // The values that this Node and its children (if any) contain
-        public byte[] values;
+        // The weight of the Node, which can be more than an int holds for large inputs
+        public Long weight;
+        // The value of the Node, if it is a leaf
+        public byte value;
 
         /**
-         * This method constructs a new Node
+         * This method constructs a new internal Node
          * 
          * @param left   The left child of this Node
          * @param right  The right child of the Node
-         * @param values The values this Node contains
          * @param weight The weight of this Node in the tree
          */
-        public Node(Node left, Node right, byte[] values, Integer weight) {
+        public Node(Node left, Node right, Long weight) {
             this.left = left;
             this.right = right;
 
-            this.values = values;
             this.weight = weight;
         }
 
         /**
-         * This method constructs a new Node without set children
+         * This method constructs a new leaf Node, without children
          * 
-         * @param values The values this Node contains
+         * @param value  The value this Node holds
          * @param weight The weight of this Node in the tree
          */
-        public Node(byte[] values, Integer weight) {
-            this(null, null, values, weight);
+        public Node(byte value, Long weight) {
+            this(null, null, weight);
+            this.value = value;
+        }
+
+        /**
+         * This method checks if the Node is a leaf, holding a value instead of having
+         * children
+         * 
+         * @return Whether the Node is a leaf
+         */
+        public boolean isLeaf() {
+            return this.left == null;
         }
 
         /**
@@ -550,7 +1227,7 @@ public class Huffman {
          * @return The ordering of this Node versus the other
          */
         public int compareTo(Node other) {
-            // Call the compareTo() method on the Integer weight
+            // Call the compareTo() method on the Long weight
             return this.weight.compareTo(other.weight);
         }
 
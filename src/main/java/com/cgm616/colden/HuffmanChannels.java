@@ -0,0 +1,344 @@
+package com.cgm616.colden;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Channels that compress and expand files, like the ones in
+ * java.nio.channels.Channels. A writable channel compresses what is written to
+ * it into another channel, and a readable channel expands what it reads from
+ * another channel. The files are the same as the ones HuffmanOutputStream and
+ * BlockCompressor write.
+ * 
+ * Blocks are coded from buffer to buffer with Artifact.encodeBlock(ByteBuffer)
+ * and Artifact.expandBlock(ByteBuffer), on a ForkJoinPool, without going
+ * through any streams. They are written and read in order by the same
+ * BlockWriter and BlockReader that HuffmanOutputStream and HuffmanInputStream
+ * use. Compressed blocks are read from and written to the underlying channel
+ * straight out of direct buffers. The only other copy is between the caller's
+ * buffers and the blocks: the data written to a channel is copied into the
+ * block being filled, since the caller is free to reuse its buffer as soon as
+ * write() returns, and expanded data is copied out of its block into the buffer
+ * given to read(), since blocks are expanded ahead of time in parallel. Blocks
+ * laid out by Lzss or BlockSort can be read too, but they are expanded through
+ * arrays. The underlying channels must be in blocking mode.
+ */
+public class HuffmanChannels {
+    // The number of bytes read from a channel at the start, to parse the header
+    private static final int SIZE = 1 << 16;
+
+    /**
+     * Private class constructor, since this class only holds static methods
+     */
+    private HuffmanChannels() {
+    }
+
+    /**
+     * This method creates a channel that compresses everything written to it into
+     * another channel, in blocks of the default size on the common pool. The file
+     * is finished when the channel is closed, which closes the other channel too
+     * 
+     * @param channel The channel to write the compressed file to
+     * @return The compressing channel
+     * @exception IOException Thrown when the header cannot be written
+     */
+    public static WritableByteChannel newWritableChannel(WritableByteChannel channel) throws IOException {
+        return newWritableChannel(channel, ForkJoinPool.commonPool(), HuffmanOutputStream.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * This method creates a channel that compresses everything written to it into
+     * another channel. The file is finished when the channel is closed, which
+     * closes the other channel too
+     * 
+     * @param channel   The channel to write the compressed file to
+     * @param pool      The pool to compress blocks on
+     * @param blockSize The number of bytes in each block
+     * @return The compressing channel
+     * @exception IOException Thrown when the block size isn't positive, or when the
+     *                        header cannot be written
+     */
+    public static WritableByteChannel newWritableChannel(WritableByteChannel channel, ForkJoinPool pool,
+            int blockSize) throws IOException {
+        if (blockSize < 1) {
+            throw new IOException("The block size must be positive");
+        }
+        return new CompressingChannel(channel, pool, blockSize);
+    }
+
+    /**
+     * This method creates a channel that expands a compressed file read from
+     * another channel, expanding blocks on the common pool. The header is read
+     * straight away. Closing the channel closes the other channel too
+     * 
+     * @param channel The channel to read the compressed file from
+     * @return The expanding channel
+     * @exception IOException Thrown when the file doesn't start with a valid
+     *                        header, or isn't split into blocks
+     */
+    public static ReadableByteChannel newReadableChannel(ReadableByteChannel channel) throws IOException {
+        return newReadableChannel(channel, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * This method creates a channel that expands a compressed file read from
+     * another channel. The header is read straight away. Closing the channel
+     * closes the other channel too
+     * 
+     * @param channel The channel to read the compressed file from
+     * @param pool    The pool to expand blocks on
+     * @return The expanding channel
+     * @exception IOException Thrown when the file doesn't start with a valid
+     *                        header, or isn't split into blocks
+     */
+    public static ReadableByteChannel newReadableChannel(ReadableByteChannel channel, ForkJoinPool pool)
+            throws IOException {
+        return new ExpandingChannel(channel, pool);
+    }
+
+    // Writes all of a buffer to a channel
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // A channel that gathers what is written to it into blocks, and compresses
+    // each full block on the pool while the next one fills up
+    private static class CompressingChannel implements WritableByteChannel {
+        private WritableByteChannel channel;
+        private int blockSize;
+
+        // The block being filled
+        private ByteBuffer block;
+        // Writes the blocks out in order as they are compressed
+        private BlockWriter<ByteBuffer> blocks;
+        // The length written in front of each block
+        private ByteBuffer prefix = ByteBuffer.allocateDirect(4);
+        private boolean open = true;
+
+        private CompressingChannel(WritableByteChannel channel, ForkJoinPool pool, int blockSize)
+                throws IOException {
+            this.channel = channel;
+            this.blockSize = blockSize;
+            this.block = ByteBuffer.allocate(blockSize);
+
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            Artifact.writeBlockHeader(header, null);
+            writeFully(channel, ByteBuffer.wrap(header.toByteArray()));
+            this.blocks = new BlockWriter<>(pool, header.size(), compressed -> {
+                int size = compressed.remaining();
+                this.prefix.clear();
+                this.prefix.putInt(size).flip();
+                writeFully(this.channel, this.prefix);
+                writeFully(this.channel, compressed);
+                return size;
+            });
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!this.open) {
+                throw new ClosedChannelException();
+            }
+
+            int count = src.remaining();
+            while (src.hasRemaining()) {
+                int copied = Math.min(src.remaining(), this.block.remaining());
+                ByteBuffer part = src.duplicate();
+                part.limit(part.position() + copied);
+                this.block.put(part);
+                src.position(src.position() + copied);
+                if (!this.block.hasRemaining()) {
+                    submitBlock();
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!this.open) {
+                return;
+            }
+            this.open = false;
+
+            try {
+                // The end of the body and the index are gathered up and written at once
+                submitBlock();
+                ByteArrayOutputStream trailer = new ByteArrayOutputStream();
+                this.blocks.finish(trailer);
+                writeFully(this.channel, ByteBuffer.wrap(trailer.toByteArray()));
+            } finally {
+                this.blocks.cancel();
+                this.channel.close();
+            }
+        }
+
+        // Starts compressing the current block, if it has anything in it
+        private void submitBlock() throws IOException {
+            if (this.block.position() == 0) {
+                return;
+            }
+
+            // The task keeps the buffer, so the next block needs a new one
+            ByteBuffer data = this.block.flip();
+            this.block = ByteBuffer.allocate(this.blockSize);
+            this.blocks.submit(() -> Artifact.encodeBlock(data), data.remaining());
+        }
+    }
+
+    // A channel that reads blocks from another channel and expands them on the
+    // pool, a few ahead of the one being read
+    private static class ExpandingChannel implements ReadableByteChannel, BlockReader.Input<ByteBuffer> {
+        private ReadableByteChannel channel;
+        // The header of the file
+        private Artifact artifact;
+
+        // What was read from the channel past the header, which is used up before
+        // reading the channel again
+        private ByteBuffer staged = ByteBuffer.allocateDirect(SIZE);
+        // The length read in front of each block
+        private ByteBuffer prefix = ByteBuffer.allocateDirect(4);
+        // Reads the blocks and expands them a few ahead
+        private BlockReader<ByteBuffer> blocks;
+        // The expanded block being read from
+        private ByteBuffer current = ByteBuffer.allocate(0);
+        private boolean open = true;
+
+        private ExpandingChannel(ReadableByteChannel channel, ForkJoinPool pool) throws IOException {
+            this.channel = channel;
+
+            // Read the start of the file, up to the size of the buffer, and parse the
+            // header out of it. The stream the header is read through reads ahead, so
+            // the buffer is moved back to the end of the header afterwards
+            int read = 0;
+            while (this.staged.hasRemaining() && read != -1) {
+                read = channel.read(this.staged);
+            }
+            this.staged.flip();
+            BitInputStream in = new BitInputStream(new ByteBufferInputStream(this.staged));
+            try {
+                this.artifact = Artifact.readHeader(in);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Channel is not a valid file: " + e.getMessage(), e);
+            }
+            this.staged.position(this.staged.position() - (in.available() - this.staged.remaining()));
+
+            if (!this.artifact.hasBlocks() && !this.artifact.isLzss() && !this.artifact.isBlockSorted()) {
+                throw new IOException("Only files split into blocks can be read as a channel");
+            }
+            this.blocks = new BlockReader<>(pool, this);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!this.open) {
+                throw new ClosedChannelException();
+            } else if (!dst.hasRemaining()) {
+                return 0;
+            }
+
+            while (!this.current.hasRemaining()) {
+                ByteBuffer next = this.blocks.next();
+                if (next == null) {
+                    return -1;
+                }
+                this.current = next;
+            }
+
+            // Stop at the end of the current block, like HuffmanInputStream does
+            int copied = Math.min(dst.remaining(), this.current.remaining());
+            ByteBuffer part = this.current.duplicate();
+            part.limit(part.position() + copied);
+            dst.put(part);
+            this.current.position(this.current.position() + copied);
+            return copied;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!this.open) {
+                return;
+            }
+            this.open = false;
+            this.blocks.cancel();
+            this.channel.close();
+        }
+
+        @Override
+        public Callable<ByteBuffer> next() throws IOException {
+            ByteBuffer block = readBlock();
+            if (block == null) {
+                return null;
+            } else if (this.artifact.isLzss() || this.artifact.isBlockSorted()) {
+                // Lzss and BlockSort only lay out blocks held in arrays
+                byte[] bytes = new byte[block.remaining()];
+                block.get(bytes);
+                return () -> ByteBuffer.wrap(this.artifact.decodeBlock(bytes));
+            }
+            return () -> this.artifact.expandBlock(block);
+        }
+
+        // A file can be read ahead without waiting. Any other channel only has the
+        // next block read, since it might be slow
+        @Override
+        public boolean ready() {
+            return this.channel instanceof SeekableByteChannel;
+        }
+
+        // Reads the next block into a direct buffer, or returns null if it was the
+        // block that ends the file
+        private ByteBuffer readBlock() throws IOException {
+            this.prefix.clear();
+            readFully(this.prefix);
+            int length = this.prefix.flip().getInt();
+            if (length == 0) {
+                return null;
+            } else if (length < 0) {
+                throw new IOException("Block has a negative length");
+            }
+
+            ByteBuffer block = ByteBuffer.allocateDirect(length);
+            readFully(block);
+            return block.flip();
+        }
+
+        // Fills a buffer, first from what was read along with the header, and then
+        // straight from the channel
+        private void readFully(ByteBuffer dst) throws IOException {
+            if (this.staged.hasRemaining()) {
+                int copied = Math.min(dst.remaining(), this.staged.remaining());
+                ByteBuffer part = this.staged.duplicate();
+                part.limit(part.position() + copied);
+                dst.put(part);
+                this.staged.position(this.staged.position() + copied);
+            }
+            while (dst.hasRemaining()) {
+                if (this.channel.read(dst) == -1) {
+                    throw new EOFException("Reached the end of the channel while reading a block");
+                }
+            }
+        }
+    }
+}
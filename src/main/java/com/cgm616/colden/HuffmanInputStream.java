@@ -0,0 +1,202 @@
+package com.cgm616.colden;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An InputStream that expands a compressed file as it is read, like
+ * GZIPInputStream. The header is read when the stream is created, and then
+ * blocks are read from the file a few at a time and expanded on a ForkJoinPool
+ * while earlier ones are being consumed.
+ * 
+ * Only files split into blocks can be read this way: the ones written by
+ * HuffmanOutputStream and BlockCompressor, and ones compressed with Lzss or
+ * BlockSort. Every block's checksum is checked before any of its data is
+ * returned. The stream ends at the block that ends the body, and the index
+ * after it is not needed.
+ */
+public class HuffmanInputStream extends FilterInputStream {
+    // The stream the file is read from
+    private BitInputStream bits;
+    // The header of the file
+    private Artifact artifact;
+    // Reads the blocks and expands them a few ahead
+    private BlockReader<byte[]> blocks;
+    // The expanded block being read from, and the position of the next byte in it
+    private byte[] current = new byte[0];
+    private int position = 0;
+    // Whether the stream has been closed
+    private boolean closed = false;
+
+    /**
+     * Class constructor that expands blocks on the common pool
+     * 
+     * @param in The stream to read the compressed file from
+     * @exception IOException Thrown when the file doesn't start with a valid
+     *                        header, or isn't split into blocks
+     */
+    public HuffmanInputStream(InputStream in) throws IOException {
+        this(in, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Class constructor that takes the pool to expand blocks on
+     * 
+     * @param in   The stream to read the compressed file from
+     * @param pool The pool to expand blocks on
+     * @exception IOException Thrown when the file doesn't start with a valid
+     *                        header, or isn't split into blocks
+     */
+    public HuffmanInputStream(InputStream in, ForkJoinPool pool) throws IOException {
+        super(new BitInputStream(in));
+        this.bits = (BitInputStream) this.in;
+
+        try {
+            this.artifact = Artifact.readHeader(this.bits);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Stream is not a valid file: " + e.getMessage(), e);
+        }
+        if (!this.artifact.hasBlocks() && !this.artifact.isLzss() && !this.artifact.isBlockSorted()) {
+            throw new IOException("Only files split into blocks can be read as a stream");
+        }
+
+        // Only read ahead while the underlying stream has bytes waiting
+        this.blocks = new BlockReader<>(pool, new BlockReader.Input<byte[]>() {
+            @Override
+            public Callable<byte[]> next() throws IOException {
+                byte[] block = Artifact.readBlock(HuffmanInputStream.this.bits);
+                return block == null ? null : () -> HuffmanInputStream.this.artifact.decodeBlock(block);
+            }
+
+            @Override
+            public boolean ready() throws IOException {
+                return HuffmanInputStream.this.bits.available() > 0;
+            }
+        });
+    }
+
+    /**
+     * This method returns the header of the file being read
+     * 
+     * @return The parsed header
+     */
+    public Artifact getArtifact() {
+        return this.artifact;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        int data = (int) this.current[this.position] & 0xFF;
+        this.position += 1;
+        return data;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if ((off | len | (b.length - (off + len))) < 0) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+
+        // Only give what's left of the current block, so nothing waits on the next
+        int copied = Math.min(len, this.current.length - this.position);
+        System.arraycopy(this.current, this.position, b, off, copied);
+        this.position += copied;
+        return copied;
+    }
+
+    /**
+     * This method reads expanded bytes straight into a buffer, from its position up
+     * to its limit. Like read(byte[], int, int), it stops at the end of the
+     * current block rather than waiting for the next one
+     * 
+     * @param dst The buffer to read into, on the heap or direct
+     * @return The number of bytes read, or -1 if the file has ended
+     * @exception IOException Thrown when the stream is closed, or when a block is
+     *                        malformed or fails its checksum
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+
+        int copied = Math.min(dst.remaining(), this.current.length - this.position);
+        dst.put(this.current, this.position, copied);
+        this.position += copied;
+        return copied;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // FilterInputStream would skip the compressed bytes instead
+        long skipped = 0;
+        while (skipped < n && ensureData()) {
+            int count = (int) Math.min(n - skipped, this.current.length - this.position);
+            this.position += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return this.closed ? 0 : this.current.length - this.position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        this.blocks.cancel();
+        super.close();
+    }
+
+    /**
+     * This method makes sure there is data left in the current block, moving on to
+     * the next one if there isn't
+     * 
+     * @return Whether there is data left, which is only false at the end of the
+     *         file
+     * @exception IOException Thrown when the stream is closed, or when a block is
+     *                        malformed or fails its checksum
+     */
+    private boolean ensureData() throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+
+        while (this.position == this.current.length) {
+            byte[] next = this.blocks.next();
+            if (next == null) {
+                return false;
+            }
+            this.current = next;
+            this.position = 0;
+        }
+        return true;
+    }
+}
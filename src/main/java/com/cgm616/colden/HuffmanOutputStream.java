@@ -0,0 +1,220 @@
+package com.cgm616.colden;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An OutputStream that compresses everything written to it, like
+ * GZIPOutputStream. The data is gathered into blocks, and each full block is
+ * compressed with its own tree on a ForkJoinPool while the next one fills up.
+ * What it writes is a whole file, exactly like the ones BlockCompressor writes,
+ * so it can be expanded by HuffmanInputStream or any other part of the program.
+ * 
+ * The file isn't complete until finish() or close() is called, which writes the
+ * last block and the index. Normally flush() only passes on to the underlying
+ * stream, because ending a block early costs a tree. If the stream is created
+ * with syncFlush, flush() also ends the current block and writes out every
+ * block, so everything written so far can be expanded by the other end.
+ */
+public class HuffmanOutputStream extends FilterOutputStream {
+    // The number of bytes in each block, by default. This is smaller than
+    // BlockCompressor's, since streams are often short
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 18;
+
+    // The pool that compresses the blocks
+    private ForkJoinPool pool;
+    // The number of bytes in each block
+    private int blockSize;
+    // Whether flush() ends the current block
+    private boolean syncFlush;
+
+    // The block being filled, and the number of bytes in it so far
+    private byte[] block;
+    private int count = 0;
+
+    // Writes the blocks out in order as they are compressed
+    private BlockWriter<byte[]> blocks;
+    // Whether the last block and the index have been written
+    private boolean finished = false;
+
+    /**
+     * Class constructor that compresses blocks of the default size on the common
+     * pool
+     * 
+     * @param out The stream to write the compressed file to
+     * @exception IOException Thrown when the header cannot be written
+     */
+    public HuffmanOutputStream(OutputStream out) throws IOException {
+        this(out, ForkJoinPool.commonPool(), DEFAULT_BLOCK_SIZE, false);
+    }
+
+    /**
+     * Class constructor that takes the pool to compress blocks on, the size of the
+     * blocks, and whether flush() should end the current block
+     * 
+     * @param out       The stream to write the compressed file to
+     * @param pool      The pool to compress blocks on
+     * @param blockSize The number of bytes in each block
+     * @param syncFlush Whether flush() should end the current block and write out
+     *                  every block
+     * @exception IOException Thrown when the block size isn't positive, or when the
+     *                        header cannot be written
+     */
+    public HuffmanOutputStream(OutputStream out, ForkJoinPool pool, int blockSize, boolean syncFlush)
+            throws IOException {
+        super(out);
+        if (blockSize < 1) {
+            throw new IOException("The block size must be positive");
+        }
+        this.pool = pool;
+        this.blockSize = blockSize;
+        this.syncFlush = syncFlush;
+        this.block = new byte[blockSize];
+
+        // Each block stores its own tree, since the data isn't known up front
+        CountingOutputStream header = new CountingOutputStream(out);
+        Artifact.writeBlockHeader(header, null);
+        this.blocks = new BlockWriter<>(pool, header.getCount(), compressed -> {
+            Artifact.writeBlock(this.out, compressed);
+            return compressed.length;
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkOpen();
+        this.block[this.count] = (byte) b;
+        this.count += 1;
+        if (this.count == this.blockSize) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        if ((off | len | (b.length - (off + len))) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        // Copy as much as fits into the block, and start another when it's full
+        while (len > 0) {
+            int copied = Math.min(len, this.blockSize - this.count);
+            System.arraycopy(b, off, this.block, this.count, copied);
+            this.count += copied;
+            off += copied;
+            len -= copied;
+            if (this.count == this.blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * This method writes the bytes of a buffer, from its position to its limit,
+     * copying them straight into the current block. The buffer can be on the heap
+     * or direct
+     * 
+     * @param src The buffer to write, whose position is moved to its limit
+     * @exception IOException Thrown when the stream is closed or finished, or when
+     *                        a block cannot be compressed
+     */
+    public void write(ByteBuffer src) throws IOException {
+        checkOpen();
+        while (src.hasRemaining()) {
+            int copied = Math.min(src.remaining(), this.blockSize - this.count);
+            src.get(this.block, this.count, copied);
+            this.count += copied;
+            if (this.count == this.blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * This method flushes the underlying stream. If the stream was created with
+     * syncFlush, the current block is ended first and every block is written out
+     * 
+     * @exception IOException Thrown when a block cannot be compressed, or when the
+     *                        underlying stream fails
+     */
+    @Override
+    public void flush() throws IOException {
+        if (this.syncFlush && !this.finished) {
+            submitBlock();
+            this.blocks.drain();
+        }
+        this.out.flush();
+    }
+
+    /**
+     * This method writes the rest of the blocks, the block that ends the body, and
+     * the index, without closing the underlying stream. Nothing else can be written
+     * afterwards
+     * 
+     * @exception IOException Thrown when a block cannot be compressed, or when the
+     *                        underlying stream fails
+     */
+    public void finish() throws IOException {
+        if (this.finished) {
+            return;
+        }
+
+        submitBlock();
+        this.blocks.finish(this.out);
+        this.finished = true;
+    }
+
+    /**
+     * This method finishes the file and closes the underlying stream
+     * 
+     * @exception IOException Thrown when a block cannot be compressed, or when the
+     *                        underlying stream fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.block == null) {
+            return;
+        }
+
+        try {
+            finish();
+        } finally {
+            this.blocks.cancel();
+            this.block = null;
+            this.out.close();
+        }
+    }
+
+    /**
+     * This method starts compressing the current block, if it has anything in it,
+     * and writes out the oldest blocks once enough are waiting
+     * 
+     * @exception IOException Thrown when a block cannot be compressed, or when the
+     *                        underlying stream fails
+     */
+    private void submitBlock() throws IOException {
+        if (this.count == 0) {
+            return;
+        }
+
+        // The task keeps the array, so the next block needs a new one
+        byte[] data = this.block;
+        int length = this.count;
+        this.block = new byte[this.blockSize];
+        this.count = 0;
+        this.blocks.submit(() -> Artifact.encodeBlock(data, 0, length, null), length);
+    }
+
+    // Makes sure the stream can still be written to
+    private void checkOpen() throws IOException {
+        if (this.block == null) {
+            throw new IOException("Stream closed");
+        } else if (this.finished) {
+            throw new IOException("Stream has already been finished");
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package com.cgm616.colden;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * An LZSS front end for the Huffman coder. Huffman codes alone only use how
+ * often each byte shows up, so a string that repeats costs just as much the
+ * hundredth time as the first. LZSS replaces each repeat with a match: how long
+ * it is, and how far back the last copy of it starts. Whatever is left is sent
+ * as literal bytes.
+ * 
+ * Matches are found with hash chains, like in deflate. Every position is put in
+ * a hash table by its first three bytes, and positions with the same hash are
+ * linked together from newest to oldest, so only positions that could start a
+ * match are compared. The chains are cut off at the edge of the window, and
+ * after a set number of steps so that very repetitive data stays fast. Each
+ * match is also checked against a match one byte later ("lazy" matching), and
+ * the longer one is kept.
+ * 
+ * The matches and literals are split into five streams of bytes, which are each
+ * compressed with their own Huffman tree: a flag for each token saying whether
+ * it is a match, the literal bytes, the match lengths, and the high and low
+ * bytes of the match distances. Keeping them apart means each tree only has to
+ * fit one kind of value.
+ * 
+ * The data is compressed in blocks that don't share matches. Each block is laid
+ * out as the CRC32C checksum of its data, its length, the number of tokens, and
+ * the number of matches, all as ints, followed by each stream that isn't empty
+ * as a canonical tree and the stream compressed by Huffman.compress(), padded
+ * to a byte. The body of a file is these blocks, written and read with
+ * Artifact.writeBlock() and Artifact.readBlock().
+ */
+public class Lzss {
+    // The shortest and longest matches. The length of a match is sent as a byte,
+    // starting from the shortest
+    public static final int MIN_MATCH = 3;
+    public static final int MAX_MATCH = MIN_MATCH + 255;
+
+    // The default and largest window. The distance of a match is sent as two bytes
+    public static final int DEFAULT_WINDOW = 32 * 1024;
+    public static final int MAX_WINDOW = 64 * 1024;
+    // The default number of earlier positions checked for each match
+    public static final int DEFAULT_CHAIN = 64;
+    // The number of bytes in each block
+    public static final int BLOCK_SIZE = 1 << 20;
+
+    // Matches at least this long are taken without looking for a longer one at the
+    // next byte
+    private static final int LAZY_LIMIT = 32;
+    // The number of bits in a hash of three bytes
+    private static final int HASH_BITS = 15;
+
+    // How far back matches can start, which is a power of 2
+    private int window;
+    // The most positions checked for each match
+    private int maxChain;
+
+    /**
+     * Class constructor that uses the default window and chain length
+     */
+    public Lzss() {
+        this.window = DEFAULT_WINDOW;
+        this.maxChain = DEFAULT_CHAIN;
+    }
+
+    /**
+     * Class constructor that sets how hard to look for matches. A bigger window
+     * finds repeats that are further apart, and longer chains find longer matches,
+     * but both make compression slower. Expansion doesn't depend on either
+     * 
+     * @param window   How far back a match can start, a power of 2 from 256 to
+     *                 MAX_WINDOW
+     * @param maxChain The most earlier positions to check for each match, at least 1
+     * @exception Exception Thrown when either setting is out of range
+     */
+    public Lzss(int window, int maxChain) throws Exception {
+        if (window < 256 || window > MAX_WINDOW || Integer.bitCount(window) != 1) {
+            throw new Exception("The window must be a power of 2 between 256 and " + MAX_WINDOW);
+        }
+        if (maxChain < 1) {
+            throw new Exception("The chain length must be at least 1");
+        }
+        this.window = window;
+        this.maxChain = maxChain;
+    }
+
+    /**
+     * This method compresses a stream into the body of a file, in blocks
+     * 
+     * @param input  The stream to compress, which is read until it ends
+     * @param output The stream to write the blocks to
+     * @exception Exception Thrown when either stream fails
+     */
+    public void compress(InputStream input, OutputStream output) throws Exception {
+        byte[] block = new byte[BLOCK_SIZE];
+        int length;
+        while ((length = input.readNBytes(block, 0, block.length)) > 0) {
+            Artifact.writeBlock(output, encodeBlock(block, 0, length));
+        }
+        Artifact.writeEnd(output);
+        output.flush();
+    }
+
+    /**
+     * This method expands the body of a file written by compress()
+     * 
+     * @param input  The stream to read the blocks from
+     * @param output The stream to write the expanded data to
+     * @exception Exception Thrown when a block is malformed, or the input ends
+     *                      before the block that ends the file
+     */
+    public static void expand(BitInputStream input, OutputStream output) throws Exception {
+        byte[] block;
+        while ((block = Artifact.readBlock(input)) != null) {
+            output.write(decodeBlock(block));
+        }
+    }
+
+    /**
+     * This method finds the matches in part of a byte array, and compresses them
+     * into the bytes of a block
+     * 
+     * @param data   The array holding the data
+     * @param offset The index of the first byte of the block
+     * @param length The number of bytes in the block
+     * @return The bytes of the block
+     * @exception Exception Thrown when a stream cannot be compressed
+     */
+    byte[] encodeBlock(byte[] data, int offset, int length) throws Exception {
+        // There is at most one token per byte, so the streams can't be longer than
+        // the block
+        byte[] flags = new byte[(length + 7) / 8];
+        byte[] literals = new byte[length];
+        byte[] lengths = new byte[length / MIN_MATCH];
+        byte[] high = new byte[length / MIN_MATCH];
+        byte[] low = new byte[length / MIN_MATCH];
+        int tokens = 0;
+        int literalCount = 0;
+        int matchCount = 0;
+
+        MatchFinder finder = new MatchFinder(data, offset + length, this.window, this.maxChain);
+        int position = offset;
+        int end = offset + length;
+        while (position < end) {
+            finder.find(position);
+            int matchLength = finder.length;
+            int distance = finder.distance;
+            finder.insert(position);
+
+            // If the next byte starts a longer match, send this one as a literal and
+            // take that match instead
+            if (matchLength >= MIN_MATCH && matchLength < LAZY_LIMIT && position + 1 < end) {
+                finder.find(position + 1);
+                if (finder.length > matchLength) {
+                    matchLength = 0;
+                }
+            }
+
+            if (matchLength >= MIN_MATCH) {
+                flags[tokens >>> 3] |= 0x80 >>> (tokens & 7);
+                lengths[matchCount] = (byte) (matchLength - MIN_MATCH);
+                high[matchCount] = (byte) ((distance - 1) >>> 8);
+                low[matchCount] = (byte) (distance - 1);
+                matchCount += 1;
+
+                // Every position in the match can start a later match
+                for (int i = 1; i < matchLength; i++) {
+                    finder.insert(position + i);
+                }
+                position += matchLength;
+            } else {
+                literals[literalCount] = data[position];
+                literalCount += 1;
+                position += 1;
+            }
+            tokens += 1;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length / 2 + 64);
+        BitOutputStream out = new BitOutputStream(bytes);
+        out.writeInt(Artifact.checksum(data, offset, length));
+        out.writeInt(length);
+        out.writeInt(tokens);
+        out.writeInt(matchCount);
+        writeStream(out, flags, (tokens + 7) / 8);
+        writeStream(out, literals, literalCount);
+        writeStream(out, lengths, matchCount);
+        writeStream(out, high, matchCount);
+        writeStream(out, low, matchCount);
+        out.close();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * This method expands a block created by encodeBlock()
+     * 
+     * @param block The bytes of the block
+     * @return The expanded data
+     * @exception Exception Thrown when the block is malformed
+     */
+    static byte[] decodeBlock(byte[] block) throws Exception {
+        BitInputStream in = new BitInputStream(new ByteArrayInputStream(block));
+        int expected = in.readInt();
+        int length = in.readInt();
+        int tokens = in.readInt();
+        int matchCount = in.readInt();
+        if (length < 0 || tokens < 0 || tokens > length || matchCount < 0 || matchCount > tokens) {
+            throw new Exception("Block header is malformed");
+        }
+
+        byte[] flags = readStream(in, (tokens + 7) / 8);
+        byte[] literals = readStream(in, tokens - matchCount);
+        byte[] lengths = readStream(in, matchCount);
+        byte[] high = readStream(in, matchCount);
+        byte[] low = readStream(in, matchCount);
+
+        byte[] output = new byte[length];
+        int position = 0;
+        int literal = 0;
+        int match = 0;
+        for (int token = 0; token < tokens; token++) {
+            if ((flags[token >>> 3] & (0x80 >>> (token & 7))) == 0) {
+                if (position == length || literal == literals.length) {
+                    throw new Exception("Block has more data than its length");
+                }
+                output[position] = literals[literal];
+                position += 1;
+                literal += 1;
+                continue;
+            }
+
+            if (match == matchCount) {
+                throw new Exception("Block has more matches than it says");
+            }
+            int matchLength = ((int) lengths[match] & 0xFF) + MIN_MATCH;
+            int distance = ((((int) high[match] & 0xFF) << 8) | ((int) low[match] & 0xFF)) + 1;
+            match += 1;
+            if (distance > position) {
+                throw new Exception("Match starts before the block");
+            }
+            if (matchLength > length - position) {
+                throw new Exception("Block has more data than its length");
+            }
+
+            // A match can overlap the bytes it is copying, which repeats them, so copy
+            // one byte at a time unless it's far enough back
+            int from = position - distance;
+            if (distance >= matchLength) {
+                System.arraycopy(output, from, output, position, matchLength);
+            } else {
+                for (int i = 0; i < matchLength; i++) {
+                    output[position + i] = output[from + i];
+                }
+            }
+            position += matchLength;
+        }
+
+        if (position != length) {
+            throw new Exception("Block has less data than its length");
+        }
+        Artifact.checkChecksum(expected, Artifact.checksum(output, 0, length));
+        return output;
+    }
+
+    /**
+     * This method compresses one stream of a block with its own tree, and pads it
+     * to a byte. Empty streams are left out, since there is no tree for them
+     * 
+     * @param out    The bitstream to write to, aligned to a byte
+     * @param data   The array holding the stream
+     * @param length The number of bytes in the stream
+     * @exception Exception Thrown when the stream cannot be compressed
+     */
+    private static void writeStream(BitOutputStream out, byte[] data, int length) throws Exception {
+        if (length == 0) {
+            return;
+        }
+
+        Histogram histogram = new Histogram();
+        histogram.add(data, 0, length);
+        Huffman tree = new Huffman(histogram, Huffman.MAX_CODE_LENGTH);
+        out.write(tree.serializeCanonical());
+        tree.compress(new ByteArrayInputStream(data, 0, length), out, length);
+        out.flush();
+    }
+
+    /**
+     * This method expands one stream of a block written by writeStream()
+     * 
+     * @param in     The bitstream to read from, aligned to a byte
+     * @param length The number of bytes the stream should have
+     * @return The stream
+     * @exception Exception Thrown when the stream is malformed or has the wrong
+     *                      length
+     */
+    private static byte[] readStream(BitInputStream in, int length) throws Exception {
+        if (length == 0) {
+            return new byte[0];
+        }
+
+        Huffman tree = Huffman.deserializeCanonical(in);
+        in.alignToByte();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length);
+        tree.expand(in, bytes);
+        in.alignToByte();
+
+        if (bytes.size() != length) {
+            throw new Exception("Block stream has the wrong length");
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Finds the longest earlier match for a position, using hash chains. The
+     * newest position with each hash is in `head`, and each position links to the
+     * one before it with the same hash in `previous`, which wraps around at the
+     * size of the window
+     */
+    private static class MatchFinder {
+        private byte[] data;
+        private int end;
+        private int window;
+        private int maxChain;
+
+        private int[] head = new int[1 << HASH_BITS];
+        private int[] previous;
+
+        // The length and distance of the last match found, or a length of 0 if there
+        // wasn't one
+        private int length;
+        private int distance;
+
+        private MatchFinder(byte[] data, int end, int window, int maxChain) {
+            this.data = data;
+            this.end = end;
+            this.window = window;
+            this.maxChain = maxChain;
+            this.previous = new int[window];
+            Arrays.fill(this.head, -1);
+        }
+
+        // Hashes the three bytes starting at a position
+        private int hash(int position) {
+            int key = (((int) this.data[position] & 0xFF) << 16) | (((int) this.data[position + 1] & 0xFF) << 8)
+                    | ((int) this.data[position + 2] & 0xFF);
+            return (key * 0x9E3779B1) >>> (32 - HASH_BITS);
+        }
+
+        /**
+         * This method adds a position to the front of its chain
+         * 
+         * @param position The position, which must come after every position added
+         *                 before it
+         */
+        private void insert(int position) {
+            if (this.end - position < MIN_MATCH) {
+                return;
+            }
+            int hash = hash(position);
+            this.previous[position & (this.window - 1)] = this.head[hash];
+            this.head[hash] = position;
+        }
+
+        /**
+         * This method finds the longest match for a position among the positions
+         * added before it, setting `length` and `distance`
+         * 
+         * @param position The position to find a match for
+         */
+        private void find(int position) {
+            this.length = 0;
+            this.distance = 0;
+
+            int longest = Math.min(MAX_MATCH, this.end - position);
+            if (longest < MIN_MATCH) {
+                return;
+            }
+
+            byte[] data = this.data;
+            int limit = position - this.window;
+            int candidate = this.head[hash(position)];
+            for (int chain = this.maxChain; chain > 0 && candidate >= limit && candidate >= 0; chain--) {
+                // A candidate can only be longer than the best so far if it matches at
+                // the best length, so check that byte first
+                int best = this.length;
+                if (data[candidate + best] == data[position + best]) {
+                    int matched = 0;
+                    while (matched < longest && data[candidate + matched] == data[position + matched]) {
+                        matched += 1;
+                    }
+                    if (matched > best) {
+                        this.length = matched;
+                        this.distance = position - candidate;
+                        if (matched == longest) {
+                            break;
+                        }
+                    }
+                }
+
+                // The chains only go back in time, so a link forward means the slot was
+                // reused by a newer position and the chain has ended
+                int next = this.previous[candidate & (this.window - 1)];
+                if (next >= candidate) {
+                    break;
+                }
+                candidate = next;
+            }
+
+            if (this.length < MIN_MATCH) {
+                this.length = 0;
+                this.distance = 0;
+            }
+        }
+    }
+}
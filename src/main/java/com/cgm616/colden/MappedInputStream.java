@@ -0,0 +1,60 @@
+package com.cgm616.colden;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An InputStream that reads a file by mapping it into memory, so the bytes come
+ * straight from the kernel's page cache. A buffer can only map 2 GB, so larger
+ * files are mapped one window at a time.
+ */
+public class MappedInputStream extends ByteBufferInputStream {
+    // The most bytes mapped at once
+    private static final long WINDOW = 1 << 30;
+
+    // The file being read
+    private FileChannel channel;
+    // The offset in the file just after the current window
+    private long position;
+    // The size of the file
+    private long size;
+
+    /**
+     * Class constructor that opens a file to read
+     * 
+     * @param file The file to read
+     * @exception IOException Thrown when the file cannot be opened
+     */
+    public MappedInputStream(Path file) throws IOException {
+        super(ByteBuffer.allocate(0));
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.position = 0;
+        this.size = this.channel.size();
+    }
+
+    @Override
+    protected boolean next() throws IOException {
+        if (this.position >= this.size) {
+            return false;
+        }
+
+        // Map the next window of the file
+        long length = Math.min(WINDOW, this.size - this.position);
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, this.position, length);
+        this.position += length;
+        return true;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, this.buffer.remaining() + (this.size - this.position));
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
@@ -0,0 +1,400 @@
+package com.cgm616.colden;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts the work the program does, so that it can be watched while it runs:
+ * how many bytes go in and out, how fast each stage of compression is, how deep
+ * the trees are, how close their codes come to the entropy of the data, and how
+ * much data is held in blocks at once.
+ * 
+ * Everything is recorded once per block rather than once per byte, into adders
+ * that many threads can update without waiting on each other, so the counters
+ * cost nothing noticeable next to the work they measure. Blocks are counted by
+ * BlockCompressor, HuffmanOutputStream, and anything else that goes through
+ * Artifact.encodeBlock() and Artifact.expandBlock(). Files compressed as one
+ * stream, or by Lzss, BlockSort, AdaptiveHuffman or ContextHuffman, are not
+ * counted.
+ * 
+ * The program records into the Metrics returned by getDefault(), which
+ * registers itself with the platform MBeanServer so that the counters can be
+ * read by JConsole or any other JMX client. The same numbers are available as
+ * JSON from getSummary().
+ */
+public class Metrics implements MetricsMXBean {
+    /**
+     * The name the default Metrics is registered under
+     */
+    public static final String OBJECT_NAME = "com.cgm616.colden:type=Metrics";
+
+    /**
+     * The stages of compressing and expanding that are timed
+     */
+    public enum Stage {
+        /**
+         * Counting the bytes of a block to build its tree from
+         */
+        HISTOGRAM,
+        /**
+         * Building a tree from the counts
+         */
+        TREE,
+        /**
+         * Encoding the bytes of a block with a tree
+         */
+        ENCODE,
+        /**
+         * Writing a compressed block to the file
+         */
+        WRITE,
+        /**
+         * Decoding a block back into bytes
+         */
+        DECODE
+    }
+
+    // The Metrics the program records into, created when it's first needed
+    private static Metrics defaultMetrics = null;
+
+    // The time spent in each stage, and the uncompressed bytes it handled
+    private LongAdder[] stageNanos = new LongAdder[Stage.values().length];
+    private LongAdder[] stageBytes = new LongAdder[Stage.values().length];
+
+    private LongAdder bytesCompressed = new LongAdder();
+    private LongAdder compressedBytesWritten = new LongAdder();
+    private LongAdder compressedBytesRead = new LongAdder();
+    private LongAdder bytesExpanded = new LongAdder();
+    private LongAdder blocksCompressed = new LongAdder();
+    private LongAdder blocksExpanded = new LongAdder();
+
+    // The bytes trees were built from, the bits their codes take up, and the bits
+    // the best possible codes would take up
+    private LongAdder symbols = new LongAdder();
+    private LongAdder codedBits = new LongAdder();
+    private DoubleAdder entropyBits = new DoubleAdder();
+
+    private AtomicInteger lastTreeDepth = new AtomicInteger();
+    private LongAccumulator maxTreeDepth = new LongAccumulator(Math::max, 0);
+
+    private AtomicLong bufferedBytes = new AtomicLong();
+    private LongAccumulator peakBufferedBytes = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Class constructor that creates a Metrics with every counter at 0
+     */
+    public Metrics() {
+        for (int i = 0; i < this.stageNanos.length; i++) {
+            this.stageNanos[i] = new LongAdder();
+            this.stageBytes[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * This method returns the Metrics the program records into, registering it
+     * with the platform MBeanServer the first time it is called
+     * 
+     * @return The default Metrics
+     */
+    public static synchronized Metrics getDefault() {
+        if (defaultMetrics == null) {
+            defaultMetrics = new Metrics();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(defaultMetrics,
+                        new ObjectName(OBJECT_NAME));
+            } catch (JMException e) {
+                // JMX is only one way to read the counters, and they still work without it
+            }
+        }
+        return defaultMetrics;
+    }
+
+    /**
+     * This method records the time spent in a stage, measured from a start time
+     * given by System.nanoTime() until now
+     * 
+     * @param stage      The stage
+     * @param bytes      The number of uncompressed bytes the stage handled
+     * @param startNanos The time the stage started
+     */
+    public void record(Stage stage, long bytes, long startNanos) {
+        this.stageNanos[stage.ordinal()].add(System.nanoTime() - startNanos);
+        this.stageBytes[stage.ordinal()].add(bytes);
+    }
+
+    /**
+     * This method records a block that was compressed and written
+     * 
+     * @param bytes      The number of bytes in the block before it was compressed
+     * @param compressed The number of bytes written for the block
+     */
+    public void recordCompressed(long bytes, long compressed) {
+        this.bytesCompressed.add(bytes);
+        this.compressedBytesWritten.add(compressed);
+        this.blocksCompressed.increment();
+    }
+
+    /**
+     * This method records a block that was expanded
+     * 
+     * @param compressed The number of bytes in the block
+     * @param bytes      The number of bytes it expanded to
+     */
+    public void recordExpanded(long compressed, long bytes) {
+        this.compressedBytesRead.add(compressed);
+        this.bytesExpanded.add(bytes);
+        this.blocksExpanded.increment();
+    }
+
+    /**
+     * This method records a tree that was built, and how well its codes fit the
+     * bytes it was built from
+     * 
+     * @param tree   The tree
+     * @param counts The counts of the bytes it was built from
+     */
+    public void recordTree(Huffman tree, Histogram counts) {
+        int[] lengths = tree.getCodeLengths();
+        long[] frequencies = counts.getCounts();
+        long total = 0;
+        long bits = 0;
+        int depth = 0;
+        for (int v = 0; v < 256; v++) {
+            total += frequencies[v];
+            bits += frequencies[v] * lengths[v];
+            depth = Math.max(depth, lengths[v]);
+        }
+
+        // Each byte that shows up c times out of n could be coded in log2(n / c) bits
+        // at best
+        double entropy = 0;
+        for (int v = 0; v < 256; v++) {
+            if (frequencies[v] > 0) {
+                entropy += frequencies[v] * (Math.log((double) total / frequencies[v]) / Math.log(2));
+            }
+        }
+
+        this.symbols.add(total);
+        this.codedBits.add(bits);
+        this.entropyBits.add(entropy);
+        this.lastTreeDepth.set(depth);
+        this.maxTreeDepth.accumulate(depth);
+    }
+
+    /**
+     * This method records that some uncompressed bytes are now held in a block
+     * 
+     * @param bytes The number of bytes
+     */
+    public void allocate(long bytes) {
+        this.peakBufferedBytes.accumulate(this.bufferedBytes.addAndGet(bytes));
+    }
+
+    /**
+     * This method records that a block's uncompressed bytes are no longer held
+     * 
+     * @param bytes The number of bytes
+     */
+    public void release(long bytes) {
+        this.bufferedBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * This method returns the number of uncompressed bytes a stage has handled
+     * 
+     * @param stage The stage
+     * @return The number of bytes
+     */
+    public long getStageBytes(Stage stage) {
+        return this.stageBytes[stage.ordinal()].sum();
+    }
+
+    /**
+     * This method returns the time spent in a stage, summed over every thread
+     * 
+     * @param stage The stage
+     * @return The time in seconds
+     */
+    public double getStageSeconds(Stage stage) {
+        return this.stageNanos[stage.ordinal()].sum() / 1e9;
+    }
+
+    /**
+     * This method returns how fast a stage has handled bytes, on one thread. The
+     * stages run on many threads at once, so the program as a whole can go faster
+     * 
+     * @param stage The stage
+     * @return The speed in megabytes per second, or 0 if the stage hasn't run
+     */
+    public double getMegabytesPerSecond(Stage stage) {
+        double seconds = getStageSeconds(stage);
+        if (seconds == 0) {
+            return 0;
+        }
+        return getStageBytes(stage) / (1024.0 * 1024.0) / seconds;
+    }
+
+    @Override
+    public long getBytesCompressed() {
+        return this.bytesCompressed.sum();
+    }
+
+    @Override
+    public long getCompressedBytesWritten() {
+        return this.compressedBytesWritten.sum();
+    }
+
+    @Override
+    public long getCompressedBytesRead() {
+        return this.compressedBytesRead.sum();
+    }
+
+    @Override
+    public long getBytesExpanded() {
+        return this.bytesExpanded.sum();
+    }
+
+    @Override
+    public long getBlocksCompressed() {
+        return this.blocksCompressed.sum();
+    }
+
+    @Override
+    public long getBlocksExpanded() {
+        return this.blocksExpanded.sum();
+    }
+
+    @Override
+    public double getBitsPerByte() {
+        long bytes = getBytesCompressed();
+        if (bytes == 0) {
+            return 0;
+        }
+        return getCompressedBytesWritten() * 8.0 / bytes;
+    }
+
+    @Override
+    public double getHistogramMegabytesPerSecond() {
+        return getMegabytesPerSecond(Stage.HISTOGRAM);
+    }
+
+    @Override
+    public double getTreeMegabytesPerSecond() {
+        return getMegabytesPerSecond(Stage.TREE);
+    }
+
+    @Override
+    public double getEncodeMegabytesPerSecond() {
+        return getMegabytesPerSecond(Stage.ENCODE);
+    }
+
+    @Override
+    public double getWriteMegabytesPerSecond() {
+        return getMegabytesPerSecond(Stage.WRITE);
+    }
+
+    @Override
+    public double getDecodeMegabytesPerSecond() {
+        return getMegabytesPerSecond(Stage.DECODE);
+    }
+
+    @Override
+    public int getLastTreeDepth() {
+        return this.lastTreeDepth.get();
+    }
+
+    @Override
+    public int getMaxTreeDepth() {
+        return (int) this.maxTreeDepth.get();
+    }
+
+    @Override
+    public double getAverageCodeLength() {
+        long symbols = this.symbols.sum();
+        if (symbols == 0) {
+            return 0;
+        }
+        return (double) this.codedBits.sum() / symbols;
+    }
+
+    @Override
+    public double getEntropy() {
+        long symbols = this.symbols.sum();
+        if (symbols == 0) {
+            return 0;
+        }
+        return this.entropyBits.sum() / symbols;
+    }
+
+    @Override
+    public long getBufferedBytes() {
+        return this.bufferedBytes.get();
+    }
+
+    @Override
+    public long getPeakBufferedBytes() {
+        return this.peakBufferedBytes.get();
+    }
+
+    @Override
+    public String getSummary() {
+        // Numbers are always written with a '.', whatever the locale
+        StringBuilder json = new StringBuilder("{");
+        json.append(String.format(Locale.ROOT, "\"bytesCompressed\":%d,", getBytesCompressed()));
+        json.append(String.format(Locale.ROOT, "\"compressedBytesWritten\":%d,", getCompressedBytesWritten()));
+        json.append(String.format(Locale.ROOT, "\"compressedBytesRead\":%d,", getCompressedBytesRead()));
+        json.append(String.format(Locale.ROOT, "\"bytesExpanded\":%d,", getBytesExpanded()));
+        json.append(String.format(Locale.ROOT, "\"blocksCompressed\":%d,", getBlocksCompressed()));
+        json.append(String.format(Locale.ROOT, "\"blocksExpanded\":%d,", getBlocksExpanded()));
+        json.append(String.format(Locale.ROOT, "\"bitsPerByte\":%.4f,", getBitsPerByte()));
+        json.append("\"stages\":{");
+        for (Stage stage : Stage.values()) {
+            if (stage.ordinal() > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.ROOT, "\"%s\":{\"bytes\":%d,\"seconds\":%.6f,\"megabytesPerSecond\":%.2f}",
+                    stage.name().toLowerCase(Locale.ROOT), getStageBytes(stage), getStageSeconds(stage),
+                    getMegabytesPerSecond(stage)));
+        }
+        json.append("},");
+        json.append(String.format(Locale.ROOT, "\"lastTreeDepth\":%d,", getLastTreeDepth()));
+        json.append(String.format(Locale.ROOT, "\"maxTreeDepth\":%d,", getMaxTreeDepth()));
+        json.append(String.format(Locale.ROOT, "\"averageCodeLength\":%.4f,", getAverageCodeLength()));
+        json.append(String.format(Locale.ROOT, "\"entropy\":%.4f,", getEntropy()));
+        json.append(String.format(Locale.ROOT, "\"bufferedBytes\":%d,", getBufferedBytes()));
+        json.append(String.format(Locale.ROOT, "\"peakBufferedBytes\":%d", getPeakBufferedBytes()));
+        return json.append('}').toString();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < this.stageNanos.length; i++) {
+            this.stageNanos[i].reset();
+            this.stageBytes[i].reset();
+        }
+        this.bytesCompressed.reset();
+        this.compressedBytesWritten.reset();
+        this.compressedBytesRead.reset();
+        this.bytesExpanded.reset();
+        this.blocksCompressed.reset();
+        this.blocksExpanded.reset();
+        this.symbols.reset();
+        this.codedBits.reset();
+        this.entropyBits.reset();
+        this.lastTreeDepth.set(0);
+        this.maxTreeDepth.reset();
+
+        // Blocks that are still held will be released later, so only the peak starts
+        // over, from what's held now
+        this.peakBufferedBytes.reset();
+        this.peakBufferedBytes.accumulate(this.bufferedBytes.get());
+    }
+}
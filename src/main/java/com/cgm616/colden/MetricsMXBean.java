@@ -0,0 +1,154 @@
+package com.cgm616.colden;
+
+/**
+ * The view of Metrics that is exposed through JMX, under the name in
+ * Metrics.OBJECT_NAME. Speeds are in uncompressed megabytes per second, and code
+ * lengths and entropy are in bits per byte.
+ */
+public interface MetricsMXBean {
+    /**
+     * This method returns the number of uncompressed bytes that have been
+     * compressed into blocks
+     * 
+     * @return The number of bytes
+     */
+    long getBytesCompressed();
+
+    /**
+     * This method returns the number of bytes of compressed blocks written
+     * 
+     * @return The number of bytes
+     */
+    long getCompressedBytesWritten();
+
+    /**
+     * This method returns the number of bytes of compressed blocks expanded
+     * 
+     * @return The number of bytes
+     */
+    long getCompressedBytesRead();
+
+    /**
+     * This method returns the number of bytes that blocks have expanded to
+     * 
+     * @return The number of bytes
+     */
+    long getBytesExpanded();
+
+    /**
+     * This method returns the number of blocks compressed and written
+     * 
+     * @return The number of blocks
+     */
+    long getBlocksCompressed();
+
+    /**
+     * This method returns the number of blocks expanded
+     * 
+     * @return The number of blocks
+     */
+    long getBlocksExpanded();
+
+    /**
+     * This method returns the size of the compressed blocks written for each byte
+     * compressed
+     * 
+     * @return The number of bits per byte, or 0 if nothing has been compressed
+     */
+    double getBitsPerByte();
+
+    /**
+     * This method returns how fast bytes have been counted to build trees
+     * 
+     * @return The speed in megabytes per second
+     */
+    double getHistogramMegabytesPerSecond();
+
+    /**
+     * This method returns how fast trees have been built, measured by the bytes
+     * they were built from
+     * 
+     * @return The speed in megabytes per second
+     */
+    double getTreeMegabytesPerSecond();
+
+    /**
+     * This method returns how fast bytes have been encoded
+     * 
+     * @return The speed in megabytes per second
+     */
+    double getEncodeMegabytesPerSecond();
+
+    /**
+     * This method returns how fast compressed blocks have been written, measured
+     * by the bytes in them once expanded
+     * 
+     * @return The speed in megabytes per second
+     */
+    double getWriteMegabytesPerSecond();
+
+    /**
+     * This method returns how fast blocks have been decoded
+     * 
+     * @return The speed in megabytes per second
+     */
+    double getDecodeMegabytesPerSecond();
+
+    /**
+     * This method returns the length of the longest code in the last tree built
+     * 
+     * @return The depth of the tree
+     */
+    int getLastTreeDepth();
+
+    /**
+     * This method returns the length of the longest code in any tree built
+     * 
+     * @return The depth of the deepest tree
+     */
+    int getMaxTreeDepth();
+
+    /**
+     * This method returns the average length of the codes given to the bytes that
+     * trees were built from
+     * 
+     * @return The number of bits per byte
+     */
+    double getAverageCodeLength();
+
+    /**
+     * This method returns the Shannon entropy of the bytes that trees were built
+     * from, which is the shortest average code length any tree could have
+     * 
+     * @return The number of bits per byte
+     */
+    double getEntropy();
+
+    /**
+     * This method returns the number of uncompressed bytes currently held in
+     * blocks waiting to be compressed or written
+     * 
+     * @return The number of bytes
+     */
+    long getBufferedBytes();
+
+    /**
+     * This method returns the most uncompressed bytes that have been held in
+     * blocks at once
+     * 
+     * @return The number of bytes
+     */
+    long getPeakBufferedBytes();
+
+    /**
+     * This method returns every metric as a JSON object
+     * 
+     * @return The JSON text
+     */
+    String getSummary();
+
+    /**
+     * This method sets every metric back to 0
+     */
+    void reset();
+}
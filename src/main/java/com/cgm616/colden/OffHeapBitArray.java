@@ -0,0 +1,419 @@
+package com.cgm616.colden;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A fixed-size array of bits kept outside of the Java heap, in direct buffers or
+ * in a file mapped into memory. A single buffer can only hold 2 GB, so the bits
+ * are split across segments of up to 1 GB each, and every index is a long. A
+ * whole multi-GB file can be mapped at once, and the garbage collector never
+ * has to look at any of it.
+ * 
+ * Bits are read and written the same way as in a BitArray, from the most
+ * significant bit of each byte to the least. Ranges of bytes can also be read
+ * and written through streams that move from one segment to the next, so the
+ * rest of the program can decode straight out of and into the array.
+ */
+public class OffHeapBitArray {
+    // The number of bytes in every segment but the last, by default
+    static final int SEGMENT_SIZE = 1 << 30;
+
+    // The buffers holding the bytes, each SEGMENT_SIZE long but the last
+    private ByteBuffer[] segments;
+    // The log base 2 of the segment size, so that indexes can be split with shifts
+    private int segmentShift;
+    // The number of bytes in the array
+    private long size;
+
+    /**
+     * Private class constructor that takes the segments of the array
+     * 
+     * @param segments     The buffers holding the bytes
+     * @param segmentShift The log base 2 of the number of bytes in every segment
+     *                     but the last
+     * @param size         The number of bytes in the array
+     */
+    private OffHeapBitArray(ByteBuffer[] segments, int segmentShift, long size) {
+        this.segments = segments;
+        this.segmentShift = segmentShift;
+        this.size = size;
+    }
+
+    /**
+     * This method creates an array in newly allocated direct memory, with every
+     * bit set to 0
+     * 
+     * @param size The number of bytes in the array
+     * @return The array
+     */
+    public static OffHeapBitArray allocate(long size) {
+        return allocate(size, SEGMENT_SIZE);
+    }
+
+    /**
+     * This method creates an array in newly allocated direct memory, split into
+     * segments of a given size
+     * 
+     * @param size        The number of bytes in the array
+     * @param segmentSize The number of bytes in every segment but the last, which
+     *                    must be a power of 2
+     * @return The array
+     */
+    static OffHeapBitArray allocate(long size, int segmentSize) {
+        ByteBuffer[] segments = new ByteBuffer[segmentCount(size, segmentSize)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect((int) Math.min(segmentSize, size - (long) i * segmentSize));
+        }
+        return new OffHeapBitArray(segments, Integer.numberOfTrailingZeros(segmentSize), size);
+    }
+
+    /**
+     * This method maps part of a file into memory as an array. Mapping a file for
+     * writing past its end makes it longer
+     * 
+     * @param channel  The file to map
+     * @param mode     Whether the array can be written to
+     * @param position The offset in the file of the first byte of the array
+     * @param size     The number of bytes in the array
+     * @return The array
+     * @exception IOException Thrown when the file cannot be mapped
+     */
+    public static OffHeapBitArray map(FileChannel channel, FileChannel.MapMode mode, long position, long size)
+            throws IOException {
+        return map(channel, mode, position, size, SEGMENT_SIZE);
+    }
+
+    /**
+     * This method maps part of a file into memory as an array, split into segments
+     * of a given size
+     * 
+     * @param channel     The file to map
+     * @param mode        Whether the array can be written to
+     * @param position    The offset in the file of the first byte of the array
+     * @param size        The number of bytes in the array
+     * @param segmentSize The number of bytes in every segment but the last, which
+     *                    must be a power of 2
+     * @return The array
+     * @exception IOException Thrown when the file cannot be mapped
+     */
+    static OffHeapBitArray map(FileChannel channel, FileChannel.MapMode mode, long position, long size,
+            int segmentSize) throws IOException {
+        ByteBuffer[] segments = new ByteBuffer[segmentCount(size, segmentSize)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = (long) i * segmentSize;
+            segments[i] = channel.map(mode, position + start, Math.min(segmentSize, size - start));
+        }
+        return new OffHeapBitArray(segments, Integer.numberOfTrailingZeros(segmentSize), size);
+    }
+
+    // Finds the number of segments needed to hold a number of bytes
+    private static int segmentCount(long size, int segmentSize) {
+        if (size < 0 || Integer.bitCount(segmentSize) != 1) {
+            throw new IllegalArgumentException("Invalid size or segment size");
+        }
+        return (int) ((size + segmentSize - 1) / segmentSize);
+    }
+
+    /**
+     * This method returns the number of bytes in the array
+     * 
+     * @return The number of bytes
+     */
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * This method returns the number of bits in the array
+     * 
+     * @return The number of bits
+     */
+    public long bitLength() {
+        return this.size * 8;
+    }
+
+    /**
+     * This method gets a byte from the array
+     * 
+     * @param index The index of the byte
+     * @return The byte
+     */
+    public byte getByte(long index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException();
+        }
+        return this.segments[(int) (index >>> this.segmentShift)].get(offsetOf(index));
+    }
+
+    /**
+     * This method sets a byte in the array
+     * 
+     * @param index The index of the byte
+     * @param value The value to set it to
+     */
+    public void putByte(long index, byte value) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException();
+        }
+        this.segments[(int) (index >>> this.segmentShift)].put(offsetOf(index), value);
+    }
+
+    /**
+     * This method gets a specific bit in the array, returning true for a value of 1
+     * and false for a value of 0
+     * 
+     * @param bitIndex The index of the desired bit
+     * @return The value of the bit
+     */
+    public boolean get(long bitIndex) {
+        return (getByte(bitIndex >>> 3) & (0x80 >>> (int) (bitIndex & 7))) != 0;
+    }
+
+    /**
+     * This method sets a specific bit in the array to either 1 or 0
+     * 
+     * @param bitIndex The index of the bit to set
+     * @param value    The value to set the bit to
+     */
+    public void set(long bitIndex, boolean value) {
+        long index = bitIndex >>> 3;
+        int mask = 0x80 >>> (int) (bitIndex & 7);
+        int data = getByte(index);
+        putByte(index, (byte) (value ? data | mask : data & ~mask));
+    }
+
+    /**
+     * This method gets a group of bits from the array
+     * 
+     * @param bitIndex The index of the first bit to get
+     * @param count    The number of bits to get, from 0 to 64
+     * @return The bits, right-aligned in a long
+     */
+    public long getBits(long bitIndex, int count) {
+        if (bitIndex < 0 || count < 0 || count > 64 || bitIndex + count > bitLength()) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        // Shift the first bit to the top of a long, and then fill in the bottom from
+        // the ninth byte if the group runs into it
+        long index = bitIndex >>> 3;
+        int shift = (int) (bitIndex & 7);
+        long bits = getLong(index) << shift;
+        if (shift + count > 64) {
+            bits |= ((long) getByte(index + 8) & 0xFF) >>> (8 - shift);
+        }
+        return bits >>> (64 - count);
+    }
+
+    /**
+     * This method sets a group of bits in the array
+     * 
+     * @param bitIndex The index of the first bit to set
+     * @param value    The bits, right-aligned in a long
+     * @param count    The number of bits to set, from 0 to 64
+     */
+    public void putBits(long bitIndex, long value, int count) {
+        if (bitIndex < 0 || count < 0 || count > 64 || bitIndex + count > bitLength()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        // Set the bits a byte at a time, keeping the bits around them in the first
+        // and last bytes
+        while (count > 0) {
+            long index = bitIndex >>> 3;
+            int shift = (int) (bitIndex & 7);
+            int taken = Math.min(count, 8 - shift);
+            int mask = ((1 << taken) - 1) << (8 - shift - taken);
+            int bits = (int) (value >>> (count - taken)) << (8 - shift - taken);
+            putByte(index, (byte) ((getByte(index) & ~mask) | (bits & mask)));
+            bitIndex += taken;
+            count -= taken;
+        }
+    }
+
+    /**
+     * This method reads 32 bits from the array, interpreting them as an int
+     * 
+     * @param bitIndex The index of the first bit to read
+     * @return An int containing the next 32 bits
+     */
+    public int getInt(long bitIndex) {
+        return (int) getBits(bitIndex, 32);
+    }
+
+    /**
+     * This method creates a stream that reads a range of bytes straight out of the
+     * array
+     * 
+     * @param offset The index of the first byte to read
+     * @param length The number of bytes to read
+     * @return The stream
+     */
+    public InputStream inputStream(long offset, long length) {
+        checkRange(offset, length);
+        return new SegmentInputStream(offset, offset + length);
+    }
+
+    /**
+     * This method creates a stream that writes a range of bytes straight into the
+     * array. Writing past the end of the range is an error
+     * 
+     * @param offset The index of the first byte to write
+     * @param length The number of bytes in the range
+     * @return The stream
+     */
+    public SegmentOutputStream outputStream(long offset, long length) {
+        checkRange(offset, length);
+        return new SegmentOutputStream(offset, offset + length);
+    }
+
+    /**
+     * This method creates a view of a range of bytes as a single buffer, which can
+     * only be done when they are all in the same segment
+     * 
+     * @param offset The index of the first byte
+     * @param length The number of bytes in the range
+     * @return A buffer whose position and limit surround the bytes, or null if
+     *         they cross into another segment
+     */
+    ByteBuffer slice(long offset, long length) {
+        checkRange(offset, length);
+        ByteBuffer view = view(offset, offset + length);
+        return view.remaining() == length ? view : null;
+    }
+
+    /**
+     * This method makes sure everything written to a mapped array has reached the
+     * file. It does nothing for an array in direct memory
+     */
+    public void force() {
+        for (ByteBuffer segment : this.segments) {
+            if (segment instanceof MappedByteBuffer && !segment.isReadOnly()) {
+                ((MappedByteBuffer) segment).force();
+            }
+        }
+    }
+
+    /**
+     * This method reads 8 bytes as a long, reading any past the end of the array as
+     * 0s. Within a segment, the long is read in one access
+     * 
+     * @param index The index of the first byte
+     * @return The bytes, with the first at the top
+     */
+    private long getLong(long index) {
+        ByteBuffer segment = this.segments[(int) (index >>> this.segmentShift)];
+        int offset = offsetOf(index);
+        if (offset + 8 <= segment.limit()) {
+            return segment.getLong(offset);
+        }
+
+        // The bytes cross into the next segment or past the end
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits <<= 8;
+            if (index + i < this.size) {
+                bits |= (long) getByte(index + i) & 0xFF;
+            }
+        }
+        return bits;
+    }
+
+    // Finds the offset of a byte within its segment
+    private int offsetOf(long index) {
+        return (int) (index & ((1L << this.segmentShift) - 1));
+    }
+
+    // Makes sure a range of bytes is inside the array
+    private void checkRange(long offset, long length) {
+        if (offset < 0 || length < 0 || offset + length > this.size) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    /**
+     * This method creates a view of a range of bytes, up to the end of the segment
+     * holding the first of them
+     * 
+     * @param from The index of the first byte
+     * @param to   The index just after the last byte
+     * @return A buffer whose position and limit surround the bytes
+     */
+    private ByteBuffer view(long from, long to) {
+        // Each stream works on its own view of the segment, so their positions don't
+        // interfere
+        ByteBuffer view = this.segments[(int) (from >>> this.segmentShift)].duplicate();
+        int offset = offsetOf(from);
+        view.limit((int) Math.min(view.capacity(), offset + (to - from)));
+        view.position(offset);
+        return view;
+    }
+
+    // An InputStream that reads a range of the array one segment at a time
+    private class SegmentInputStream extends ByteBufferInputStream {
+        // The index of the next byte to view, and the index just after the range
+        private long next;
+        private long end;
+
+        private SegmentInputStream(long next, long end) {
+            super(ByteBuffer.allocate(0));
+            this.next = next;
+            this.end = end;
+        }
+
+        @Override
+        protected boolean next() {
+            if (this.next >= this.end) {
+                return false;
+            }
+            this.buffer = view(this.next, this.end);
+            this.next += this.buffer.remaining();
+            return true;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, this.buffer.remaining() + (this.end - this.next));
+        }
+    }
+
+    /**
+     * An OutputStream that writes into a range of the array one segment at a time
+     */
+    public class SegmentOutputStream extends ByteBufferOutputStream {
+        // The index of the next byte to view, and the index just after the range
+        private long next;
+        private long end;
+
+        private SegmentOutputStream(long next, long end) {
+            super(ByteBuffer.allocate(0));
+            this.next = next;
+            this.end = end;
+        }
+
+        @Override
+        protected void drain() throws IOException {
+            if (this.next >= this.end) {
+                throw new IOException("Reached the end of the array while writing");
+            }
+            this.buffer = view(this.next, this.end);
+            this.next += this.buffer.remaining();
+        }
+
+        /**
+         * This method returns the number of bytes left in the range
+         * 
+         * @return The number of bytes that can still be written
+         */
+        public long remaining() {
+            return this.buffer.remaining() + (this.end - this.next);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.cgm616.colden;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A set of pretrained trees, each known by a short ID. The tree in a file's
+ * header can take more bytes than the data of a small file, and building it
+ * takes longer than coding the data. Instead, a file can name a tree from a
+ * registry by its ID (see Artifact.writePresetHeader()), as long as whoever
+ * expands it has the same registry.
+ * 
+ * Trees are trained from sample files that look like the data they will be used
+ * on. Every byte value gets a code, even ones the samples don't have, so any
+ * data can be compressed with any tree. Each tree's coding and decoding tables
+ * are built when it is registered, and the registry can be shared between
+ * threads, so compressing a small payload is just a lookup and the coding
+ * itself.
+ * 
+ * A registry is saved as a magic number, the number of trees as an int, and
+ * then each tree's ID as 16 bits followed by the tree in its canonical form,
+ * padded to a byte.
+ */
+public class TreeRegistry {
+    // The magic number at the start of a saved registry, the next one after the
+    // ones for files and archives
+    public static final byte[] MAGIC = { 0x31, 0x41, 0x59, 0x28 };
+    // The largest ID, so that an ID fits in 16 bits
+    public static final int MAX_ID = 0xFFFF;
+    // The system property naming the file the default registry is loaded from
+    public static final String PROPERTY = "colden.trees";
+
+    // The registry used when expanding files without one given, loaded the first
+    // time it is needed
+    private static volatile TreeRegistry defaultRegistry = null;
+
+    // The trees, by ID
+    private Map<Integer, Huffman> trees = new ConcurrentHashMap<>();
+
+    /**
+     * Class constructor that creates an empty registry
+     */
+    public TreeRegistry() {
+    }
+
+    /**
+     * This method returns the registry used to expand files when none is given.
+     * It is loaded from the file named by the colden.trees system property, or
+     * is empty if that isn't set
+     * 
+     * @return The default registry
+     * @exception Exception Thrown when the file cannot be loaded
+     */
+    public static TreeRegistry getDefault() throws Exception {
+        TreeRegistry registry = defaultRegistry;
+        if (registry == null) {
+            synchronized (TreeRegistry.class) {
+                registry = defaultRegistry;
+                if (registry == null) {
+                    String file = System.getProperty(PROPERTY);
+                    registry = file == null ? new TreeRegistry() : load(Paths.get(file));
+                    defaultRegistry = registry;
+                }
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * This method replaces the registry used to expand files when none is given
+     * 
+     * @param registry The new default registry
+     */
+    public static void setDefault(TreeRegistry registry) {
+        defaultRegistry = registry;
+    }
+
+    /**
+     * This method builds a tree from the combined counts of some samples, giving
+     * every byte value a code
+     * 
+     * @param counts The number of times each byte shows up in the samples
+     * @return The tree
+     * @exception Exception Thrown when the tree cannot be built
+     */
+    public static Huffman train(Histogram counts) throws Exception {
+        Histogram smoothed = new Histogram();
+        smoothed.merge(counts);
+        for (int v = 0; v < 256; v++) {
+            smoothed.add(v, 1);
+        }
+
+        // Keep the codes short enough for the decoding table to do all of the work
+        return new Huffman(smoothed, Huffman.MAX_CODE_LENGTH);
+    }
+
+    /**
+     * This method builds a tree from sample files
+     * 
+     * @param samples The files to count
+     * @return The tree
+     * @exception Exception Thrown when a file cannot be read
+     */
+    public static Huffman train(List<Path> samples) throws Exception {
+        Histogram counts = new Histogram();
+        for (Path sample : samples) {
+            try (InputStream in = new MappedInputStream(sample)) {
+                counts.merge(Histogram.of(in));
+            }
+        }
+        return train(counts);
+    }
+
+    /**
+     * This method adds a tree to the registry, replacing any with the same ID, and
+     * builds its tables so that it is ready to use
+     * 
+     * @param id   The ID of the tree, from 0 to MAX_ID
+     * @param tree The tree, which must have at least two values
+     * @exception Exception Thrown when the ID is out of range, or the tree has only
+     *                      one value
+     */
+    public void register(int id, Huffman tree) throws Exception {
+        if (id < 0 || id > MAX_ID) {
+            throw new Exception("Tree IDs must be between 0 and " + MAX_ID);
+        }
+        if (tree.getTop().isLeaf()) {
+            throw new Exception("A pretrained tree must have more than one value");
+        }
+
+        tree.codes();
+        tree.decodeTable();
+        this.trees.put(id, tree);
+    }
+
+    /**
+     * This method looks up a tree by its ID
+     * 
+     * @param id The ID of the tree
+     * @return The tree
+     * @exception Exception Thrown when there is no tree with the ID
+     */
+    public Huffman get(int id) throws Exception {
+        Huffman tree = this.trees.get(id);
+        if (tree == null) {
+            throw new Exception("No pretrained tree has the ID " + id);
+        }
+        return tree;
+    }
+
+    /**
+     * This method returns the IDs of every tree in the registry
+     * 
+     * @return The IDs, in order
+     */
+    public SortedSet<Integer> getIds() {
+        return new TreeSet<>(this.trees.keySet());
+    }
+
+    /**
+     * This method finds the lowest ID that isn't used yet
+     * 
+     * @return The ID
+     * @exception Exception Thrown when every ID is used
+     */
+    public int nextId() throws Exception {
+        for (int id = 0; id <= MAX_ID; id++) {
+            if (!this.trees.containsKey(id)) {
+                return id;
+            }
+        }
+        throw new Exception("The registry is full");
+    }
+
+    /**
+     * This method compresses a small payload into a whole file that refers to one
+     * of the trees
+     * 
+     * @param id   The ID of the tree to compress with
+     * @param data The payload
+     * @return The file
+     * @exception Exception Thrown when there is no tree with the ID
+     */
+    public byte[] compress(int id, byte[] data) throws Exception {
+        Huffman tree = get(id);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2 + 16);
+        Artifact.writePresetHeader(bytes, id);
+        Artifact.writeLength(bytes, data.length);
+
+        // The payload is already in memory, so encode it straight from the array
+        BitOutputStream out = new BitOutputStream(bytes);
+        tree.encode(data, 0, data.length, out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * This method compresses a stream into a whole file that refers to one of the
+     * trees
+     * 
+     * @param id     The ID of the tree to compress with
+     * @param input  The stream to compress, which is read until it ends
+     * @param output The stream to write the file to
+     * @param length The number of bytes in the input
+     * @exception Exception Thrown when there is no tree with the ID, or when either
+     *                      stream fails
+     */
+    public void compress(int id, InputStream input, OutputStream output, long length) throws Exception {
+        Huffman tree = get(id);
+        Artifact.writePresetHeader(output, id);
+        Artifact.writeLength(output, length);
+
+        BitOutputStream out = new BitOutputStream(output);
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = input.read(chunk, 0, chunk.length)) != -1) {
+            tree.encode(chunk, 0, read, out);
+        }
+        out.flush();
+    }
+
+    /**
+     * This method expands a whole file, using this registry for any tree it refers
+     * to
+     * 
+     * @param file The file
+     * @return The expanded data
+     * @exception Exception Thrown when the file is malformed, or refers to a tree
+     *                      that isn't in the registry
+     */
+    public byte[] expand(byte[] file) throws Exception {
+        BitInputStream in = new BitInputStream(new ByteArrayInputStream(file));
+        Artifact artifact = Artifact.readHeader(in, this);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(file.length * 2);
+        artifact.expand(in, bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * This method saves the registry to a file
+     * 
+     * @param file The file to write, which is replaced if it exists
+     * @exception IOException Thrown when the file cannot be written
+     */
+    public void save(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.write(MAGIC);
+            SortedSet<Integer> ids = getIds();
+            out.writeInt(ids.size());
+            for (int id : ids) {
+                out.writeShort(id);
+                out.write(this.trees.get(id).serializeCanonical());
+            }
+        }
+    }
+
+    /**
+     * This method loads a registry saved by save()
+     * 
+     * @param file The file to read
+     * @return The registry, with every tree ready to use
+     * @exception Exception Thrown when the file cannot be read or is malformed
+     */
+    public static TreeRegistry load(Path file) throws Exception {
+        try (BitInputStream in = new BitInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            for (byte expected : MAGIC) {
+                if (in.read() != ((int) expected & 0xFF)) {
+                    throw new Exception(file + " is not a tree registry");
+                }
+            }
+
+            TreeRegistry registry = new TreeRegistry();
+            int count = in.readInt();
+            if (count < 0 || count > MAX_ID + 1) {
+                throw new Exception(file + " has an invalid number of trees");
+            }
+            for (int i = 0; i < count; i++) {
+                int id = in.readBits(16);
+                Huffman tree = Huffman.deserializeCanonical(in);
+                in.alignToByte();
+                registry.register(id, tree);
+            }
+            return registry;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AdaptiveHuffmanTest {
+    private static byte[] compress(byte[] data) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AdaptiveHuffman.compress(new ByteArrayInputStream(data), new BitOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static byte[] expand(byte[] compressed) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AdaptiveHuffman.expand(new BitInputStream(new ByteArrayInputStream(compressed)), bytes);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void roundTripCorpus() throws Exception {
+        Corpus.assertRoundTrips(data -> expand(compress(data)));
+    }
+
+    @Test
+    public void closeToStaticTree() throws Exception {
+        // Adapting costs a little at the start, but should end up close to a tree
+        // built from the whole file
+        byte[] data = Corpus.read("Macbeth.txt");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bytes);
+        new Huffman(new ByteArrayInputStream(data)).compress(new ByteArrayInputStream(data), out, data.length);
+        out.close();
+
+        int adaptive = compress(data).length;
+        assertTrue(adaptive < bytes.size() * 1.01);
+    }
+
+    @Test
+    public void everyByteValue() throws Exception {
+        // Random bytes hit every value, and every swap in the tree
+        Random random = new Random(112);
+        for (int length : new int[] { 0, 1, 2, 255, 256, 10000 }) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            assertArrayEquals(data, expand(compress(data)));
+        }
+
+        byte[] all = new byte[256 * 3];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = (byte) (i % 256);
+        }
+        assertArrayEquals(all, expand(compress(all)));
+    }
+
+    @Test
+    public void skewedRuns() throws Exception {
+        // Long runs of one value push weights far apart
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int i = 0; i < 20; i++) {
+            for (int j = 0; j < (1 << i % 12); j++) {
+                data.write(i);
+            }
+        }
+        assertArrayEquals(data.toByteArray(), expand(compress(data.toByteArray())));
+    }
+
+    @Test
+    public void outputBeforeInputEnds() throws Exception {
+        // The compressor shouldn't wait for the end of the input to start writing
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] text = Corpus.read("Macbeth.txt");
+        InputStream input = new InputStream() {
+            private int reads = 0;
+
+            @Override
+            public int read() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                reads += 1;
+                if (reads == 2) {
+                    assertTrue(bytes.size() > 0);
+                    return -1;
+                }
+                int count = Math.min(len, text.length);
+                System.arraycopy(text, 0, b, off, count);
+                return count;
+            }
+        };
+        AdaptiveHuffman.compress(input, new BitOutputStream(bytes));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncated() throws Exception {
+        byte[] compressed = compress(Corpus.read("small.txt"));
+        byte[] cut = new byte[compressed.length / 2];
+        System.arraycopy(compressed, 0, cut, 0, cut.length);
+        expand(cut);
+    }
+
+    @Test
+    public void artifact() throws Exception {
+        byte[] data = Corpus.read("Macbeth.txt");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Artifact.writeAdaptiveHeader(bytes);
+        AdaptiveHuffman.compress(new ByteArrayInputStream(data), new BitOutputStream(bytes));
+
+        BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Artifact artifact = Artifact.readHeader(in);
+        assertTrue(artifact.isAdaptive());
+        assertEquals(null, artifact.getTree());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        artifact.expand(in, out);
+        assertArrayEquals(data, out.toByteArray());
+    }
+}
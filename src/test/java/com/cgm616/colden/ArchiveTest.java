@@ -0,0 +1,153 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArchiveTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Writes the test corpus into an archive, compressing files larger than the
+    // limit straight into the archive
+    private Path archive(long entryLimit) throws Exception {
+        Path file = this.folder.newFile().toPath();
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try (ArchiveWriter writer = new ArchiveWriter(file, pool, entryLimit)) {
+            for (String name : Corpus.NAMES) {
+                writer.add("corpus/" + name, Corpus.path(name));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return file;
+    }
+
+    @Test
+    public void extractEach() throws Exception {
+        for (long entryLimit : new long[] { ArchiveWriter.DEFAULT_ENTRY_LIMIT, 1000, 0 }) {
+            try (Archive archive = new Archive(archive(entryLimit))) {
+                List<ArchiveEntry> entries = archive.getEntries();
+                assertEquals(Corpus.NAMES.length, entries.size());
+
+                // Extract the entries backwards, so each one is found by seeking
+                for (int i = Corpus.NAMES.length - 1; i >= 0; i--) {
+                    byte[] data = Corpus.read(Corpus.NAMES[i]);
+                    ArchiveEntry entry = archive.getEntry("corpus/" + Corpus.NAMES[i]);
+                    assertEquals(entries.get(i), entry);
+                    assertEquals(data.length, entry.getLength());
+
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    archive.extract(entry, out);
+                    assertArrayEquals(Corpus.NAMES[i], data, out.toByteArray());
+                }
+                assertNull(archive.getEntry("Macbeth.txt"));
+            }
+        }
+    }
+
+    @Test
+    public void entriesHaveNoHeaders() throws Exception {
+        // An entry is just the blocks of a file, so it's smaller than the whole file
+        // by at least its index, which is 24 bytes for one block
+        ByteArrayOutputStream whole = new ByteArrayOutputStream();
+        byte[] data = Corpus.read("tiny.txt");
+        new BlockCompressor().compress(new ByteArrayInputStream(data), whole);
+        try (Archive archive = new Archive(archive(ArchiveWriter.DEFAULT_ENTRY_LIMIT))) {
+            long entry = archive.getEntry("corpus/tiny.txt").getCompressedLength();
+            assertTrue(entry + 24 < whole.size());
+        }
+    }
+
+    @Test
+    public void directoryRoundTrip() throws Exception {
+        Path source = this.folder.newFolder().toPath();
+        Files.createDirectories(source.resolve("a/b"));
+        Files.write(source.resolve("a/b/one.txt"), Corpus.read("small.txt"));
+        Files.write(source.resolve("a/empty"), new byte[0]);
+        Files.write(source.resolve("top.png"), Corpus.read("image.png"));
+
+        Path file = this.folder.newFile().toPath();
+        try (ArchiveWriter writer = new ArchiveWriter(file)) {
+            writer.addDirectory(source);
+        }
+
+        Path target = this.folder.newFolder().toPath();
+        try (Archive archive = new Archive(file)) {
+            assertEquals(3, archive.getEntries().size());
+            archive.extractAll(target, ForkJoinPool.commonPool());
+        }
+        for (String name : new String[] { "a/b/one.txt", "a/empty", "top.png" }) {
+            assertArrayEquals(name, Files.readAllBytes(source.resolve(name)),
+                    Files.readAllBytes(target.resolve(name)));
+        }
+    }
+
+    @Test(expected = Exception.class)
+    public void duplicateName() throws Exception {
+        try (ArchiveWriter writer = new ArchiveWriter(this.folder.newFile().toPath())) {
+            writer.add("same", Corpus.path("tiny.txt"));
+            writer.add("same", Corpus.path("small.txt"));
+        }
+    }
+
+    @Test(expected = Exception.class)
+    public void escapingName() throws Exception {
+        Path file = this.folder.newFile().toPath();
+        try (ArchiveWriter writer = new ArchiveWriter(file)) {
+            writer.add("../outside", Corpus.path("tiny.txt"));
+        }
+        try (Archive archive = new Archive(file)) {
+            archive.extractAll(this.folder.newFolder().toPath(), ForkJoinPool.commonPool());
+        }
+    }
+
+    @Test(expected = Exception.class)
+    public void corruptDirectory() throws Exception {
+        Path file = archive(ArchiveWriter.DEFAULT_ENTRY_LIMIT);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 5] ^= 0x40;
+        Files.write(file, bytes);
+        new Archive(file).close();
+    }
+
+    @Test(expected = Exception.class)
+    public void wrongLength() throws Exception {
+        // Change the expanded length of the last entry in the directory
+        Path file = archive(ArchiveWriter.DEFAULT_ENTRY_LIMIT);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 13] ^= 0x01;
+        Files.write(file, bytes);
+        try (Archive archive = new Archive(file)) {
+            archive.extract(archive.getEntry("corpus/image.png"), new ByteArrayOutputStream());
+        }
+    }
+
+    @Test(expected = Exception.class)
+    public void notAnArchive() throws Exception {
+        Path file = this.folder.newFile().toPath();
+        new BlockCompressor().compress(Corpus.path("Macbeth.txt"), file);
+        new Archive(file).close();
+    }
+
+    @Test
+    public void emptyArchive() throws Exception {
+        Path file = this.folder.newFile().toPath();
+        new ArchiveWriter(file).close();
+        try (Archive archive = new Archive(file)) {
+            assertEquals(0, archive.getEntries().size());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class ArtifactTest {
+    private static byte[] build(byte[] data, boolean canonical) throws Exception {
+        Huffman tree = new Huffman(new ByteArrayInputStream(data));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Artifact.writeHeader(bytes, tree, canonical);
+        BitOutputStream out = new BitOutputStream(bytes);
+        tree.compress(new ByteArrayInputStream(data), out, data.length);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] expand(byte[] file) throws Exception {
+        BitInputStream in = new BitInputStream(new ByteArrayInputStream(file));
+        Artifact artifact = Artifact.readHeader(in);
+        ByteArrayOutputStream expanded = new ByteArrayOutputStream();
+        artifact.getTree().expand(in, expanded);
+        return expanded.toByteArray();
+    }
+
+    @Test
+    public void roundTripCorpus() throws Exception {
+        Corpus.assertRoundTrips(data -> expand(build(data, true)));
+        Corpus.assertRoundTrips(data -> expand(build(data, false)));
+    }
+
+    @Test
+    public void headerFlags() throws Exception {
+        byte[] data = Corpus.read("small.txt");
+        for (boolean canonical : new boolean[] { true, false }) {
+            BitInputStream in = new BitInputStream(new ByteArrayInputStream(build(data, canonical)));
+            assertEquals(canonical, Artifact.readHeader(in).isCanonical());
+        }
+    }
+
+    @Test
+    public void markerBytesInTree() throws Exception {
+        // The values 0xFD, 0xFE, and 0xFF next to each other in a serialized tree
+        // contain three 0xFF bytes in a row, which must not be mistaken for the end of
+        // the header
+        byte[] data = { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFE, (byte) 0xFD, (byte) 0xFF };
+        assertArrayEquals(data, expand(build(data, true)));
+        assertArrayEquals(data, expand(build(data, false)));
+    }
+
+    @Test(expected = Exception.class)
+    public void badMagic() throws Exception {
+        byte[] file = build(Corpus.read("small.txt"), true);
+        file[0] = 0;
+        expand(file);
+    }
+
+    @Test(expected = Exception.class)
+    public void missingMarker() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(Artifact.MAGIC);
+        bytes.write(Artifact.CANONICAL);
+        bytes.write(new Huffman(new ByteArrayInputStream(new byte[] { 1, 2, 3 })).serializeCanonical());
+        bytes.write(new byte[] { 0, 0, 0, 0 });
+        expand(bytes.toByteArray());
+    }
+
+    // Reads a header made of the magic number, the given flags and the markers
+    private static Artifact readFlags(int flags) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(Artifact.MAGIC);
+        bytes.write(flags);
+        bytes.write(new byte[] { Artifact.MARKER, Artifact.MARKER, Artifact.MARKER });
+        return Artifact.readHeader(new BitInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    @Test
+    public void modes() throws Exception {
+        assertEquals(Artifact.ADAPTIVE, readFlags(Artifact.ADAPTIVE).getMode());
+        assertTrue(readFlags(Artifact.LZSS).isLzss());
+        assertTrue(readFlags(Artifact.BLOCK_SORT).isBlockSorted());
+        assertEquals(Artifact.HUFFMAN, readFlags(Artifact.BLOCKS | Artifact.BLOCK_TREES).getMode());
+    }
+
+    @Test(expected = Exception.class)
+    public void unknownMode() throws Exception {
+        readFlags(0x60);
+    }
+
+    @Test(expected = Exception.class)
+    public void flagsWithOtherMode() throws Exception {
+        readFlags(Artifact.LZSS | Artifact.CANONICAL);
+    }
+
+    @Test
+    public void expandBlockInPlace() throws Exception {
+        // The block is expanded into just the space left in the middle of a direct
+        // buffer
+        byte[] data = Corpus.read("small.txt");
+        ByteBuffer block = Artifact.encodeBlock(ByteBuffer.wrap(data));
+        ByteBuffer dst = ByteBuffer.allocateDirect(data.length + 20);
+        dst.position(10).limit(10 + data.length);
+        Artifact.forBody().expandBlock(block.duplicate(), dst);
+        byte[] expanded = new byte[data.length];
+        dst.flip().position(10);
+        dst.get(expanded);
+        assertArrayEquals(data, expanded);
+
+        // And it has to fill the space exactly
+        try {
+            Artifact.forBody().expandBlock(block.duplicate(), ByteBuffer.allocate(data.length + 1));
+            fail("A block was expanded into the wrong amount of space");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("different length"));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BitArrayTest {
+    @Test
+    public void pushMatchesPushBits() {
+        // Push the same random groups of bits one at a time and all at once, crossing
+        // plenty of word boundaries
+        Random random = new Random(112);
+        BitArray single = new BitArray();
+        BitArray grouped = new BitArray();
+        for (int i = 0; i < 1000; i++) {
+            long value = random.nextLong();
+            int count = random.nextInt(65);
+            for (int j = count - 1; j >= 0; j--) {
+                single.push(((value >>> j) & 1) != 0);
+            }
+            grouped.pushBits(value, count);
+        }
+        assertEquals(single.bitLength, grouped.bitLength);
+        assertArrayEquals(single.toArray(), grouped.toArray());
+    }
+
+    @Test
+    public void getBitsAcrossWords() {
+        BitArray bits = new BitArray();
+        bits.pushBits(0, 60);
+        bits.pushBits(0xABCDL, 16);
+        assertEquals(0xABCDL, bits.getBits(60, 16));
+        assertEquals(0xAL, bits.getBits(60, 4));
+        assertEquals(0xDL, bits.getBits(72, 4));
+        assertEquals(0xABCDL, bits.getBits(12, 64));
+    }
+
+    @Test
+    public void bytesRoundTrip() {
+        byte[] data = { 1, 2, 3, 4, 5, 6, 7, 8, 9, (byte) 0xFF, (byte) 0x80 };
+        BitArray bits = BitArray.fromBytes(data);
+        assertEquals(data.length * 8, bits.bitLength);
+        assertArrayEquals(data, bits.toArray());
+        assertEquals(0x01020304, bits.getInt(0));
+        assertEquals(0x10203040, bits.getInt(4));
+        assertEquals((byte) 0xFF, bits.readByte(72));
+    }
+
+    @Test
+    public void popThenPush() {
+        BitArray bits = new BitArray();
+        bits.push(true);
+        bits.push(true);
+        assertTrue(bits.pop());
+        bits.push(false);
+        assertTrue(bits.get(0));
+        assertFalse(bits.get(1));
+        assertArrayEquals(new byte[] { (byte) 0x80 }, bits.toArray());
+    }
+
+    @Test
+    public void appendBits() throws Exception {
+        BitArray bits = new BitArray();
+        bits.pushBits(0x5, 3);
+        BitArray other = BitArray.fromBytes(new byte[] { (byte) 0xF0, 0x0F, 0x55, 0x55, 0x55, 0x55, 0x55, 0x55, 0x55 });
+        bits.appendBits(other);
+        assertEquals(3 + 72, bits.bitLength);
+        assertEquals(0x5L, bits.getBits(0, 3));
+        assertEquals(0xF00FL, bits.getBits(3, 16));
+
+        // Writing the bits to a stream should give the same bytes as the array
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bytes);
+        out.appendBits(bits);
+        out.close();
+        assertArrayEquals(bits.toArray(), bytes.toByteArray());
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void getPastEnd() {
+        BitArray bits = new BitArray();
+        bits.pushBits(0, 10);
+        bits.getBits(4, 7);
+    }
+}
@@ -210,4 +210,35 @@ public class BitOutputStreamTest {
         assertArrayEquals(expected, bytes.toByteArray());
         out.close();
     }
+
+    @Test
+    public void writeBits() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bytes);
+        out.writeBits(0b101, 3);
+        out.writeBits(0xFFFF0F0F, 12);
+        out.writeBits(0, 0);
+        out.writeBits(0b1, 1);
+        out.flush();
+        byte[] expected = { (byte) 0b10111110, (byte) 0b00011111 };
+        assertArrayEquals(expected, bytes.toByteArray());
+        out.close();
+    }
+
+    @Test
+    public void writeBitsThenInt() throws IOException {
+        // Filling the buffer to exactly 32 bits and then writing more must not lose or
+        // repeat any bits
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bytes);
+        out.writeBits(0xABCDEF, 24);
+        out.writeBits(0x12, 8);
+        out.writeInt(0x3456789A);
+        out.writeBits(0x7FFFFFFF, 31);
+        out.flush();
+        byte[] expected = { (byte) 0xAB, (byte) 0xCD, (byte) 0xEF, (byte) 0x12, (byte) 0x34, (byte) 0x56,
+                (byte) 0x78, (byte) 0x9A, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFE };
+        assertArrayEquals(expected, bytes.toByteArray());
+        out.close();
+    }
 }
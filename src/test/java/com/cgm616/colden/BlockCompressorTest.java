@@ -0,0 +1,180 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class BlockCompressorTest {
+    private static byte[] compress(byte[] data, int blockSize, boolean shared) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Huffman tree = shared ? new Huffman(new ByteArrayInputStream(data)) : null;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new BlockCompressor(pool, blockSize).compress(new ByteArrayInputStream(data), bytes, tree);
+            return bytes.toByteArray();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static byte[] expand(byte[] file) throws Exception {
+        BitInputStream in = new BitInputStream(new ByteArrayInputStream(file));
+        Artifact artifact = Artifact.readHeader(in);
+        ByteArrayOutputStream expanded = new ByteArrayOutputStream();
+        artifact.expand(in, expanded);
+        return expanded.toByteArray();
+    }
+
+    @Test
+    public void roundTripCorpus() throws Exception {
+        for (int blockSize : new int[] { 1, 1000, 4096, BlockCompressor.DEFAULT_BLOCK_SIZE }) {
+            Corpus.assertRoundTrips(data -> expand(compress(data, blockSize, true)));
+            Corpus.assertRoundTrips(data -> expand(compress(data, blockSize, false)));
+        }
+    }
+
+    @Test
+    public void headerFlags() throws Exception {
+        byte[] data = Corpus.read("small.txt");
+
+        Artifact shared = Artifact.readHeader(new BitInputStream(new ByteArrayInputStream(compress(data, 100, true))));
+        assertTrue(shared.hasBlocks());
+        assertEquals(false, shared.hasBlockTrees());
+
+        Artifact own = Artifact.readHeader(new BitInputStream(new ByteArrayInputStream(compress(data, 100, false))));
+        assertTrue(own.hasBlocks());
+        assertTrue(own.hasBlockTrees());
+        assertNull(own.getTree());
+    }
+
+    @Test
+    public void emptyInput() throws Exception {
+        assertArrayEquals(new byte[0], expand(compress(new byte[0], 1000, false)));
+    }
+
+    @Test
+    public void blockTreesCompressBetter() throws Exception {
+        // Two halves with completely different bytes are each much cheaper to code
+        // with their own tree
+        byte[] data = new byte[200000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i < data.length / 2 ? i % 16 : 128 + i % 16);
+        }
+        assertTrue(compress(data, data.length / 2, false).length < compress(data, data.length / 2, true).length);
+    }
+
+    @Test(expected = Exception.class)
+    public void truncatedBlock() throws Exception {
+        byte[] file = compress(Corpus.read("Macbeth.txt"), 4096, false);
+        byte[] truncated = new byte[file.length - 1000];
+        System.arraycopy(file, 0, truncated, 0, truncated.length);
+        expand(truncated);
+    }
+
+    @Test(expected = Exception.class)
+    public void badBlockSize() throws Exception {
+        new BlockCompressor(ForkJoinPool.commonPool(), 0);
+    }
+
+    // A stream that counts how many bytes are read from it
+    private static class CountingStream extends FilterInputStream {
+        long count = 0;
+
+        CountingStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    private static byte[] compressOnce(byte[] data, long bufferSize, boolean shareTree) throws Exception {
+        CountingStream in = new CountingStream(new ByteArrayInputStream(data));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Huffman shared = new BlockCompressor(ForkJoinPool.commonPool(), 4096, bufferSize).compress(in, bytes);
+        assertEquals(data.length, in.count);
+        assertEquals(shareTree, shared != null);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void singleReadSharesTree() throws Exception {
+        // When the whole input fits in the buffer, the file is exactly the same as
+        // one compressed with a shared tree built ahead of time
+        byte[] data = Corpus.read("Macbeth.txt");
+        byte[] file = compressOnce(data, data.length, true);
+        assertArrayEquals(data, expand(file));
+        assertArrayEquals(compress(data, 4096, true), file);
+    }
+
+    @Test
+    public void singleReadLargeInput() throws Exception {
+        // When the input is larger than the buffer, every block gets its own tree
+        for (String name : new String[] { "Macbeth.txt", "image.png" }) {
+            byte[] data = Corpus.read(name);
+            byte[] file = compressOnce(data, 10000, false);
+            assertArrayEquals(data, expand(file));
+            assertNull(Artifact.readHeader(new BitInputStream(new ByteArrayInputStream(file))).getTree());
+        }
+    }
+
+    @Test
+    public void singleReadBlockMultiple() throws Exception {
+        // An input that is an exact number of blocks ends with a full block
+        byte[] data = new byte[4096 * 3];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 7);
+        }
+        byte[] file = compressOnce(data, data.length + 1, true);
+        assertArrayEquals(data, expand(file));
+        assertNotNull(Artifact.readHeader(new BitInputStream(new ByteArrayInputStream(file))).getTree());
+    }
+
+    @Test
+    public void singleReadEmpty() throws Exception {
+        assertArrayEquals(new byte[0], expand(compressOnce(new byte[0], 1000, false)));
+    }
+
+    @Test
+    public void sharedTreeLargeFile() throws Exception {
+        // Reading the file twice shares a tree even when it wouldn't fit in the
+        // buffer, and gives the same file as a tree built ahead of time
+        byte[] data = Corpus.read("Macbeth.txt");
+        Path input = Files.createTempFile("colden", ".txt");
+        Path output = Files.createTempFile("colden", ".112");
+        try {
+            Files.write(input, data);
+            Huffman shared = new BlockCompressor(ForkJoinPool.commonPool(), 4096, 10000).compressShared(input, output);
+            assertNotNull(shared);
+            byte[] file = Files.readAllBytes(output);
+            assertArrayEquals(data, expand(file));
+            assertArrayEquals(compress(data, 4096, true), file);
+
+            Files.write(input, new byte[0]);
+            assertNull(new BlockCompressor().compressShared(input, output));
+            assertArrayEquals(new byte[0], expand(Files.readAllBytes(output)));
+        } finally {
+            Files.delete(input);
+            Files.delete(output);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BlockExpanderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path compress(byte[] data, int blockSize, boolean shared) throws Exception {
+        Huffman tree = shared ? new Huffman(new ByteArrayInputStream(data)) : null;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new BlockCompressor(ForkJoinPool.commonPool(), blockSize).compress(new ByteArrayInputStream(data), bytes,
+                tree);
+
+        Path file = folder.newFile().toPath();
+        Files.write(file, bytes.toByteArray());
+        return file;
+    }
+
+    private byte[] expand(Path file) throws Exception {
+        byte[] mapped = expand(file, Integer.MAX_VALUE);
+        assertArrayEquals(mapped, expand(file, 0));
+        return mapped;
+    }
+
+    private byte[] expand(Path file, long mapLimit) throws Exception {
+        Artifact artifact;
+        try (BitInputStream in = new BitInputStream(new FileInputStream(file.toFile()))) {
+            artifact = Artifact.readHeader(in);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Path output = folder.newFile().toPath();
+            new BlockExpander(pool, mapLimit).expand(artifact, file, output);
+            return Files.readAllBytes(output);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void roundTripCorpus() throws Exception {
+        for (int blockSize : new int[] { 1000, 4096, BlockCompressor.DEFAULT_BLOCK_SIZE }) {
+            Corpus.assertRoundTrips(data -> expand(compress(data, blockSize, true)));
+            Corpus.assertRoundTrips(data -> expand(compress(data, blockSize, false)));
+        }
+    }
+
+    @Test
+    public void emptyInput() throws Exception {
+        assertArrayEquals(new byte[0], expand(compress(new byte[0], 1000, false)));
+    }
+
+    @Test
+    public void indexMatchesBlocks() throws Exception {
+        byte[] data = Corpus.read("Macbeth.txt");
+        try (FileChannel channel = FileChannel.open(compress(data, 10000, false))) {
+            BlockIndex index = BlockIndex.read(channel);
+            assertEquals((data.length + 9999) / 10000, index.size());
+            assertEquals(data.length, index.outputOffsets()[index.size()]);
+
+            // Every block should start right after the one before it
+            for (int i = 1; i < index.size(); i++) {
+                int size = BlockIndex.readFully(channel, 4, index.getOffset(i - 1)).getInt();
+                assertEquals(index.getOffset(i - 1) + 4 + size, index.getOffset(i));
+            }
+        }
+    }
+
+    @Test
+    public void verify() throws Exception {
+        byte[] data = Corpus.read("Macbeth.txt");
+        Path file = compress(data, 10000, false);
+        Artifact artifact;
+        try (BitInputStream in = new BitInputStream(new FileInputStream(file.toFile()))) {
+            artifact = Artifact.readHeader(in);
+            assertEquals(data.length, artifact.verify(in));
+        }
+        assertEquals(data.length, new BlockExpander(ForkJoinPool.commonPool()).verify(artifact, file));
+        assertEquals(data.length, new BlockExpander(ForkJoinPool.commonPool(), 0).verify(artifact, file));
+    }
+
+    @Test
+    public void corruptChecksum() throws Exception {
+        // Change the checksum of a block in the middle, so the block itself still
+        // decodes to the right length
+        Path file = compress(Corpus.read("Macbeth.txt"), 10000, false);
+        byte[] bytes = Files.readAllBytes(file);
+        try (FileChannel channel = FileChannel.open(file)) {
+            BlockIndex index = BlockIndex.read(channel);
+            bytes[(int) index.getOffset(index.size() / 2) + 4] ^= 0x10;
+        }
+        Files.write(file, bytes);
+
+        Artifact artifact;
+        try (BitInputStream in = new BitInputStream(new FileInputStream(file.toFile()))) {
+            artifact = Artifact.readHeader(in);
+        }
+        for (long mapLimit : new long[] { Integer.MAX_VALUE, 0 }) {
+            try {
+                expand(file, mapLimit);
+                fail();
+            } catch (Exception e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("checksum"));
+            }
+            try {
+                new BlockExpander(ForkJoinPool.commonPool(), mapLimit).verify(artifact, file);
+                fail();
+            } catch (Exception e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("checksum"));
+            }
+        }
+    }
+
+    @Test(expected = Exception.class)
+    public void corruptTrailer() throws Exception {
+        Path file = compress(Corpus.read("small.txt"), 100, false);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 3] ^= 0x10;
+        Files.write(file, bytes);
+        expand(file);
+    }
+
+    @Test(expected = Exception.class)
+    public void noIndex() throws Exception {
+        byte[] data = Corpus.read("small.txt");
+        Huffman tree = new Huffman(new ByteArrayInputStream(data));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Artifact.writeHeader(bytes, tree);
+        BitOutputStream out = new BitOutputStream(bytes);
+        tree.compress(new ByteArrayInputStream(data), out, data.length);
+        out.close();
+
+        Path file = folder.newFile().toPath();
+        Files.write(file, bytes.toByteArray());
+        expand(file);
+    }
+}
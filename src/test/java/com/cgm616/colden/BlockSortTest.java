@@ -0,0 +1,120 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class BlockSortTest {
+    private static byte[] compress(byte[] data, BlockSort sort) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Artifact.writeBlockSortHeader(bytes);
+        sort.compress(new ByteArrayInputStream(data), bytes);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] expand(byte[] compressed) throws Exception {
+        BitInputStream in = new BitInputStream(new ByteArrayInputStream(compressed));
+        Artifact artifact = Artifact.readHeader(in);
+        assertTrue(artifact.isBlockSorted());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        artifact.expand(in, bytes);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void sortsRotations() throws Exception {
+        // The classic example, compared with sorting the rotations as strings
+        byte[] data = "banana".getBytes();
+        int[] order = BlockSort.sortRotations(data, 0, data.length);
+        assertArrayEquals(new int[] { 5, 3, 1, 0, 4, 2 }, order);
+
+        Random random = new Random(112);
+        byte[] text = new byte[500];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) ('a' + random.nextInt(3));
+        }
+        String doubled = new String(text) + new String(text);
+        Integer[] expected = new Integer[text.length];
+        for (int i = 0; i < text.length; i++) {
+            expected[i] = i;
+        }
+        Arrays.sort(expected, (a, b) -> doubled.substring(a, a + text.length)
+                .compareTo(doubled.substring(b, b + text.length)));
+        int[] sorted = BlockSort.sortRotations(text, 0, text.length);
+        for (int i = 0; i < text.length; i++) {
+            assertEquals(doubled.substring(expected[i], expected[i] + text.length),
+                    doubled.substring(sorted[i], sorted[i] + text.length));
+        }
+    }
+
+    @Test
+    public void roundTripCorpus() throws Exception {
+        Corpus.assertRoundTrips(data -> expand(compress(data, new BlockSort())));
+    }
+
+    @Test
+    public void smallerThanLzss() throws Exception {
+        // Sorting should beat both the Huffman code alone and LZSS on text
+        byte[] data = Corpus.read("Macbeth.txt");
+        ByteArrayOutputStream lzss = new ByteArrayOutputStream();
+        new Lzss().compress(new ByteArrayInputStream(data), lzss);
+        assertTrue(compress(data, new BlockSort()).length < lzss.size());
+    }
+
+    @Test
+    public void repeatingBlocks() throws Exception {
+        // Blocks that repeat themselves have equal rotations, and long runs of zeros
+        byte[] zeros = new byte[100000];
+        byte[] compressed = compress(zeros, new BlockSort());
+        assertArrayEquals(zeros, expand(compressed));
+        assertTrue(compressed.length < 100);
+
+        byte[] pattern = new byte[9999];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = (byte) "abc".charAt(i % 3);
+        }
+        assertArrayEquals(pattern, expand(compress(pattern, new BlockSort())));
+        assertArrayEquals(new byte[] { 9 }, expand(compress(new byte[] { 9 }, new BlockSort())));
+        assertArrayEquals(new byte[0], expand(compress(new byte[0], new BlockSort())));
+    }
+
+    @Test
+    public void everyRank() throws Exception {
+        // Random bytes use every rank, including the ones that need an escape
+        Random random = new Random(112);
+        byte[] data = new byte[50000];
+        random.nextBytes(data);
+        assertArrayEquals(data, expand(compress(data, new BlockSort())));
+
+        byte[] coded = BlockSort.runLengthCode(BlockSort.moveToFront(data));
+        assertArrayEquals(data, BlockSort.inverseMoveToFront(coded, data.length));
+    }
+
+    @Test
+    public void parallelBlocks() throws Exception {
+        byte[] text = Corpus.read("Macbeth.txt");
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            BlockSort sort = new BlockSort(pool, 10000);
+            assertArrayEquals(text, expand(compress(text, sort)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = Exception.class)
+    public void corruptBlock() throws Exception {
+        byte[] data = Corpus.read("small.txt");
+        byte[] block = BlockSort.encodeBlock(data, 0, data.length);
+        block[3] ^= 0x01;
+        BlockSort.decodeBlock(block);
+    }
+}
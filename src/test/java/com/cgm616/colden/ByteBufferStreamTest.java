@@ -0,0 +1,108 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ByteBufferStreamTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readBuffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 });
+        buffer.position(1);
+        buffer.limit(4);
+        ByteBufferInputStream in = new ByteBufferInputStream(buffer);
+
+        assertEquals(3, in.available());
+        assertEquals(2, in.read());
+        byte[] rest = new byte[4];
+        assertEquals(2, in.read(rest, 0, 4));
+        assertEquals(3, rest[0]);
+        assertEquals(4, rest[1]);
+        assertEquals(-1, in.read());
+        assertEquals(-1, in.read(rest, 0, 4));
+        in.close();
+    }
+
+    @Test
+    public void writeBuffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+        ByteBufferOutputStream out = new ByteBufferOutputStream(buffer);
+        out.write(7);
+        out.write(new byte[] { 8, 9, 10 });
+        out.close();
+
+        buffer.flip();
+        assertEquals(7, buffer.get());
+        assertEquals(10, buffer.get(3));
+    }
+
+    @Test(expected = IOException.class)
+    public void writePastLimit() throws Exception {
+        ByteBufferOutputStream out = new ByteBufferOutputStream(ByteBuffer.allocate(2));
+        out.write(new byte[] { 1, 2, 3 });
+        out.close();
+    }
+
+    @Test
+    public void mappedFileThroughChannel() throws Exception {
+        byte[] data = Corpus.read("Macbeth.txt");
+
+        // Write the file a few bytes at a time and in one large piece, so that the
+        // direct buffer is both filled exactly and overflowed
+        Path file = folder.newFile().toPath();
+        try (ChannelOutputStream out = new ChannelOutputStream(file)) {
+            out.write(data, 0, 10);
+            out.write(data[10]);
+            out.write(data, 11, data.length - 11);
+        }
+        assertArrayEquals(data, Files.readAllBytes(file));
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try (MappedInputStream in = new MappedInputStream(file)) {
+            assertEquals(data.length, in.available());
+            byte[] chunk = new byte[1000];
+            int count;
+            while ((count = in.read(chunk, 0, chunk.length)) != -1) {
+                read.write(chunk, 0, count);
+            }
+        }
+        assertArrayEquals(data, read.toByteArray());
+    }
+
+    @Test
+    public void compressFiles() throws Exception {
+        for (String name : new String[] { "tiny.txt", "Macbeth.txt", "image.png" }) {
+            Path input = Corpus.path(name);
+            Path compressed = folder.newFile().toPath();
+            Path expanded = folder.newFile().toPath();
+            new BlockCompressor().compress(input, compressed);
+
+            Artifact artifact;
+            try (BitInputStream in = new BitInputStream(new MappedInputStream(compressed))) {
+                artifact = Artifact.readHeader(in);
+            }
+            new BlockExpander().expand(artifact, compressed, expanded);
+            assertArrayEquals(name, Files.readAllBytes(input), Files.readAllBytes(expanded));
+        }
+    }
+
+    @Test
+    public void emptyFile() throws Exception {
+        Path input = folder.newFile().toPath();
+        try (MappedInputStream in = new MappedInputStream(input)) {
+            assertEquals(-1, in.read());
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CliTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    private int run(String... args) {
+        return Cli.run(args, new PrintStream(this.out), new PrintStream(this.err));
+    }
+
+    // Copies the test corpus into a new folder
+    private Path corpus() throws Exception {
+        return Corpus.copy(this.folder.newFolder().toPath());
+    }
+
+    @Test
+    public void roundTripBatch() throws Exception {
+        Path inputs = corpus();
+        Path compressed = this.folder.newFolder().toPath();
+        Path expanded = this.folder.newFolder().toPath();
+
+        // Quote the globs, so they are matched by the command instead of a shell
+        assertEquals(0, run("compress", "-t", "3", "-o", compressed.toString(), inputs + "/*"));
+        assertEquals(0, run("expand", "--threads", "2", "--output", expanded.toString(), compressed + "/*.112"));
+
+        for (String name : Corpus.NAMES) {
+            assertTrue(Files.exists(compressed.resolve(name + ".112")));
+        }
+        Corpus.assertCopied(expanded);
+        assertTrue(this.out.toString().contains("Expanded 5 files"));
+        assertTrue(this.out.toString().contains("MB/s"));
+    }
+
+    @Test
+    public void verify() throws Exception {
+        Path inputs = corpus();
+        Path compressed = this.folder.newFolder().toPath();
+        assertEquals(0, run("compress", "-o", compressed.toString(), inputs + "/*"));
+        assertEquals(0, run("compress", "-l", "-o", inputs.toString(), inputs.resolve("small.txt").toString()));
+        assertEquals(0, run("verify", compressed + "/*", inputs.resolve("small.txt.112").toString()));
+        assertTrue(this.out.toString().contains("Verified 6 files"));
+
+        // Break one block's checksum, and only that file should fail
+        Path broken = compressed.resolve("Macbeth.txt.112");
+        byte[] bytes = Files.readAllBytes(broken);
+        try (FileChannel channel = FileChannel.open(broken)) {
+            bytes[(int) BlockIndex.read(channel).getOffset(0) + 4] ^= 0x01;
+        }
+        Files.write(broken, bytes);
+        assertEquals(1, run("verify", compressed + "/*"));
+    }
+
+    @Test
+    public void failedOutputRemoved() throws Exception {
+        Path inputs = corpus();
+        Path compressed = this.folder.newFolder().toPath();
+        Path expanded = this.folder.newFolder().toPath();
+        assertEquals(0, run("compress", "-o", compressed.toString(), inputs.resolve("Macbeth.txt").toString()));
+
+        // Break one block's checksum, so expanding fails after the output is made
+        Path broken = compressed.resolve("Macbeth.txt.112");
+        byte[] bytes = Files.readAllBytes(broken);
+        try (FileChannel channel = FileChannel.open(broken)) {
+            bytes[(int) BlockIndex.read(channel).getOffset(0) + 4] ^= 0x01;
+        }
+        Files.write(broken, bytes);
+        assertEquals(1, run("expand", "-o", expanded.toString(), broken.toString()));
+        assertFalse(Files.exists(expanded.resolve("Macbeth.txt")));
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        Path inputs = corpus();
+        Path compressed = this.folder.newFolder().toPath();
+        assertEquals(0, run("compress", "-m", "-o", compressed.toString(), inputs + "/*"));
+        long size = 0;
+        for (String name : Corpus.NAMES) {
+            size += Files.size(inputs.resolve(name));
+        }
+        assertTrue(this.out.toString().contains("{\"bytesCompressed\":" + size + ","));
+    }
+
+    @Test
+    public void adaptive() throws Exception {
+        Path inputs = corpus();
+        Path compressed = this.folder.newFolder().toPath();
+        Path expanded = this.folder.newFolder().toPath();
+        assertEquals(0, run("compress", "-a", "-o", compressed.toString(), inputs + "/*"));
+        assertEquals(0, run("expand", "-o", expanded.toString(), compressed + "/*"));
+
+        Corpus.assertCopied(expanded);
+    }
+
+    @Test
+    public void context() throws Exception {
+        Path inputs = corpus();
+        Path compressed = this.folder.newFolder().toPath();
+        Path expanded = this.folder.newFolder().toPath();
+        assertEquals(0, run("compress", "--context", "-o", compressed.toString(), inputs + "/*"));
+        assertEquals(0, run("expand", "-o", expanded.toString(), compressed + "/*"));
+
+        Corpus.assertCopied(expanded);
+    }
+
+    @Test
+    public void shared() throws Exception {
+        Path inputs = corpus();
+        Path compressed = this.folder.newFolder().toPath();
+        Path expanded = this.folder.newFolder().toPath();
+        assertEquals(0, run("compress", "--shared", "-o", compressed.toString(), inputs + "/*"));
+        assertEquals(0, run("expand", "-o", expanded.toString(), compressed + "/*"));
+
+        Corpus.assertCopied(expanded);
+    }
+
+    @Test
+    public void emptyFile() throws Exception {
+        Path input = this.folder.newFile("empty.txt").toPath();
+        for (String mode : new String[] { "-s", "-a", "-c", "-l", "-b" }) {
+            Path compressed = this.folder.newFolder().toPath();
+            Path expanded = this.folder.newFolder().toPath();
+            assertEquals(mode, 0, run("compress", mode, "-o", compressed.toString(), input.toString()));
+            assertEquals(mode, 0, run("expand", "-o", expanded.toString(), compressed + "/*"));
+            assertEquals(mode, 0, Files.size(expanded.resolve("empty.txt")));
+        }
+    }
+
+    @Test
+    public void lz() throws Exception {
+        Path inputs = corpus();
+        Path compressed = this.folder.newFolder().toPath();
+        Path expanded = this.folder.newFolder().toPath();
+        assertEquals(0, run("compress", "--lz", "-o", compressed.toString(), inputs + "/*"));
+        assertEquals(0, run("expand", "-o", expanded.toString(), compressed + "/*"));
+
+        Corpus.assertCopied(expanded);
+    }
+
+    @Test
+    public void bwt() throws Exception {
+        Path inputs = corpus();
+        Path compressed = this.folder.newFolder().toPath();
+        Path expanded = this.folder.newFolder().toPath();
+        assertEquals(0, run("compress", "-b", "-t", "2", "-o", compressed.toString(), inputs + "/*"));
+        assertEquals(0, run("expand", "-o", expanded.toString(), compressed + "/*"));
+
+        Corpus.assertCopied(expanded);
+    }
+
+    @Test
+    public void pretrained() throws Exception {
+        Path inputs = corpus();
+        Path trees = this.folder.getRoot().toPath().resolve("trees");
+        assertEquals(0, run("train", "--trees", trees.toString(), inputs.resolve("Macbeth.txt").toString()));
+        assertEquals(0, run("train", "-r", trees.toString(), "-p", "9", inputs.resolve("image.png").toString()));
+        assertEquals(2, run("compress", "-p", "9", inputs.resolve("tiny.txt").toString()));
+        assertEquals(2, run("compress", "-r", trees.toString(), "-p", "3", inputs.resolve("tiny.txt").toString()));
+
+        Path compressed = this.folder.newFolder().toPath();
+        Path expanded = this.folder.newFolder().toPath();
+        assertEquals(0, run("compress", "-r", trees.toString(), "-p", "0", "-o", compressed.toString(),
+                inputs + "/*.txt"));
+        assertEquals(0, run("expand", "-r", trees.toString(), "-o", expanded.toString(), compressed + "/*"));
+        for (String name : new String[] { "tiny.txt", "small.txt", "Macbeth.txt" }) {
+            assertArrayEquals(name, Corpus.read(name), Files.readAllBytes(expanded.resolve(name)));
+        }
+        assertTrue(Files.size(compressed.resolve("tiny.txt.112")) < 20);
+    }
+
+    @Test
+    public void outputsNextToInputs() throws Exception {
+        Path inputs = corpus();
+        Path input = inputs.resolve("Macbeth.txt");
+        assertEquals(0, run("compress", "-q", input.toString()));
+
+        Files.move(input, inputs.resolve("original"));
+        assertEquals(0, run("expand", "-q", inputs.resolve("Macbeth.txt.112").toString()));
+        assertArrayEquals(Files.readAllBytes(inputs.resolve("original")), Files.readAllBytes(input));
+    }
+
+    @Test
+    public void existingOutput() throws Exception {
+        Path inputs = corpus();
+        String input = inputs.resolve("small.txt").toString();
+        assertEquals(0, run("compress", input));
+
+        // The second run should refuse to replace the output, unless forced
+        assertEquals(1, run("compress", input));
+        assertTrue(this.err.toString().contains("already exists"));
+        assertEquals(0, run("compress", "-f", input));
+    }
+
+    @Test
+    public void oneBadFile() throws Exception {
+        Path inputs = corpus();
+        Path bad = inputs.resolve("bad.112");
+        Files.write(bad, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 });
+
+        // The bad file fails, but the others are still expanded
+        assertEquals(0, run("compress", "-q", inputs.resolve("tiny.txt").toString()));
+        Files.delete(inputs.resolve("tiny.txt"));
+        assertEquals(1, run("expand", inputs + "/*.112"));
+        assertTrue(Files.exists(inputs.resolve("tiny.txt")));
+        assertTrue(this.err.toString().contains("bad.112"));
+    }
+
+    @Test
+    public void badArguments() throws Exception {
+        assertEquals(2, run());
+        assertEquals(2, run("squash", "file"));
+        assertEquals(2, run("compress"));
+        assertEquals(2, run("compress", "-t", "0", "file"));
+        assertEquals(2, run("compress", "-t"));
+        assertEquals(2, run("compress", "-a", "-c", "file"));
+        assertEquals(2, run("compress", "-c", "-l", "file"));
+        assertEquals(2, run("compress", "--what", "file"));
+        assertEquals(2, run("compress", this.folder.getRoot() + "/*.nothing"));
+        assertEquals(0, run("--help"));
+    }
+
+    @Test
+    public void sameOutputTwice() throws Exception {
+        Path one = corpus();
+        Path two = corpus();
+        Path output = this.folder.newFolder().toPath();
+        assertEquals(2, run("compress", "-o", output.toString(), one.resolve("tiny.txt").toString(),
+                two.resolve("tiny.txt").toString()));
+    }
+
+    @Test
+    public void recursiveGlob() throws Exception {
+        Path root = this.folder.newFolder().toPath();
+        Files.createDirectories(root.resolve("a/b"));
+        Files.write(root.resolve("top.txt"), new byte[1]);
+        Files.write(root.resolve("a/b/deep.txt"), new byte[1]);
+        Files.write(root.resolve("a/b/deep.png"), new byte[1]);
+
+        assertEquals(1, Cli.match(root + "/*.txt").size());
+        List<Path> all = Cli.match(root + "/**.txt");
+        assertEquals(2, all.size());
+        assertEquals(1, Cli.match(root + "/*/*/*.png").size());
+    }
+}
@@ -0,0 +1,135 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ContextHuffmanTest {
+    // Compresses data with its own model, with the model in front
+    private static byte[] compress(byte[] data, int maxTables) throws Exception {
+        ContextHuffman model = new ContextHuffman(ContextHuffman.count(new ByteArrayInputStream(data)), maxTables);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Artifact.writeContextHeader(bytes, model);
+        BitOutputStream out = new BitOutputStream(bytes);
+        model.compress(new ByteArrayInputStream(data), out, data.length);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] expand(byte[] compressed) throws Exception {
+        BitInputStream in = new BitInputStream(new ByteArrayInputStream(compressed));
+        Artifact artifact = Artifact.readHeader(in);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        artifact.expand(in, bytes);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void roundTripCorpus() throws Exception {
+        for (int maxTables : new int[] { 1, 3, ContextHuffman.DEFAULT_MAX_TABLES, 256 }) {
+            Corpus.assertRoundTrips(data -> expand(compress(data, maxTables)));
+        }
+    }
+
+    @Test
+    public void empty() throws Exception {
+        assertArrayEquals(new byte[0], expand(compress(new byte[0], ContextHuffman.DEFAULT_MAX_TABLES)));
+        assertArrayEquals(new byte[] { 7 }, expand(compress(new byte[] { 7 }, ContextHuffman.DEFAULT_MAX_TABLES)));
+    }
+
+    @Test
+    public void smallerThanOneTree() throws Exception {
+        // Even with the bigger header, knowing the previous byte should save a lot on
+        // English text
+        byte[] data = Corpus.read("Macbeth.txt");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Huffman tree = new Huffman(new ByteArrayInputStream(data));
+        Artifact.writeHeader(bytes, tree);
+        BitOutputStream out = new BitOutputStream(bytes);
+        tree.compress(new ByteArrayInputStream(data), out, data.length);
+        out.close();
+
+        int context = compress(data, ContextHuffman.DEFAULT_MAX_TABLES).length;
+        assertTrue(context < bytes.size() * 0.9);
+    }
+
+    @Test
+    public void tableLimit() throws Exception {
+        byte[] data = Corpus.read("Macbeth.txt");
+        long[][] counts = ContextHuffman.count(new ByteArrayInputStream(data));
+        for (int maxTables : new int[] { 1, 2, 5, 32 }) {
+            ContextHuffman model = new ContextHuffman(counts, maxTables);
+            assertTrue(model.getTableCount() <= maxTables);
+            for (int table : model.getContexts()) {
+                assertTrue(table < model.getTableCount());
+            }
+        }
+    }
+
+    @Test
+    public void serializeRoundTrip() throws Exception {
+        byte[] data = Corpus.read("small.txt");
+        ContextHuffman model = new ContextHuffman(new ByteArrayInputStream(data));
+        byte[] serialized = model.serialize();
+
+        // Deserializing should read exactly the serialized bytes, and give the same
+        // model back
+        byte[] padded = new byte[serialized.length + 1];
+        System.arraycopy(serialized, 0, padded, 0, serialized.length);
+        padded[serialized.length] = 42;
+        BitInputStream in = new BitInputStream(new ByteArrayInputStream(padded));
+        ContextHuffman copy = ContextHuffman.deserialize(in);
+        assertEquals(42, in.read());
+        assertArrayEquals(serialized, copy.serialize());
+        assertArrayEquals(model.getContexts(), copy.getContexts());
+    }
+
+    @Test
+    public void predictableContexts() throws Exception {
+        // Every byte decides the next one, so most contexts have a tree with only one
+        // value, which needs no bits at all
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) "abcdefgh".charAt(i % 8);
+        }
+        byte[] compressed = compress(data, ContextHuffman.DEFAULT_MAX_TABLES);
+        assertArrayEquals(data, expand(compressed));
+        assertTrue(compressed.length < 200);
+
+        byte[] one = new byte[1000];
+        assertArrayEquals(one, expand(compress(one, ContextHuffman.DEFAULT_MAX_TABLES)));
+    }
+
+    @Test
+    public void randomBytes() throws Exception {
+        Random random = new Random(112);
+        for (int length : new int[] { 1, 2, 255, 10000, 100000 }) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            assertArrayEquals(data, expand(compress(data, ContextHuffman.DEFAULT_MAX_TABLES)));
+        }
+    }
+
+    @Test(expected = Exception.class)
+    public void unknownByte() throws Exception {
+        ContextHuffman model = new ContextHuffman(new ByteArrayInputStream("abab".getBytes()));
+        model.compress(new ByteArrayInputStream("abc".getBytes()), new BitOutputStream(new ByteArrayOutputStream()),
+                3);
+    }
+
+    @Test
+    public void artifact() throws Exception {
+        byte[] compressed = compress(Corpus.read("small.txt"), 8);
+        Artifact artifact = Artifact.readHeader(new BitInputStream(new ByteArrayInputStream(compressed)));
+        assertTrue(artifact.isContextModeled());
+        assertNull(artifact.getTree());
+        assertTrue(artifact.getContextModel().getTableCount() <= 8);
+    }
+}
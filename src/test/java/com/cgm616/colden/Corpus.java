@@ -0,0 +1,61 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The files in the tests directory that every coder is checked against: text of
+ * a few sizes, text that repeats itself, and an image that is already
+ * compressed.
+ */
+class Corpus {
+    // The name of every file in the corpus
+    static final String[] NAMES = { "tiny.txt", "small.txt", "repetitive.txt", "Macbeth.txt", "image.png" };
+
+    /**
+     * A way to compress data and expand it again
+     */
+    interface RoundTrip {
+        byte[] apply(byte[] data) throws Exception;
+    }
+
+    private Corpus() {
+    }
+
+    // Gets the path of a file in the corpus
+    static Path path(String name) {
+        return Paths.get("tests", name);
+    }
+
+    // Reads a file in the corpus
+    static byte[] read(String name) throws IOException {
+        return Files.readAllBytes(path(name));
+    }
+
+    // Copies every file in the corpus into a directory
+    static Path copy(Path directory) throws IOException {
+        for (String name : NAMES) {
+            Files.copy(path(name), directory.resolve(name));
+        }
+        return directory;
+    }
+
+    // Checks that every file in the corpus comes back the same after a round trip
+    static void assertRoundTrips(RoundTrip roundTrip) throws Exception {
+        for (String name : NAMES) {
+            byte[] data = read(name);
+            assertArrayEquals(name, data, roundTrip.apply(data));
+        }
+    }
+
+    // Checks that a directory holds a copy of every file in the corpus
+    static void assertCopied(Path directory) throws IOException {
+        for (String name : NAMES) {
+            assertArrayEquals(name, read(name), Files.readAllBytes(directory.resolve(name)));
+        }
+    }
+}
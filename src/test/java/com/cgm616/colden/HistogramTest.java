@@ -0,0 +1,96 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class HistogramTest {
+    private static long[] naive(byte[] data) {
+        long[] counts = new long[256];
+        for (byte b : data) {
+            counts[b & 0xFF] += 1;
+        }
+        return counts;
+    }
+
+    @Test
+    public void countsArray() {
+        byte[] data = { 0, 1, 1, 2, 2, 2, (byte) 0xFF };
+        Histogram histogram = new Histogram();
+        histogram.add(data, 0, data.length);
+        assertArrayEquals(naive(data), histogram.getCounts());
+        assertEquals(data.length, histogram.total());
+
+        // Counting part of the array only counts that part
+        Histogram part = new Histogram();
+        part.add(data, 3, 3);
+        assertEquals(3, part.getCounts()[2]);
+        assertEquals(3, part.total());
+    }
+
+    @Test
+    public void countsBuffer() throws Exception {
+        byte[] data = Corpus.read("Macbeth.txt");
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip().position(100);
+        ByteBuffer heap = ByteBuffer.wrap(data).position(100).slice();
+        long[] expected = naive(Arrays.copyOfRange(data, 100, data.length));
+        for (ByteBuffer buffer : new ByteBuffer[] { direct, heap }) {
+            // Counting doesn't move the buffer
+            int position = buffer.position();
+            Histogram histogram = new Histogram();
+            histogram.add(buffer);
+            assertArrayEquals(expected, histogram.getCounts());
+            assertEquals(position, buffer.position());
+        }
+    }
+
+    @Test
+    public void countsStream() throws Exception {
+        byte[] data = Corpus.read("Macbeth.txt");
+        assertArrayEquals(naive(data), Histogram.of(new ByteArrayInputStream(data)).getCounts());
+    }
+
+    @Test
+    public void countsFileInRanges() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (String name : new String[] { "tiny.txt", "Macbeth.txt", "image.png" }) {
+                Path file = Corpus.path(name);
+                long[] expected = naive(Files.readAllBytes(file));
+                assertArrayEquals(name, expected, Histogram.of(file, pool).getCounts());
+
+                // Small ranges split the file into many tasks
+                for (long range : new long[] { 1, 1000, 65537 }) {
+                    assertArrayEquals(name, expected, Histogram.of(file, pool, range).getCounts());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void merge() {
+        byte[] data = { 5, 6, 7, 5 };
+        Histogram a = new Histogram();
+        a.add(data, 0, 2);
+        Histogram b = new Histogram();
+        b.add(data, 2, 2);
+        a.merge(b);
+        assertArrayEquals(naive(data), a.getCounts());
+    }
+
+    @Test(expected = Exception.class)
+    public void emptyHistogram() throws Exception {
+        new Huffman(new Histogram());
+    }
+}
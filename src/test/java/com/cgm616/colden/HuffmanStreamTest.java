@@ -0,0 +1,249 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HuffmanStreamTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] compress(byte[] data, int blockSize) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new HuffmanOutputStream(bytes, ForkJoinPool.commonPool(), blockSize, false)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] expand(byte[] compressed) throws Exception {
+        try (InputStream in = new HuffmanInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    public void roundTripCorpus() throws Exception {
+        for (int blockSize : new int[] { 1000, 4096, HuffmanOutputStream.DEFAULT_BLOCK_SIZE }) {
+            Corpus.assertRoundTrips(data -> expand(compress(data, blockSize)));
+        }
+        assertArrayEquals(new byte[0], expand(compress(new byte[0], 1000)));
+    }
+
+    @Test
+    public void oneByteAtATime() throws Exception {
+        byte[] data = Corpus.read("small.txt");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new HuffmanOutputStream(bytes, ForkJoinPool.commonPool(), 100, false)) {
+            for (byte b : data) {
+                out.write(b);
+            }
+        }
+
+        ByteArrayOutputStream expanded = new ByteArrayOutputStream();
+        try (InputStream in = new HuffmanInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            int b;
+            while ((b = in.read()) != -1) {
+                expanded.write(b);
+            }
+        }
+        assertArrayEquals(data, expanded.toByteArray());
+    }
+
+    @Test
+    public void sameAsBlockCompressor() throws Exception {
+        // The stream writes a whole file, which the rest of the program can expand in
+        // parallel with its index
+        byte[] data = Corpus.read("Macbeth.txt");
+        Path compressed = this.folder.newFile().toPath();
+        Files.write(compressed, compress(data, 10000));
+        Path expanded = this.folder.newFile().toPath();
+        Cli.expand(compressed, expanded, ForkJoinPool.commonPool(), null);
+        assertArrayEquals(data, Files.readAllBytes(expanded));
+
+        // And the other way around
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new BlockCompressor(ForkJoinPool.commonPool(), 10000).compress(new ByteArrayInputStream(data), bytes);
+        assertArrayEquals(data, expand(bytes.toByteArray()));
+    }
+
+    @Test
+    public void syncFlush() throws Exception {
+        // Everything written before a flush should be readable before the stream is
+        // finished
+        byte[] data = Corpus.read("small.txt");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        HuffmanOutputStream out = new HuffmanOutputStream(bytes, ForkJoinPool.commonPool(), 1 << 16, true);
+        out.write(data);
+        out.flush();
+
+        try (InputStream in = new HuffmanInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            byte[] read = new byte[data.length];
+            assertEquals(data.length, in.readNBytes(read, 0, read.length));
+            assertArrayEquals(data, read);
+        }
+
+        out.write(data);
+        out.close();
+        byte[] expanded = expand(bytes.toByteArray());
+        assertEquals(data.length * 2, expanded.length);
+    }
+
+    @Test
+    public void otherBlockLayouts() throws Exception {
+        byte[] data = Corpus.read("Macbeth.txt");
+        ByteArrayOutputStream lzss = new ByteArrayOutputStream();
+        Artifact.writeLzssHeader(lzss);
+        new Lzss().compress(new ByteArrayInputStream(data), lzss);
+        assertArrayEquals(data, expand(lzss.toByteArray()));
+
+        ByteArrayOutputStream sorted = new ByteArrayOutputStream();
+        Artifact.writeBlockSortHeader(sorted);
+        new BlockSort(ForkJoinPool.commonPool(), 20000).compress(new ByteArrayInputStream(data), sorted);
+        assertArrayEquals(data, expand(sorted.toByteArray()));
+    }
+
+    @Test
+    public void skip() throws Exception {
+        byte[] data = new byte[50000];
+        new Random(112).nextBytes(data);
+        try (InputStream in = new HuffmanInputStream(new ByteArrayInputStream(compress(data, 3000)))) {
+            assertEquals(12345, in.skip(12345));
+            assertEquals((int) data[12345] & 0xFF, in.read());
+            assertEquals(data.length - 12346, in.skip(data.length));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptBlock() throws Exception {
+        byte[] compressed = compress(Corpus.read("Macbeth.txt"), 10000);
+        compressed[compressed.length / 2] ^= 0x10;
+        expand(compressed);
+    }
+
+    @Test(expected = IOException.class)
+    public void notBlocks() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Artifact.writeAdaptiveHeader(bytes);
+        new HuffmanInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void writeAfterClose() throws Exception {
+        HuffmanOutputStream out = new HuffmanOutputStream(new ByteArrayOutputStream());
+        out.close();
+        out.close();
+        out.write(1);
+    }
+
+    @Test
+    public void channels() throws Exception {
+        // Move data from one file to another through a compressing and an expanding
+        // channel, a direct buffer at a time
+        byte[] data = Corpus.read("Macbeth.txt");
+        Path compressed = this.folder.newFile().toPath();
+        try (WritableByteChannel out = HuffmanChannels.newWritableChannel(
+                FileChannel.open(compressed, StandardOpenOption.WRITE), ForkJoinPool.commonPool(), 10000)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(7777);
+            for (int off = 0; off < data.length; off += buffer.capacity()) {
+                buffer.clear();
+                buffer.put(data, off, Math.min(buffer.capacity(), data.length - off)).flip();
+                assertEquals(buffer.remaining(), out.write(buffer));
+            }
+        }
+        assertArrayEquals(data, expand(Files.readAllBytes(compressed)));
+
+        ByteArrayOutputStream expanded = new ByteArrayOutputStream();
+        try (ReadableByteChannel in = HuffmanChannels.newReadableChannel(FileChannel.open(compressed))) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(5000);
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                byte[] chunk = new byte[buffer.remaining()];
+                buffer.get(chunk);
+                expanded.write(chunk);
+                buffer.clear();
+            }
+        }
+        assertArrayEquals(data, expanded.toByteArray());
+    }
+
+    // Reads everything from a channel
+    private static byte[] readAll(ReadableByteChannel in) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(3000);
+        while (in.read(buffer) != -1) {
+            bytes.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void channelsSameAsStreams() throws Exception {
+        // The channels code blocks from buffer to buffer, but the files should be
+        // exactly the same
+        byte[] data = Corpus.read("Macbeth.txt");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (WritableByteChannel out = HuffmanChannels.newWritableChannel(Channels.newChannel(bytes),
+                ForkJoinPool.commonPool(), 10000)) {
+            out.write(ByteBuffer.wrap(data));
+        }
+        assertArrayEquals(compress(data, 10000), bytes.toByteArray());
+
+        // A channel that isn't a file is read a block at a time
+        try (ReadableByteChannel in = HuffmanChannels
+                .newReadableChannel(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())))) {
+            assertArrayEquals(data, readAll(in));
+        }
+    }
+
+    @Test
+    public void channelsOtherLayouts() throws Exception {
+        byte[] data = Corpus.read("Macbeth.txt");
+        ByteArrayOutputStream lzss = new ByteArrayOutputStream();
+        Artifact.writeLzssHeader(lzss);
+        new Lzss().compress(new ByteArrayInputStream(data), lzss);
+        try (ReadableByteChannel in = HuffmanChannels
+                .newReadableChannel(Channels.newChannel(new ByteArrayInputStream(lzss.toByteArray())))) {
+            assertArrayEquals(data, readAll(in));
+        }
+
+        // A file with one tree in the header for every block
+        ByteArrayOutputStream shared = new ByteArrayOutputStream();
+        new BlockCompressor(ForkJoinPool.commonPool(), 10000).compress(new ByteArrayInputStream(data), shared);
+        try (ReadableByteChannel in = HuffmanChannels
+                .newReadableChannel(Channels.newChannel(new ByteArrayInputStream(shared.toByteArray())))) {
+            assertArrayEquals(data, readAll(in));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void channelCorruptBlock() throws Exception {
+        byte[] compressed = compress(Corpus.read("Macbeth.txt"), 10000);
+        compressed[compressed.length / 2] ^= 0x10;
+        try (ReadableByteChannel in = HuffmanChannels
+                .newReadableChannel(Channels.newChannel(new ByteArrayInputStream(compressed)))) {
+            readAll(in);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class HuffmanTest {
+    private static byte[] compress(Huffman tree, byte[] data) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bytes);
+        tree.compress(new ByteArrayInputStream(data), out, data.length);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static void roundTrip(byte[] data) throws Exception {
+        Huffman tree = new Huffman(new ByteArrayInputStream(data));
+        byte[] compressed = compress(tree, data);
+
+        ByteArrayOutputStream expanded = new ByteArrayOutputStream();
+        tree.expand(compressed, expanded);
+        assertArrayEquals(data, expanded.toByteArray());
+
+        ByteArrayOutputStream reference = new ByteArrayOutputStream();
+        tree.expandByTree(compressed, reference);
+        assertArrayEquals(data, reference.toByteArray());
+    }
+
+    @Test
+    public void roundTripCorpus() throws Exception {
+        for (String name : Corpus.NAMES) {
+            roundTrip(Corpus.read(name));
+        }
+    }
+
+    @Test
+    public void roundTripSingleValue() throws Exception {
+        byte[] data = new byte[100];
+        Arrays.fill(data, (byte) 0x42);
+        roundTrip(data);
+    }
+
+    @Test
+    public void roundTripAllValues() throws Exception {
+        byte[] data = new byte[256 * 4];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7);
+        }
+        roundTrip(data);
+    }
+
+    private static byte[] fibonacci(int values) {
+        // Fibonacci frequencies make the deepest possible tree
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int a = 1;
+        int b = 1;
+        for (int value = 0; value < values; value++) {
+            for (int i = 0; i < a; i++) {
+                data.write(value);
+            }
+            int next = a + b;
+            a = b;
+            b = next;
+        }
+        return data.toByteArray();
+    }
+
+    private static int maxLength(Huffman tree) {
+        return Arrays.stream(tree.getCodeLengths()).max().getAsInt();
+    }
+
+    @Test
+    public void roundTripDeepTree() throws Exception {
+        // With no real limit, the codes are much longer than the first level of the
+        // decode table
+        byte[] data = fibonacci(24);
+        Huffman tree = new Huffman(new ByteArrayInputStream(data), 32);
+        assertEquals(23, maxLength(tree));
+
+        ByteArrayOutputStream expanded = new ByteArrayOutputStream();
+        tree.expand(compress(tree, data), expanded);
+        assertArrayEquals(data, expanded.toByteArray());
+    }
+
+    private static byte[] longestCodes() {
+        // Enough values to make codes of 32 bits, reversed so that the rarest values,
+        // with the longest codes, come after bits that are still waiting to be written
+        byte[] data = fibonacci(33);
+        for (int i = 0; i < data.length / 2; i++) {
+            byte b = data[i];
+            data[i] = data[data.length - 1 - i];
+            data[data.length - 1 - i] = b;
+        }
+        return data;
+    }
+
+    @Test
+    public void roundTripLongestCodes() throws Exception {
+        // Codes of the full 32 bits have their top bit set, which mustn't spill into
+        // the bits written before them
+        byte[] data = longestCodes();
+        Huffman tree = new Huffman(new ByteArrayInputStream(data), 32);
+        assertEquals(32, maxLength(tree));
+        byte[] compressed = compress(tree, data);
+
+        ByteArrayOutputStream expanded = new ByteArrayOutputStream();
+        tree.expand(compressed, expanded);
+        assertArrayEquals(data, expanded.toByteArray());
+
+        ByteArrayOutputStream reference = new ByteArrayOutputStream();
+        tree.expandByTree(compressed, reference);
+        assertArrayEquals(data, reference.toByteArray());
+    }
+
+    @Test
+    public void lengthLimitedRoundTrip() throws Exception {
+        for (int limit : new int[] { 5, 8, 12, 15 }) {
+            byte[] data = fibonacci(24);
+            Huffman tree = new Huffman(new ByteArrayInputStream(data), limit);
+            assertEquals(limit, maxLength(tree));
+
+            ByteArrayOutputStream expanded = new ByteArrayOutputStream();
+            tree.expand(compress(tree, data), expanded);
+            assertArrayEquals(data, expanded.toByteArray());
+        }
+    }
+
+    @Test
+    public void lengthLimitedRatio() throws Exception {
+        // Macbeth's best codes are 17 bits long, so limiting them should cost very
+        // little space
+        byte[] data = Corpus.read("Macbeth.txt");
+        int unlimited = compress(new Huffman(new ByteArrayInputStream(data), 32), data).length;
+        Huffman limited = new Huffman(new ByteArrayInputStream(data), 12);
+        assertTrue(maxLength(limited) <= 12);
+        assertTrue(compress(limited, data).length < unlimited * 1.01);
+    }
+
+    @Test(expected = Exception.class)
+    public void tooManyValuesForLimit() throws Exception {
+        byte[] data = new byte[256];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        new Huffman(new ByteArrayInputStream(data), 7);
+    }
+
+    @Test
+    public void serializationRoundTrip() throws Exception {
+        for (String name : Corpus.NAMES) {
+            byte[] data = Corpus.read(name);
+            Huffman tree = new Huffman(new ByteArrayInputStream(data));
+            byte[] compressed = compress(tree, data);
+
+            for (Huffman copy : new Huffman[] { Huffman.deserialize(tree.serialize()),
+                    Huffman.deserializeCanonical(tree.serializeCanonical()) }) {
+                ByteArrayOutputStream expanded = new ByteArrayOutputStream();
+                copy.expand(compressed, expanded);
+                assertArrayEquals(data, expanded.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void canonicalSerializationIsSmaller() throws Exception {
+        // Trees with only a few values are cheaper to store as a shape, so only check
+        // the files with many different bytes
+        for (String name : new String[] { "small.txt", "Macbeth.txt", "image.png" }) {
+            byte[] data = Corpus.read(name);
+            Huffman tree = new Huffman(new ByteArrayInputStream(data));
+            assertTrue(name, tree.serializeCanonical().length <= tree.serialize().length);
+        }
+    }
+
+    @Test(expected = Exception.class)
+    public void incompleteCanonicalTree() throws Exception {
+        // Five codes of length 2 can't fit in a tree
+        BitArray bits = new BitArray();
+        bits.push(false);
+        bits.push(false);
+        bits.push(false);
+        bits.push(true);
+        bits.push(false);
+        bits.push(true);
+        Huffman.deserializeCanonical(bits.toArray());
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedInput() throws Exception {
+        byte[] data = Corpus.read("small.txt");
+        Huffman tree = new Huffman(new ByteArrayInputStream(data));
+        byte[] compressed = compress(tree, data);
+        tree.expand(Arrays.copyOf(compressed, compressed.length / 2), new ByteArrayOutputStream());
+    }
+
+    private static ByteBuffer allocate(int size, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    @Test
+    public void byteBuffers() throws Exception {
+        for (String name : Corpus.NAMES) {
+            byte[] data = Corpus.read(name);
+            Huffman tree = new Huffman(new ByteArrayInputStream(data));
+
+            // The codes should be the same as the ones written through a stream, after
+            // the length at the front
+            byte[] streamed = compress(tree, data);
+            for (boolean direct : new boolean[] { false, true }) {
+                ByteBuffer src = allocate(data.length + 10, direct);
+                src.position(3);
+                src.put(data).flip().position(3);
+                ByteBuffer codes = allocate(streamed.length + 5, direct);
+                codes.position(5);
+                tree.encode(src, codes);
+                assertEquals(src.limit(), src.position());
+                codes.flip().position(5);
+                byte[] encoded = new byte[codes.remaining()];
+                codes.duplicate().get(encoded);
+                assertArrayEquals(name, Arrays.copyOfRange(streamed, 8, streamed.length), encoded);
+
+                // Leave a byte after the codes, which the decoder shouldn't touch
+                ByteBuffer padded = ByteBuffer.allocate(encoded.length + 1);
+                padded.put(encoded).put((byte) 0x5A).flip();
+                ByteBuffer decoded = allocate(data.length, direct);
+                tree.decode(padded, decoded);
+                assertEquals(encoded.length, padded.position());
+                byte[] result = new byte[data.length];
+                decoded.flip().get(result);
+                assertArrayEquals(name, data, result);
+            }
+        }
+    }
+
+    @Test
+    public void byteBuffersLongestCodes() throws Exception {
+        byte[] data = longestCodes();
+        Huffman tree = new Huffman(new ByteArrayInputStream(data), 32);
+        byte[] streamed = compress(tree, data);
+
+        ByteBuffer src = ByteBuffer.allocateDirect(data.length);
+        src.put(data).flip();
+        ByteBuffer codes = ByteBuffer.allocateDirect(streamed.length);
+        tree.encode(src, codes);
+        codes.flip();
+        byte[] encoded = new byte[codes.remaining()];
+        codes.duplicate().get(encoded);
+        assertArrayEquals(Arrays.copyOfRange(streamed, 8, streamed.length), encoded);
+
+        ByteBuffer decoded = ByteBuffer.allocateDirect(data.length);
+        tree.decode(codes, decoded);
+        byte[] result = new byte[data.length];
+        decoded.flip().get(result);
+        assertArrayEquals(data, result);
+    }
+
+    @Test(expected = Exception.class)
+    public void byteBufferTooSmall() throws Exception {
+        byte[] data = Corpus.read("small.txt");
+        Huffman tree = new Huffman(new ByteArrayInputStream(data));
+        tree.encode(ByteBuffer.wrap(data), ByteBuffer.allocate(data.length / 4));
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedByteBuffer() throws Exception {
+        byte[] data = Corpus.read("small.txt");
+        Huffman tree = new Huffman(new ByteArrayInputStream(data));
+        ByteBuffer codes = ByteBuffer.allocate(data.length);
+        tree.encode(ByteBuffer.wrap(data), codes);
+        codes.flip().limit(codes.limit() / 2);
+        tree.decode(codes, ByteBuffer.allocate(data.length));
+    }
+}
@@ -0,0 +1,154 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that lengths and counts past 4 GB don't overflow. The synthetic inputs
+ * only hold one or two byte values, so they are quick to generate and compress.
+ */
+public class LargeInputTest {
+    // Comfortably more than 2^32 bytes
+    private static final long LENGTH = (9L << 29) + 12345;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // A stream of the same byte repeated many times
+    private static class RepeatedStream extends InputStream {
+        private long left;
+        private byte value;
+
+        RepeatedStream(byte value, long length) {
+            this.value = value;
+            this.left = length;
+        }
+
+        @Override
+        public int read() {
+            if (this.left == 0) {
+                return -1;
+            }
+            this.left -= 1;
+            return (int) this.value & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (this.left == 0) {
+                return -1;
+            }
+            int count = (int) Math.min(len, this.left);
+            Arrays.fill(b, off, off + count, this.value);
+            this.left -= count;
+            return count;
+        }
+    }
+
+    // A stream that counts the bytes written to it, checking that they all match
+    private static class CountingStream extends OutputStream {
+        private long count = 0;
+        private byte value;
+
+        CountingStream(byte value) {
+            this.value = value;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                if (b[i] != this.value) {
+                    throw new IOException("Wrong byte written");
+                }
+            }
+            this.count += len;
+        }
+    }
+
+    @Test
+    public void longFrequencies() throws Exception {
+        // Counts that only fit in a long should still give the right code lengths
+        byte[] data = new byte[6 << 20];
+        Arrays.fill(data, 0, 4 << 20, (byte) 'a');
+        Arrays.fill(data, 4 << 20, 5 << 20, (byte) 'b');
+        Arrays.fill(data, 5 << 20, 6 << 20, (byte) 'c');
+        Histogram chunk = new Histogram();
+        chunk.add(data, 0, data.length);
+
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 1024; i++) {
+            histogram.merge(chunk);
+        }
+        assertEquals(6L << 30, histogram.total());
+
+        int[] lengths = new Huffman(histogram).getCodeLengths();
+        assertEquals(1, lengths['a']);
+        assertEquals(2, lengths['b']);
+        assertEquals(2, lengths['c']);
+    }
+
+    @Test
+    public void streamLength() throws Exception {
+        Huffman tree = new Huffman(new ByteArrayInputStream(new byte[] { 'x' }));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bytes);
+        tree.compress(new RepeatedStream((byte) 'x', LENGTH), out, LENGTH);
+        out.close();
+
+        CountingStream expanded = new CountingStream((byte) 'x');
+        tree.expand(bytes.toByteArray(), expanded);
+        assertEquals(LENGTH, expanded.count);
+    }
+
+    @Test
+    public void blocks() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new BlockCompressor(ForkJoinPool.commonPool(), 8 << 20, 0).compress(new RepeatedStream((byte) 'y', LENGTH),
+                bytes);
+        byte[] file = bytes.toByteArray();
+
+        // The index should add up to the whole length
+        Path path = folder.newFile().toPath();
+        Files.write(path, file);
+        try (FileChannel channel = FileChannel.open(path)) {
+            BlockIndex index = BlockIndex.read(channel);
+            long[] positions = index.outputOffsets();
+            assertEquals(LENGTH, positions[index.size()]);
+        }
+
+        BitInputStream in = new BitInputStream(new ByteArrayInputStream(file));
+        CountingStream expanded = new CountingStream((byte) 'y');
+        Artifact.readHeader(in).expand(in, expanded);
+        assertEquals(LENGTH, expanded.count);
+    }
+
+    @Test
+    public void bitArrayIndex() {
+        // A BitArray's length and indices are longs, so they don't overflow
+        BitArray bits = BitArray.fromBytes(new byte[(1 << 28) + 1]);
+        bits.set(1L << 31, true);
+        assertEquals((1L << 31) + 8, bits.bitLength);
+        assertEquals(0x80L, bits.getBits(1L << 31, 8));
+        assertArrayEquals(new byte[] { (byte) 0x80 }, Arrays.copyOfRange(bits.toArray(), 1 << 28, (1 << 28) + 1));
+    }
+}
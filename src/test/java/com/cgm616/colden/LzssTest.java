@@ -0,0 +1,110 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LzssTest {
+    private static byte[] compress(byte[] data, Lzss lzss) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Artifact.writeLzssHeader(bytes);
+        lzss.compress(new ByteArrayInputStream(data), bytes);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] expand(byte[] compressed) throws Exception {
+        BitInputStream in = new BitInputStream(new ByteArrayInputStream(compressed));
+        Artifact artifact = Artifact.readHeader(in);
+        assertTrue(artifact.isLzss());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        artifact.expand(in, bytes);
+        return bytes.toByteArray();
+    }
+
+    // The size of the data compressed by the Huffman code alone
+    private static int huffmanSize(byte[] data) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Huffman tree = new Huffman(new ByteArrayInputStream(data));
+        Artifact.writeHeader(bytes, tree);
+        BitOutputStream out = new BitOutputStream(bytes);
+        tree.compress(new ByteArrayInputStream(data), out, data.length);
+        out.close();
+        return bytes.size();
+    }
+
+    @Test
+    public void roundTripCorpus() throws Exception {
+        Corpus.assertRoundTrips(data -> expand(compress(data, new Lzss())));
+        Corpus.assertRoundTrips(data -> expand(compress(data, new Lzss(256, 1))));
+    }
+
+    @Test
+    public void repeatsAreSmaller() throws Exception {
+        // Matches should do much better than the Huffman code alone on data that
+        // repeats itself
+        for (String name : new String[] { "repetitive.txt", "Macbeth.txt" }) {
+            byte[] data = Corpus.read(name);
+            assertTrue(name, compress(data, new Lzss()).length < huffmanSize(data) * 0.8);
+        }
+    }
+
+    @Test
+    public void longerChainsFindMore() throws Exception {
+        byte[] data = Corpus.read("Macbeth.txt");
+        int quick = compress(data, new Lzss(4096, 1)).length;
+        int thorough = compress(data, new Lzss(Lzss.MAX_WINDOW, 256)).length;
+        assertTrue(thorough < quick);
+    }
+
+    @Test
+    public void overlappingMatches() throws Exception {
+        // A run is one literal followed by matches that copy from themselves
+        byte[] run = new byte[100000];
+        assertArrayEquals(run, expand(compress(run, new Lzss())));
+        assertTrue(compress(run, new Lzss()).length < 1000);
+
+        byte[] pattern = new byte[5000];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = (byte) "abc".charAt(i % 3);
+        }
+        assertArrayEquals(pattern, expand(compress(pattern, new Lzss())));
+    }
+
+    @Test
+    public void acrossBlocks() throws Exception {
+        // Random data has no matches, and text repeated at the edge of a block can't
+        // match back into the last block
+        Random random = new Random(112);
+        byte[] data = new byte[Lzss.BLOCK_SIZE * 2 + 1234];
+        random.nextBytes(data);
+        byte[] text = Corpus.read("small.txt");
+        for (int at = Lzss.BLOCK_SIZE - text.length / 2; at < data.length - text.length; at += Lzss.BLOCK_SIZE / 3) {
+            System.arraycopy(text, 0, data, at, text.length);
+        }
+        assertArrayEquals(data, expand(compress(data, new Lzss())));
+    }
+
+    @Test
+    public void empty() throws Exception {
+        assertArrayEquals(new byte[0], expand(compress(new byte[0], new Lzss())));
+        assertArrayEquals(new byte[] { 7 }, expand(compress(new byte[] { 7 }, new Lzss())));
+    }
+
+    @Test(expected = Exception.class)
+    public void badWindow() throws Exception {
+        new Lzss(3000, 16);
+    }
+
+    @Test(expected = Exception.class)
+    public void corruptBlock() throws Exception {
+        byte[] data = Corpus.read("small.txt");
+        byte[] block = new Lzss().encodeBlock(data, 0, data.length);
+        block[3] ^= 0x10;
+        Lzss.decodeBlock(block);
+    }
+}
@@ -0,0 +1,114 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class MetricsTest {
+    @Test
+    public void tree() throws Exception {
+        // 'a' twice and 'b' and 'c' once get codes of 1, 2 and 2 bits, which is
+        // exactly the entropy
+        Histogram histogram = new Histogram();
+        histogram.add(new byte[] { 'a', 'b', 'a', 'c' }, 0, 4);
+        Metrics metrics = new Metrics();
+        metrics.recordTree(new Huffman(histogram), histogram);
+        assertEquals(1.5, metrics.getAverageCodeLength(), 1e-9);
+        assertEquals(1.5, metrics.getEntropy(), 1e-9);
+        assertEquals(2, metrics.getLastTreeDepth());
+        assertEquals(2, metrics.getMaxTreeDepth());
+
+        metrics.reset();
+        assertEquals(0, metrics.getAverageCodeLength(), 0);
+        assertEquals(0, metrics.getMaxTreeDepth());
+    }
+
+    @Test
+    public void bufferedBytes() {
+        Metrics metrics = new Metrics();
+        metrics.allocate(100);
+        metrics.allocate(50);
+        metrics.release(100);
+        metrics.allocate(20);
+        assertEquals(70, metrics.getBufferedBytes());
+        assertEquals(150, metrics.getPeakBufferedBytes());
+
+        // The peak starts over from what's still held
+        metrics.reset();
+        assertEquals(70, metrics.getPeakBufferedBytes());
+    }
+
+    @Test
+    public void blocks() throws Exception {
+        byte[] data = Corpus.read("Macbeth.txt");
+        Metrics metrics = Metrics.getDefault();
+        metrics.reset();
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new BlockCompressor(ForkJoinPool.commonPool(), 10000).compress(new ByteArrayInputStream(data), compressed);
+        try (OutputStream out = new HuffmanOutputStream(new ByteArrayOutputStream(), ForkJoinPool.commonPool(), 10000,
+                false)) {
+            out.write(data);
+        }
+        assertEquals(2L * data.length, metrics.getBytesCompressed());
+        assertEquals(2L * data.length, metrics.getStageBytes(Metrics.Stage.ENCODE));
+        assertEquals(2L * data.length, metrics.getStageBytes(Metrics.Stage.WRITE));
+        assertTrue(metrics.getBlocksCompressed() > 0);
+        assertEquals(0, metrics.getBlocksExpanded());
+        assertTrue(metrics.getBitsPerByte() > 0 && metrics.getBitsPerByte() < 8);
+        assertTrue(metrics.getEntropy() <= metrics.getAverageCodeLength());
+        assertTrue(metrics.getMaxTreeDepth() > 0);
+        assertEquals(0, metrics.getBufferedBytes());
+        assertTrue(metrics.getPeakBufferedBytes() >= 10000);
+
+        try (HuffmanInputStream in = new HuffmanInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+            in.readAllBytes();
+        }
+        assertEquals(data.length, metrics.getBytesExpanded());
+        assertEquals(data.length, metrics.getStageBytes(Metrics.Stage.DECODE));
+        assertTrue(metrics.getCompressedBytesRead() > 0);
+        assertEquals(metrics.getBlocksCompressed(), 2 * metrics.getBlocksExpanded());
+    }
+
+    @Test
+    public void jmx() throws Exception {
+        Metrics metrics = Metrics.getDefault();
+        metrics.reset();
+        metrics.recordCompressed(1000, 600);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+        assertEquals(1000L, server.getAttribute(name, "BytesCompressed"));
+        MetricsMXBean proxy = JMX.newMXBeanProxy(server, name, MetricsMXBean.class);
+        assertEquals(4.8, proxy.getBitsPerByte(), 1e-9);
+        assertTrue(proxy.getSummary().contains("\"compressedBytesWritten\":600,"));
+
+        proxy.reset();
+        assertEquals(0, metrics.getBytesCompressed());
+    }
+
+    @Test
+    public void summary() {
+        Metrics metrics = new Metrics();
+        metrics.record(Metrics.Stage.ENCODE, 1 << 20, System.nanoTime() - 500_000_000L);
+        String json = metrics.getSummary();
+        assertTrue(json.startsWith("{") && json.endsWith("}"));
+        for (String key : new String[] { "bytesCompressed", "blocksCompressed", "blocksExpanded", "bitsPerByte",
+                "histogram", "tree", "encode", "write", "decode", "megabytesPerSecond", "maxTreeDepth",
+                "averageCodeLength", "entropy", "peakBufferedBytes" }) {
+            assertTrue(key, json.contains("\"" + key + "\":"));
+        }
+        assertTrue(metrics.getEncodeMegabytesPerSecond() > 1 && metrics.getEncodeMegabytesPerSecond() <= 2);
+    }
+}
@@ -0,0 +1,136 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OffHeapBitArrayTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void matchesBitArray() {
+        // Tiny segments, so that plenty of groups cross from one to the next
+        Random random = new Random(112);
+        BitArray expected = new BitArray();
+        OffHeapBitArray bits = OffHeapBitArray.allocate(1000, 16);
+        long position = 0;
+        while (true) {
+            long value = random.nextLong();
+            int count = random.nextInt(65);
+            if (position + count > bits.bitLength()) {
+                break;
+            }
+            expected.pushBits(value, count);
+            bits.putBits(position, value, count);
+            position += count;
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            long start = random.nextInt((int) position);
+            int count = (int) Math.min(random.nextInt(65), position - start);
+            assertEquals(expected.getBits(start, count), bits.getBits(start, count));
+            assertEquals(expected.get(start), bits.get(start));
+        }
+        byte[] bytes = expected.toArray();
+        for (int i = 0; i < bytes.length - 1; i++) {
+            assertEquals(bytes[i], bits.getByte(i));
+        }
+    }
+
+    @Test
+    public void setBits() {
+        OffHeapBitArray bits = OffHeapBitArray.allocate(24, 8);
+        bits.set(63, true);
+        bits.set(64, true);
+        assertEquals(0b11L, bits.getBits(63, 2));
+        bits.set(63, false);
+        assertFalse(bits.get(63));
+        assertTrue(bits.get(64));
+        bits.putBits(60, 0xABCDL, 16);
+        assertEquals(0xABCDL, bits.getBits(60, 16));
+        assertEquals(0xABCD00000000L, bits.getBits(60, 48));
+        assertEquals((byte) 0xBC, bits.getByte(8));
+    }
+
+    @Test
+    public void streamsAcrossSegments() throws Exception {
+        byte[] data = new byte[5000];
+        new Random(112).nextBytes(data);
+        OffHeapBitArray bits = OffHeapBitArray.allocate(6000, 512);
+        try (OutputStream out = bits.outputStream(300, data.length)) {
+            out.write(data, 0, 1000);
+            for (int i = 1000; i < 1010; i++) {
+                out.write(data[i]);
+            }
+            out.write(data, 1010, data.length - 1010);
+        }
+
+        byte[] read = new byte[data.length];
+        try (InputStream in = bits.inputStream(300, data.length)) {
+            assertEquals(data.length, in.readNBytes(read, 0, read.length));
+            assertEquals(-1, in.read());
+        }
+        assertArrayEquals(data, read);
+    }
+
+    @Test
+    public void slices() {
+        OffHeapBitArray bits = OffHeapBitArray.allocate(2000, 512);
+        ByteBuffer slice = bits.slice(600, 10);
+        assertEquals(10, slice.remaining());
+        slice.put(new byte[] { 1, 2, 3 });
+        assertEquals(3, bits.getByte(602));
+        assertEquals(512, bits.slice(512, 512).remaining());
+
+        // A range that crosses into the next segment can't be one buffer
+        assertEquals(null, bits.slice(500, 20));
+    }
+
+    @Test(expected = IOException.class)
+    public void writePastRange() throws Exception {
+        OffHeapBitArray bits = OffHeapBitArray.allocate(100, 16);
+        bits.outputStream(10, 20).write(new byte[21]);
+    }
+
+    @Test
+    public void mappedFile() throws Exception {
+        byte[] data = new byte[10000];
+        new Random(112).nextBytes(data);
+        Path file = this.folder.newFile().toPath();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            OffHeapBitArray bits = OffHeapBitArray.map(channel, FileChannel.MapMode.READ_WRITE, 0, data.length, 4096);
+            try (OutputStream out = bits.outputStream(0, data.length)) {
+                out.write(data);
+            }
+            bits.force();
+        }
+        assertArrayEquals(data, Files.readAllBytes(file));
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            OffHeapBitArray bits = OffHeapBitArray.map(channel, FileChannel.MapMode.READ_ONLY, 100, 9000, 1024);
+            assertEquals(9000, bits.size());
+            assertEquals(data[5000], bits.getByte(4900));
+            long expected = 0;
+            for (int i = 0; i < 8; i++) {
+                expected = (expected << 8) | ((long) data[100 + 1020 + i] & 0xFF);
+            }
+            assertEquals(expected, bits.getBits(1020 * 8, 64));
+        }
+    }
+}
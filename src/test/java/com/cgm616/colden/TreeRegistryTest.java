@@ -0,0 +1,124 @@
+package com.cgm616.colden;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TreeRegistryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // A registry with a tree trained on text
+    private static TreeRegistry registry() throws Exception {
+        TreeRegistry registry = new TreeRegistry();
+        registry.register(7, TreeRegistry.train(List.of(Corpus.path("Macbeth.txt"))));
+        return registry;
+    }
+
+    // The size of the data compressed with its own tree in the header
+    private static int ownTreeSize(byte[] data) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Huffman tree = new Huffman(new ByteArrayInputStream(data));
+        Artifact.writeHeader(bytes, tree);
+        BitOutputStream out = new BitOutputStream(bytes);
+        tree.compress(new ByteArrayInputStream(data), out, data.length);
+        out.close();
+        return bytes.size();
+    }
+
+    @Test
+    public void smallFiles() throws Exception {
+        TreeRegistry registry = registry();
+        for (String name : new String[] { "tiny.txt", "small.txt" }) {
+            byte[] data = Corpus.read(name);
+            byte[] compressed = registry.compress(7, data);
+            assertArrayEquals(name, data, registry.expand(compressed));
+            assertTrue(name, compressed.length < ownTreeSize(data));
+        }
+    }
+
+    @Test
+    public void everyByteValue() throws Exception {
+        // The samples are text, but any byte should still have a code
+        TreeRegistry registry = registry();
+        byte[] data = new byte[1000];
+        new Random(112).nextBytes(data);
+        assertArrayEquals(data, registry.expand(registry.compress(7, data)));
+        assertArrayEquals(new byte[0], registry.expand(registry.compress(7, new byte[0])));
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        TreeRegistry registry = registry();
+        registry.register(0, TreeRegistry.train(List.of(Corpus.path("image.png"))));
+        Path file = this.folder.newFile().toPath();
+        registry.save(file);
+
+        TreeRegistry loaded = TreeRegistry.load(file);
+        assertEquals(registry.getIds(), loaded.getIds());
+        assertEquals(1, loaded.nextId());
+        for (int id : registry.getIds()) {
+            assertArrayEquals(registry.get(id).serializeCanonical(), loaded.get(id).serializeCanonical());
+        }
+
+        byte[] data = Corpus.read("small.txt");
+        assertArrayEquals(data, loaded.expand(registry.compress(7, data)));
+    }
+
+    @Test
+    public void manyThreads() throws Exception {
+        // One registry should serve many payloads at once
+        TreeRegistry registry = registry();
+        byte[] text = Corpus.read("Macbeth.txt");
+        IntStream.range(0, 2000).parallel().forEach(i -> {
+            byte[] payload = new byte[i % 300];
+            System.arraycopy(text, i * 50, payload, 0, payload.length);
+            try {
+                assertArrayEquals(payload, registry.expand(registry.compress(7, payload)));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @Test
+    public void defaultRegistry() throws Exception {
+        byte[] data = Corpus.read("small.txt");
+        byte[] compressed = registry().compress(7, data);
+        try {
+            TreeRegistry.setDefault(registry());
+            BitInputStream in = new BitInputStream(new ByteArrayInputStream(compressed));
+            Artifact artifact = Artifact.readHeader(in);
+            assertEquals(7, artifact.getTreeId());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            artifact.expand(in, out);
+            assertArrayEquals(data, out.toByteArray());
+        } finally {
+            TreeRegistry.setDefault(null);
+        }
+    }
+
+    @Test(expected = Exception.class)
+    public void unknownId() throws Exception {
+        byte[] compressed = registry().compress(7, new byte[] { 1, 2, 3 });
+        new TreeRegistry().expand(compressed);
+    }
+
+    @Test(expected = Exception.class)
+    public void badId() throws Exception {
+        new TreeRegistry().register(TreeRegistry.MAX_ID + 1,
+                TreeRegistry.train(List.of(Corpus.path("tiny.txt"))));
+    }
+}